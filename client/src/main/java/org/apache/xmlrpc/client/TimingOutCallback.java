@@ -18,6 +18,9 @@
  */
 package org.apache.xmlrpc.client;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcRequest;
 
@@ -57,9 +60,13 @@ public class TimingOutCallback implements AsyncCallback {
     }
 
     private final long timeout;
-    private Object result;
-    private Throwable error;
-    private boolean responseSeen;
+    /* A latch, rather than the objects monitor, so that a virtual
+     * thread, which is waiting for the response, doesn't pin its
+     * carrier thread.
+     */
+    private final CountDownLatch responseSeen = new CountDownLatch(1);
+    private volatile Object result;
+    private volatile Throwable error;
 
     /** Waits the specified number of milliseconds for a response.
      * @param pTimeout the timeout
@@ -74,12 +81,11 @@ public class TimingOutCallback implements AsyncCallback {
      * @throws TimeoutException No response was received after waiting the specified time.
      * @throws Throwable An error was returned by the server.
      */
-    public synchronized Object waitForResponse() throws Throwable {
-        if (!responseSeen) {
-            wait(timeout);
-            if (!responseSeen) {
-                throw new TimeoutException(0, "No response after waiting for " + timeout + " milliseconds.");
-            }
+    public Object waitForResponse() throws Throwable {
+        if (timeout == 0) {
+            responseSeen.await(); // Like Object.wait(0), wait forever
+        } else if (!responseSeen.await(timeout, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException(0, "No response after waiting for " + timeout + " milliseconds.");
         }
         if (error != null) {
             throw error;
@@ -87,15 +93,13 @@ public class TimingOutCallback implements AsyncCallback {
         return result;
     }
 
-    public synchronized void handleError(XmlRpcRequest pRequest, Throwable pError) {
-        responseSeen = true;
+    public void handleError(XmlRpcRequest pRequest, Throwable pError) {
         error = pError;
-        notify();
+        responseSeen.countDown();
     }
 
-    public synchronized void handleResult(XmlRpcRequest pRequest, Object pResult) {
-        responseSeen = true;
+    public void handleResult(XmlRpcRequest pRequest, Object pResult) {
         result = pResult;
-        notify();
+        responseSeen.countDown();
     }
 }
@@ -26,6 +26,7 @@ import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.common.XmlRpcController;
 import org.apache.xmlrpc.common.XmlRpcWorkerFactory;
 import org.apache.xmlrpc.serializer.XmlWriterFactory;
+import org.apache.xmlrpc.util.DeflateDictionary;
 
 
 /** <p>The main access point of an XML-RPC client. This object serves mainly
@@ -52,6 +53,7 @@ public class XmlRpcClient extends XmlRpcController {
 	private XmlRpcTransportFactory transportFactory = XmlRpcClientDefaults.newTransportFactory(this);
 	private XmlRpcClientConfig config = XmlRpcClientDefaults.newXmlRpcClientConfig();
 	private XmlWriterFactory xmlWriterFactory = XmlRpcClientDefaults.newXmlWriterFactory();
+	private DeflateDictionary deflateDictionary = DeflateDictionary.getDefault();
 
 	protected XmlRpcWorkerFactory getDefaultXmlRpcWorkerFactory() {
 		return new XmlRpcClientWorkerFactory(this);
@@ -244,4 +246,22 @@ public class XmlRpcClient extends XmlRpcController {
 	public void setXmlWriterFactory(XmlWriterFactory pFactory) {
 		xmlWriterFactory = pFactory;
 	}
+
+	/** Returns the preset dictionary, which is used for the
+	 * {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING}.
+	 * Defaults to {@link DeflateDictionary#getDefault()}.
+	 * @return The preset dictionary.
+	 */
+	public DeflateDictionary getDeflateDictionary() {
+		return deflateDictionary;
+	}
+
+	/** Sets the preset dictionary, which is used for the
+	 * {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING}.
+	 * The server must use the same dictionary.
+	 * @param pDictionary The preset dictionary.
+	 */
+	public void setDeflateDictionary(DeflateDictionary pDictionary) {
+		deflateDictionary = pDictionary;
+	}
 }
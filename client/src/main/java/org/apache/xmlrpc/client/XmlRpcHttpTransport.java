@@ -41,7 +41,12 @@ public abstract class XmlRpcHttpTransport extends XmlRpcStreamTransport {
         private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ByteArrayReqWriter(XmlRpcRequest pRequest)
                 throws XmlRpcException, IOException, SAXException {
-            new ReqWriterImpl(pRequest).write(baos);
+            this(new ReqWriterImpl(pRequest));
+        }
+
+        ByteArrayReqWriter(ReqWriter pReqWriter)
+                throws XmlRpcException, IOException, SAXException {
+            pReqWriter.write(baos);
         }
 
         protected int getContentLength() {
@@ -118,10 +123,15 @@ public abstract class XmlRpcHttpTransport extends XmlRpcStreamTransport {
 	}
 
 	protected void setCompressionHeaders(XmlRpcHttpClientConfig pConfig) {
-		if (pConfig.isGzipCompressing()) {
+		if (isDictionaryCompressingRequest(pConfig)) {
+			setRequestHeader("Content-Encoding", HttpUtil.DICTIONARY_ENCODING);
+		} else if (pConfig.isGzipCompressing()) {
 			setRequestHeader("Content-Encoding", "gzip");
 		}
-		if (pConfig.isGzipRequesting()) {
+		if (pConfig.isEnabledForExtensions()  &&  pConfig.isDictionaryRequesting()) {
+			setRequestHeader("Accept-Encoding", pConfig.isGzipRequesting()
+					? HttpUtil.DICTIONARY_ENCODING + ", gzip" : HttpUtil.DICTIONARY_ENCODING);
+		} else if (pConfig.isGzipRequesting()) {
 			setRequestHeader("Accept-Encoding", "gzip");
 		}
 	}
@@ -151,11 +161,11 @@ public abstract class XmlRpcHttpTransport extends XmlRpcStreamTransport {
 			throws XmlRpcException, IOException, SAXException {
 		final XmlRpcHttpClientConfig config = (XmlRpcHttpClientConfig) pRequest.getConfig();
         if (isUsingByteArrayOutput(config)) {
-            ByteArrayReqWriter reqWriter = new ByteArrayReqWriter(pRequest);
+            // Compress into the buffer, so that the content length
+            // matches the data being sent.
+            ByteArrayReqWriter reqWriter = new ByteArrayReqWriter(
+                    newCompressingReqWriter(config, new ReqWriterImpl(pRequest)));
             setContentLength(reqWriter.getContentLength());
-            if (isCompressingRequest(config)) {
-                return new GzipReqWriter(reqWriter);
-            }
             return reqWriter;
 		} else {
 			return super.newReqWriter(pRequest);
@@ -58,6 +58,7 @@ public class XmlRpcLiteHttpTransport extends XmlRpcHttpTransport {
 	private InputStream input;
 	private final Map headers = new HashMap();
 	private boolean responseGzipCompressed = false;
+	private boolean responseDictionaryCompressed = false;
 	private XmlRpcHttpClientConfig config;
 
 	/**
@@ -208,6 +209,10 @@ public class XmlRpcLiteHttpTransport extends XmlRpcHttpTransport {
 		return responseGzipCompressed;
 	}
 
+	protected boolean isResponseDictionaryCompressed(XmlRpcStreamRequestConfig pConfig) {
+		return responseDictionaryCompressed;
+	}
+
 	protected InputStream getInputStream() throws XmlRpcException {
 		final byte[] buffer = new byte[2048];
 		try {
@@ -241,7 +246,9 @@ public class XmlRpcLiteHttpTransport extends XmlRpcHttpTransport {
 				if (line.startsWith("content-length:")) {
 					contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
 				} else if (line.startsWith("content-encoding:")) {
-					responseGzipCompressed = HttpUtil.isUsingGzipEncoding(line.substring("content-encoding:".length()));
+					String contentEncoding = line.substring("content-encoding:".length());
+					responseGzipCompressed = HttpUtil.isUsingGzipEncoding(contentEncoding);
+					responseDictionaryCompressed = HttpUtil.isUsingDictionaryEncoding(contentEncoding);
 				}
 			}
 			InputStream result;
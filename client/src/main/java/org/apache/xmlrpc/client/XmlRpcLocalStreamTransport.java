@@ -53,7 +53,11 @@ public class XmlRpcLocalStreamTransport extends XmlRpcStreamTransport {
 	}
 
 	protected boolean isResponseGzipCompressed(XmlRpcStreamRequestConfig pConfig) {
-		return pConfig.isGzipRequesting();
+		return pConfig.isGzipRequesting()  &&  !isResponseDictionaryCompressed(pConfig);
+	}
+
+	protected boolean isResponseDictionaryCompressed(XmlRpcStreamRequestConfig pConfig) {
+		return pConfig.isEnabledForExtensions()  &&  pConfig.isDictionaryRequesting();
 	}
 
 	protected void close() throws XmlRpcClientException {
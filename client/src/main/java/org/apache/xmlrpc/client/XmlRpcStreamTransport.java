@@ -21,6 +21,7 @@ package org.apache.xmlrpc.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -31,6 +32,9 @@ import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
 import org.apache.xmlrpc.parser.XmlRpcResponseParser;
 import org.apache.xmlrpc.serializer.SerializerHandler;
 import org.apache.xmlrpc.serializer.XmlRpcWriter;
+import org.apache.xmlrpc.util.DeflaterPool;
+import org.apache.xmlrpc.util.DictionaryDeflaterOutputStream;
+import org.apache.xmlrpc.util.DictionaryInflaterInputStream;
 import org.apache.xmlrpc.util.SAXParsers;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -106,6 +110,32 @@ public abstract class XmlRpcStreamTransport extends XmlRpcTransportImpl {
         }
     }
 
+    protected class DictionaryReqWriter implements ReqWriter {
+        private final ReqWriter reqWriter;
+        protected DictionaryReqWriter(ReqWriter pReqWriter) {
+            reqWriter = pReqWriter;
+        }
+
+        public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+            try {
+                DictionaryDeflaterOutputStream dStream = new DictionaryDeflaterOutputStream(pStream,
+                        dictionaryPool, getClient().getDeflateDictionary(), Deflater.DEFAULT_COMPRESSION);
+                reqWriter.write(dStream);
+                pStream.close();
+                pStream = null;
+            } catch (IOException e) {
+                throw new XmlRpcException("Failed to write request: " + e.getMessage(), e);
+            } finally {
+                if (pStream != null) { try { pStream.close(); } catch (Throwable ignore) {} }
+            }
+        }
+    }
+
+    /** Deflaters and inflaters for the dictionary encoding, which are
+     * shared by all transports.
+     */
+    private static final DeflaterPool dictionaryPool = new DeflaterPool(16, false);
+
 	/** Creates a new instance on behalf of the given client.
 	 *
 	 * @param pClient the client
@@ -126,6 +156,17 @@ public abstract class XmlRpcStreamTransport extends XmlRpcTransportImpl {
 	 */
 	protected abstract boolean isResponseGzipCompressed(XmlRpcStreamRequestConfig pConfig);
 
+	/** Returns, whether the response is compressed with the
+	 * {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING}.
+	 * The default implementation returns false.
+	 * @param pConfig The clients configuration.
+	 * @return Whether the response stream is compressed with a
+	 * preset dictionary.
+	 */
+	protected boolean isResponseDictionaryCompressed(XmlRpcStreamRequestConfig pConfig) {
+		return false;
+	}
+
 	/** Returns the input stream, from which the response is
 	 * being read.
 	 * @return the input stream
@@ -138,6 +179,11 @@ public abstract class XmlRpcStreamTransport extends XmlRpcTransportImpl {
 			&& pConfig.isGzipCompressing();
 	}
 
+	protected boolean isDictionaryCompressingRequest(XmlRpcStreamRequestConfig pConfig) {
+		return pConfig.isEnabledForExtensions()
+			&& pConfig.isDictionaryCompressing();
+	}
+
 	/**
 	 * Creates a new instance of {@link ReqWriter}.
 	 * @param pRequest the request
@@ -150,11 +196,24 @@ public abstract class XmlRpcStreamTransport extends XmlRpcTransportImpl {
 	 */
     protected ReqWriter newReqWriter(XmlRpcRequest pRequest)
             throws XmlRpcException, IOException, SAXException {
-        ReqWriter reqWriter = new ReqWriterImpl(pRequest);
-        if (isCompressingRequest((XmlRpcStreamRequestConfig) pRequest.getConfig())) {
-            reqWriter = new GzipReqWriter(reqWriter);
+        return newCompressingReqWriter((XmlRpcStreamRequestConfig) pRequest.getConfig(),
+                new ReqWriterImpl(pRequest));
+    }
+
+    /**
+     * Wraps the given {@link ReqWriter}, if the request is compressed.
+     * @param pConfig the request configuration
+     * @param pReqWriter the request writer, which writes uncompressed data
+     * @return the request writer, which writes the compressed request
+     */
+    protected ReqWriter newCompressingReqWriter(XmlRpcStreamRequestConfig pConfig,
+            ReqWriter pReqWriter) {
+        if (isDictionaryCompressingRequest(pConfig)) {
+            return new DictionaryReqWriter(pReqWriter);
+        } else if (isCompressingRequest(pConfig)) {
+            return new GzipReqWriter(pReqWriter);
         }
-        return reqWriter;
+        return pReqWriter;
     }
 
     protected abstract void writeRequest(ReqWriter pWriter)
@@ -167,7 +226,10 @@ public abstract class XmlRpcStreamTransport extends XmlRpcTransportImpl {
             ReqWriter reqWriter = newReqWriter(pRequest);
 			writeRequest(reqWriter);
 			InputStream istream = getInputStream();
-			if (isResponseGzipCompressed(config)) {
+			if (isResponseDictionaryCompressed(config)) {
+				istream = new DictionaryInflaterInputStream(istream, dictionaryPool,
+						getClient().getDeflateDictionary());
+			} else if (isResponseGzipCompressed(config)) {
 				istream = new GZIPInputStream(istream);
 			}
 			Object result = readResponse(config, istream);
@@ -85,6 +85,10 @@ public class XmlRpcSunHttpTransport extends XmlRpcHttpTransport {
 		return HttpUtil.isUsingGzipEncoding(getURLConnection().getHeaderField("Content-Encoding"));
 	}
 
+	protected boolean isResponseDictionaryCompressed(XmlRpcStreamRequestConfig pConfig) {
+		return HttpUtil.isUsingDictionaryEncoding(getURLConnection().getHeaderField("Content-Encoding"));
+	}
+
 	protected InputStream getInputStream() throws XmlRpcException {
 		try {
 		    URLConnection connection = getURLConnection();
@@ -24,9 +24,14 @@ package org.apache.xmlrpc;
  */
 public interface XmlRpcHandler {
     /** Performs the request and returns the result object.
+     * The result may also be a {@link java.util.concurrent.CompletionStage},
+     * which provides the actual result later. In that case, the server
+     * doesn't wait for the result, if the transport is able to write
+     * the response from the completion callback.
      * @param pRequest The request being performed (method name and
      * parameters.)
-     * @return The result object.
+     * @return The result object, or a completion stage, which
+     * provides the result object.
      * @throws XmlRpcException Performing the request failed.
      */
     public Object execute(XmlRpcRequest pRequest) throws XmlRpcException;
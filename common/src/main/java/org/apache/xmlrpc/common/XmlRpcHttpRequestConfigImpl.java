@@ -27,6 +27,8 @@ public class XmlRpcHttpRequestConfigImpl extends XmlRpcConfigImpl implements
 		XmlRpcHttpRequestConfig {
 	private boolean gzipCompressing;
 	private boolean gzipRequesting;
+	private boolean dictionaryCompressing;
+	private boolean dictionaryRequesting;
 	private String basicUserName;
 	private String basicPassword;
     private int    connectionTimeout = 0;
@@ -61,6 +63,34 @@ public class XmlRpcHttpRequestConfigImpl extends XmlRpcConfigImpl implements
 		return gzipRequesting;
 	}
 
+	/** Sets, whether deflate compression with a preset dictionary
+	 * is being used for transmitting the request.
+	 * @param pCompressing True for enabling dictionary compression,
+	 * false otherwise.
+	 * @see #setDictionaryRequesting(boolean)
+	 */
+	public void setDictionaryCompressing(boolean pCompressing) {
+		dictionaryCompressing = pCompressing;
+	}
+
+	public boolean isDictionaryCompressing() {
+		return dictionaryCompressing;
+	}
+
+	/** Sets, whether deflate compression with a preset dictionary
+	 * is requested for the response.
+	 * @param pRequesting True for requesting dictionary compression,
+	 * false otherwise.
+	 * @see #setDictionaryCompressing(boolean)
+	 */
+	public void setDictionaryRequesting(boolean pRequesting) {
+		dictionaryRequesting = pRequesting;
+	}
+
+	public boolean isDictionaryRequesting() {
+		return dictionaryRequesting;
+	}
+
 	/** Sets the user name for basic authentication.
 	 * @param pUser The user name.
 	 */
@@ -39,6 +39,25 @@ public interface XmlRpcStreamRequestConfig extends XmlRpcStreamConfig, XmlRpcReq
 	 * @see #isGzipCompressing()
 	 */
 	boolean isGzipRequesting();
+	/** Returns, whether the request stream is being compressed with
+	 * the {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING}.
+	 * Takes precedence over {@link #isGzipCompressing()}.
+	 * @return Whether to use dictionary compression or not. Defaults to false.
+	 * @see #isDictionaryRequesting()
+	 */
+	default boolean isDictionaryCompressing() {
+		return false;
+	}
+	/** Returns, whether compression with the
+	 * {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING} is
+	 * requested for the response stream. Takes precedence over
+	 * {@link #isGzipRequesting()}, if the server supports both.
+	 * @return Whether to use dictionary compression or not. Defaults to false.
+	 * @see #isDictionaryCompressing()
+	 */
+	default boolean isDictionaryRequesting() {
+		return false;
+	}
 	/** Returns, whether the response should contain a "faultCause" element
      * in case of errors. The "faultCause" is an exception, which the
      * server has trapped and written into a byte stream as a serializable
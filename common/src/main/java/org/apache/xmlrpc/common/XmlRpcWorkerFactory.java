@@ -18,8 +18,9 @@
  */
 package org.apache.xmlrpc.common;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /** A factory for {@link XmlRpcWorker} instances.
@@ -27,8 +28,12 @@ import java.util.List;
 public abstract class XmlRpcWorkerFactory {
 	private final XmlRpcWorker singleton = newWorker();
 	private final XmlRpcController controller;
-	private final List pool = new ArrayList();
-	private int numThreads;
+	/* Lock free, so that request threads, which may be virtual
+	 * threads, never block while obtaining a worker.
+	 */
+	private final Queue pool = new ConcurrentLinkedQueue();
+	private final AtomicInteger poolSize = new AtomicInteger();
+	private final AtomicInteger numThreads = new AtomicInteger();
 
 	/** Creates a new instance.
 	 * @param pController The client controlling the factory.
@@ -57,19 +62,26 @@ public abstract class XmlRpcWorkerFactory {
 	 * @throws XmlRpcLoadException The clients maximum number of concurrent
 	 * threads is exceeded.
 	 */
-	public synchronized XmlRpcWorker getWorker() throws XmlRpcLoadException {
+	public XmlRpcWorker getWorker() throws XmlRpcLoadException {
 		int max = controller.getMaxThreads();
-		if (max > 0  &&  numThreads == max) {
-			throw new XmlRpcLoadException("Maximum number of concurrent requests exceeded: " + max);
+		for (;;) {
+			final int num = numThreads.get();
+			if (max > 0  &&  num >= max) {
+				throw new XmlRpcLoadException("Maximum number of concurrent requests exceeded: " + max);
+			}
+			if (numThreads.compareAndSet(num, num+1)) {
+				break;
+			}
 		}
 		if (max == 0) {
 			return singleton;
 		}
-        ++numThreads;
-		if (pool.size() == 0) {
+		final XmlRpcWorker worker = (XmlRpcWorker) pool.poll();
+		if (worker == null) {
 			return newWorker();
 		} else {
-			return (XmlRpcWorker) pool.remove(pool.size() - 1);
+			poolSize.decrementAndGet();
+			return worker;
 		}
 	}
 
@@ -77,14 +89,16 @@ public abstract class XmlRpcWorkerFactory {
 	 * decrements the number of concurrent requests.
 	 * @param pWorker The worker being released.
 	 */
-	public synchronized void releaseWorker(XmlRpcWorker pWorker) {
-		--numThreads;
+	public void releaseWorker(XmlRpcWorker pWorker) {
+		numThreads.decrementAndGet();
 		int max = controller.getMaxThreads();
 		if (pWorker == singleton) {
 			// Do nothing, it's the singleton
 		} else {
-			if (pool.size() < max) {
+			if (poolSize.incrementAndGet() <= max) {
 				pool.add(pWorker);
+			} else {
+				poolSize.decrementAndGet();
 			}
 		}
 	}
@@ -92,7 +106,7 @@ public abstract class XmlRpcWorkerFactory {
 	/** Returns the number of currently running requests.
 	 * @return Current number of concurrent requests.
 	 */
-	public synchronized int getCurrentRequests() {
-		return numThreads;
+	public int getCurrentRequests() {
+		return numThreads.get();
 	}
 }
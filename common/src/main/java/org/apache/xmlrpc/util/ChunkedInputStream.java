@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/** A filtering {@link java.io.InputStream}, which decodes the
+ * HTTP/1.1 chunked transfer encoding. Chunk extensions and trailers
+ * are ignored. Closing the stream reads the remaining chunks, but
+ * doesn't close the underlying stream, so that it may be used for
+ * another request.
+ */
+public class ChunkedInputStream extends InputStream {
+	private static final int MAX_LINE_LENGTH = 1024;
+	private final InputStream in;
+	private final byte[] lineBuffer = new byte[MAX_LINE_LENGTH];
+	private long remaining;
+	private boolean eof;
+
+	/** Creates a new instance, which reads chunked data from
+	 * the given stream.
+	 * @param pIn The stream being decoded.
+	 */
+	public ChunkedInputStream(InputStream pIn) {
+		in = pIn;
+	}
+
+	private String readLine() throws IOException {
+		int count = 0;
+		for (;;) {
+			final int next = in.read();
+			if (next == -1) {
+				throw new IOException("Unexpected end of chunked input");
+			}
+			if (next == '\n') {
+				break;
+			}
+			if (next != '\r') {
+				if (count == lineBuffer.length) {
+					throw new IOException("Chunk header too long");
+				}
+				lineBuffer[count++] = (byte) next;
+			}
+		}
+		return new String(lineBuffer, 0, count, "US-ASCII");
+	}
+
+	/** Reads the next chunk header, if the current chunk is exhausted.
+	 * @return False, if the last chunk has been read.
+	 */
+	private boolean nextChunk() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (remaining > 0) {
+			return true;
+		}
+		String line = readLine();
+		int offset = line.indexOf(';');
+		if (offset >= 0) {
+			line = line.substring(0, offset);
+		}
+		try {
+			remaining = Long.parseLong(line.trim(), 16);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid chunk size: " + line);
+		}
+		if (remaining < 0) {
+			throw new IOException("Invalid chunk size: " + line);
+		}
+		if (remaining == 0) {
+			eof = true;
+			// Skip the trailer
+			while (readLine().length() > 0) {
+				// Ignore me
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private void endOfChunk() throws IOException {
+		if (remaining == 0  &&  readLine().length() > 0) {
+			throw new IOException("Missing CRLF after chunk data");
+		}
+	}
+
+	public int read() throws IOException {
+		if (!nextChunk()) {
+			return -1;
+		}
+		final int result = in.read();
+		if (result == -1) {
+			throw new IOException("Unexpected end of chunked input");
+		}
+		--remaining;
+		endOfChunk();
+		return result;
+	}
+
+	public int read(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (pLen == 0) {
+			return 0;
+		}
+		if (!nextChunk()) {
+			return -1;
+		}
+		final int res = in.read(pBuffer, pOffset, (int) Math.min(pLen, remaining));
+		if (res == -1) {
+			throw new IOException("Unexpected end of chunked input");
+		}
+		remaining -= res;
+		endOfChunk();
+		return res;
+	}
+
+	public int available() throws IOException {
+		if (eof) {
+			return 0;
+		}
+		return (int) Math.min(remaining, in.available());
+	}
+
+	/** Returns, whether the last chunk has been read.
+	 * @return True, if the end of the chunked data has been reached.
+	 */
+	public boolean isFinished() {
+		return eof;
+	}
+
+	/** Reads the remaining chunks. The underlying stream isn't closed.
+	 */
+	public void close() throws IOException {
+		final byte[] buffer = new byte[1024];
+		while (read(buffer, 0, buffer.length) != -1) {
+			// Ignore me
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/** A filtering {@link java.io.OutputStream}, which applies the
+ * HTTP/1.1 chunked transfer encoding. Data is buffered, and written
+ * as a chunk, if the buffer is full, or the stream is flushed.
+ * Closing the stream writes the last chunk, but doesn't close the
+ * underlying stream, so that it may be used for another response.
+ */
+public class ChunkedOutputStream extends OutputStream {
+	private static final byte[] CRLF = new byte[]{'\r', '\n'};
+	private static final byte[] LAST_CHUNK = new byte[]{'0', '\r', '\n', '\r', '\n'};
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int offset;
+	private boolean closed;
+
+	/** Creates a new instance with a buffer size of 8192 bytes.
+	 * @param pOut The stream, to which the chunks are written.
+	 */
+	public ChunkedOutputStream(OutputStream pOut) {
+		this(pOut, 8192);
+	}
+
+	/** Creates a new instance with the given buffer size.
+	 * @param pOut The stream, to which the chunks are written.
+	 * @param pBufferSize The maximum chunk size.
+	 */
+	public ChunkedOutputStream(OutputStream pOut, int pBufferSize) {
+		out = pOut;
+		buffer = new byte[pBufferSize];
+	}
+
+	private void writeChunk(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (pLen > 0) {
+			out.write(Integer.toHexString(pLen).getBytes("US-ASCII"));
+			out.write(CRLF);
+			out.write(pBuffer, pOffset, pLen);
+			out.write(CRLF);
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		writeChunk(buffer, 0, offset);
+		offset = 0;
+	}
+
+	public void write(int pByte) throws IOException {
+		if (closed) {
+			throw new IOException("This output stream is already closed.");
+		}
+		if (offset == buffer.length) {
+			flushBuffer();
+		}
+		buffer[offset++] = (byte) pByte;
+	}
+
+	public void write(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (closed) {
+			throw new IOException("This output stream is already closed.");
+		}
+		if (pLen >= buffer.length) {
+			// Large blocks are written as a chunk of their own.
+			flushBuffer();
+			writeChunk(pBuffer, pOffset, pLen);
+		} else {
+			if (pLen > buffer.length - offset) {
+				flushBuffer();
+			}
+			System.arraycopy(pBuffer, pOffset, buffer, offset, pLen);
+			offset += pLen;
+		}
+	}
+
+	public void flush() throws IOException {
+		if (!closed) {
+			flushBuffer();
+		}
+		out.flush();
+	}
+
+	/** Writes the remaining data, and the last chunk. The underlying
+	 * stream is flushed, but not closed.
+	 */
+	public void close() throws IOException {
+		if (!closed) {
+			flushBuffer();
+			out.write(LAST_CHUNK);
+			out.flush();
+			closed = true;
+		}
+	}
+}
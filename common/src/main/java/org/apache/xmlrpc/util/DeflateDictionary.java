@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+
+
+/** A preset dictionary for the deflate compression of XML-RPC
+ * messages. XML-RPC messages are dominated by a small set of
+ * repeated tags, like <code>&lt;value&gt;&lt;struct&gt;&lt;member&gt;</code>.
+ * Plain gzip must learn these from the message itself, which doesn't
+ * pay off for small messages. A preset dictionary makes them available
+ * from the first byte.<br>
+ * The compressed data is using the zlib format, which contains the
+ * dictionaries id. Client and server must use the same dictionary.
+ * The {@link #getDefault() default dictionary} is built into the
+ * library. Alternatively, a dictionary may be {@link #train(Collection, int)
+ * trained} from captured messages.
+ * @see HttpUtil#DICTIONARY_ENCODING
+ */
+public class DeflateDictionary {
+	/** The maximum size of a dictionary. Larger dictionaries are
+	 * useless, because the deflate window is limited to 32 kB.
+	 */
+	public static final int MAX_SIZE = 32768;
+
+	/** The default dictionary. Deflate prefers short distances, so the
+	 * most frequent strings are at the end.
+	 */
+	private static final String DEFAULT_DICTIONARY =
+		"<ex:serializable></ex:serializable><ex:dom></ex:dom>"
+		+ "<ex:bigdecimal></ex:bigdecimal><ex:biginteger></ex:biginteger>"
+		+ "<ex:dateTime></ex:dateTime><ex:float></ex:float><ex:i1></ex:i1>"
+		+ "<ex:i2></ex:i2><ex:i8></ex:i8><ex:nil/>"
+		+ "<base64></base64><double></double><boolean>0</boolean><boolean>1</boolean>"
+		+ "<dateTime.iso8601></dateTime.iso8601>"
+		+ "<methodResponse xmlns:ex=\"http://ws.apache.org/xmlrpc/namespaces/extensions\">"
+		+ "<fault><value><struct><member><name>faultCode</name><value><i4>"
+		+ "</i4></value></member><member><name>faultString</name><value>"
+		+ "</value></member></struct></value></fault></methodResponse>"
+		+ "<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodCall><methodName>"
+		+ "</methodName><params><param><value><array><data><value><i4>"
+		+ "</i4></value><value><int></int></value><value><string></string></value>"
+		+ "</data></array></value></param></params></methodCall>"
+		+ "<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param>"
+		+ "</param></params></methodResponse>"
+		+ "<value><struct><member><name></name><value><i4></i4></value></member>"
+		+ "<member><name></name><value></value></member></struct></value>";
+
+	private static final DeflateDictionary theDefault = new DeflateDictionary(toBytes(DEFAULT_DICTIONARY));
+
+	private final byte[] bytes;
+	private final int id;
+
+	/** Creates a new instance with the given contents.
+	 * @param pBytes The dictionaries contents. The most frequent
+	 * strings should be at the end.
+	 */
+	public DeflateDictionary(byte[] pBytes) {
+		if (pBytes.length == 0  ||  pBytes.length > MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid dictionary size: " + pBytes.length);
+		}
+		bytes = (byte[]) pBytes.clone();
+		final Adler32 adler = new Adler32();
+		adler.update(bytes);
+		id = (int) adler.getValue();
+	}
+
+	/** Returns the built-in dictionary.
+	 * @return The default dictionary.
+	 */
+	public static DeflateDictionary getDefault() {
+		return theDefault;
+	}
+
+	private static byte[] toBytes(String pValue) {
+		try {
+			return pValue.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	/** Returns the dictionaries contents.
+	 * @return A copy of the contents.
+	 */
+	public byte[] getBytes() {
+		return (byte[]) bytes.clone();
+	}
+
+	/** Returns the dictionaries id, which is the Adler-32 checksum of
+	 * the contents, as stored in the zlib header.
+	 * @return The dictionary id.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	byte[] getBytesInternal() {
+		return bytes;
+	}
+
+	/** Creates a dictionary from the given sample messages. The markup
+	 * of the samples is split into tags, and sequences of adjacent tags,
+	 * which are ranked by their frequency and length. Character data is
+	 * ignored, because it is typically specific to a single message.
+	 * @param pSamples A collection of byte arrays with captured messages,
+	 * typically requests and responses.
+	 * @param pMaxSize The maximum size of the dictionary, at most
+	 * {@link #MAX_SIZE}.
+	 * @return The trained dictionary, or the {@link #getDefault() default
+	 * dictionary}, if the samples don't contain any markup.
+	 */
+	public static DeflateDictionary train(Collection pSamples, int pMaxSize) {
+		if (pMaxSize <= 0  ||  pMaxSize > MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid dictionary size: " + pMaxSize);
+		}
+		final Map counts = new HashMap();
+		for (Iterator iter = pSamples.iterator();  iter.hasNext();  ) {
+			count(counts, toString((byte[]) iter.next()));
+		}
+		final List candidates = new ArrayList();
+		for (Iterator iter = counts.entrySet().iterator();  iter.hasNext();  ) {
+			final Map.Entry entry = (Map.Entry) iter.next();
+			final int count = ((int[]) entry.getValue())[0];
+			if (count > 1) {
+				final String s = (String) entry.getKey();
+				candidates.add(new Object[]{s, new Long((long) count * s.length())});
+			}
+		}
+		if (candidates.isEmpty()) {
+			return getDefault();
+		}
+		// Highest score first, so that these are selected.
+		Collections.sort(candidates, new Comparator(){
+			public int compare(Object pO1, Object pO2) {
+				final Object[] o1 = (Object[]) pO1;
+				final Object[] o2 = (Object[]) pO2;
+				final int result = ((Long) o2[1]).compareTo((Long) o1[1]);
+				return result == 0 ? ((String) o1[0]).compareTo((String) o2[0]) : result;
+			}
+		});
+		final List selected = new ArrayList();
+		int size = 0;
+		for (int i = 0;  i < candidates.size();  i++) {
+			final String s = (String) ((Object[]) candidates.get(i))[0];
+			if (size + s.length() <= pMaxSize  &&  !isContained(selected, s)) {
+				selected.add(s);
+				size += s.length();
+			}
+		}
+		// Highest score last, so that these are closest to the data.
+		final StringBuffer sb = new StringBuffer(size);
+		for (int i = selected.size()-1;  i >= 0;  i--) {
+			sb.append((String) selected.get(i));
+		}
+		return new DeflateDictionary(toLatin1Bytes(sb.toString()));
+	}
+
+	private static boolean isContained(List pSelected, String pValue) {
+		for (int i = 0;  i < pSelected.size();  i++) {
+			if (((String) pSelected.get(i)).indexOf(pValue) != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Counts the tags, and the sequences of up to four adjacent tags.
+	 */
+	private static void count(Map pCounts, String pSample) {
+		final List tags = new ArrayList();
+		int offset = 0;
+		for (;;) {
+			final int start = pSample.indexOf('<', offset);
+			if (start == -1) {
+				break;
+			}
+			final int end = pSample.indexOf('>', start);
+			if (end == -1) {
+				break;
+			}
+			if (start != offset) {
+				countSequences(pCounts, tags);
+				tags.clear();
+			}
+			tags.add(pSample.substring(start, end+1));
+			offset = end+1;
+		}
+		countSequences(pCounts, tags);
+	}
+
+	private static void countSequences(Map pCounts, List pTags) {
+		for (int i = 0;  i < pTags.size();  i++) {
+			final StringBuffer sb = new StringBuffer();
+			for (int j = i;  j < pTags.size()  &&  j < i+4;  j++) {
+				sb.append((String) pTags.get(j));
+				final String key = sb.toString();
+				int[] count = (int[]) pCounts.get(key);
+				if (count == null) {
+					count = new int[1];
+					pCounts.put(key, count);
+				}
+				++count[0];
+			}
+		}
+	}
+
+	/** Maps bytes to chars one by one, so that the dictionary
+	 * doesn't depend on the messages encoding.
+	 */
+	private static String toString(byte[] pBytes) {
+		final char[] chars = new char[pBytes.length];
+		for (int i = 0;  i < pBytes.length;  i++) {
+			chars[i] = (char) (pBytes[i] & 0xff);
+		}
+		return new String(chars);
+	}
+
+	private static byte[] toLatin1Bytes(String pValue) {
+		final byte[] result = new byte[pValue.length()];
+		for (int i = 0;  i < result.length;  i++) {
+			result[i] = (byte) pValue.charAt(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/** A pool of {@link Deflater} and {@link Inflater} instances. Creating
+ * these objects is expensive, because each of them allocates a native
+ * zlib context, which is held until {@link Deflater#end()}, or
+ * {@link Inflater#end()} is invoked, or the object is finalized.
+ * By default, the pooled instances are using the raw deflate format
+ * without the zlib header, as required by {@link GzipOutputStream}, and
+ * {@link GzipInputStream}. The zlib format is required by the
+ * {@link DeflateDictionary} streams.<br>
+ * The pool is thread safe.
+ */
+public class DeflaterPool {
+	private final int maxSize;
+	private final boolean nowrap;
+	private final Queue deflaters = new ConcurrentLinkedQueue();
+	private final AtomicInteger numDeflaters = new AtomicInteger();
+	private final Queue inflaters = new ConcurrentLinkedQueue();
+	private final AtomicInteger numInflaters = new AtomicInteger();
+
+	/** Creates a new instance, which holds up to 64 idle deflaters,
+	 * and inflaters.
+	 */
+	public DeflaterPool() {
+		this(64);
+	}
+
+	/** Creates a new instance with the given size.
+	 * @param pMaxSize The maximum number of idle deflaters, and
+	 * inflaters, which are held by the pool.
+	 */
+	public DeflaterPool(int pMaxSize) {
+		this(pMaxSize, true);
+	}
+
+	/** Creates a new instance with the given size and format.
+	 * @param pMaxSize The maximum number of idle deflaters, and
+	 * inflaters, which are held by the pool.
+	 * @param pNowrap True for the raw deflate format, as used by gzip,
+	 * false for the zlib format.
+	 */
+	public DeflaterPool(int pMaxSize, boolean pNowrap) {
+		maxSize = pMaxSize;
+		nowrap = pNowrap;
+	}
+
+	/** Returns a deflater from the pool, or creates a new one.
+	 * @param pLevel The compression level, from 0 to 9, or
+	 * {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @return A deflater, which must be returned by invoking
+	 * {@link #release(Deflater)}.
+	 */
+	public Deflater getDeflater(int pLevel) {
+		final Deflater deflater = (Deflater) deflaters.poll();
+		if (deflater == null) {
+			return new Deflater(pLevel, nowrap);
+		}
+		numDeflaters.decrementAndGet();
+		deflater.setLevel(pLevel);
+		return deflater;
+	}
+
+	/** Returns a deflater to the pool. If the pool is full, then the
+	 * deflater is discarded.
+	 * @param pDeflater A deflater, which has been obtained by
+	 * {@link #getDeflater(int)}. It must not be used anymore.
+	 */
+	public void release(Deflater pDeflater) {
+		if (numDeflaters.incrementAndGet() > maxSize) {
+			numDeflaters.decrementAndGet();
+			pDeflater.end();
+		} else {
+			pDeflater.reset();
+			deflaters.add(pDeflater);
+		}
+	}
+
+	/** Returns an inflater from the pool, or creates a new one.
+	 * @return An inflater, which must be returned by invoking
+	 * {@link #release(Inflater)}.
+	 */
+	public Inflater getInflater() {
+		final Inflater inflater = (Inflater) inflaters.poll();
+		if (inflater == null) {
+			return new Inflater(nowrap);
+		}
+		numInflaters.decrementAndGet();
+		return inflater;
+	}
+
+	/** Returns an inflater to the pool. If the pool is full, then the
+	 * inflater is discarded.
+	 * @param pInflater An inflater, which has been obtained by
+	 * {@link #getInflater()}. It must not be used anymore.
+	 */
+	public void release(Inflater pInflater) {
+		if (numInflaters.incrementAndGet() > maxSize) {
+			numInflaters.decrementAndGet();
+			pInflater.end();
+		} else {
+			pInflater.reset();
+			inflaters.add(pInflater);
+		}
+	}
+}
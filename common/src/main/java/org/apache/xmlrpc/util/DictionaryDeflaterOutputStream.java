@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+
+/** A {@link DeflaterOutputStream}, which is using the zlib format with
+ * a {@link DeflateDictionary preset dictionary}. The deflater is obtained
+ * from a {@link DeflaterPool}, and returned to the pool, when the stream
+ * is closed.
+ */
+public class DictionaryDeflaterOutputStream extends DeflaterOutputStream {
+	private final DeflaterPool pool;
+	private boolean closed;
+	private long bytesRead, bytesWritten, nanos;
+
+	/** Creates a new instance.
+	 * @param pOut The stream, to which the compressed data is written.
+	 * @param pPool The pool, from which the deflater is obtained. The pool
+	 * must use the zlib format.
+	 * @param pDictionary The preset dictionary.
+	 * @param pLevel The compression level, from 0 to 9, or
+	 * {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public DictionaryDeflaterOutputStream(OutputStream pOut, DeflaterPool pPool,
+			DeflateDictionary pDictionary, int pLevel) {
+		super(pOut, pPool.getDeflater(pLevel), 8192);
+		pool = pPool;
+		def.setDictionary(pDictionary.getBytesInternal());
+	}
+
+	public void write(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (closed) {
+			throw new IOException("This output stream is already closed.");
+		}
+		super.write(pBuffer, pOffset, pLen);
+	}
+
+	protected void deflate() throws IOException {
+		final long start = System.nanoTime();
+		super.deflate();
+		nanos += System.nanoTime() - start;
+	}
+
+	public void finish() throws IOException {
+		if (closed) {
+			throw new IOException("This output stream is already closed.");
+		}
+		super.finish();
+	}
+
+	/** Writes the remaining data, returns the deflater to the pool,
+	 * and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			finish();
+		} finally {
+			closed = true;
+			bytesRead = def.getBytesRead();
+			bytesWritten = def.getBytesWritten();
+			pool.release(def);
+			out.close();
+		}
+	}
+
+	/** Returns the number of uncompressed bytes, which have been
+	 * written to the stream. Valid after {@link #close()} only.
+	 * @return Number of uncompressed bytes.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/** Returns the number of compressed bytes, including the zlib
+	 * header and trailer. Valid after {@link #close()} only.
+	 * @return Number of compressed bytes.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/** Returns the time, which has been spent in the deflater.
+	 * @return Compression time in nanoseconds.
+	 */
+	public long getDeflateNanos() {
+		return nanos;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/** An input stream, which reads data in the zlib format, which has
+ * been compressed with a {@link DeflateDictionary preset dictionary}.
+ * The inflater is obtained from a {@link DeflaterPool}, and returned
+ * to the pool, when the end of the compressed data is reached, or the
+ * stream is closed.<br>
+ * The {@link java.util.zip.InflaterInputStream} isn't used, because
+ * it reports the end of the stream, if a dictionary is required.
+ */
+public class DictionaryInflaterInputStream extends FilterInputStream {
+	private final DeflaterPool pool;
+	private final DeflateDictionary dictionary;
+	private final Inflater inf;
+	private final byte[] buf = new byte[8192];
+	private final byte[] singleByte = new byte[1];
+	private boolean released;
+	private boolean eof;
+
+	/** Creates a new instance.
+	 * @param pIn The stream, from which the compressed data is read.
+	 * @param pPool The pool, from which the inflater is obtained. The pool
+	 * must use the zlib format.
+	 * @param pDictionary The preset dictionary.
+	 */
+	public DictionaryInflaterInputStream(InputStream pIn, DeflaterPool pPool,
+			DeflateDictionary pDictionary) {
+		super(pIn);
+		pool = pPool;
+		dictionary = pDictionary;
+		inf = pPool.getInflater();
+	}
+
+	public int read() throws IOException {
+		return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+	}
+
+	public int read(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (eof) {
+			return -1;
+		}
+		if (released) {
+			throw new IOException("Stream closed");
+		}
+		if (pLen == 0) {
+			return 0;
+		}
+		try {
+			for (;;) {
+				final int res = inf.inflate(pBuffer, pOffset, pLen);
+				if (res > 0) {
+					return res;
+				}
+				if (inf.finished()) {
+					eof = true;
+					release();
+					return -1;
+				}
+				if (inf.needsDictionary()) {
+					if (inf.getAdler() != dictionary.getId()) {
+						throw new ZipException("Unknown preset dictionary: "
+								+ Integer.toHexString(inf.getAdler()));
+					}
+					inf.setDictionary(dictionary.getBytesInternal());
+				} else if (inf.needsInput()) {
+					final int len = in.read(buf, 0, buf.length);
+					if (len == -1) {
+						throw new EOFException("Unexpected end of compressed input");
+					}
+					inf.setInput(buf, 0, len);
+				}
+			}
+		} catch (DataFormatException e) {
+			final String msg = e.getMessage();
+			throw new ZipException(msg == null ? "Invalid compressed data" : msg);
+		}
+	}
+
+	public long skip(long pNum) throws IOException {
+		final byte[] b = new byte[512];
+		long remaining = pNum;
+		while (remaining > 0) {
+			final int res = read(b, 0, (int) Math.min(b.length, remaining));
+			if (res == -1) {
+				break;
+			}
+			remaining -= res;
+		}
+		return pNum - remaining;
+	}
+
+	public int available() throws IOException {
+		return eof ? 0 : 1;
+	}
+
+	public boolean markSupported() {
+		return false;
+	}
+
+	public void mark(int pLimit) {
+	}
+
+	public void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	private void release() {
+		if (!released) {
+			released = true;
+			pool.release(inf);
+		}
+	}
+
+	/** Returns the inflater to the pool, and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		release();
+		super.close();
+	}
+}
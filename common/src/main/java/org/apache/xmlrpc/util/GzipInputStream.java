@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+
+/** A replacement for {@link java.util.zip.GZIPInputStream}, which
+ * obtains its {@link java.util.zip.Inflater} from a {@link DeflaterPool},
+ * rather than creating a new instance. The inflater is returned to the
+ * pool, when the end of the compressed data is reached, or the stream
+ * is closed. Unlike the {@link java.util.zip.GZIPInputStream}, this
+ * class doesn't support concatenated gzip members.
+ */
+public class GzipInputStream extends InflaterInputStream {
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final DeflaterPool pool;
+	private final CRC32 crc = new CRC32();
+	private boolean released;
+	private boolean eof;
+
+	/** Creates a new instance, and reads the gzip header.
+	 * @param pIn The stream, from which the compressed data is read.
+	 * @param pPool The pool, from which the inflater is obtained.
+	 * @throws IOException Reading the gzip header failed.
+	 */
+	public GzipInputStream(InputStream pIn, DeflaterPool pPool) throws IOException {
+		super(pIn, pPool.getInflater(), 8192);
+		pool = pPool;
+		try {
+			readHeader();
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+	}
+
+	private int readByte() throws IOException {
+		final int b = in.read();
+		if (b == -1) {
+			throw new EOFException("Unexpected end of gzip input");
+		}
+		return b;
+	}
+
+	private int readShort() throws IOException {
+		return readByte() | (readByte() << 8);
+	}
+
+	private void readHeader() throws IOException {
+		if (readShort() != 0x8b1f) {
+			throw new ZipException("Not in gzip format");
+		}
+		if (readByte() != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		final int flags = readByte();
+		for (int i = 0;  i < 6;  i++) {
+			readByte(); // Modification time, extra flags, operating system
+		}
+		if ((flags & FEXTRA) != 0) {
+			for (int i = readShort();  i > 0;  i--) {
+				readByte();
+			}
+		}
+		if ((flags & FNAME) != 0) {
+			while (readByte() != 0) {
+				// Skip the file name
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (readByte() != 0) {
+				// Skip the comment
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			readShort();
+		}
+	}
+
+	/** Reads the trailer, which may partly be contained in the
+	 * inflaters remaining input.
+	 */
+	private void readTrailer() throws IOException {
+		final byte[] trailer = new byte[8];
+		int offset = 0;
+		final int remaining = inf.getRemaining();
+		for (int i = len - remaining;  i < len  &&  offset < trailer.length;  i++) {
+			trailer[offset++] = buf[i];
+		}
+		while (offset < trailer.length) {
+			trailer[offset++] = (byte) readByte();
+		}
+		final long expectedCrc = (trailer[0] & 0xff) | ((trailer[1] & 0xff) << 8)
+			| ((trailer[2] & 0xff) << 16) | ((long) (trailer[3] & 0xff) << 24);
+		final long expectedSize = (trailer[4] & 0xff) | ((trailer[5] & 0xff) << 8)
+			| ((trailer[6] & 0xff) << 16) | ((long) (trailer[7] & 0xff) << 24);
+		if (expectedCrc != crc.getValue()
+				||  expectedSize != (inf.getBytesWritten() & 0xffffffffL)) {
+			throw new ZipException("Corrupt gzip trailer");
+		}
+	}
+
+	public int read(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (eof) {
+			return -1;
+		}
+		if (released) {
+			throw new IOException("Stream closed");
+		}
+		final int res = super.read(pBuffer, pOffset, pLen);
+		if (res == -1) {
+			eof = true;
+			try {
+				readTrailer();
+			} finally {
+				release();
+			}
+		} else {
+			crc.update(pBuffer, pOffset, res);
+		}
+		return res;
+	}
+
+	private void release() {
+		if (!released) {
+			released = true;
+			pool.release(inf);
+		}
+	}
+
+	/** Returns the inflater to the pool, and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		release();
+		super.close();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+
+/** A replacement for {@link java.util.zip.GZIPOutputStream}, which
+ * obtains its {@link java.util.zip.Deflater} from a {@link DeflaterPool},
+ * rather than creating a new instance, and allows to choose the
+ * compression level. The deflater is returned to the pool, when the
+ * stream is closed.
+ */
+public class GzipOutputStream extends DeflaterOutputStream {
+	private static final byte[] HEADER = new byte[]{
+		0x1f, (byte) 0x8b, // Magic number
+		8,                 // Compression method: deflate
+		0,                 // Flags
+		0, 0, 0, 0,        // Modification time
+		0,                 // Extra flags
+		0                  // Operating system
+	};
+	private final DeflaterPool pool;
+	private final CRC32 crc = new CRC32();
+	private boolean closed;
+	private long bytesRead, bytesWritten, nanos;
+
+	/** Creates a new instance.
+	 * @param pOut The stream, to which the compressed data is written.
+	 * @param pPool The pool, from which the deflater is obtained.
+	 * @param pLevel The compression level, from 0 to 9, or
+	 * {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}.
+	 * @throws IOException Writing the gzip header failed.
+	 */
+	public GzipOutputStream(OutputStream pOut, DeflaterPool pPool, int pLevel)
+			throws IOException {
+		super(pOut, pPool.getDeflater(pLevel), 8192);
+		pool = pPool;
+		try {
+			out.write(HEADER);
+		} catch (IOException e) {
+			closed = true;
+			pool.release(def);
+			throw e;
+		}
+	}
+
+	public void write(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (closed) {
+			throw new IOException("This output stream is already closed.");
+		}
+		super.write(pBuffer, pOffset, pLen);
+		crc.update(pBuffer, pOffset, pLen);
+	}
+
+	protected void deflate() throws IOException {
+		final long start = System.nanoTime();
+		super.deflate();
+		nanos += System.nanoTime() - start;
+	}
+
+	public void finish() throws IOException {
+		if (closed) {
+			throw new IOException("This output stream is already closed.");
+		}
+		if (!def.finished()) {
+			def.finish();
+			while (!def.finished()) {
+				deflate();
+			}
+			writeInt((int) crc.getValue());
+			writeInt(def.getTotalIn());
+		}
+	}
+
+	private void writeInt(int pValue) throws IOException {
+		out.write(pValue & 0xff);
+		out.write((pValue >> 8) & 0xff);
+		out.write((pValue >> 16) & 0xff);
+		out.write((pValue >> 24) & 0xff);
+	}
+
+	/** Writes the remaining data, and the gzip trailer, returns
+	 * the deflater to the pool, and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			finish();
+		} finally {
+			closed = true;
+			bytesRead = def.getBytesRead();
+			bytesWritten = def.getBytesWritten() + HEADER.length + 8;
+			pool.release(def);
+			out.close();
+		}
+	}
+
+	/** Returns the number of uncompressed bytes, which have been
+	 * written to the stream. Valid after {@link #close()} only.
+	 * @return Number of uncompressed bytes.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/** Returns the number of compressed bytes, including the gzip
+	 * header and trailer. Valid after {@link #close()} only.
+	 * @return Number of compressed bytes.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/** Returns the time, which has been spent in the deflater.
+	 * @return Compression time in nanoseconds.
+	 */
+	public long getDeflateNanos() {
+		return nanos;
+	}
+}
@@ -32,6 +32,12 @@ import org.apache.xmlrpc.common.XmlRpcStreamConfig;
 /** Provides utility functions useful in HTTP communications
  */
 public class HttpUtil {
+	/** The name of the content encoding, which is using the deflate
+	 * compression with a preset dictionary.
+	 * @see DeflateDictionary
+	 */
+	public static final String DICTIONARY_ENCODING = "x-xmlrpc-deflate";
+
 	/** Creates the Base64 encoded credentials for HTTP Basic Authentication.
 	 * @param pUser User name, or null, if no Basic Authentication is being used.
 	 * @param pPassword Users password, or null, if no Basic Authentication is being used.
@@ -59,6 +65,21 @@ public class HttpUtil {
 	 * be used.
 	 */
 	public static boolean isUsingGzipEncoding(String pHeaderValue) {
+		return isUsingEncoding(pHeaderValue, "gzip");
+	}
+
+	/** Returns, whether the HTTP header value <code>pHeaderValue</code>
+	 * indicates, that the {@link #DICTIONARY_ENCODING} is used or may be used.
+	 * @param pHeaderValue The HTTP header value being parsed. This is typically
+	 * the value of "Content-Encoding", or "Accept-Encoding".
+	 * @return True, if the header value suggests that the dictionary encoding
+	 * is or may be used.
+	 */
+	public static boolean isUsingDictionaryEncoding(String pHeaderValue) {
+		return isUsingEncoding(pHeaderValue, DICTIONARY_ENCODING);
+	}
+
+	private static boolean isUsingEncoding(String pHeaderValue, String pEncoding) {
 		if (pHeaderValue == null) {
 			return false;
         }
@@ -68,7 +89,7 @@ public class HttpUtil {
             if (offset >= 0) {
                 encoding = encoding.substring(0, offset);
             }
-            if ("gzip".equalsIgnoreCase(encoding.trim())) {
+            if (pEncoding.equalsIgnoreCase(encoding.trim())) {
             	return true;
             }
         }
@@ -108,9 +129,24 @@ public class HttpUtil {
 	 * be used.
 	 */
 	public static boolean isUsingGzipEncoding(Enumeration pValues) {
+		return isUsingEncoding(pValues, "gzip");
+	}
+
+	/** Returns, whether the HTTP header values in <code>pValues</code>
+	 * indicate, that the {@link #DICTIONARY_ENCODING} is used or may be used.
+	 * @param pValues The HTTP header values being parsed. These are typically
+	 * the values of "Content-Encoding", or "Accept-Encoding".
+	 * @return True, if the header values suggests that the dictionary encoding
+	 * is or may be used.
+	 */
+	public static boolean isUsingDictionaryEncoding(Enumeration pValues) {
+		return isUsingEncoding(pValues, DICTIONARY_ENCODING);
+	}
+
+	private static boolean isUsingEncoding(Enumeration pValues, String pEncoding) {
 		if (pValues != null) {
 			while (pValues.hasMoreElements()) {
-				if (isUsingGzipEncoding((String) pValues.nextElement())) {
+				if (isUsingEncoding((String) pValues.nextElement(), pEncoding)) {
 					return true;
 				}
 			}
@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** A {@link ByteArrayOutputStream}, which stores its contents in a
+ * list of fixed size buffers, rather than a single, growing array.
+ * The buffers are obtained from, and returned to a shared pool, so
+ * that large responses don't need to be copied while the stream is
+ * growing, and their buffers are reused by subsequent requests.<br>
+ * The contents may be written to an {@link OutputStream} or obtained
+ * as an array of {@link ByteBuffer ByteBuffers} for a gathering write,
+ * without copying. Optionally, some space may be reserved in front of
+ * the contents, which allows to {@link #prepend(byte[], int, int)}
+ * a header, when the contents length is known.<br>
+ * Like most streams, this class isn't thread safe.
+ */
+public class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+	/** The size of the pooled buffers.
+	 */
+	public static final int BUFFER_SIZE = 16384;
+	private static final int MAX_POOLED_BUFFERS = 256;
+	private static final Queue pool = new ConcurrentLinkedQueue();
+	private static final AtomicInteger poolSize = new AtomicInteger();
+
+	private final int initialHeadroom;
+	private int headroom;
+	private byte[][] buffers = new byte[4][];
+	private int[] starts = new int[4];
+	private int[] ends = new int[4];
+	private int numBuffers;
+	private int size;
+
+	/** Creates a new instance without headroom.
+	 */
+	public PooledByteArrayOutputStream() {
+		this(0);
+	}
+
+	/** Creates a new instance, which reserves the given number of bytes
+	 * for {@link #prepend(byte[], int, int)}.
+	 * @param pHeadroom Number of bytes, which are reserved in front of
+	 * the contents.
+	 */
+	public PooledByteArrayOutputStream(int pHeadroom) {
+		super(0);
+		if (pHeadroom < 0  ||  pHeadroom >= BUFFER_SIZE) {
+			throw new IllegalArgumentException("Invalid headroom: " + pHeadroom);
+		}
+		initialHeadroom = headroom = pHeadroom;
+	}
+
+	/** Returns the number of bytes, which are reserved in front of
+	 * the contents of an empty stream.
+	 * @return The initial headroom.
+	 */
+	public int getHeadroom() {
+		return initialHeadroom;
+	}
+
+	private static byte[] getBuffer() {
+		final byte[] buffer = (byte[]) pool.poll();
+		if (buffer == null) {
+			return new byte[BUFFER_SIZE];
+		}
+		poolSize.decrementAndGet();
+		return buffer;
+	}
+
+	private static void putBuffer(byte[] pBuffer) {
+		if (poolSize.incrementAndGet() > MAX_POOLED_BUFFERS) {
+			poolSize.decrementAndGet();
+		} else {
+			pool.add(pBuffer);
+		}
+	}
+
+	private void addBuffer(byte[] pBuffer, int pStart, int pEnd) {
+		if (numBuffers == buffers.length) {
+			final byte[][] newBuffers = new byte[numBuffers * 2][];
+			System.arraycopy(buffers, 0, newBuffers, 0, numBuffers);
+			buffers = newBuffers;
+			final int[] newStarts = new int[numBuffers * 2];
+			System.arraycopy(starts, 0, newStarts, 0, numBuffers);
+			starts = newStarts;
+			final int[] newEnds = new int[numBuffers * 2];
+			System.arraycopy(ends, 0, newEnds, 0, numBuffers);
+			ends = newEnds;
+		}
+		buffers[numBuffers] = pBuffer;
+		starts[numBuffers] = pStart;
+		ends[numBuffers] = pEnd;
+		++numBuffers;
+	}
+
+	private void addBuffer() {
+		final int start = numBuffers == 0 ? headroom : 0;
+		addBuffer(getBuffer(), start, start);
+	}
+
+	public void write(int pByte) {
+		if (numBuffers == 0  ||  ends[numBuffers-1] == BUFFER_SIZE) {
+			addBuffer();
+		}
+		buffers[numBuffers-1][ends[numBuffers-1]++] = (byte) pByte;
+		++size;
+	}
+
+	public void write(byte[] pBytes, int pOffset, int pLen) {
+		if (pOffset < 0  ||  pLen < 0  ||  pOffset + pLen > pBytes.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (pLen > 0) {
+			if (numBuffers == 0  ||  ends[numBuffers-1] == BUFFER_SIZE) {
+				addBuffer();
+			}
+			final int end = ends[numBuffers-1];
+			final int len = Math.min(pLen, BUFFER_SIZE - end);
+			System.arraycopy(pBytes, pOffset, buffers[numBuffers-1], end, len);
+			ends[numBuffers-1] = end + len;
+			size += len;
+			pOffset += len;
+			pLen -= len;
+		}
+	}
+
+	/** Inserts the given bytes in front of the contents, if they fit
+	 * into the reserved space.
+	 * @param pBytes The array, which contains the bytes being inserted.
+	 * @param pOffset Offset of the first byte being inserted.
+	 * @param pLen Number of bytes being inserted.
+	 * @return True, if the bytes have been inserted, false, if the
+	 * remaining headroom is too small.
+	 */
+	public boolean prepend(byte[] pBytes, int pOffset, int pLen) {
+		if (pLen > headroom) {
+			return false;
+		}
+		if (numBuffers == 0) {
+			addBuffer();
+		}
+		headroom -= pLen;
+		starts[0] = headroom;
+		System.arraycopy(pBytes, pOffset, buffers[0], headroom, pLen);
+		size += pLen;
+		return true;
+	}
+
+	/** Moves the contents of the given stream to the end of this
+	 * stream. The buffers are transferred, rather than copied. The
+	 * given stream is empty afterwards.
+	 * @param pStream The stream, which is being appended.
+	 */
+	public void append(PooledByteArrayOutputStream pStream) {
+		for (int i = 0;  i < pStream.numBuffers;  i++) {
+			addBuffer(pStream.buffers[i], pStream.starts[i], pStream.ends[i]);
+			pStream.buffers[i] = null;
+		}
+		size += pStream.size;
+		pStream.numBuffers = 0;
+		pStream.size = 0;
+		pStream.headroom = pStream.initialHeadroom;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void writeTo(OutputStream pStream) throws IOException {
+		for (int i = 0;  i < numBuffers;  i++) {
+			pStream.write(buffers[i], starts[i], ends[i] - starts[i]);
+		}
+	}
+
+	/** Returns the contents as an array of {@link ByteBuffer ByteBuffers},
+	 * which are backed by this streams buffers. The result is valid
+	 * until the stream is modified, or released.
+	 * @return The streams contents, suitable for a gathering write.
+	 */
+	public ByteBuffer[] toByteBuffers() {
+		final ByteBuffer[] result = new ByteBuffer[numBuffers];
+		for (int i = 0;  i < numBuffers;  i++) {
+			result[i] = ByteBuffer.wrap(buffers[i], starts[i], ends[i] - starts[i]);
+		}
+		return result;
+	}
+
+	/** Returns an input stream, which reads the contents. The input
+	 * stream is backed by this streams buffers, and valid until the
+	 * stream is modified, or released.
+	 * @return A stream, which reads the streams contents.
+	 */
+	public InputStream newInputStream() {
+		final ByteBuffer[] byteBuffers = toByteBuffers();
+		return new InputStream(){
+			private int current;
+
+			private ByteBuffer getCurrent() {
+				while (current < byteBuffers.length) {
+					if (byteBuffers[current].hasRemaining()) {
+						return byteBuffers[current];
+					}
+					++current;
+				}
+				return null;
+			}
+
+			public int read() {
+				final ByteBuffer buffer = getCurrent();
+				return buffer == null ? -1 : buffer.get() & 0xff;
+			}
+
+			public int read(byte[] pBytes, int pOffset, int pLen) {
+				if (pLen == 0) {
+					return 0;
+				}
+				final ByteBuffer buffer = getCurrent();
+				if (buffer == null) {
+					return -1;
+				}
+				final int len = Math.min(pLen, buffer.remaining());
+				buffer.get(pBytes, pOffset, len);
+				return len;
+			}
+
+			public int available() {
+				int result = 0;
+				for (int i = current;  i < byteBuffers.length;  i++) {
+					result += byteBuffers[i].remaining();
+				}
+				return result;
+			}
+		};
+	}
+
+	public byte[] toByteArray() {
+		final byte[] result = new byte[size];
+		int offset = 0;
+		for (int i = 0;  i < numBuffers;  i++) {
+			final int len = ends[i] - starts[i];
+			System.arraycopy(buffers[i], starts[i], result, offset, len);
+			offset += len;
+		}
+		return result;
+	}
+
+	public String toString() {
+		return new String(toByteArray());
+	}
+
+	public String toString(String pCharset) throws UnsupportedEncodingException {
+		return new String(toByteArray(), pCharset);
+	}
+
+	/** Discards the contents, and returns the buffers to the pool.
+	 */
+	public void reset() {
+		release();
+	}
+
+	/** Discards the contents, and returns the buffers to the pool.
+	 * The stream may be reused afterwards.
+	 */
+	public void release() {
+		for (int i = 0;  i < numBuffers;  i++) {
+			putBuffer(buffers[i]);
+			buffers[i] = null;
+		}
+		numBuffers = 0;
+		size = 0;
+		headroom = initialHeadroom;
+	}
+}
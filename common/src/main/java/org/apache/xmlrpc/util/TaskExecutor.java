@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.    
+ */
+package org.apache.xmlrpc.util;
+
+
+/** Interface of an object, which executes instances of
+ * {@link ThreadPool.Task}. The default implementation is the
+ * {@link ThreadPool}. An alternative implementation is the
+ * {@link VirtualThreadExecutor}, which runs each task in a
+ * virtual thread of its own.
+ */
+public interface TaskExecutor {
+	/** Starts a task immediately.
+	 * @param pTask The task being started.
+	 * @return True, if the task could be started immediately. False, if
+	 * the maxmimum number of concurrent tasks was exceeded.
+	 */
+	boolean startTask(ThreadPool.Task pTask);
+
+	/** Returns the maximum number of concurrent tasks.
+	 * @return Maximum number of tasks, or 0 for no limit.
+	 */
+	int getMaxThreads();
+
+	/** Closes the executor. Running instances of
+	 * {@link ThreadPool.InterruptableTask} are being interrupted.
+	 */
+	void shutdown();
+}
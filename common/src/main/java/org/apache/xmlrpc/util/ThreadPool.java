@@ -18,14 +18,39 @@
  */
 package org.apache.xmlrpc.util;
 
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /** Simple thread pool. A task is executed by obtaining a thread from
- * the pool
+ * the pool. If all threads are busy, tasks may be kept in a bounded
+ * queue, until a thread becomes available, or the queue timeout is
+ * exceeded. See {@link #setMaxQueueSize(int)}, and
+ * {@link #setQueueTimeout(long)}.<br>
+ * Starting a task and returning a thread to the pool doesn't require
+ * a global lock: Idle threads and waiting tasks are kept in lock-free
+ * queues, and the number of busy threads is maintained by an atomic
+ * counter.<br>
+ * The queue timeout is enforced by a separate daemon thread, which
+ * discards expired tasks, even if no thread becomes available. The
+ * expired tasks are rejected by that thread, and not by the caller
+ * of {@link #startTask(ThreadPool.Task)}.
  */
-public class ThreadPool {
+public class ThreadPool implements TaskExecutor {
 	/** The thread pool contains instances of {@link ThreadPool.Task}.
 	 */
 	public interface Task {
@@ -44,42 +69,78 @@ public class ThreadPool {
         void shutdown() throws Throwable;
     }
 
+    /** A task, which is notified, if it is discarded without being
+     * run. This happens, if the task has been waiting in the queue
+     * longer than the queue timeout, or if the pool is shut down
+     * while the task is waiting.
+     */
+    public interface RejectableTask extends Task {
+        /** Invoked instead of {@link #run()}, if the task is discarded.
+         * @throws Throwable Rejecting the task failed.
+         */
+        void reject() throws Throwable;
+    }
+
+    private static class QueuedTask {
+        final Task task;
+        final long deadline;
+        QueuedTask(Task pTask, long pDeadline) {
+            task = pTask;
+            deadline = pDeadline;
+        }
+        boolean isExpired(long pNow) {
+            return deadline != 0  &&  pNow >= deadline;
+        }
+    }
+
     private class Poolable {
         private volatile boolean shuttingDown;
-        private Task task;
+        private volatile Task task;
         private Thread thread;
+        /* A lock, rather than a monitor, so that callers of start(),
+         * which may be virtual threads, don't pin their carrier thread.
+         */
+        private final Lock lock = new ReentrantLock();
+        private final Condition taskAvailable = lock.newCondition();
         Poolable(ThreadGroup pGroup, int pNum) {
             thread = new Thread(pGroup, pGroup.getName() + "-" + pNum){
                 public void run() {
                     while (!shuttingDown) {
                         final Task t = getTask();
                         if (t == null) {
+                            lock.lock();
                             try {
-                                synchronized (this) {
-                                    if (!shuttingDown  &&  getTask() == null) {
-                                        wait();
-                                    }
+                                if (!shuttingDown  &&  getTask() == null) {
+                                    taskAvailable.await();
                                 }
                             } catch (InterruptedException e) {
                                 // Do nothing
+                            } finally {
+                                lock.unlock();
                             }
                         } else {
                             try {
                                 t.run();
-                                resetTask();
-                                repool(Poolable.this);
                             } catch (Throwable e) {
-                                remove(Poolable.this);
-                                Poolable.this.shutdown();
                                 resetTask();
+                                discard(Poolable.this);
+                                break;
+                            }
+                            // Continue with a waiting task, if any, without
+                            // returning the thread to the pool.
+                            task = nextTask();
+                            if (task == null) {
+                                repool(Poolable.this);
                             }
                         }
                     }
+                    threads.remove(Poolable.this);
                 }
             };
+            threads.put(this, this);
             thread.start();
         }
-        synchronized void shutdown() {
+        void shutdown() {
             shuttingDown = true;
             final Task t = getTask();
             if (t != null  &&  t instanceof InterruptableTask) {
@@ -90,9 +151,7 @@ public class ThreadPool {
                 }
             }
             task = null;
-            synchronized (thread) {
-                thread.notify();
-            }
+            signal();
         }
         private Task getTask() {
             return task;
@@ -102,18 +161,41 @@ public class ThreadPool {
         }
         void start(Task pTask) {
             task = pTask;
-            synchronized (thread) {
-                thread.notify();
+            signal();
+        }
+        private void signal() {
+            lock.lock();
+            try {
+                taskAvailable.signal();
+            } finally {
+                lock.unlock();
             }
         }
     }
 
 	private final ThreadGroup threadGroup;
 	private final int maxSize;
-	private final List waitingThreads = new ArrayList();
-	private final List runningThreads = new ArrayList();
-	private final List waitingTasks = new ArrayList();
-	private int num;
+	private final Map threads = new ConcurrentHashMap();
+	private final Queue idleThreads = new ConcurrentLinkedQueue();
+	private final Queue waitingTasks = new ConcurrentLinkedQueue();
+	private final AtomicInteger numRunning = new AtomicInteger();
+	private final AtomicInteger numWaiting = new AtomicInteger();
+	private final AtomicInteger num = new AtomicInteger();
+	private volatile int maxQueueSize;
+	private volatile long queueTimeout;
+	private volatile boolean closed;
+	private volatile ScheduledExecutorService sweeper;
+	private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+	private final Runnable sweep = new Runnable(){
+		public void run() {
+			sweepScheduled.set(false);
+			removeExpiredTasks();
+			final QueuedTask queuedTask = (QueuedTask) waitingTasks.peek();
+			if (queuedTask != null  &&  queuedTask.deadline != 0) {
+				scheduleSweep(queuedTask.deadline - System.currentTimeMillis());
+			}
+		}
+	};
 
 
 	/** Creates a new instance.
@@ -125,99 +207,290 @@ public class ThreadPool {
 		threadGroup = new ThreadGroup(pName);
 	}
 
-	private synchronized void remove(Poolable pPoolable) {
-        runningThreads.remove(pPoolable);
-        waitingThreads.remove(pPoolable);
+	/** Sets the maximum number of tasks, which are waiting for a
+	 * thread, if all threads are busy. Defaults to 0, in which case
+	 * {@link #startTask(ThreadPool.Task)} fails immediately, if the
+	 * maximum number of threads is exceeded.
+	 * @param pMaxQueueSize Maximum number of waiting tasks.
+	 */
+	public void setMaxQueueSize(int pMaxQueueSize) {
+		maxQueueSize = pMaxQueueSize;
+	}
+
+	/** Returns the maximum number of tasks, which are waiting for a
+	 * thread, if all threads are busy. Defaults to 0, in which case
+	 * {@link #startTask(ThreadPool.Task)} fails immediately, if the
+	 * maximum number of threads is exceeded.
+	 * @return Maximum number of waiting tasks.
+	 */
+	public int getMaxQueueSize() { return maxQueueSize; }
+
+	/** Sets the maximum number of milliseconds, that a task may wait
+	 * in the queue. Tasks, which are waiting longer, are discarded.
+	 * If the task is an instance of {@link RejectableTask}, then
+	 * its {@link RejectableTask#reject()} method is invoked. Defaults
+	 * to 0 (wait forever).
+	 * @param pMillis The queue timeout in milliseconds, or 0.
+	 */
+	public void setQueueTimeout(long pMillis) {
+		queueTimeout = pMillis;
+	}
+
+	/** Returns the maximum number of milliseconds, that a task may wait
+	 * in the queue. Defaults to 0 (wait forever).
+	 * @return The queue timeout in milliseconds, or 0.
+	 */
+	public long getQueueTimeout() { return queueTimeout; }
+
+	private boolean acquire() {
+		for (;;) {
+			final int running = numRunning.get();
+			if (maxSize != 0  &&  running >= maxSize) {
+				return false;
+			}
+			if (numRunning.compareAndSet(running, running+1)) {
+				return true;
+			}
+		}
+	}
+
+	private Poolable getPoolable() {
+		final Poolable poolable = (Poolable) idleThreads.poll();
+		if (poolable != null) {
+			return poolable;
+		}
+		return new Poolable(threadGroup, num.getAndIncrement());
 	}
 
 	void repool(Poolable pPoolable) {
-	    boolean discarding = false;
-	    Task task = null;
-	    Poolable poolable = null;
-	    synchronized (this) {
-	        if (runningThreads.remove(pPoolable)) {
-	            if (maxSize != 0  &&  runningThreads.size() + waitingThreads.size() >= maxSize) {
-	                discarding = true;
-	            } else {
-	                waitingThreads.add(pPoolable);
-	                if (waitingTasks.size() > 0) {
-	                    task = (Task) waitingTasks.remove(waitingTasks.size() - 1);
-	                    poolable = getPoolable(task, false);
-	                }
-	            }
-	        } else {
-	            discarding = true;
-	        }
-	        if (discarding) {
-	            remove(pPoolable);
-	        }
-	    }
-	    if (poolable != null) {
-	        poolable.start(task);
-	    }
-	    if (discarding) {
-	        pPoolable.shutdown();
+	    if (closed) {
+	        discard(pPoolable);
+	        return;
 	    }
+	    // Make the thread available, before releasing the slot, so
+	    // that the next caller of acquire() will find it.
+	    idleThreads.add(pPoolable);
+	    numRunning.decrementAndGet();
+	    runWaitingTasks();
+	}
+
+	void discard(Poolable pPoolable) {
+	    pPoolable.shutdown();
+	    numRunning.decrementAndGet();
+	    runWaitingTasks();
 	}
 
-	/** Starts a task immediately.
+	/** Starts waiting tasks, as long as threads are available. This is
+	 * invoked after adding a task to the queue, and after releasing a
+	 * thread, so that a task cannot be left in the queue, while a
+	 * thread is idle.
+	 */
+	private void runWaitingTasks() {
+		while (!waitingTasks.isEmpty()  &&  !closed  &&  acquire()) {
+			final Task task = nextTask();
+			if (task == null) {
+				numRunning.decrementAndGet();
+			} else {
+				getPoolable().start(task);
+			}
+		}
+	}
+
+	/** Removes the next task from the queue, discarding expired tasks.
+	 */
+	Task nextTask() {
+		for (;;) {
+			final QueuedTask queuedTask = (QueuedTask) waitingTasks.poll();
+			if (queuedTask == null) {
+				return null;
+			}
+			numWaiting.decrementAndGet();
+			if (closed) {
+				reject(queuedTask.task);
+			} else if (queuedTask.isExpired(System.currentTimeMillis())) {
+				rejectLater(queuedTask.task);
+			} else {
+				return queuedTask.task;
+			}
+		}
+	}
+
+	/** Discards expired tasks from the head of the queue. Invoked
+	 * by the sweeper thread.
+	 */
+	private void removeExpiredTasks() {
+		final long now = System.currentTimeMillis();
+		for (;;) {
+			final QueuedTask queuedTask = (QueuedTask) waitingTasks.peek();
+			if (queuedTask == null  ||  !queuedTask.isExpired(now)) {
+				return;
+			}
+			if (waitingTasks.remove(queuedTask)) {
+				numWaiting.decrementAndGet();
+				reject(queuedTask.task);
+			}
+		}
+	}
+
+	private void reject(Task pTask) {
+		try {
+			if (pTask instanceof RejectableTask) {
+				((RejectableTask) pTask).reject();
+			} else if (pTask instanceof InterruptableTask) {
+				((InterruptableTask) pTask).shutdown();
+			}
+		} catch (Throwable t) {
+			// Ignore me
+		}
+	}
+
+	/** Rejects the given task in the sweeper thread, so that the
+	 * caller, for example a thread accepting connections, isn't
+	 * blocked by the rejection.
+	 */
+	private void rejectLater(final Task pTask) {
+		final ScheduledExecutorService executor = getSweeper();
+		if (executor != null) {
+			try {
+				executor.execute(new Runnable(){
+					public void run() {
+						reject(pTask);
+					}
+				});
+				return;
+			} catch (RejectedExecutionException e) {
+				// The pool has been closed.
+			}
+		}
+		reject(pTask);
+	}
+
+	private ScheduledExecutorService getSweeper() {
+		ScheduledExecutorService executor = sweeper;
+		if (executor == null) {
+			synchronized (this) {
+				executor = sweeper;
+				if (executor == null  &&  !closed) {
+					executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+						public Thread newThread(Runnable pRunnable) {
+							final Thread t = new Thread(threadGroup, pRunnable,
+									threadGroup.getName() + "-sweeper");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+					sweeper = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/** Schedules a run of the sweeper, unless a run is already
+	 * scheduled. A run reschedules itself, as long as tasks with
+	 * a deadline are waiting.
+	 */
+	private void scheduleSweep(long pDelay) {
+		if (!sweepScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		final ScheduledExecutorService executor = getSweeper();
+		if (executor == null) {
+			return;
+		}
+		try {
+			executor.schedule(sweep, Math.max(pDelay, 1), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The pool has been closed.
+		}
+	}
+
+	private boolean enqueue(Task pTask, int pMaxQueueSize) {
+		for (;;) {
+			final int waiting = numWaiting.get();
+			if (pMaxQueueSize != 0  &&  waiting >= pMaxQueueSize) {
+				return false;
+			}
+			if (numWaiting.compareAndSet(waiting, waiting+1)) {
+				break;
+			}
+		}
+		final long timeout = queueTimeout;
+		final long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		waitingTasks.add(new QueuedTask(pTask, deadline));
+		if (deadline != 0) {
+			scheduleSweep(timeout);
+		}
+		return true;
+	}
+
+	/** Starts a task immediately, if possible. Otherwise, if the
+	 * maximum queue size is nonzero, the task is queued for deferred
+	 * execution.
 	 * @param pTask The task being started.
-	 * @return True, if the task could be started immediately. False, if
-	 * the maxmimum number of concurrent tasks was exceeded. If so, you
-	 * might consider to use the {@link #addTask(ThreadPool.Task)} method instead.
+	 * @return True, if the task could be started immediately, or has
+	 * been queued. False, if the maxmimum number of concurrent tasks
+	 * was exceeded, and the queue is full.
+	 * @see #setMaxQueueSize(int)
 	 */
 	public boolean startTask(Task pTask) {
-	    final Poolable poolable = getPoolable(pTask, false);
-	    if (poolable == null) {
-	        return false;
-	    }
-	    poolable.start(pTask);
+		if (closed) {
+			return false;
+		}
+		if (acquire()) {
+			getPoolable().start(pTask);
+			return true;
+		}
+		final int max = maxQueueSize;
+		if (max <= 0) {
+			return false;
+		}
+		if (!enqueue(pTask, max)) {
+			return false;
+		}
+		runWaitingTasks();
 		return true;
 	}
 
-	private synchronized Poolable getPoolable(Task pTask, boolean pQueue) {
-        if (maxSize != 0  &&  runningThreads.size() >= maxSize) {
-            if (pQueue) {
-                waitingTasks.add(pTask);
-            }
-            return null;
-        }
-        Poolable poolable;
-        if (waitingThreads.size() > 0) {
-            poolable = (Poolable) waitingThreads.remove(waitingThreads.size()-1);
-        } else {
-            poolable = new Poolable(threadGroup, num++);
-        }
-        runningThreads.add(poolable);
-        return poolable;
-	}
-	
-	/** Adds a task for immediate or deferred execution.
+	/** Adds a task for immediate or deferred execution. Unlike
+	 * {@link #startTask(ThreadPool.Task)}, the queue size isn't
+	 * limited.
 	 * @param pTask The task being added.
 	 * @return True, if the task was started immediately. False, if
 	 * the task will be executed later.
 	 * @deprecated No longer in use.
 	 */
 	public boolean addTask(Task pTask) {
-	    final Poolable poolable = getPoolable(pTask, true);
-	    if (poolable != null) {
-	        poolable.start(pTask);
-	        return true;
-	    }
-	    return false;
+		if (acquire()) {
+			getPoolable().start(pTask);
+			return true;
+		}
+		enqueue(pTask, 0);
+		runWaitingTasks();
+		return false;
 	}
 
-	/** Closes the pool.
+	/** Closes the pool. Waiting tasks are discarded.
 	 */
-	public synchronized void shutdown() {
-        while (!waitingThreads.isEmpty()) {
-            Poolable poolable = (Poolable) waitingThreads.remove(waitingThreads.size()-1);
-            poolable.shutdown();
-        }
-        while (!runningThreads.isEmpty()) {
-            Poolable poolable = (Poolable) runningThreads.remove(runningThreads.size()-1);
-            poolable.shutdown();
-        }
+	public void shutdown() {
+		closed = true;
+		final ScheduledExecutorService executor;
+		synchronized (this) {
+			executor = sweeper;
+		}
+		if (executor != null) {
+			// Run the pending rejections in the current thread.
+			final List pending = executor.shutdownNow();
+			for (Iterator iter = pending.iterator();  iter.hasNext();  ) {
+				((Runnable) iter.next()).run();
+			}
+		}
+		for (Iterator iter = threads.keySet().iterator();  iter.hasNext();  ) {
+			((Poolable) iter.next()).shutdown();
+		}
+		while (nextTask() != null) {
+			// nextTask() rejects the tasks, because the pool is closed.
+		}
 	}
 
 	/** Returns the maximum number of concurrent threads.
@@ -230,5 +503,11 @@ public class ThreadPool {
 	 *
 	 * @return the number of threads
 	 */
-    public synchronized int getNumThreads() { return num; }
+    public int getNumThreads() { return num.get(); }
+
+	/** Returns the number of tasks, which are currently waiting
+	 * for a thread.
+	 * @return Number of waiting tasks.
+	 */
+	public int getNumWaitingTasks() { return numWaiting.get(); }
 }
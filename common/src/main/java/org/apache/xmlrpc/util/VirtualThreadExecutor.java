@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.    
+ */
+package org.apache.xmlrpc.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** An implementation of {@link TaskExecutor}, which runs each task
+ * in a new virtual thread. Virtual threads are cheap, so there is no
+ * point in pooling them. This executor is well suited for handlers,
+ * which spend most of their time waiting for slow backends.
+ * Virtual threads are available in Java 21, or later. The executor
+ * accesses them via reflection, so that this class can be compiled
+ * and loaded on older platforms as well. Use {@link #isAvailable()}
+ * to check, whether virtual threads are supported.
+ */
+public class VirtualThreadExecutor implements TaskExecutor {
+	private static final Method ofVirtual;
+	private static final Method name;
+	private static final Method factory;
+	static {
+		Method m1, m2, m3;
+		try {
+			final Class builderClass = Class.forName("java.lang.Thread$Builder");
+			m1 = Thread.class.getMethod("ofVirtual", new Class[0]);
+			m2 = builderClass.getMethod("name", new Class[]{String.class, long.class});
+			m3 = builderClass.getMethod("factory", new Class[0]);
+		} catch (ClassNotFoundException e) {
+			m1 = m2 = m3 = null;
+		} catch (NoSuchMethodException e) {
+			m1 = m2 = m3 = null;
+		}
+		ofVirtual = m1;
+		name = m2;
+		factory = m3;
+	}
+
+	private final int maxThreads;
+	private final ThreadFactory threadFactory;
+	private final AtomicInteger numTasks = new AtomicInteger();
+	private final Map runningTasks = new ConcurrentHashMap();
+	private volatile boolean shuttingDown;
+	private volatile Thread.UncaughtExceptionHandler errorHandler;
+
+	/** Returns, whether virtual threads are supported by the
+	 * current Java platform.
+	 * @return True, if virtual threads are available, false otherwise.
+	 */
+	public static boolean isAvailable() {
+		return ofVirtual != null;
+	}
+
+	/** Creates a new instance.
+	 * @param pMaxThreads Maximum number of concurrent tasks, or 0 for
+	 * no limit.
+	 * @param pName Prefix of the virtual threads names.
+	 * @throws IllegalStateException Virtual threads are not supported
+	 * by the current Java platform.
+	 */
+	public VirtualThreadExecutor(int pMaxThreads, String pName) {
+		if (!isAvailable()) {
+			throw new IllegalStateException("Virtual threads require Java 21, or later.");
+		}
+		maxThreads = pMaxThreads;
+		try {
+			Object builder = ofVirtual.invoke(null, new Object[0]);
+			builder = name.invoke(builder, new Object[]{pName + "-", new Long(0)});
+			threadFactory = (ThreadFactory) factory.invoke(builder, new Object[0]);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Unable to create virtual thread factory: " + e.getMessage());
+		} catch (InvocationTargetException e) {
+			final Throwable t = e.getTargetException();
+			throw new IllegalStateException("Unable to create virtual thread factory: " + t.getMessage());
+		}
+	}
+
+	public boolean startTask(final ThreadPool.Task pTask) {
+		if (shuttingDown) {
+			return false;
+		}
+		for (;;) {
+			final int num = numTasks.get();
+			if (maxThreads != 0  &&  num >= maxThreads) {
+				return false;
+			}
+			if (numTasks.compareAndSet(num, num+1)) {
+				break;
+			}
+		}
+		boolean started = false;
+		try {
+			final Thread thread = threadFactory.newThread(new Runnable(){
+				public void run() {
+					try {
+						pTask.run();
+					} catch (Throwable t) {
+						handleError(t);
+					} finally {
+						runningTasks.remove(pTask);
+						numTasks.decrementAndGet();
+					}
+				}
+			});
+			runningTasks.put(pTask, thread);
+			thread.start();
+			started = true;
+		} finally {
+			if (!started) {
+				runningTasks.remove(pTask);
+				numTasks.decrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	/** Called, if a task has thrown an exception, or error. The default
+	 * implementation passes the error to the {@link #setErrorHandler(Thread.UncaughtExceptionHandler)
+	 * error handler}, if any, or to the threads uncaught exception handler
+	 * otherwise.
+	 * @param pError The error, which has been thrown by the task.
+	 */
+	protected void handleError(Throwable pError) {
+		final Thread thread = Thread.currentThread();
+		final Thread.UncaughtExceptionHandler handler = errorHandler;
+		if (handler == null) {
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, pError);
+		} else {
+			handler.uncaughtException(thread, pError);
+		}
+	}
+
+	/** Sets the handler, which is notified about errors thrown by a task.
+	 * By default, such errors are passed to the threads uncaught
+	 * exception handler.
+	 * @param pHandler The error handler, or null for the default.
+	 */
+	public void setErrorHandler(Thread.UncaughtExceptionHandler pHandler) {
+		errorHandler = pHandler;
+	}
+
+	/** Returns the handler, which is notified about errors thrown by a task.
+	 * @return The error handler, or null for the default.
+	 */
+	public Thread.UncaughtExceptionHandler getErrorHandler() {
+		return errorHandler;
+	}
+
+	public int getMaxThreads() { return maxThreads; }
+
+	/** Returns the number of currently running tasks.
+	 * @return Number of running tasks.
+	 */
+	public int getNumThreads() { return numTasks.get(); }
+
+	public void shutdown() {
+		shuttingDown = true;
+		for (Iterator iter = runningTasks.keySet().iterator();  iter.hasNext();  ) {
+			final ThreadPool.Task task = (ThreadPool.Task) iter.next();
+			if (task instanceof ThreadPool.InterruptableTask) {
+				try {
+					((ThreadPool.InterruptableTask) task).shutdown();
+				} catch (Throwable t) {
+					// Ignore me
+				}
+			}
+		}
+	}
+}
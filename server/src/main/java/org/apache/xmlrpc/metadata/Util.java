@@ -20,11 +20,14 @@ package org.apache.xmlrpc.metadata;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.w3c.dom.Node;
@@ -125,7 +128,7 @@ public class Util {
     public static String[] getSignature(Method pMethod) {    
 		Class[] paramClasses = pMethod.getParameterTypes();
 		String[] sig = new String[paramClasses.length + 1];
-		String s = getSignatureType(pMethod.getReturnType());
+		String s = getSignatureType(getResultType(pMethod));
 		if (s == null) {
 			return null;
 		}
@@ -140,6 +143,31 @@ public class Util {
 		return sig;
 	}
 
+	/** Returns the type of the result, which is returned by the
+	 * given method. For a method returning a {@link CompletionStage},
+	 * this is the stages type argument, if it is known, so that
+	 * the signature matches a method returning the result directly.
+	 */
+	private static Class getResultType(Method pMethod) {
+		final Class c = pMethod.getReturnType();
+		if (CompletionStage.class.isAssignableFrom(c)) {
+			final Type t = pMethod.getGenericReturnType();
+			if (t instanceof ParameterizedType) {
+				final Type[] args = ((ParameterizedType) t).getActualTypeArguments();
+				if (args.length == 1) {
+					Type arg = args[0];
+					if (arg instanceof ParameterizedType) {
+						arg = ((ParameterizedType) arg).getRawType();
+					}
+					if (arg instanceof Class) {
+						return (Class) arg;
+					}
+				}
+			}
+		}
+		return c;
+	}
+
     /** Returns a help string for the given method, which
      * is applied to the given class.
 	 * @param pClass the class
@@ -18,10 +18,24 @@
  */
 package org.apache.xmlrpc.metadata;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.XmlRpcRequestConfig;
 import org.apache.xmlrpc.server.PropertyHandlerMapping;
 import org.apache.xmlrpc.server.RequestProcessorFactoryFactory;
+import org.apache.xmlrpc.server.XmlRpcServer;
 
 
 /** This class implements the various "system" calls,
@@ -30,14 +44,60 @@ import org.apache.xmlrpc.server.RequestProcessorFactoryFactory;
  * the handler mapping with the "system" prefix.
  */
 public class XmlRpcSystemImpl {
+	/** The default maximum number of calls, which are running in
+	 * parallel for a single "system.multicall".
+	 */
+	public static final int DEFAULT_MAX_MULTICALL_CONCURRENCY = 16;
+
+	private static final String MULTICALL = "system.multicall";
+
+	/** Holder of the default executor, which is created on demand.
+	 */
+	private static class DefaultExecutor {
+		static final Executor theExecutor = new ForkJoinPool(
+				Math.max(DEFAULT_MAX_MULTICALL_CONCURRENCY, 2 * Runtime.getRuntime().availableProcessors()));
+	}
+
 	private XmlRpcListableHandlerMapping mapping;
+	private final Executor executor;
+	private final int maxMulticallConcurrency;
+	private final XmlRpcRequest request;
 
 	/** Creates a new instance, which provides meta data
 	 * for the given handler mappings methods.
 	 * @param pMapping the handler mapping
 	 */
 	public XmlRpcSystemImpl(XmlRpcListableHandlerMapping pMapping) {
+		this(pMapping, null, DEFAULT_MAX_MULTICALL_CONCURRENCY);
+	}
+
+	/** Creates a new instance, which provides meta data
+	 * for the given handler mappings methods, and runs the calls
+	 * of a "system.multicall" on the given executor.
+	 * @param pMapping the handler mapping
+	 * @param pExecutor The executor, which runs the calls of a
+	 * "system.multicall", or null for a shared {@link ForkJoinPool}
+	 * with at least {@link #DEFAULT_MAX_MULTICALL_CONCURRENCY} threads.
+	 * @param pMaxMulticallConcurrency The maximum number of calls,
+	 * which are running in parallel for a single "system.multicall".
+	 */
+	public XmlRpcSystemImpl(XmlRpcListableHandlerMapping pMapping, Executor pExecutor,
+			int pMaxMulticallConcurrency) {
+		if (pMaxMulticallConcurrency <= 0) {
+			throw new IllegalArgumentException("Invalid multicall concurrency: "
+					+ pMaxMulticallConcurrency);
+		}
 		mapping = pMapping;
+		executor = pExecutor;
+		maxMulticallConcurrency = pMaxMulticallConcurrency;
+		request = null;
+	}
+
+	private XmlRpcSystemImpl(XmlRpcSystemImpl pSystemImpl, XmlRpcRequest pRequest) {
+		mapping = pSystemImpl.mapping;
+		executor = pSystemImpl.executor;
+		maxMulticallConcurrency = pSystemImpl.maxMulticallConcurrency;
+		request = pRequest;
 	}
 
 	/** Implements the "system.methodSignature" call.
@@ -70,6 +130,146 @@ public class XmlRpcSystemImpl {
 		return mapping.getListMethods();
 	}
 
+	/** Implements the "system.multicall" call. The calls are
+	 * independent of each other, and run in parallel, up to the
+	 * maximum multicall concurrency. A failing call doesn't affect
+	 * the other calls. The calls are performed by the server, which
+	 * invokes this method, so that the result cache, single flight, and
+	 * bulkheads apply to them as well.
+	 * @param pCalls An array of structs with the members "methodName",
+	 * and "params".
+	 * @return A stage, which provides an array with one element per
+	 * call, in the same order: Either an array with the result as
+	 * its single element, or a struct with the members "faultCode",
+	 * and "faultString".
+	 */
+	public CompletionStage<Object[]> multicall(Object[] pCalls) {
+		return new Multicall(pCalls).start();
+	}
+
+	/** Runs the calls of a single "system.multicall". At most
+	 * {@link #maxMulticallConcurrency} calls are running at the same
+	 * time: A new call is started, whenever a call is complete.
+	 */
+	private class Multicall {
+		private final Object[] calls;
+		private final Object[] results;
+		private final AtomicInteger next = new AtomicInteger();
+		private final AtomicInteger remaining;
+		private final CompletableFuture future = new CompletableFuture();
+		private final XmlRpcServer server = XmlRpcServer.getCurrentServer();
+
+		Multicall(Object[] pCalls) {
+			calls = pCalls;
+			results = new Object[pCalls.length];
+			remaining = new AtomicInteger(pCalls.length);
+		}
+
+		CompletionStage start() {
+			if (calls.length == 0) {
+				future.complete(results);
+			} else {
+				for (int i = Math.min(calls.length, maxMulticallConcurrency);  i > 0;  i--) {
+					startNext();
+				}
+			}
+			return future;
+		}
+
+		private void startNext() {
+			final int index = next.getAndIncrement();
+			if (index >= calls.length) {
+				return;
+			}
+			try {
+				(executor == null ? DefaultExecutor.theExecutor : executor).execute(new Runnable(){
+					public void run() {
+						call(index);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				completed(index, null, e);
+			}
+		}
+
+		private void call(final int pIndex) {
+			final Object result;
+			try {
+				result = execute(server, calls[pIndex]);
+			} catch (Throwable t) {
+				completed(pIndex, null, t);
+				return;
+			}
+			if (result instanceof CompletionStage) {
+				((CompletionStage) result).whenComplete(new BiConsumer(){
+					public void accept(Object pResult, Object pError) {
+						Throwable t = (Throwable) pError;
+						if (t instanceof CompletionException  &&  t.getCause() != null) {
+							t = t.getCause();
+						}
+						completed(pIndex, pResult, t);
+					}
+				});
+			} else {
+				completed(pIndex, result, null);
+			}
+		}
+
+		private void completed(int pIndex, Object pResult, Throwable pError) {
+			results[pIndex] = pError == null ? new Object[]{pResult} : newFault(pError);
+			if (remaining.decrementAndGet() == 0) {
+				future.complete(results);
+			} else {
+				startNext();
+			}
+		}
+	}
+
+	private Object execute(XmlRpcServer pServer, Object pCall) throws XmlRpcException {
+		if (!(pCall instanceof Map)) {
+			throw new XmlRpcException("Invalid call in " + MULTICALL + ": Expected a struct");
+		}
+		final Map call = (Map) pCall;
+		final Object name = call.get("methodName");
+		if (!(name instanceof String)) {
+			throw new XmlRpcException("Invalid call in " + MULTICALL + ": Missing methodName");
+		}
+		final String methodName = (String) name;
+		if (MULTICALL.equals(methodName)) {
+			throw new XmlRpcException("Recursive " + MULTICALL + " is forbidden");
+		}
+		final Object params = call.get("params");
+		final Object[] args;
+		if (params == null) {
+			args = new Object[0];
+		} else if (params instanceof Object[]) {
+			args = (Object[]) params;
+		} else if (params instanceof List) {
+			args = ((List) params).toArray();
+		} else {
+			throw new XmlRpcException("Invalid call in " + MULTICALL + ": Expected an array of params");
+		}
+		final XmlRpcRequestConfig config = request == null ? null : request.getConfig();
+		final XmlRpcRequest subRequest = new XmlRpcRequest(){
+			public XmlRpcRequestConfig getConfig() { return config; }
+			public String getMethodName() { return methodName; }
+			public int getParameterCount() { return args.length; }
+			public Object getParameter(int pIndex) { return args[pIndex]; }
+		};
+		if (pServer == null) {
+			// Not invoked by a server, for example by a unit test.
+			return mapping.getHandler(methodName).execute(subRequest);
+		}
+		return pServer.executeNested(subRequest);
+	}
+
+	private static Map newFault(Throwable pError) {
+		final Map fault = new HashMap();
+		fault.put("faultCode", new Integer(pError instanceof XmlRpcException ? ((XmlRpcException) pError).code : 0));
+		fault.put("faultString", pError.getMessage() == null ? pError.getClass().getName() : pError.getMessage());
+		return fault;
+	}
+
 	/**
      * Adds an instance of this class to the given handler
      * mapping.
@@ -79,8 +279,21 @@ public class XmlRpcSystemImpl {
 	 */
 	public static void addSystemHandler(final PropertyHandlerMapping pMapping)
             throws XmlRpcException {
+        addSystemHandler(pMapping, new XmlRpcSystemImpl(pMapping));
+    }
+
+	/**
+     * Adds the given instance of this class to the given handler
+     * mapping. This allows to configure the instance, for example
+     * the "system.multicall" executor.
+	 *
+	 * @param pMapping the property handler mapping
+	 * @param pSystemHandler the instance, which implements the "system" calls
+	 @throws XmlRpcException if an internal error occurs
+	 */
+	public static void addSystemHandler(final PropertyHandlerMapping pMapping,
+            final XmlRpcSystemImpl pSystemHandler) throws XmlRpcException {
 	    final RequestProcessorFactoryFactory factory = pMapping.getRequestProcessorFactoryFactory();
-        final XmlRpcSystemImpl systemHandler = new XmlRpcSystemImpl(pMapping);
         pMapping.setRequestProcessorFactoryFactory(new RequestProcessorFactoryFactory(){
             public RequestProcessorFactory getRequestProcessorFactory(Class pClass)
                     throws XmlRpcException {
@@ -88,7 +301,9 @@ public class XmlRpcSystemImpl {
                     return new RequestProcessorFactory(){
                         public Object getRequestProcessor(XmlRpcRequest request)
                                 throws XmlRpcException {
-                            return systemHandler;
+                            // The calls of a "system.multicall" inherit
+                            // the requests configuration.
+                            return new XmlRpcSystemImpl(pSystemHandler, request);
                         }
                     };
                 } else {
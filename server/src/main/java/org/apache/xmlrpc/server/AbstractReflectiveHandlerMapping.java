@@ -21,10 +21,12 @@ package org.apache.xmlrpc.server;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcHandler;
@@ -57,11 +59,54 @@ public abstract class AbstractReflectiveHandlerMapping
             throws XmlRpcException;
     }
 
+    /** Configures the methods, while the handlers are being replaced by
+     * {@link AbstractReflectiveHandlerMapping#setHandlers(Map, Configurator)}.
+     */
+    protected interface Configurator {
+        /** Invokes the configuration methods of the mapping.
+         * @throws XmlRpcException The configuration is invalid.
+         */
+        void configure() throws XmlRpcException;
+    }
+
+    /** The cache, single flight, and bulkhead configuration of the
+     * methods. Instances are immutable, once they have been published,
+     * as the attachment of the {@link #handlerMap}, so that the handlers
+     * and their options may be replaced with a single update.
+     */
+    private static class MethodOptions {
+        final Map cacheTimeToLive;
+        final Map singleFlight;
+        final Map bulkheads;
+        MethodOptions() {
+            cacheTimeToLive = new HashMap();
+            singleFlight = new HashMap();
+            bulkheads = new HashMap();
+        }
+        MethodOptions(MethodOptions pOptions) {
+            cacheTimeToLive = new HashMap(pOptions.cacheTimeToLive);
+            singleFlight = new HashMap(pOptions.singleFlight);
+            bulkheads = new HashMap(pOptions.bulkheads);
+        }
+    }
+    private static final MethodOptions NO_OPTIONS = new MethodOptions();
+
     private TypeConverterFactory typeConverterFactory = new TypeConverterFactoryImpl();
-    protected Map handlerMap = new HashMap();
+    /** Maps handler names to instances of {@link XmlRpcHandler}. The
+     * map is thread safe, and optimized for lookups, so that handlers
+     * may be added, or removed, while requests are being processed.
+     */
+    protected Map handlerMap = new CopyOnWriteMap();
     private AuthenticationHandler authenticationHandler;
     private RequestProcessorFactoryFactory requestProcessorFactoryFactory = new RequestProcessorFactoryFactory.RequestSpecificProcessorFactoryFactory();
     private boolean voidMethodEnabled;
+    private int overloadCacheSize = 64;
+    private int maxBatchSize;
+    private long batchDelay = 5;
+    private Executor batchExecutor;
+    private ResultCache resultCache;
+    private MethodOptions stagedOptions;
+    private volatile Thread stagingThread;
 
     /**
      * Sets the mappings {@link TypeConverterFactory}.
@@ -94,6 +139,279 @@ public abstract class AbstractReflectiveHandlerMapping
         return requestProcessorFactoryFactory;
     }
 
+    /** Sets the maximum number of argument signatures, for which
+     * a handler with overloaded methods caches the resolved method.
+     * The cache assumes, that the {@link TypeConverterFactory TypeConverterFactory's}
+     * converters depend on the arguments classes only, which is true
+     * for the default converters. Note, that this doesn't affect
+     * already registered handlers.
+     * @param pSize the cache size, or 0 for resolving the method
+     * on every call. Defaults to 64.
+     */
+    public void setOverloadCacheSize(int pSize) {
+        overloadCacheSize = pSize;
+    }
+
+    /** Returns the maximum number of argument signatures, for which
+     * a handler with overloaded methods caches the resolved method.
+     * @return the cache size, or 0, if the cache is disabled.
+     * Defaults to 64.
+     */
+    public int getOverloadCacheSize() {
+        return overloadCacheSize;
+    }
+
+    /** Sets the maximum number of calls, which are passed to a
+     * {@link BatchRequestProcessor} with a single invocation. A batch is
+     * performed immediately, when it reaches this size. Only calls of
+     * the same method, which are passed to the same request processor,
+     * are batched, so batching is useful for request processors, which
+     * are shared by the requests, like those of the
+     * {@link RequestProcessorFactoryFactory.StatelessProcessorFactoryFactory}.
+     * Note, that this doesn't affect already registered handlers.
+     * @param pSize the maximum batch size, or 0 for invoking the
+     * methods of a {@link BatchRequestProcessor} one by one. Defaults
+     * to 0.
+     */
+    public void setMaxBatchSize(int pSize) {
+        maxBatchSize = pSize;
+    }
+
+    /** Returns the maximum number of calls, which are passed to a
+     * {@link BatchRequestProcessor} with a single invocation.
+     * @return the maximum batch size, or 0, if batching is disabled.
+     * Defaults to 0.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /** Sets the time, for which the first call of a batch waits for
+     * further calls, before the batch is performed. Note, that this
+     * doesn't affect already registered handlers.
+     * @param pMillis the delay in milliseconds. Defaults to 5.
+     */
+    public void setBatchDelay(long pMillis) {
+        batchDelay = pMillis;
+    }
+
+    /** Returns the time, for which the first call of a batch waits for
+     * further calls, before the batch is performed.
+     * @return the delay in milliseconds. Defaults to 5.
+     */
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    /** Sets the executor, which performs batches, when their delay
+     * has expired. Batches, which are full, are performed by the thread,
+     * which adds the last call. Note, that this doesn't affect already
+     * registered handlers.
+     * @param pExecutor the executor, or null for a shared pool of
+     * daemon threads, which is created on demand. Defaults to null.
+     */
+    public void setBatchExecutor(Executor pExecutor) {
+        batchExecutor = pExecutor;
+    }
+
+    /** Returns the executor, which performs batches, when their delay
+     * has expired.
+     * @return the executor, or null for a shared pool of daemon threads.
+     */
+    public Executor getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    /** Sets the cache for the results of idempotent methods. The
+     * methods, which are cached, are configured by invoking
+     * {@link #setCacheTimeToLive(String, long)}.
+     * @param pCache the result cache, or null for disabling the cache.
+     */
+    public void setResultCache(ResultCache pCache) {
+        resultCache = pCache;
+    }
+
+    /** Returns the cache for the results of idempotent methods.
+     * @return the result cache, or null, if the cache is disabled.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /** Sets the time, for which the results of the given method are
+     * cached. The method must be idempotent: Its result must depend on
+     * the parameters only, and not on the user, or the time of the call.
+     * The cache stores copies of the results, so that callers can't
+     * modify them, and results of types, which it can't copy, aren't
+     * cached. See {@link ResultCache} for details.
+     * If no {@link #setResultCache(ResultCache) result cache} is set, then
+     * a cache with the default limits is created.
+     * @param pHandlerName the handler name, for example "Calculator.add".
+     * @param pMillis the time to live in milliseconds, or 0 for not
+     * caching the methods results.
+     */
+    public synchronized void setCacheTimeToLive(String pHandlerName, long pMillis) {
+        final MethodOptions options = new MethodOptions(getOptions());
+        if (pMillis <= 0) {
+            options.cacheTimeToLive.remove(pHandlerName);
+            final ResultCache cache = resultCache;
+            if (cache != null) {
+                cache.remove(pHandlerName);
+            }
+        } else {
+            if (resultCache == null) {
+                resultCache = new ResultCache();
+            }
+            options.cacheTimeToLive.put(pHandlerName, new Long(pMillis));
+        }
+        setOptions(options);
+    }
+
+    /** Returns the time, for which the results of the given method are
+     * cached.
+     * @param pHandlerName the handler name, for example "Calculator.add".
+     * @return the time to live in milliseconds, or 0, if the methods
+     * results aren't cached.
+     */
+    public long getCacheTimeToLive(String pHandlerName) {
+        final Long millis = (Long) getOptions().cacheTimeToLive.get(pHandlerName);
+        return millis == null ? 0 : millis.longValue();
+    }
+
+    /** Sets, whether identical concurrent calls of the given method
+     * share a single execution: If a call arrives, while another call
+     * with the same parameters is still being processed, then it waits
+     * for, and returns the result of the other call. Like
+     * {@link #setCacheTimeToLive(String, long) caching}, this requires,
+     * that the method is idempotent.
+     * @param pHandlerName the handler name, for example "Calculator.add".
+     * @param pSingleFlight true for sharing the execution of identical
+     * concurrent calls. Defaults to false.
+     */
+    public synchronized void setSingleFlight(String pHandlerName, boolean pSingleFlight) {
+        final MethodOptions options = new MethodOptions(getOptions());
+        if (pSingleFlight) {
+            options.singleFlight.put(pHandlerName, Boolean.TRUE);
+        } else {
+            options.singleFlight.remove(pHandlerName);
+        }
+        setOptions(options);
+    }
+
+    /** Returns, whether identical concurrent calls of the given method
+     * share a single execution.
+     * @param pHandlerName the handler name, for example "Calculator.add".
+     * @return true, if the execution of identical concurrent calls is
+     * shared. Defaults to false.
+     */
+    public boolean isSingleFlight(String pHandlerName) {
+        return getOptions().singleFlight.containsKey(pHandlerName);
+    }
+
+    /** Sets the bulkhead, which limits the number of concurrent calls
+     * of the given method, or of all methods of the given handler class.
+     * The limits are enforced by the {@link XmlRpcServerWorkerFactory}.
+     * A bulkhead for a method takes precedence over a bulkhead for its
+     * class.
+     * @param pName the handler name, for example "Calculator.add", or
+     * the class key, for example "Calculator".
+     * @param pBulkhead the bulkhead, or null for removing the limit.
+     */
+    public synchronized void setBulkhead(String pName, Bulkhead pBulkhead) {
+        final MethodOptions options = new MethodOptions(getOptions());
+        if (pBulkhead == null) {
+            options.bulkheads.remove(pName);
+        } else {
+            options.bulkheads.put(pName, pBulkhead);
+        }
+        setOptions(options);
+    }
+
+    /** Returns the bulkhead, which limits the number of concurrent
+     * calls of the given method, or of all methods of the given class.
+     * @param pName the handler name, for example "Calculator.add", or
+     * the class key, for example "Calculator".
+     * @return the bulkhead, or null, if no limit has been set.
+     */
+    public Bulkhead getBulkhead(String pName) {
+        return (Bulkhead) getOptions().bulkheads.get(pName);
+    }
+
+    /** Removes the cache, single flight, and bulkhead configuration of
+     * all methods, and clears the result cache.
+     */
+    protected synchronized void clearMethodOptions() {
+        setOptions(new MethodOptions());
+        final ResultCache cache = resultCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /** Replaces all handlers, and the configuration of all methods,
+     * with a single update: Until this method returns, the configuration
+     * methods, like {@link #setCacheTimeToLive(String, long)}, or
+     * {@link #setBulkhead(String, Bulkhead)}, invoked by the current
+     * thread, start from scratch, and are not visible to other threads.
+     * Then the new handlers, and their configuration, are published
+     * together, and the result cache is cleared.
+     * @param pHandlers A map of handler names to instances of
+     * {@link XmlRpcHandler}.
+     * @param pConfigurator Invokes the configuration methods.
+     * @throws XmlRpcException The configurator failed. In that case,
+     * the old handlers and configuration remain.
+     */
+    protected synchronized void setHandlers(Map pHandlers, Configurator pConfigurator)
+            throws XmlRpcException {
+        stagedOptions = new MethodOptions();
+        stagingThread = Thread.currentThread();
+        try {
+            pConfigurator.configure();
+            getHandlerMap().setContents(pHandlers, stagedOptions);
+        } finally {
+            stagingThread = null;
+            stagedOptions = null;
+        }
+        final ResultCache cache = resultCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    private MethodOptions getOptions() {
+        if (stagingThread == Thread.currentThread()) {
+            return stagedOptions;
+        }
+        final MethodOptions options = (MethodOptions) getHandlerMap().getAttachment();
+        return options == null ? NO_OPTIONS : options;
+    }
+
+    private void setOptions(MethodOptions pOptions) {
+        if (stagingThread == Thread.currentThread()) {
+            stagedOptions = pOptions;
+        } else {
+            getHandlerMap().setAttachment(pOptions);
+        }
+    }
+
+    /** Returns the {@link #handlerMap}, which carries the method options,
+     * replacing it with a {@link CopyOnWriteMap}, if necessary.
+     */
+    private CopyOnWriteMap getHandlerMap() {
+        final Map map = handlerMap;
+        if (map instanceof CopyOnWriteMap) {
+            return (CopyOnWriteMap) map;
+        }
+        synchronized (this) {
+            if (!(handlerMap instanceof CopyOnWriteMap)) {
+                final CopyOnWriteMap cowMap = new CopyOnWriteMap();
+                cowMap.putAll(handlerMap);
+                handlerMap = cowMap;
+            }
+            return (CopyOnWriteMap) handlerMap;
+        }
+    }
+
     /** Returns the authentication handler, if any, or null.
      * @return the authentication handler
      */
@@ -121,9 +439,28 @@ public abstract class AbstractReflectiveHandlerMapping
         if (pMethod.getDeclaringClass() == Object.class) {
             return false;  // Ignore methods from Object.class
         }
+        if (isCallbackMethod(pMethod, BatchRequestProcessor.class)
+                ||  isCallbackMethod(pMethod, RequestProcessorFactoryFactory.Resettable.class)) {
+            return false;  // Ignore methods, which are invoked by the framework
+        }
         return true;
     }
 
+    /** Returns, whether the given method implements a method of the given
+     * interface.
+     */
+    private static boolean isCallbackMethod(Method pMethod, Class pInterface) {
+        if (!pInterface.isAssignableFrom(pMethod.getDeclaringClass())) {
+            return false;
+        }
+        try {
+            pInterface.getMethod(pMethod.getName(), pMethod.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     /** Searches for methods in the given class. For any valid
      * method, it creates an instance of {@link XmlRpcHandler}.
      * Valid methods are defined as follows:
@@ -133,6 +470,9 @@ public abstract class AbstractReflectiveHandlerMapping
      *   <li>The return type must not be void.</li>
      *   <li>The declaring class must not be
      *     {@link java.lang.Object}.</li>
+     *   <li>They must not implement the methods of
+     *     {@link BatchRequestProcessor}, or
+     *     {@link RequestProcessorFactoryFactory.Resettable}.</li>
      *   <li>If multiple methods with the same name exist,
      *     which meet the above conditins, then an attempt is
      *     made to identify a method with a matching signature.
@@ -150,8 +490,22 @@ public abstract class AbstractReflectiveHandlerMapping
      * @param pType The class being inspected.
      * @throws XmlRpcException if an internal error occurs
      */
-    protected void registerPublicMethods(String pKey,
+    protected synchronized void registerPublicMethods(String pKey,
     		Class pType) throws XmlRpcException {
+        // All handlers of the class become visible at once.
+        handlerMap.putAll(newHandlers(pKey, pType));
+    }
+
+    /** Creates the handlers for the public methods in the given class,
+     * as described by {@link #registerPublicMethods(String, Class)},
+     * without adding them to the mapping.
+     * @param pKey Suffix for building handler names. A dot and
+     * the method name are being added.
+     * @param pType The class being inspected.
+     * @return A map of handler names to handlers.
+     * @throws XmlRpcException if an internal error occurs
+     */
+    protected Map newHandlers(String pKey, Class pType) throws XmlRpcException {
     	Map map = new HashMap();
         Method[] methods = pType.getMethods();
         for (int i = 0;  i < methods.length;  i++) {
@@ -172,12 +526,51 @@ public abstract class AbstractReflectiveHandlerMapping
             map.put(name, mArray);
         }
 
+        Map result = new HashMap();
         for (Iterator iter = map.entrySet().iterator();  iter.hasNext();  ) {
             Map.Entry entry = (Map.Entry) iter.next();
             String name = (String) entry.getKey();
             Method[] mArray = (Method[]) entry.getValue();
-            handlerMap.put(name, newXmlRpcHandler(pType, mArray));
+            result.put(name, newXmlRpcHandler(pType, mArray));
         }
+        return result;
+    }
+
+    /** Removes the given handlers with a single update, so that
+     * concurrent requests see either all, or none of them. The cache,
+     * single flight, and bulkhead configuration of the given names is
+     * removed as well, and their results are removed from the cache.
+     * @param pNames The names of the handlers being removed.
+     */
+    protected synchronized void removeHandlers(Collection pNames) {
+        final CopyOnWriteMap map = getHandlerMap();
+        final Map handlers = new HashMap(map);
+        final MethodOptions options = new MethodOptions(getOptions());
+        for (Iterator iter = pNames.iterator();  iter.hasNext();  ) {
+            final Object name = iter.next();
+            handlers.remove(name);
+            options.cacheTimeToLive.remove(name);
+            options.singleFlight.remove(name);
+            options.bulkheads.remove(name);
+        }
+        map.setContents(handlers, options);
+        final ResultCache cache = resultCache;
+        if (cache != null) {
+            for (Iterator iter = pNames.iterator();  iter.hasNext();  ) {
+                cache.remove((String) iter.next());
+            }
+        }
+    }
+
+    /** Replaces all handlers with a single update. Requests, which
+     * are being processed, continue to use the old handlers. New
+     * requests see either the old, or the new handlers, but never
+     * a mix of both.
+     * @param pHandlers A map of handler names to instances of
+     * {@link XmlRpcHandler}.
+     */
+    protected synchronized void setHandlers(Map pHandlers) {
+        getHandlerMap().setContents(pHandlers);
     }
 
     /** Creates a new instance of {@link XmlRpcHandler}.
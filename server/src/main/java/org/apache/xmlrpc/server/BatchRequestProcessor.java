@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.server;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+
+/** May be implemented by request processors, which are able to
+ * perform multiple calls of the same method with a single invocation,
+ * for example by loading multiple database rows with a single query.
+ * Rather than invoking the method for every call, the
+ * {@link ReflectiveXmlRpcHandler} collects the calls, which arrive
+ * within a short time window, and passes their arguments to
+ * {@link #executeBatch(String, Object[][])}. Only calls of the same
+ * method, which are passed to the same instance, are collected. Batching
+ * is disabled by default. The window is configured
+ * by {@link AbstractReflectiveHandlerMapping#setMaxBatchSize(int)},
+ * and {@link AbstractReflectiveHandlerMapping#setBatchDelay(long)}.
+ */
+public interface BatchRequestProcessor {
+	/** Performs multiple calls of the given method.
+	 * @param pMethodName The name of the Java method, which would
+	 * otherwise be invoked for any call.
+	 * @param pArgs The arguments of the calls, one array per call,
+	 * which have already been converted to the methods parameter
+	 * types.
+	 * @return The results, one per call, in the same order. A result,
+	 * which is an instance of {@link Throwable}, is reported as the
+	 * failure of the respective call.
+	 * @throws XmlRpcException All calls failed.
+	 */
+	Object[] executeBatch(String pMethodName, Object[][] pArgs) throws XmlRpcException;
+}
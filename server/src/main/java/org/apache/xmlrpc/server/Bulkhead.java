@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.xmlrpc.common.XmlRpcLoadException;
+
+
+/** Limits the number of concurrent requests for a handler method, or
+ * for all methods of a handler class. Unlike the servers global
+ * {@link org.apache.xmlrpc.XmlRpcConfig maximum number of threads},
+ * this prevents a slow method from occupying all threads, so that
+ * other methods are still served.<br>
+ * If the limit is reached, then up to the maximum number of queued
+ * requests wait for a free slot. Further requests are rejected with an
+ * {@link XmlRpcLoadException}. The slot is obtained before the
+ * request takes one of the servers global slots, so that waiting
+ * requests don't reduce the servers capacity. If a handler returns a
+ * {@link java.util.concurrent.CompletionStage}, then its slot is held,
+ * until the stage is complete.<br>
+ * The bulkhead is thread safe.
+ * @see AbstractReflectiveHandlerMapping#setBulkhead(String, Bulkhead)
+ * @see XmlRpcServerWorkerFactory
+ */
+public class Bulkhead {
+	private final Lock lock = new ReentrantLock();
+	private final Condition slotAvailable = lock.newCondition();
+	private volatile int maxConcurrentRequests;
+	private volatile int maxQueuedRequests;
+	private volatile long queueTimeout = 5000;
+	private int activeRequests, queuedRequests;
+	private long rejectedRequests;
+
+	/** Creates a new instance, which rejects requests immediately,
+	 * if the given limit is reached.
+	 * @param pMaxConcurrentRequests The maximum number of concurrent
+	 * requests.
+	 */
+	public Bulkhead(int pMaxConcurrentRequests) {
+		setMaxConcurrentRequests(pMaxConcurrentRequests);
+	}
+
+	/** Sets the maximum number of concurrent requests.
+	 * @param pMax The maximum number of concurrent requests, at least 1.
+	 */
+	public void setMaxConcurrentRequests(int pMax) {
+		if (pMax <= 0) {
+			throw new IllegalArgumentException("Invalid number of concurrent requests: " + pMax);
+		}
+		lock.lock();
+		try {
+			maxConcurrentRequests = pMax;
+			slotAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Returns the maximum number of concurrent requests.
+	 * @return The maximum number of concurrent requests.
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	/** Sets the maximum number of requests, which wait for a free
+	 * slot, if the maximum number of concurrent requests is reached.
+	 * @param pMax The maximum number of waiting requests, or 0 for
+	 * rejecting requests immediately. Defaults to 0.
+	 */
+	public void setMaxQueuedRequests(int pMax) {
+		if (pMax < 0) {
+			throw new IllegalArgumentException("Invalid number of queued requests: " + pMax);
+		}
+		maxQueuedRequests = pMax;
+	}
+
+	/** Returns the maximum number of requests, which wait for a free
+	 * slot.
+	 * @return The maximum number of waiting requests. Defaults to 0.
+	 */
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/** Sets the maximum time, for which a queued request waits for a
+	 * free slot, before it is rejected. A queued request occupies a
+	 * thread of the transport, so waiting without timeout isn't
+	 * recommended.
+	 * @param pMillis The timeout in milliseconds, or 0 for waiting
+	 * without timeout. Defaults to 5000.
+	 */
+	public void setQueueTimeout(long pMillis) {
+		if (pMillis < 0) {
+			throw new IllegalArgumentException("Invalid queue timeout: " + pMillis);
+		}
+		queueTimeout = pMillis;
+	}
+
+	/** Returns the maximum time, for which a queued request waits for
+	 * a free slot.
+	 * @return The timeout in milliseconds, or 0, if requests wait
+	 * without timeout. Defaults to 5000.
+	 */
+	public long getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/** Returns the number of requests, which are currently being processed.
+	 * @return Number of requests.
+	 */
+	public int getActiveRequests() {
+		lock.lock();
+		try {
+			return activeRequests;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Returns the number of requests, which are currently waiting
+	 * for a free slot.
+	 * @return Number of requests.
+	 */
+	public int getQueuedRequests() {
+		lock.lock();
+		try {
+			return queuedRequests;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Returns the number of requests, which have been rejected.
+	 * @return Number of requests.
+	 */
+	public long getRejectedRequests() {
+		lock.lock();
+		try {
+			return rejectedRequests;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Obtains a slot for the given request, waiting if necessary.
+	 * @param pMethodName The requests method name, for error messages.
+	 * @throws XmlRpcLoadException No slot is available.
+	 */
+	void acquire(String pMethodName) throws XmlRpcLoadException {
+		lock.lock();
+		try {
+			if (activeRequests < maxConcurrentRequests) {
+				++activeRequests;
+				return;
+			}
+			if (queuedRequests >= maxQueuedRequests) {
+				++rejectedRequests;
+				throw new XmlRpcLoadException("Maximum number of concurrent requests for "
+						+ pMethodName + " exceeded: " + maxConcurrentRequests);
+			}
+			++queuedRequests;
+			try {
+				final long timeout = queueTimeout;
+				long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+				while (activeRequests >= maxConcurrentRequests) {
+					if (timeout == 0) {
+						slotAvailable.await();
+					} else if (nanos > 0) {
+						nanos = slotAvailable.awaitNanos(nanos);
+					} else {
+						++rejectedRequests;
+						throw new XmlRpcLoadException("Timeout while waiting for a free slot for "
+								+ pMethodName + ": " + timeout + " ms");
+					}
+				}
+				++activeRequests;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				slotAvailable.signal(); // Pass on a signal, which may have been consumed.
+				++rejectedRequests;
+				throw new XmlRpcLoadException("Interrupted while waiting for a free slot for "
+						+ pMethodName);
+			} finally {
+				--queuedRequests;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Releases a slot, which has been obtained by {@link #acquire(String)}.
+	 */
+	void release() {
+		lock.lock();
+		try {
+			--activeRequests;
+			slotAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
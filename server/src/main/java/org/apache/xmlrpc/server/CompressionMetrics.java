@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Counters, which are maintained by the {@link XmlRpcStreamServer},
+ * if compressed content encodings are in use. The counters may be used to
+ * tune the compression level, and the minimum compression size.
+ * @see XmlRpcStreamServer#setCompressionLevel(int)
+ * @see XmlRpcStreamServer#setMinCompressionSize(int)
+ */
+public class CompressionMetrics {
+	private final AtomicLong compressedResponses = new AtomicLong();
+	private final AtomicLong uncompressedBytes = new AtomicLong();
+	private final AtomicLong compressedBytes = new AtomicLong();
+	private final AtomicLong compressionNanos = new AtomicLong();
+	private final AtomicLong skippedResponses = new AtomicLong();
+	private final AtomicLong skippedBytes = new AtomicLong();
+	private final AtomicLong decompressedRequests = new AtomicLong();
+
+	void compressed(long pUncompressedBytes, long pCompressedBytes, long pNanos) {
+		compressedResponses.incrementAndGet();
+		uncompressedBytes.addAndGet(pUncompressedBytes);
+		compressedBytes.addAndGet(pCompressedBytes);
+		compressionNanos.addAndGet(pNanos);
+	}
+
+	void skipped(long pBytes) {
+		skippedResponses.incrementAndGet();
+		skippedBytes.addAndGet(pBytes);
+	}
+
+	void decompressed() {
+		decompressedRequests.incrementAndGet();
+	}
+
+	/** Returns the number of compressed responses.
+	 * @return Number of responses.
+	 */
+	public long getCompressedResponses() {
+		return compressedResponses.get();
+	}
+
+	/** Returns the total size of the compressed responses,
+	 * before compression.
+	 * @return Number of bytes.
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.get();
+	}
+
+	/** Returns the total size of the compressed responses,
+	 * after compression.
+	 * @return Number of bytes.
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	/** Returns the time, which has been spent in compressing responses.
+	 * @return Time in nanoseconds.
+	 */
+	public long getCompressionNanos() {
+		return compressionNanos.get();
+	}
+
+	/** Returns the number of responses, which have been sent
+	 * uncompressed, although the client did accept a compressed encoding,
+	 * because they were smaller than the minimum compression size.
+	 * @return Number of responses.
+	 */
+	public long getSkippedResponses() {
+		return skippedResponses.get();
+	}
+
+	/** Returns the total size of the responses, which have been sent
+	 * uncompressed, because they were smaller than the minimum
+	 * compression size.
+	 * @return Number of bytes.
+	 */
+	public long getSkippedBytes() {
+		return skippedBytes.get();
+	}
+
+	/** Returns the number of compressed requests.
+	 * @return Number of requests.
+	 */
+	public long getDecompressedRequests() {
+		return decompressedRequests.get();
+	}
+
+	/** Returns the ratio of compressed to uncompressed bytes.
+	 * @return A value between 0 and 1, typically, or 1, if no
+	 * response has been compressed so far.
+	 */
+	public double getCompressionRatio() {
+		final long uncompressed = uncompressedBytes.get();
+		if (uncompressed == 0) {
+			return 1;
+		}
+		return (double) compressedBytes.get() / uncompressed;
+	}
+
+	/** Returns the estimated time, which has been saved by not
+	 * compressing small responses, based on the average compression
+	 * speed.
+	 * @return Time in nanoseconds.
+	 */
+	public long getSavedCompressionNanos() {
+		final long uncompressed = uncompressedBytes.get();
+		if (uncompressed == 0) {
+			return 0;
+		}
+		return (long) ((double) compressionNanos.get() * skippedBytes.get() / uncompressed);
+	}
+}
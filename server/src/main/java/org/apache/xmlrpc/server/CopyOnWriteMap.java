@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.server;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+
+/** A thread safe map, which is optimized for frequent reads and rare
+ * updates, like the handler map of the
+ * {@link AbstractReflectiveHandlerMapping}. Reads are served from an
+ * immutable snapshot without locking. Updates copy the snapshot, and
+ * publish the copy, so that readers see either the old, or the new
+ * contents, but never a partial update. Iterators are working on the
+ * snapshot, which was current when the iterator was created.<br>
+ * The snapshot may carry an immutable attachment, which is published
+ * together with the contents, like the method options of the
+ * {@link AbstractReflectiveHandlerMapping}.
+ */
+class CopyOnWriteMap extends AbstractMap {
+	private static class Snapshot {
+		final Map map;
+		final Object attachment;
+		Snapshot(Map pMap, Object pAttachment) {
+			map = pMap;
+			attachment = pAttachment;
+		}
+	}
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.EMPTY_MAP, null);
+
+	public Object get(Object pKey) {
+		return snapshot.map.get(pKey);
+	}
+
+	public boolean containsKey(Object pKey) {
+		return snapshot.map.containsKey(pKey);
+	}
+
+	public int size() {
+		return snapshot.map.size();
+	}
+
+	public synchronized Object put(Object pKey, Object pValue) {
+		final Map map = new HashMap(snapshot.map);
+		final Object result = map.put(pKey, pValue);
+		snapshot = new Snapshot(map, snapshot.attachment);
+		return result;
+	}
+
+	public synchronized void putAll(Map pMap) {
+		final Map map = new HashMap(snapshot.map);
+		map.putAll(pMap);
+		snapshot = new Snapshot(map, snapshot.attachment);
+	}
+
+	public synchronized Object remove(Object pKey) {
+		if (!snapshot.map.containsKey(pKey)) {
+			return null;
+		}
+		final Map map = new HashMap(snapshot.map);
+		final Object result = map.remove(pKey);
+		snapshot = new Snapshot(map, snapshot.attachment);
+		return result;
+	}
+
+	/** Removes the given keys with a single update.
+	 * @param pKeys The keys being removed.
+	 */
+	public synchronized void removeAll(Collection pKeys) {
+		final Map map = new HashMap(snapshot.map);
+		for (Iterator iter = pKeys.iterator();  iter.hasNext();  ) {
+			map.remove(iter.next());
+		}
+		snapshot = new Snapshot(map, snapshot.attachment);
+	}
+
+	/** Replaces the contents with a single update.
+	 * @param pMap The new contents.
+	 */
+	public synchronized void setContents(Map pMap) {
+		snapshot = new Snapshot(new HashMap(pMap), snapshot.attachment);
+	}
+
+	/** Replaces the contents, and the attachment with a single update.
+	 * @param pMap The new contents.
+	 * @param pAttachment The new attachment, which must not be modified
+	 * afterwards.
+	 */
+	public synchronized void setContents(Map pMap, Object pAttachment) {
+		snapshot = new Snapshot(new HashMap(pMap), pAttachment);
+	}
+
+	/** Returns the attachment of the current snapshot.
+	 * @return The attachment, or null.
+	 */
+	public Object getAttachment() {
+		return snapshot.attachment;
+	}
+
+	/** Replaces the attachment, keeping the contents.
+	 * @param pAttachment The new attachment, which must not be modified
+	 * afterwards.
+	 */
+	public synchronized void setAttachment(Object pAttachment) {
+		snapshot = new Snapshot(snapshot.map, pAttachment);
+	}
+
+	public synchronized void clear() {
+		snapshot = new Snapshot(Collections.EMPTY_MAP, snapshot.attachment);
+	}
+
+	public Set entrySet() {
+		final Map map = snapshot.map;
+		return new AbstractSet(){
+			public Iterator iterator() {
+				final Iterator iter = map.entrySet().iterator();
+				return new Iterator(){
+					private Map.Entry current;
+					public boolean hasNext() {
+						return iter.hasNext();
+					}
+					public Object next() {
+						final Map.Entry entry = (Map.Entry) iter.next();
+						current = entry;
+						return new SimpleImmutableEntry(entry);
+					}
+					public void remove() {
+						if (current == null) {
+							throw new IllegalStateException();
+						}
+						CopyOnWriteMap.this.remove(current.getKey());
+						current = null;
+					}
+				};
+			}
+			public int size() {
+				return map.size();
+			}
+		};
+	}
+}
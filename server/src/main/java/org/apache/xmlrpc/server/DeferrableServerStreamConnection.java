@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.server;
+
+import org.apache.xmlrpc.common.ServerStreamConnection;
+
+
+/** A {@link ServerStreamConnection}, which allows the
+ * {@link XmlRpcStreamServer} to write the response after
+ * {@link XmlRpcStreamServer#execute(org.apache.xmlrpc.common.XmlRpcStreamRequestConfig, ServerStreamConnection)}
+ * has returned. This is used, if the handler returns a
+ * {@link java.util.concurrent.CompletionStage}: Rather than waiting for
+ * the result, the thread, which is processing the connection, is
+ * released, and the response is written by the thread, which completes
+ * the stage.
+ */
+public interface DeferrableServerStreamConnection extends ServerStreamConnection {
+	/** Called by the server, if the handler has returned a
+	 * {@link java.util.concurrent.CompletionStage}, which isn't yet
+	 * complete.
+	 * @return True, if the connection accepts, that the response is
+	 * written later. In that case, the server invokes
+	 * {@link #responseCompleted(Throwable)}, when the response has been
+	 * written. False, if the server must wait for the result.
+	 */
+	boolean deferResponse();
+
+	/** Called by the server, after a deferred response has been written,
+	 * and the connection has been closed. This method may be invoked
+	 * by any thread, possibly even before
+	 * {@link XmlRpcStreamServer#execute(org.apache.xmlrpc.common.XmlRpcStreamRequestConfig, ServerStreamConnection)}
+	 * has returned.
+	 * @param pError Null, if the response has been written successfully,
+	 * or the error, which occurred while writing the response.
+	 */
+	void responseCompleted(Throwable pError);
+}
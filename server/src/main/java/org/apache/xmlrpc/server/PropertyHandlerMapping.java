@@ -20,9 +20,14 @@ package org.apache.xmlrpc.server;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.xmlrpc.XmlRpcException;
 
@@ -34,9 +39,25 @@ import org.apache.xmlrpc.XmlRpcException;
  * class being instantiated. For any non-void, non-static, and
  * public method in the class, an entry in the handler map is
  * generated. A typical use would be, to specify interface names
- * as the property keys and implementations as the values.
+ * as the property keys and implementations as the values.<br>
+ * Property keys of the form <code>handlerName@option</code> configure
+ * the method with the given handler name, for example
+ * <pre>
+ *   Calculator=org.example.CalculatorImpl
+ *   Calculator.add@cacheTimeToLive=60000
+ *   Calculator.add@singleFlight=true
+ *   Reports=org.example.ReportsImpl
+ *   Reports@maxConcurrentRequests=2
+ * </pre>
+ * See {@link #setOption(String, String, String)} for the supported
+ * options.
  */
 public class PropertyHandlerMapping extends AbstractReflectiveHandlerMapping {
+    /** The class keys, which have been loaded from properties, and
+     * are replaced by {@link #reload(ClassLoader, Map)}.
+     */
+    private final Set loadedKeys = new HashSet();
+
     /**
      * Reads handler definitions from a resource file.
      * @param pClassLoader The class loader being used to load
@@ -81,8 +102,118 @@ public class PropertyHandlerMapping extends AbstractReflectiveHandlerMapping {
             Map.Entry entry = (Map.Entry) iter.next();
             String key = (String) entry.getKey();
             String value = (String) entry.getValue();
-            Class c = newHandlerClass(pClassLoader, value);
-            registerPublicMethods(key, c);
+            if (key.indexOf('@') == -1) {
+                Class c = newHandlerClass(pClassLoader, value);
+                registerPublicMethods(key, c);
+                synchronized (this) {
+                    loadedKeys.add(key);
+                }
+            }
+        }
+        setOptions(pMap);
+    }
+
+    private void setOptions(Map pMap) throws XmlRpcException {
+        for (Iterator iter = pMap.entrySet().iterator();  iter.hasNext();  ) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            String key = (String) entry.getKey();
+            int offset = key.indexOf('@');
+            if (offset != -1) {
+                setOption(key.substring(0, offset), key.substring(offset+1),
+                          ((String) entry.getValue()).trim());
+            }
+        }
+    }
+
+    /** Called for property keys of the form <code>handlerName@option</code>.
+     * The bulkhead options may be used with a class key as well, for
+     * example <code>Reports@maxConcurrentRequests=2</code>.
+     * The following options are supported:
+     * <table border="1">
+     *   <tr><th>Option</th><th>Description</th></tr>
+     *   <tr><td>cacheTimeToLive</td>
+     *     <td>The time in milliseconds, for which the methods results
+     *       are cached, see {@link #setCacheTimeToLive(String, long)}.</td></tr>
+     *   <tr><td>singleFlight</td>
+     *     <td>"true", if identical concurrent calls share a single
+     *       execution, see {@link #setSingleFlight(String, boolean)}.</td></tr>
+     *   <tr><td>maxConcurrentRequests</td>
+     *     <td>The maximum number of concurrent calls, see
+     *       {@link #setBulkhead(String, Bulkhead)}, and
+     *       {@link Bulkhead#setMaxConcurrentRequests(int)}.</td></tr>
+     *   <tr><td>maxQueuedRequests</td>
+     *     <td>The maximum number of calls, which are waiting, if the
+     *       maximum number of concurrent calls is reached, see
+     *       {@link Bulkhead#setMaxQueuedRequests(int)}.</td></tr>
+     *   <tr><td>queueTimeout</td>
+     *     <td>The maximum time in milliseconds, for which a call is
+     *       waiting, see {@link Bulkhead#setQueueTimeout(long)}.</td></tr>
+     * </table>
+     * @param pHandlerName The handler name, for example "Calculator.add".
+     * @param pOption The option name.
+     * @param pValue The option value.
+     * @throws XmlRpcException The option is unknown, or the value is invalid.
+     */
+    protected void setOption(String pHandlerName, String pOption, String pValue)
+            throws XmlRpcException {
+        if ("cacheTimeToLive".equals(pOption)) {
+            setCacheTimeToLive(pHandlerName, parseLong(pHandlerName, pOption, pValue));
+        } else if ("singleFlight".equals(pOption)) {
+            setSingleFlight(pHandlerName, Boolean.valueOf(pValue).booleanValue());
+        } else if ("maxConcurrentRequests".equals(pOption)) {
+            final long max = parseLong(pHandlerName, pOption, pValue);
+            if (max <= 0  ||  max > Integer.MAX_VALUE) {
+                throw new XmlRpcException(0, "Invalid value for option " + pOption
+                                          + " of handler " + pHandlerName + ": " + pValue);
+            }
+            getOrCreateBulkhead(pHandlerName).setMaxConcurrentRequests((int) max);
+        } else if ("maxQueuedRequests".equals(pOption)) {
+            final long max = parseLong(pHandlerName, pOption, pValue);
+            if (max < 0  ||  max > Integer.MAX_VALUE) {
+                throw new XmlRpcException(0, "Invalid value for option " + pOption
+                                          + " of handler " + pHandlerName + ": " + pValue);
+            }
+            getOrCreateBulkhead(pHandlerName).setMaxQueuedRequests((int) max);
+        } else if ("queueTimeout".equals(pOption)) {
+            final long millis = parseLong(pHandlerName, pOption, pValue);
+            if (millis < 0) {
+                throw new XmlRpcException(0, "Invalid value for option " + pOption
+                                          + " of handler " + pHandlerName + ": " + pValue);
+            }
+            getOrCreateBulkhead(pHandlerName).setQueueTimeout(millis);
+        } else {
+            throw new XmlRpcException(0, "Unknown option " + pOption
+                                      + " for handler " + pHandlerName);
+        }
+    }
+
+    /** Returns the bulkhead for the given name, creating an unlimited
+     * bulkhead, if necessary. The options may be given in any order,
+     * so the limit is set later on.
+     */
+    private Bulkhead getOrCreateBulkhead(String pName) {
+        Bulkhead bulkhead = getBulkhead(pName);
+        if (bulkhead == null) {
+            bulkhead = new Bulkhead(Integer.MAX_VALUE);
+            setBulkhead(pName, bulkhead);
+        }
+        return bulkhead;
+    }
+
+    /** Parses the value of an option.
+     * @param pHandlerName The handler name, for error messages.
+     * @param pOption The option name, for error messages.
+     * @param pValue The value being parsed.
+     * @return The parsed value.
+     * @throws XmlRpcException The value isn't a valid number.
+     */
+    protected long parseLong(String pHandlerName, String pOption, String pValue)
+            throws XmlRpcException {
+        try {
+            return Long.parseLong(pValue);
+        } catch (NumberFormatException e) {
+            throw new XmlRpcException("Invalid value for option " + pOption
+                                      + " of handler " + pHandlerName + ": " + pValue, e);
         }
     }
 
@@ -112,13 +243,81 @@ public class PropertyHandlerMapping extends AbstractReflectiveHandlerMapping {
         registerPublicMethods(pKey, pClass);
     }
 
-    /** Removes all handlers with the given class key.
+    /** Removes all handlers with the given class key. Their cache,
+     * single flight, and bulkhead options, and the bulkhead of the
+     * class key, are removed as well.
      * @param pKey the class key
      */
     public void removeHandler(String pKey) {
+        List names = new ArrayList();
         for (Iterator i = handlerMap.keySet().iterator(); i.hasNext();) {
             String k = (String)i.next();
-            if (k.startsWith(pKey)) i.remove();
+            if (k.startsWith(pKey)) names.add(k);
+        }
+        names.add(pKey);
+        synchronized (this) {
+            removeHandlers(names);
+            loadedKeys.remove(pKey);
+        }
+    }
+
+    /**
+     * Replaces the handlers, which have been loaded from properties,
+     * with the handler definitions from an existing Map, for example a
+     * property file, which has been reloaded. Other handlers, like those
+     * added by {@link #addHandler(String, Class)}, or the "system"
+     * handlers, remain. The new handlers, and their options, are created
+     * first, and then swapped in with a single update, so that the server
+     * needn't be restarted, and concurrent requests see either the old,
+     * or the new handlers. If creating the new handlers, or parsing the
+     * options fails, then the old handlers remain. Otherwise, the options
+     * of all methods are replaced with those from the map, and the result
+     * cache is cleared.
+     * @param pClassLoader The class loader being used to load
+     *   handler classes.
+     * @param pMap The existing Map to read from
+     * @throws XmlRpcException Initializing the handlers failed.
+     */
+    public void reload(ClassLoader pClassLoader, final Map pMap) throws XmlRpcException {
+        final Map handlers = new HashMap();
+        final Set keys = new HashSet();
+        for (Iterator iter = pMap.entrySet().iterator();  iter.hasNext();  ) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            String key = (String) entry.getKey();
+            String value = (String) entry.getValue();
+            if (key.indexOf('@') == -1) {
+                Class c = newHandlerClass(pClassLoader, value);
+                handlers.putAll(newHandlers(key, c));
+                keys.add(key);
+            }
+        }
+        synchronized (this) {
+            for (Iterator iter = handlerMap.entrySet().iterator();  iter.hasNext();  ) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                String name = (String) entry.getKey();
+                if (!handlers.containsKey(name)  &&  !isLoaded(name)) {
+                    handlers.put(name, entry.getValue());
+                }
+            }
+            setHandlers(handlers, new Configurator(){
+                public void configure() throws XmlRpcException {
+                    setOptions(pMap);
+                }
+            });
+            loadedKeys.clear();
+            loadedKeys.addAll(keys);
+        }
+    }
+
+    /** Returns, whether the given handler has been loaded from properties.
+     */
+    private boolean isLoaded(String pHandlerName) {
+        for (Iterator iter = loadedKeys.iterator();  iter.hasNext();  ) {
+            final String key = (String) iter.next();
+            if (pHandlerName.startsWith(key + ".")) {
+                return true;
+            }
         }
+        return false;
     }
 }
@@ -18,8 +18,29 @@
  */
 package org.apache.xmlrpc.server;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcHandler;
@@ -27,9 +48,11 @@ import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.common.TypeConverter;
 import org.apache.xmlrpc.common.TypeConverterFactory;
 import org.apache.xmlrpc.common.XmlRpcInvocationException;
+import org.apache.xmlrpc.common.XmlRpcLoadException;
 import org.apache.xmlrpc.common.XmlRpcNotAuthorizedException;
 import org.apache.xmlrpc.metadata.Util;
 import org.apache.xmlrpc.server.AbstractReflectiveHandlerMapping.AuthenticationHandler;
+import org.apache.xmlrpc.server.RequestProcessorFactoryFactory.ReleasingRequestProcessorFactory;
 import org.apache.xmlrpc.server.RequestProcessorFactoryFactory.RequestProcessorFactory;
 
 
@@ -38,9 +61,11 @@ import org.apache.xmlrpc.server.RequestProcessorFactoryFactory.RequestProcessorF
 public class ReflectiveXmlRpcHandler implements XmlRpcHandler {
     private static class MethodData {
         final Method method;
+        final MethodHandle handle;
         final TypeConverter[] typeConverters;
         MethodData(Method pMethod, TypeConverterFactory pTypeConverterFactory) {
             method = pMethod;
+            handle = getMethodHandle(pMethod);
             Class[] paramClasses = method.getParameterTypes();
             typeConverters = new TypeConverter[paramClasses.length];
             for (int i = 0;  i < paramClasses.length;  i++) {
@@ -48,10 +73,154 @@ public class ReflectiveXmlRpcHandler implements XmlRpcHandler {
             }
         }
     }
+
+    /** Returns a method handle, which invokes the given method with
+     * the signature <code>(Object instance, Object[] args)Object</code>.
+     * Unlike {@link Method#invoke(Object, Object[])}, the handle doesn't
+     * check access on every call, and is linked once, when the handler
+     * is created. For static methods, the instance is ignored.
+     * @return The method handle, or null, if the method isn't
+     * accessible, or cannot be adapted, in which case reflection
+     * is used.
+     */
+    private static MethodHandle getMethodHandle(Method pMethod) {
+        final int numParams = pMethod.getParameterTypes().length;
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().unreflect(pMethod).asFixedArity();
+            if (Modifier.isStatic(pMethod.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asType(MethodType.genericMethodType(numParams + 1))
+                .asSpreader(Object[].class, numParams);
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    /** Entry of the overload cache: The classes of the actual
+     * arguments, and the resolved method. Entries are immutable, so
+     * that they may be shared by multiple threads without locking.
+     */
+    private static class CacheEntry {
+        final Class[] classes;
+        final MethodData methodData;
+        CacheEntry(Object[] pArgs, MethodData pMethodData) {
+            classes = new Class[pArgs.length];
+            for (int i = 0;  i < pArgs.length;  i++) {
+                classes[i] = pArgs[i] == null ? null : pArgs[i].getClass();
+            }
+            methodData = pMethodData;
+        }
+        boolean isMatching(Object[] pArgs) {
+            if (classes.length != pArgs.length) {
+                return false;
+            }
+            for (int i = 0;  i < pArgs.length;  i++) {
+                if (classes[i] != (pArgs[i] == null ? null : pArgs[i].getClass())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    /** Holder of the scheduler, which triggers batches, when their
+     * delay has expired, and of the default executor, which performs
+     * them. Both are created on demand.
+     */
+    private static class BatchScheduler {
+        static final ScheduledThreadPoolExecutor theScheduler;
+        static final Executor theExecutor;
+        static {
+            theScheduler = new ScheduledThreadPoolExecutor(1, newThreadFactory("XML-RPC Batch Timer"));
+            theScheduler.setRemoveOnCancelPolicy(true);
+            theExecutor = Executors.newCachedThreadPool(newThreadFactory("XML-RPC Batch"));
+        }
+        private static ThreadFactory newThreadFactory(final String pName) {
+            return new ThreadFactory(){
+                public Thread newThread(Runnable pRunnable) {
+                    final Thread thread = new Thread(pRunnable, pName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+    }
+    private static class BatchCall {
+        final Object[] args;
+        final CompletableFuture future = new CompletableFuture();
+        BatchCall(Object[] pArgs) {
+            args = pArgs;
+        }
+    }
+    /** Identifies the calls, which may be batched: Calls of the
+     * same method, which are passed to the same request processor.
+     */
+    private static class BatchKey {
+        final Object instance;
+        final MethodData methodData;
+        BatchKey(Object pInstance, MethodData pMethodData) {
+            instance = pInstance;
+            methodData = pMethodData;
+        }
+        public int hashCode() {
+            return 31 * System.identityHashCode(instance) + methodData.hashCode();
+        }
+        public boolean equals(Object pOther) {
+            if (!(pOther instanceof BatchKey)) {
+                return false;
+            }
+            final BatchKey other = (BatchKey) pOther;
+            return instance == other.instance  &&  methodData == other.methodData;
+        }
+    }
+    /** The calls, which are performed with a single invocation of
+     * {@link BatchRequestProcessor#executeBatch(String, Object[][])}.
+     * A batch is performed once, either by the thread, which adds
+     * the last call, or by the batch executor, when the delay has
+     * expired, whichever comes first.
+     */
+    private class Batch implements Runnable {
+        final BatchKey key;
+        final List calls = new ArrayList();
+        final AtomicBoolean started = new AtomicBoolean();
+        Future timeout;
+        Batch(BatchKey pKey) {
+            key = pKey;
+        }
+        /** Marks the batch as started, so that no more calls are added.
+         * @return False, if the batch has already been started.
+         */
+        boolean start() {
+            if (!started.compareAndSet(false, true)) {
+                return false;
+            }
+            synchronized (batchLock) {
+                if (batches.get(key) == this) {
+                    batches.remove(key);
+                }
+            }
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            return true;
+        }
+        public void run() {
+            if (start()) {
+                executeBatch(this);
+            }
+        }
+    }
     private final AbstractReflectiveHandlerMapping mapping;
 	private final MethodData[] methods;
+    private final CacheEntry[] overloadCache;
     private final Class clazz;
     private final RequestProcessorFactory requestProcessorFactory;
+    private final int maxBatchSize;
+    private final long batchDelay;
+    private final Executor batchExecutor;
+    private final Object batchLock = new Object();
+    private final Map batches = new HashMap();
 
 	/** Creates a new instance.
 	 * @param pMapping The mapping, which creates this handler.
@@ -74,6 +243,22 @@ public class ReflectiveXmlRpcHandler implements XmlRpcHandler {
         for (int i = 0;  i < methods.length;  i++) {
             methods[i] = new MethodData(pMethods[i], pTypeConverterFactory); 
         }
+        // Resolving a single method is as fast as a cache lookup.
+        final int cacheSize = methods.length > 1 ? pMapping.getOverloadCacheSize() : 0;
+        if (cacheSize > 0) {
+            int size = 1;
+            while (size < cacheSize) {
+                size <<= 1;
+            }
+            overloadCache = new CacheEntry[size];
+        } else {
+            overloadCache = null;
+        }
+        maxBatchSize = BatchRequestProcessor.class.isAssignableFrom(pClass)
+            ? pMapping.getMaxBatchSize() : 0;
+        batchDelay = pMapping.getBatchDelay();
+        batchExecutor = pMapping.getBatchExecutor() == null
+            ? BatchScheduler.theExecutor : pMapping.getBatchExecutor();
 	}
 
     private Object getInstance(XmlRpcRequest pRequest) throws XmlRpcException {
@@ -89,30 +274,228 @@ public class ReflectiveXmlRpcHandler implements XmlRpcHandler {
 	    for (int j = 0;  j < args.length;  j++) {
 	        args[j] = pRequest.getParameter(j);
 	    }
+	    MethodData methodData = getMethodData(args);
+	    if (methodData == null) {
+	        throw new XmlRpcException("No method matching arguments: " + Util.getSignature(args));
+	    }
+	    TypeConverter[] converters = methodData.typeConverters;
+	    for (int j = 0;  j < args.length;  j++) {
+	        args[j] = converters[j].convert(args[j]);
+	    }
 	    Object instance = getInstance(pRequest);
+	    if (maxBatchSize > 0) {
+	        return addToBatch(new BatchKey(instance, methodData), new BatchCall(args));
+	    }
+	    boolean released = false;
+	    try {
+	        Object result = invoke(instance, methodData, args);
+	        if (result instanceof CompletionStage) {
+	            // The instance is still in use, until the stage is complete.
+	            released = true;
+	            return complete((CompletionStage) result, methodData.method, instance);
+	        }
+	        return result;
+	    } finally {
+	        if (!released) {
+	            releaseInstance(instance);
+	        }
+	    }
+    }
+
+    /** Returns a stage, which is completed with the result of the
+     * given stage, when the latter is complete. Failures are converted
+     * like exceptions, which are thrown by the method.
+     */
+    private CompletionStage complete(CompletionStage pStage, final Method pMethod,
+            final Object pInstance) {
+        final CompletableFuture result = new CompletableFuture();
+        pStage.whenComplete(new BiConsumer(){
+            public void accept(Object pResult, Object pError) {
+                releaseInstance(pInstance);
+                if (pError == null) {
+                    result.complete(pResult);
+                    return;
+                }
+                Throwable t = (Throwable) pError;
+                if (t instanceof CompletionException  &&  t.getCause() != null) {
+                    t = t.getCause();
+                }
+                if (t instanceof XmlRpcException) {
+                    result.completeExceptionally(t);
+                } else {
+                    result.completeExceptionally(newInvocationException(pMethod, t));
+                }
+            }
+        });
+        return result;
+    }
+
+    private void releaseInstance(Object pInstance) {
+        if (requestProcessorFactory instanceof ReleasingRequestProcessorFactory) {
+            ((ReleasingRequestProcessorFactory) requestProcessorFactory).releaseRequestProcessor(pInstance);
+        }
+    }
+
+    /** Adds the given call to the current batch of the given
+     * request processor and method, and performs the batch, if it is
+     * full.
+     * @return A stage, which provides the calls result.
+     */
+    private CompletionStage addToBatch(BatchKey pKey, BatchCall pCall) {
+        Batch full = null;
+        synchronized (batchLock) {
+            Batch batch = (Batch) batches.get(pKey);
+            if (batch == null) {
+                batch = new Batch(pKey);
+                batches.put(pKey, batch);
+                final Batch b = batch;
+                batch.timeout = BatchScheduler.theScheduler.schedule(new Runnable(){
+                    public void run() {
+                        flush(b);
+                    }
+                }, batchDelay, TimeUnit.MILLISECONDS);
+            }
+            batch.calls.add(pCall);
+            if (batch.calls.size() >= maxBatchSize) {
+                full = batch;
+                batches.remove(pKey);
+            }
+        }
+        if (full != null) {
+            full.run();
+        }
+        return pCall.future;
+    }
+
+    /** Called by the scheduler, when the delay of the given batch
+     * has expired. The batch is passed to the batch executor, so that
+     * the scheduler isn't blocked by the request processor.
+     */
+    private void flush(Batch pBatch) {
+        try {
+            batchExecutor.execute(pBatch);
+        } catch (RejectedExecutionException e) {
+            if (pBatch.start()) {
+                completed(pBatch, null, new XmlRpcLoadException("Failed to perform a batch of method "
+                        + pBatch.key.methodData.method.getName() + ": " + e.getMessage()));
+            }
+        }
+    }
+
+    private void executeBatch(Batch pBatch) {
+        final Method method = pBatch.key.methodData.method;
+        final List calls = pBatch.calls;
+        final Object[][] args = new Object[calls.size()][];
+        for (int i = 0;  i < args.length;  i++) {
+            args[i] = ((BatchCall) calls.get(i)).args;
+        }
+        Object[] results = null;
+        Throwable error = null;
+        try {
+            results = ((BatchRequestProcessor) pBatch.key.instance).executeBatch(method.getName(), args);
+            if (results == null  ||  results.length != args.length) {
+                throw new XmlRpcException("The batch method of class " + clazz.getName()
+                        + " returned " + (results == null ? 0 : results.length)
+                        + " results for " + args.length + " calls of method "
+                        + method.getName());
+            }
+        } catch (Throwable t) {
+            error = t;
+        }
+        completed(pBatch, results, error);
+    }
+
+    /** Releases the request processor once per call, because every
+     * call has obtained it, and completes the calls.
+     */
+    private void completed(Batch pBatch, Object[] pResults, Throwable pError) {
+        final Method method = pBatch.key.methodData.method;
+        final List calls = pBatch.calls;
+        for (int i = 0;  i < calls.size();  i++) {
+            releaseInstance(pBatch.key.instance);
+        }
+        for (int i = 0;  i < calls.size();  i++) {
+            final CompletableFuture future = ((BatchCall) calls.get(i)).future;
+            final Object result = pError == null ? pResults[i] : pError;
+            if (result instanceof XmlRpcException) {
+                future.completeExceptionally((Throwable) result);
+            } else if (result instanceof Throwable) {
+                future.completeExceptionally(newInvocationException(method, (Throwable) result));
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    /** Returns the method, which is invoked for the given arguments.
+     * The result is cached by the classes of the arguments, so that
+     * overloaded methods are resolved only once per signature. The
+     * cache is direct mapped: Signatures with the same hash slot replace
+     * each other. A lookup doesn't allocate any objects, and races
+     * between threads are harmless, because the entries are immutable.
+     * @return The method, or null, if no method is matching.
+     */
+    private MethodData getMethodData(Object[] pArgs) {
+        if (overloadCache == null) {
+            return findMethodData(pArgs);
+        }
+        int h = pArgs.length;
+        for (int i = 0;  i < pArgs.length;  i++) {
+            h = 31 * h + (pArgs[i] == null ? 0 : pArgs[i].getClass().hashCode());
+        }
+        final int slot = (h ^ (h >>> 16)) & (overloadCache.length - 1);
+        final CacheEntry entry = overloadCache[slot];
+        if (entry != null  &&  entry.isMatching(pArgs)) {
+            return entry.methodData;
+        }
+        final MethodData result = findMethodData(pArgs);
+        if (result != null) {
+            overloadCache[slot] = new CacheEntry(pArgs, result);
+        }
+        return result;
+    }
+
+    private MethodData findMethodData(Object[] pArgs) {
 	    for (int i = 0;  i < methods.length;  i++) {
             MethodData methodData = methods[i];
             TypeConverter[] converters = methodData.typeConverters;
-            if (args.length == converters.length) {
+            if (pArgs.length == converters.length) {
                 boolean matching = true;
-                for (int j = 0;  j < args.length;  j++) {
-                    if (!converters[j].isConvertable(args[j])) {
+                for (int j = 0;  j < pArgs.length;  j++) {
+                    if (!converters[j].isConvertable(pArgs[j])) {
                         matching = false;
                         break;
                     }
                 }
                 if (matching) {
-                    for (int j = 0;  j < args.length;  j++) {
-                        args[j] = converters[j].convert(args[j]);
-                    }
-                    return invoke(instance, methodData.method, args);
+                    return methodData;
                 }
             }
 	    }
-	    throw new XmlRpcException("No method matching arguments: " + Util.getSignature(args));
+        return null;
     }
 
-    private Object invoke(Object pInstance, Method pMethod, Object[] pArgs) throws XmlRpcException {
+    private Object invoke(Object pInstance, MethodData pMethodData, Object[] pArgs)
+            throws XmlRpcException {
+        final Method pMethod = pMethodData.method;
+        if (pMethodData.handle != null) {
+            try {
+                return (Object) pMethodData.handle.invokeExact(pInstance, pArgs);
+            } catch (XmlRpcException e) {
+                throw e;
+            } catch (Throwable t) {
+                // Unlike reflection, the handle doesn't distinguish
+                // between its own argument conversion, and the method.
+                if ((t instanceof ClassCastException  ||  t instanceof WrongMethodTypeException
+                        ||  t instanceof IllegalArgumentException  ||  t instanceof NullPointerException)
+                        &&  !isApplicable(pMethod, pInstance, pArgs)) {
+                    throw new XmlRpcException("Illegal argument for method "
+                                              + pMethod.getName() + " in class "
+                                              + clazz.getName(), t);
+                }
+                throw newInvocationException(pMethod, t);
+            }
+        }
         try {
 	        return pMethod.invoke(pInstance, pArgs);
 	    } catch (IllegalAccessException e) {
@@ -128,10 +511,38 @@ public class ReflectiveXmlRpcHandler implements XmlRpcHandler {
             if (t instanceof XmlRpcException) {
                 throw (XmlRpcException) t;
             }
-	        throw new XmlRpcInvocationException("Failed to invoke method "
-	                                  + pMethod.getName() + " in class "
-	                                  + clazz.getName() + ": "
-	                                  + t.getMessage(), t);
+	        throw newInvocationException(pMethod, t);
 	    }
 	}
+
+    /** Returns, whether {@link Method#invoke(Object, Object[])} would
+     * accept the given instance, and arguments.
+     */
+    private static boolean isApplicable(Method pMethod, Object pInstance, Object[] pArgs) {
+        if (!Modifier.isStatic(pMethod.getModifiers())  &&  !pMethod.getDeclaringClass().isInstance(pInstance)) {
+            return false;
+        }
+        final Class[] paramClasses = pMethod.getParameterTypes();
+        if (pArgs == null  ||  pArgs.length != paramClasses.length) {
+            return false;
+        }
+        for (int i = 0;  i < paramClasses.length;  i++) {
+            final Class c = paramClasses[i];
+            if (pArgs[i] == null) {
+                if (c.isPrimitive()) {
+                    return false;
+                }
+            } else if (!MethodType.methodType(c).wrap().returnType().isInstance(pArgs[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private XmlRpcException newInvocationException(Method pMethod, Throwable pError) {
+        return new XmlRpcInvocationException("Failed to invoke method "
+                                  + pMethod.getName() + " in class "
+                                  + clazz.getName() + ": "
+                                  + pError.getMessage(), pError);
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.server;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.xmlrpc.XmlRpcRequest;
+
+
+/** Identifies a request by its method name, and its parameters.
+ * Arrays, lists, and maps are compared by their contents, so that
+ * identical requests have equal keys, although the parameters are
+ * different objects.
+ * @see ResultCache
+ */
+class RequestKey {
+	private final String methodName;
+	private final Object[] params;
+	private final int hashCode;
+
+	RequestKey(XmlRpcRequest pRequest) {
+		this(pRequest.getMethodName(), getParams(pRequest));
+	}
+
+	RequestKey(String pMethodName, Object[] pParams) {
+		methodName = pMethodName;
+		params = pParams;
+		hashCode = 31 * methodName.hashCode() + hash(params);
+	}
+
+	static Object[] getParams(XmlRpcRequest pRequest) {
+		final Object[] params = new Object[pRequest.getParameterCount()];
+		for (int i = 0;  i < params.length;  i++) {
+			params[i] = pRequest.getParameter(i);
+		}
+		return params;
+	}
+
+	String getMethodName() {
+		return methodName;
+	}
+
+	Object[] getParams() {
+		return params;
+	}
+
+	public int hashCode() {
+		return hashCode;
+	}
+
+	public boolean equals(Object pOther) {
+		if (!(pOther instanceof RequestKey)) {
+			return false;
+		}
+		final RequestKey other = (RequestKey) pOther;
+		return hashCode == other.hashCode
+			&&  methodName.equals(other.methodName)
+			&&  isEqual(params, other.params);
+	}
+
+	static int hash(Object pValue) {
+		if (pValue instanceof Object[]) {
+			final Object[] array = (Object[]) pValue;
+			int h = 1;
+			for (int i = 0;  i < array.length;  i++) {
+				h = 31 * h + hash(array[i]);
+			}
+			return h;
+		}
+		if (pValue instanceof List) {
+			int h = 1;
+			for (Iterator iter = ((List) pValue).iterator();  iter.hasNext();  ) {
+				h = 31 * h + hash(iter.next());
+			}
+			return h;
+		}
+		if (pValue instanceof Map) {
+			int h = 0;
+			for (Iterator iter = ((Map) pValue).entrySet().iterator();  iter.hasNext();  ) {
+				final Map.Entry entry = (Map.Entry) iter.next();
+				h += hash(entry.getKey()) ^ hash(entry.getValue());
+			}
+			return h;
+		}
+		if (pValue instanceof byte[]) {
+			return Arrays.hashCode((byte[]) pValue);
+		}
+		return pValue == null ? 0 : pValue.hashCode();
+	}
+
+	static boolean isEqual(Object pValue1, Object pValue2) {
+		if (pValue1 == pValue2) {
+			return true;
+		}
+		if (pValue1 == null  ||  pValue2 == null) {
+			return false;
+		}
+		if (pValue1 instanceof Object[]) {
+			if (!(pValue2 instanceof Object[])) {
+				return false;
+			}
+			final Object[] array1 = (Object[]) pValue1;
+			final Object[] array2 = (Object[]) pValue2;
+			if (array1.length != array2.length) {
+				return false;
+			}
+			for (int i = 0;  i < array1.length;  i++) {
+				if (!isEqual(array1[i], array2[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (pValue1 instanceof List) {
+			if (!(pValue2 instanceof List)) {
+				return false;
+			}
+			final List list1 = (List) pValue1;
+			final List list2 = (List) pValue2;
+			if (list1.size() != list2.size()) {
+				return false;
+			}
+			final Iterator iter2 = list2.iterator();
+			for (Iterator iter1 = list1.iterator();  iter1.hasNext();  ) {
+				if (!isEqual(iter1.next(), iter2.next())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (pValue1 instanceof Map) {
+			if (!(pValue2 instanceof Map)) {
+				return false;
+			}
+			final Map map1 = (Map) pValue1;
+			final Map map2 = (Map) pValue2;
+			if (map1.size() != map2.size()) {
+				return false;
+			}
+			for (Iterator iter = map1.entrySet().iterator();  iter.hasNext();  ) {
+				final Map.Entry entry = (Map.Entry) iter.next();
+				final Object value2 = map2.get(entry.getKey());
+				if ((value2 == null  &&  !map2.containsKey(entry.getKey()))
+						||  !isEqual(entry.getValue(), value2)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (pValue1 instanceof byte[]) {
+			return pValue2 instanceof byte[]  &&  Arrays.equals((byte[]) pValue1, (byte[]) pValue2);
+		}
+		return pValue1.equals(pValue2);
+	}
+}
@@ -18,6 +18,13 @@
  */
 package org.apache.xmlrpc.server;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.metadata.Util;
@@ -56,11 +63,13 @@ import org.apache.xmlrpc.metadata.Util;
  * {@link #getRequestProcessorFactory(Class pClass)} contains an
  * initialized singleton, which is returned by
  * {@link RequestProcessorFactory#getRequestProcessor(XmlRpcRequest)}.</p>
- * <p>Other alternatives might be a
- * {@link RequestProcessorFactoryFactory}, which maintains a pool
- * of {@link RequestProcessorFactory} instances. The instances are
- * configured by calling
- * {@link RequestProcessorFactory#getRequestProcessor(XmlRpcRequest)}.</p>
+ * <p>A compromise between the two is the
+ * {@link PooledProcessorFactoryFactory}, which maintains a pool
+ * of request processors per class. Like the
+ * {@link RequestSpecificProcessorFactoryFactory}, it allows the request
+ * processor to have some state, because an instance is used by a single
+ * request at a time. However, the instance is reset and returned to the
+ * pool after the request, rather than being discarded.</p>
  */
 public interface RequestProcessorFactoryFactory {
     /**
@@ -81,6 +90,35 @@ public interface RequestProcessorFactoryFactory {
         public Object getRequestProcessor(XmlRpcRequest pRequest) throws XmlRpcException;
     }
 
+    /**
+     * A {@link RequestProcessorFactory}, which wants its request processors
+     * back: The {@link ReflectiveXmlRpcHandler} invokes
+     * {@link #releaseRequestProcessor(Object)}, when the request processor
+     * isn't used anymore.
+     */
+    public interface ReleasingRequestProcessorFactory extends RequestProcessorFactory {
+        /**
+         * This method is invoked, when the request processor, which has
+         * been returned by {@link #getRequestProcessor(XmlRpcRequest)},
+         * has finished processing the request.
+         * @param pProcessor the request processor
+         */
+        public void releaseRequestProcessor(Object pProcessor);
+    }
+
+    /**
+     * May be implemented by request processors, which are created by the
+     * {@link PooledProcessorFactoryFactory}, in order to clear their
+     * state, before they are reused.
+     */
+    public interface Resettable {
+        /**
+         * Invoked, before the request processor is returned to the pool.
+         * A runtime exception causes the request processor to be discarded.
+         */
+        public void reset();
+    }
+
     /**
      * This method is invoked at startup. It creates a factory for instances of
      * <code>pClass</code>.
@@ -168,4 +206,135 @@ public interface RequestProcessorFactoryFactory {
             };
         }
     }
+
+    /**
+     * This is an alternative implementation of {@link RequestProcessorFactoryFactory}.
+     * It keeps a bounded pool of request processors per class. A request
+     * processor is used by a single request at a time, so it may have some
+     * state. After the request, the request processor is reset by invoking
+     * {@link #resetRequestProcessor(Object)}, and returned to the pool. If the
+     * pool is full, then the request processor is discarded. New instances
+     * are created by invoking the default constructor through a method handle,
+     * which is linked at startup.
+     */
+    public static class PooledProcessorFactoryFactory
+            implements RequestProcessorFactoryFactory {
+        private final int maxSize;
+
+        /**
+         * Creates a new instance, which holds up to 16 idle request processors
+         * per class.
+         */
+        public PooledProcessorFactoryFactory() {
+            this(16);
+        }
+
+        /**
+         * Creates a new instance with the given pool size.
+         * @param pMaxSize The maximum number of idle request processors, which
+         * are held per class. Zero disables pooling.
+         */
+        public PooledProcessorFactoryFactory(int pMaxSize) {
+            if (pMaxSize < 0) {
+                throw new IllegalArgumentException("Invalid pool size: " + pMaxSize);
+            }
+            maxSize = pMaxSize;
+        }
+
+        /**
+         * Returns the maximum number of idle request processors, which are
+         * held per class.
+         * @return the pool size
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * Subclasses may override this method for class specific configuration.
+         * The method is invoked, whenever the pool is empty. The default
+         * implementation invokes the default constructor.
+         * @param pClass the class
+         * @param pConstructor A method handle with the signature
+         * <code>()Object</code>, which invokes the default constructor, or
+         * null, if the constructor isn't public, in which case
+         * {@link Util#newInstance(Class)} is used.
+         * @return the new request processor
+         * @throws XmlRpcException if an XML-RPC error occurs
+         */
+        protected Object newRequestProcessor(Class pClass, MethodHandle pConstructor)
+                throws XmlRpcException {
+            if (pConstructor == null) {
+                return Util.newInstance(pClass);
+            }
+            try {
+                return (Object) pConstructor.invokeExact();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new XmlRpcException("Failed to instantiate class " + pClass.getName(), t);
+            }
+        }
+
+        /**
+         * Subclasses may override this method to clear the request processors
+         * state, before it is returned to the pool. The default implementation
+         * invokes {@link Resettable#reset()}, if the request processor
+         * implements {@link Resettable}.
+         * @param pProcessor the request processor
+         * @return True, if the request processor may be reused, false, if it
+         * should be discarded.
+         */
+        protected boolean resetRequestProcessor(Object pProcessor) {
+            if (pProcessor instanceof Resettable) {
+                ((Resettable) pProcessor).reset();
+            }
+            return true;
+        }
+
+        private static MethodHandle getConstructor(Class pClass) {
+            try {
+                return MethodHandles.publicLookup()
+                    .findConstructor(pClass, MethodType.methodType(void.class))
+                    .asType(MethodType.genericMethodType(0));
+            } catch (NoSuchMethodException e) {
+                return null;
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        public RequestProcessorFactory getRequestProcessorFactory(final Class pClass)
+                throws XmlRpcException {
+            final MethodHandle constructor = getConstructor(pClass);
+            final Queue processors = new ConcurrentLinkedQueue();
+            final AtomicInteger numProcessors = new AtomicInteger();
+            return new ReleasingRequestProcessorFactory(){
+                public Object getRequestProcessor(XmlRpcRequest pRequest) throws XmlRpcException {
+                    final Object processor = processors.poll();
+                    if (processor == null) {
+                        return newRequestProcessor(pClass, constructor);
+                    }
+                    numProcessors.decrementAndGet();
+                    return processor;
+                }
+                public void releaseRequestProcessor(Object pProcessor) {
+                    try {
+                        if (!resetRequestProcessor(pProcessor)) {
+                            return;
+                        }
+                    } catch (RuntimeException e) {
+                        return;
+                    }
+                    if (numProcessors.incrementAndGet() > maxSize) {
+                        numProcessors.decrementAndGet();
+                    } else {
+                        processors.add(pProcessor);
+                    }
+                }
+            };
+        }
+    }
 }
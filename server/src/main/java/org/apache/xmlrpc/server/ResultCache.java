@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.server;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+
+
+/** A cache for the results of idempotent handler methods, like pure
+ * lookups. The methods, which are cached, and the time to live of their
+ * results, are configured by
+ * {@link AbstractReflectiveHandlerMapping#setCacheTimeToLive(String, long)}.
+ * Results are cached by the method name and the parameters, and shared
+ * between all clients, which are authorized to invoke the method. Errors
+ * aren't cached.<br>
+ * Cached results are immutable: The cache stores a copy of the result,
+ * and of the parameters, and every cache hit receives a copy of its
+ * own, so that neither the handler, nor the receiver of a result can
+ * modify the cached value. Consequently, only results and parameters,
+ * which consist of strings, numbers, booleans, dates, byte arrays,
+ * arrays, lists, and maps are cached. Other results, for example
+ * DOM nodes, or serializable objects, aren't cached.<br>
+ * The cache is bounded by the number of entries, and by their estimated
+ * memory size. If either is exceeded, then the least recently used
+ * entries are evicted. Optionally, the cache stores the serialized
+ * responses, in which case a cache hit doesn't even invoke the
+ * {@link org.apache.xmlrpc.serializer.XmlRpcWriter}.<br>
+ * The cache is thread safe.
+ */
+public class ResultCache {
+	/** The key of a cache entry.
+	 */
+	static class Key extends RequestKey {
+		final ResultCache cache;
+		final long timeToLive;
+
+		private Key(ResultCache pCache, long pTimeToLive, String pMethodName, Object[] pParams) {
+			super(pMethodName, pParams);
+			cache = pCache;
+			timeToLive = pTimeToLive;
+		}
+
+		/** Creates a key for the given request.
+		 * @return The key, or null, if the parameters can't be copied,
+		 * in which case the result isn't cached.
+		 */
+		static Key newInstance(ResultCache pCache, long pTimeToLive, XmlRpcRequest pRequest) {
+			final Object params = copy(RequestKey.getParams(pRequest));
+			if (params == NOT_COPYABLE) {
+				return null;
+			}
+			return new Key(pCache, pTimeToLive, pRequest.getMethodName(), (Object[]) params);
+		}
+
+		/** Returns the cached entry, if any.
+		 * @return The entry, or null, if the result isn't cached.
+		 */
+		Entry get() {
+			return cache.get(this);
+		}
+
+		/** Caches a copy of the given result.
+		 * @return The new entry, or null, if the result is too large,
+		 * or can't be copied.
+		 */
+		Entry put(Object pResult) {
+			return cache.put(this, pResult);
+		}
+	}
+
+	/** A serialized response, and the configuration, which affects
+	 * the serialization.
+	 */
+	private static class Response {
+		final byte[] bytes;
+		final boolean extensions;
+		final String encoding;
+		final TimeZone timeZone;
+
+		Response(byte[] pBytes, XmlRpcStreamRequestConfig pConfig) {
+			bytes = pBytes;
+			extensions = pConfig.isEnabledForExtensions();
+			encoding = pConfig.getEncoding();
+			timeZone = pConfig.getTimeZone();
+		}
+
+		boolean isMatching(XmlRpcStreamRequestConfig pConfig) {
+			return extensions == pConfig.isEnabledForExtensions()
+				&&  RequestKey.isEqual(encoding, pConfig.getEncoding())
+				&&  RequestKey.isEqual(timeZone, pConfig.getTimeZone());
+		}
+	}
+
+	/** A cache entry.
+	 */
+	static class Entry {
+		final Key key;
+		private final Object result;
+		final long expires;
+		final long size;
+		private volatile Response response;
+
+		Entry(Key pKey, Object pResult, long pSize) {
+			key = pKey;
+			result = pResult;
+			expires = System.currentTimeMillis() + pKey.timeToLive;
+			size = pSize;
+		}
+
+		/** Returns a copy of the cached result, which may be modified
+		 * by the caller.
+		 * @return The result object.
+		 */
+		Object getResult() {
+			return copy(result);
+		}
+
+		/** Returns the serialized response, if it has been created
+		 * with the given configuration.
+		 * @return The response, or null.
+		 */
+		byte[] getResponse(XmlRpcStreamRequestConfig pConfig) {
+			final Response r = response;
+			return r != null  &&  r.isMatching(pConfig) ? r.bytes : null;
+		}
+	}
+
+	/** Returned by {@link #copy(Object)} for objects, which can't
+	 * be copied.
+	 */
+	private static final Object NOT_COPYABLE = new Object();
+
+	private final int maxEntries;
+	private final long maxMemorySize;
+	private boolean storingResponses;
+	private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+	private long memorySize;
+	private long hits, misses, evictions, expirations;
+
+	/** Creates a new instance with up to 1000 entries, and 16 MB.
+	 */
+	public ResultCache() {
+		this(1000, 16*1024*1024);
+	}
+
+	/** Creates a new instance with the given limits.
+	 * @param pMaxEntries The maximum number of entries.
+	 * @param pMaxMemorySize The maximum estimated memory size of the
+	 * entries in bytes.
+	 */
+	public ResultCache(int pMaxEntries, long pMaxMemorySize) {
+		if (pMaxEntries <= 0) {
+			throw new IllegalArgumentException("Invalid number of entries: " + pMaxEntries);
+		}
+		if (pMaxMemorySize <= 0) {
+			throw new IllegalArgumentException("Invalid memory size: " + pMaxMemorySize);
+		}
+		maxEntries = pMaxEntries;
+		maxMemorySize = pMaxMemorySize;
+	}
+
+	/** Sets, whether the serialized responses are cached in addition
+	 * to the results. This requires more memory, but a cache hit
+	 * skips the serialization. Defaults to false.
+	 * @param pStoringResponses True for caching serialized responses.
+	 */
+	public synchronized void setStoringResponses(boolean pStoringResponses) {
+		storingResponses = pStoringResponses;
+	}
+
+	/** Returns, whether the serialized responses are cached in addition
+	 * to the results. Defaults to false.
+	 * @return True, if serialized responses are cached.
+	 */
+	public synchronized boolean isStoringResponses() {
+		return storingResponses;
+	}
+
+	synchronized Entry get(Key pKey) {
+		final Entry entry = (Entry) entries.get(pKey);
+		if (entry == null) {
+			++misses;
+			return null;
+		}
+		if (entry.expires <= System.currentTimeMillis()) {
+			remove(entry);
+			++expirations;
+			++misses;
+			return null;
+		}
+		++hits;
+		return entry;
+	}
+
+	Entry put(Key pKey, Object pResult) {
+		final Object result = copy(pResult);
+		if (result == NOT_COPYABLE) {
+			return null;
+		}
+		final long size = 64 + estimateSize(pKey.getParams()) + estimateSize(result);
+		if (size > maxMemorySize) {
+			return null;
+		}
+		final Entry entry = new Entry(pKey, result, size);
+		synchronized (this) {
+			final Entry old = (Entry) entries.put(pKey, entry);
+			if (old != null) {
+				memorySize -= getMemorySize(old);
+			}
+			memorySize += size;
+			evict();
+		}
+		return entry;
+	}
+
+	/** Stores the serialized response of the given entry.
+	 */
+	synchronized void setResponse(Entry pEntry, byte[] pBytes, XmlRpcStreamRequestConfig pConfig) {
+		if (entries.get(pEntry.key) != pEntry) {
+			return; // Already evicted
+		}
+		memorySize -= getMemorySize(pEntry);
+		pEntry.response = new Response(pBytes, pConfig);
+		memorySize += getMemorySize(pEntry);
+		evict();
+	}
+
+	private static long getMemorySize(Entry pEntry) {
+		final Response r = pEntry.response;
+		return pEntry.size + (r == null ? 0 : 16 + r.bytes.length);
+	}
+
+	private void remove(Entry pEntry) {
+		entries.remove(pEntry.key);
+		memorySize -= getMemorySize(pEntry);
+	}
+
+	private void evict() {
+		final Iterator iter = entries.values().iterator();
+		while ((entries.size() > maxEntries  ||  memorySize > maxMemorySize)  &&  iter.hasNext()) {
+			final Entry entry = (Entry) iter.next();
+			iter.remove();
+			memorySize -= getMemorySize(entry);
+			++evictions;
+		}
+	}
+
+	/** Removes all cached results of the given method.
+	 * @param pMethodName The method name, for example "Calculator.add".
+	 */
+	public synchronized void remove(String pMethodName) {
+		for (Iterator iter = entries.values().iterator();  iter.hasNext();  ) {
+			final Entry entry = (Entry) iter.next();
+			if (entry.key.getMethodName().equals(pMethodName)) {
+				iter.remove();
+				memorySize -= getMemorySize(entry);
+			}
+		}
+	}
+
+	/** Removes all cached results.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		memorySize = 0;
+	}
+
+	/** Returns the number of requests, which have been answered from the cache.
+	 * @return Number of requests.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** Returns the number of requests for cached methods, which haven't
+	 * been found in the cache.
+	 * @return Number of requests.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** Returns the number of entries, which have been evicted, because
+	 * the cache was full.
+	 * @return Number of entries.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/** Returns the number of entries, which have been removed, because
+	 * their time to live was exceeded.
+	 * @return Number of entries.
+	 */
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	/** Returns the current number of entries.
+	 * @return Number of entries.
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/** Returns the estimated memory size of the current entries.
+	 * @return Number of bytes.
+	 */
+	public synchronized long getMemorySize() {
+		return memorySize;
+	}
+
+	/** Returns the ratio of hits to requests for cached methods.
+	 * @return A value between 0 and 1, or 0, if no such request has
+	 * been processed so far.
+	 */
+	public synchronized double getHitRatio() {
+		final long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	/** Returns a deep copy of the given value, which is a typical
+	 * XML-RPC value. Immutable values are returned as they are.
+	 * @return The copy, or {@link #NOT_COPYABLE}, if the value
+	 * contains objects of other types.
+	 */
+	static Object copy(Object pValue) {
+		if (pValue == null  ||  pValue instanceof String  ||  pValue instanceof Integer
+				||  pValue instanceof Boolean  ||  pValue instanceof Double
+				||  pValue instanceof Long  ||  pValue instanceof Short
+				||  pValue instanceof Byte  ||  pValue instanceof Float
+				||  pValue instanceof Character
+				||  pValue.getClass() == BigInteger.class
+				||  pValue.getClass() == BigDecimal.class) {
+			return pValue;
+		}
+		if (pValue instanceof byte[]) {
+			return ((byte[]) pValue).clone();
+		}
+		if (pValue instanceof Date) {
+			return ((Date) pValue).clone();
+		}
+		if (pValue instanceof Calendar) {
+			return ((Calendar) pValue).clone();
+		}
+		if (pValue instanceof Object[]) {
+			final Object[] copy = ((Object[]) pValue).clone();
+			for (int i = 0;  i < copy.length;  i++) {
+				final Object o = copy(copy[i]);
+				if (o == NOT_COPYABLE) {
+					return NOT_COPYABLE;
+				}
+				copy[i] = o;
+			}
+			return copy;
+		}
+		if (pValue instanceof List) {
+			final List list = (List) pValue;
+			final List copy = new ArrayList(list.size());
+			for (Iterator iter = list.iterator();  iter.hasNext();  ) {
+				final Object o = copy(iter.next());
+				if (o == NOT_COPYABLE) {
+					return NOT_COPYABLE;
+				}
+				copy.add(o);
+			}
+			return copy;
+		}
+		if (pValue instanceof Map) {
+			final Map copy = new LinkedHashMap();
+			for (Iterator iter = ((Map) pValue).entrySet().iterator();  iter.hasNext();  ) {
+				final Map.Entry entry = (Map.Entry) iter.next();
+				final Object key = copy(entry.getKey());
+				final Object value = copy(entry.getValue());
+				if (key == NOT_COPYABLE  ||  value == NOT_COPYABLE) {
+					return NOT_COPYABLE;
+				}
+				copy.put(key, value);
+			}
+			return copy;
+		}
+		return NOT_COPYABLE;
+	}
+
+	/** Returns a rough estimate of the memory, which is occupied by the
+	 * given object, assuming that it is a typical XML-RPC value.
+	 */
+	private static long estimateSize(Object pValue) {
+		if (pValue == null) {
+			return 0;
+		}
+		if (pValue instanceof String) {
+			return 40 + 2L * ((String) pValue).length();
+		}
+		if (pValue instanceof byte[]) {
+			return 16 + ((byte[]) pValue).length;
+		}
+		if (pValue instanceof Object[]) {
+			final Object[] array = (Object[]) pValue;
+			long size = 16 + 8L * array.length;
+			for (int i = 0;  i < array.length;  i++) {
+				size += estimateSize(array[i]);
+			}
+			return size;
+		}
+		if (pValue instanceof Collection) {
+			long size = 32;
+			for (Iterator iter = ((Collection) pValue).iterator();  iter.hasNext();  ) {
+				size += 8 + estimateSize(iter.next());
+			}
+			return size;
+		}
+		if (pValue instanceof Map) {
+			long size = 48;
+			for (Iterator iter = ((Map) pValue).entrySet().iterator();  iter.hasNext();  ) {
+				final Map.Entry entry = (Map.Entry) iter.next();
+				size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+			}
+			return size;
+		}
+		return 24;
+	}
+}
@@ -23,6 +23,7 @@ import java.io.OutputStream;
 
 import org.apache.xmlrpc.common.ServerStreamConnection;
 import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.apache.xmlrpc.util.HttpUtil;
 
 
 
@@ -32,10 +33,13 @@ import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
 public abstract class XmlRpcHttpServer extends XmlRpcStreamServer {
 	protected abstract void setResponseHeader(ServerStreamConnection pConnection, String pHeader, String pValue);
 
-	protected OutputStream getOutputStream(ServerStreamConnection pConnection, XmlRpcStreamRequestConfig pConfig, OutputStream pStream) throws IOException {
-		if (pConfig.isEnabledForExtensions()  &&  pConfig.isGzipRequesting()) {
-			setResponseHeader(pConnection, "Content-Encoding", "gzip");
-		}
-		return super.getOutputStream(pConnection, pConfig, pStream);
+	protected OutputStream getCompressingOutputStream(ServerStreamConnection pConnection, XmlRpcStreamRequestConfig pConfig, OutputStream pStream) throws IOException {
+		setResponseHeader(pConnection, "Content-Encoding",
+				isDictionaryCompressingResponse(pConfig) ? HttpUtil.DICTIONARY_ENCODING : "gzip");
+		return super.getCompressingOutputStream(pConnection, pConfig, pStream);
+	}
+
+	protected boolean isCompressionOptional(XmlRpcStreamRequestConfig pConfig) {
+		return true;
 	}
 }
@@ -28,6 +28,49 @@ public interface XmlRpcHttpServerConfig extends XmlRpcServerConfig, XmlRpcHttpCo
 	 */
 	boolean isKeepAliveEnabled();
 
+	/** Returns the number of milliseconds, that a keepalive connection
+	 * may be idle, before it is closed by the server. The default
+	 * implementation returns 30000.
+	 * @return Idle timeout in milliseconds, or 0 for no timeout.
+	 */
+	default int getKeepAliveTimeout() {
+		return 30000;
+	}
+
+	/** Returns the maximum number of requests, which are served over
+	 * a single keepalive connection. The response to the last request
+	 * contains the header "Connection: close". The default
+	 * implementation returns 0.
+	 * @return Maximum number of requests per connection, or 0 for
+	 * no limit.
+	 */
+	default int getMaxKeepAliveRequests() {
+		return 0;
+	}
+
+	/** Returns the number of milliseconds, after which a keepalive
+	 * connection is no longer reused. This allows to rebalance clients,
+	 * which are holding on to their connections. The default
+	 * implementation returns 0.
+	 * @return Maximum connection age in milliseconds, or 0 for no limit.
+	 */
+	default int getMaxConnectionAge() {
+		return 0;
+	}
+
+	/** Returns the maximum size of a request, which is read into memory,
+	 * before it is processed, as in the non-blocking mode of the
+	 * {@link org.apache.xmlrpc.webserver.WebServer}, or with the
+	 * non-blocking I/O of the {@link org.apache.xmlrpc.webserver.XmlRpcServletServer}.
+	 * Larger requests are rejected with the status code 413 (Request
+	 * Entity Too Large).
+	 * The default implementation returns 16 MB.
+	 * @return Maximum request size in bytes, or 0 for no limit.
+	 */
+	default int getMaxRequestSize() {
+		return 16*1024*1024;
+	}
+
     /** Returns, whether the server may create a "faultCause" element in an error
      * response. Note, that this may be a security issue!
 	 * @return True, if the server may create a "faultCause" element
@@ -27,7 +27,7 @@ import org.apache.xmlrpc.common.XmlRpcRequestProcessorFactory;
 /** Server part of a local stream transport.
  */
 public class XmlRpcLocalStreamServer extends XmlRpcStreamServer {
-	public Object execute(XmlRpcRequest pRequest) throws XmlRpcException {
+	protected Object executeDeferrable(XmlRpcRequest pRequest) throws XmlRpcException {
 		XmlRpcRequestProcessor server = ((XmlRpcRequestProcessorFactory) pRequest.getConfig()).getXmlRpcServer();
 		return server.execute(pRequest);
 	}
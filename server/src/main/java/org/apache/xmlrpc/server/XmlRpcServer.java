@@ -18,15 +18,25 @@
  */
 package org.apache.xmlrpc.server;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
 import org.apache.xmlrpc.XmlRpcConfig;
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.common.TypeConverterFactory;
 import org.apache.xmlrpc.common.TypeConverterFactoryImpl;
 import org.apache.xmlrpc.common.XmlRpcController;
+import org.apache.xmlrpc.common.XmlRpcNotAuthorizedException;
 import org.apache.xmlrpc.common.XmlRpcRequestProcessor;
 import org.apache.xmlrpc.common.XmlRpcWorker;
 import org.apache.xmlrpc.common.XmlRpcWorkerFactory;
+import org.apache.xmlrpc.server.AbstractReflectiveHandlerMapping.AuthenticationHandler;
 
 
 /** A multithreaded, reusable XML-RPC server object. The name may
@@ -37,9 +47,17 @@ import org.apache.xmlrpc.common.XmlRpcWorkerFactory;
  */
 public class XmlRpcServer extends XmlRpcController
 		implements XmlRpcRequestProcessor {
-	private XmlRpcHandlerMapping handlerMapping;
+	private volatile XmlRpcHandlerMapping handlerMapping;
     private TypeConverterFactory typeConverterFactory = new TypeConverterFactoryImpl();
 	private XmlRpcServerConfig config = new XmlRpcServerConfigImpl();
+	/** Maps the {@link RequestKey keys} of requests, which are being
+	 * processed, to a {@link CompletableFuture}, which provides their result.
+	 * @see AbstractReflectiveHandlerMapping#setSingleFlight(String, boolean)
+	 */
+	private final ConcurrentMap inFlight = new ConcurrentHashMap();
+	/** The server, which is invoking a handler in the current thread.
+	 */
+	private static final ThreadLocal currentServer = new ThreadLocal();
 
 	protected XmlRpcWorkerFactory getDefaultXmlRpcWorkerFactory() {
 		return new XmlRpcServerWorkerFactory(this);
@@ -61,7 +79,9 @@ public class XmlRpcServer extends XmlRpcController
 	public void setConfig(XmlRpcServerConfig pConfig) { config = pConfig; }
 	public XmlRpcConfig getConfig() { return config; }
 
-	/** Sets the servers handler mapping.
+	/** Sets the servers handler mapping. The mapping may be replaced,
+	 * while the server is running: Requests, which are being processed,
+	 * continue to use the old mapping.
 	 * @param pMapping The servers handler mapping.
 	 */
 	public void setHandlerMapping(XmlRpcHandlerMapping pMapping) {
@@ -75,18 +95,261 @@ public class XmlRpcServer extends XmlRpcController
 		return handlerMapping;
 	}
 
-	/** Performs the given request.
+	/** Performs the given request. If the handler returns a
+	 * {@link CompletionStage}, then the method waits for the result.
 	 * @param pRequest The request being executed.
 	 * @return The result object.
 	 * @throws XmlRpcException The request failed.
 	 */
 	public Object execute(XmlRpcRequest pRequest) throws XmlRpcException {
+		Object result = executeNested(pRequest);
+		if (result instanceof CompletionStage) {
+			result = getResult((CompletionStage) result);
+		}
+		return result;
+	}
+
+	/** Performs a request, which is issued by a handler, like the
+	 * calls of a "system.multicall". Like {@link #execute(XmlRpcRequest)},
+	 * this applies the result cache, single flight, and the bulkheads,
+	 * but doesn't wait, if the handler returns a {@link CompletionStage}.
+	 * @param pRequest The request being executed.
+	 * @return The result object, or a {@link CompletionStage}, which
+	 * provides the result object.
+	 * @throws XmlRpcException The request failed.
+	 * @see #getCurrentServer()
+	 */
+	public Object executeNested(XmlRpcRequest pRequest) throws XmlRpcException {
+		final ResultCache.Key key = getCacheKey(pRequest);
+		if (key != null) {
+			final ResultCache.Entry entry = key.get();
+			if (entry != null) {
+				return entry.getResult();
+			}
+		}
+		final Object result = executeSingleFlight(pRequest);
+		if (key == null) {
+			return result;
+		}
+		if (result instanceof CompletionStage) {
+			return ((CompletionStage) result).thenApply(new Function(){
+				public Object apply(Object pResult) {
+					key.put(pResult);
+					return pResult;
+				}
+			});
+		}
+		key.put(result);
+		return result;
+	}
+
+	/** Returns the server, which is invoking a handler in the
+	 * current thread. Handlers may use this for issuing further
+	 * requests through {@link #executeNested(XmlRpcRequest)}.
+	 * @return The server, or null, if the current thread isn't
+	 * invoking a handler.
+	 */
+	public static XmlRpcServer getCurrentServer() {
+		return (XmlRpcServer) currentServer.get();
+	}
+
+	/** Sets the server, which is invoking a handler in the
+	 * current thread.
+	 * @return The previous server, or null.
+	 */
+	static XmlRpcServer setCurrentServer(XmlRpcServer pServer) {
+		final XmlRpcServer previous = (XmlRpcServer) currentServer.get();
+		if (pServer == null) {
+			currentServer.remove();
+		} else {
+			currentServer.set(pServer);
+		}
+		return previous;
+	}
+
+	/** Returns the key, under which the result of the given request
+	 * is cached.
+	 * @return The cache key, or null, if the requests method isn't
+	 * cached, or its parameters can't be copied.
+	 * @throws XmlRpcException The method is unknown, or the user isn't
+	 * authorized to invoke it. The check is done here, because a cached
+	 * result is returned without invoking the handler.
+	 * @see AbstractReflectiveHandlerMapping#setCacheTimeToLive(String, long)
+	 */
+	ResultCache.Key getCacheKey(XmlRpcRequest pRequest) throws XmlRpcException {
+		final XmlRpcHandlerMapping mapping = getHandlerMapping();
+		if (!(mapping instanceof AbstractReflectiveHandlerMapping)) {
+			return null;
+		}
+		final AbstractReflectiveHandlerMapping arhm = (AbstractReflectiveHandlerMapping) mapping;
+		final ResultCache cache = arhm.getResultCache();
+		if (cache == null) {
+			return null;
+		}
+		final long timeToLive = arhm.getCacheTimeToLive(pRequest.getMethodName());
+		if (timeToLive <= 0) {
+			return null;
+		}
+		checkAccess(arhm, pRequest);
+		return ResultCache.Key.newInstance(cache, timeToLive, pRequest);
+	}
+
+	/** Checks, whether the requests method exists, and the user is
+	 * authorized to invoke it. Called, if the request is answered
+	 * without invoking the handler.
+	 */
+	private void checkAccess(AbstractReflectiveHandlerMapping pMapping,
+			XmlRpcRequest pRequest) throws XmlRpcException {
+		pMapping.getHandler(pRequest.getMethodName());
+		final AuthenticationHandler authHandler = pMapping.getAuthenticationHandler();
+		if (authHandler != null  &&  !authHandler.isAuthorized(pRequest)) {
+			throw new XmlRpcNotAuthorizedException("Not authorized");
+		}
+	}
+
+	/** Performs the given request like {@link #executeDeferrable(XmlRpcRequest)}.
+	 * If the requests method is configured for
+	 * {@link AbstractReflectiveHandlerMapping#setSingleFlight(String, boolean)
+	 * single flight}, and an identical request is already being processed,
+	 * then the result of the other request is returned, as a
+	 * {@link CompletionStage}.
+	 */
+	Object executeSingleFlight(XmlRpcRequest pRequest) throws XmlRpcException {
+		final XmlRpcHandlerMapping mapping = getHandlerMapping();
+		if (!(mapping instanceof AbstractReflectiveHandlerMapping)
+				||  !((AbstractReflectiveHandlerMapping) mapping).isSingleFlight(pRequest.getMethodName())) {
+			return executeDeferrable(pRequest);
+		}
+		final RequestKey key = new RequestKey(pRequest);
+		final CompletableFuture future = new CompletableFuture();
+		final CompletableFuture current = (CompletableFuture) inFlight.putIfAbsent(key, future);
+		if (current != null) {
+			checkAccess((AbstractReflectiveHandlerMapping) mapping, pRequest);
+			return current;
+		}
+		final Object result;
+		try {
+			result = executeDeferrable(pRequest);
+		} catch (XmlRpcException e) {
+			completed(key, future, null, e);
+			throw e;
+		} catch (RuntimeException e) {
+			completed(key, future, null, e);
+			throw e;
+		} catch (Error e) {
+			completed(key, future, null, e);
+			throw e;
+		}
+		if (result instanceof CompletionStage) {
+			((CompletionStage) result).whenComplete(new BiConsumer(){
+				public void accept(Object pResult, Object pError) {
+					completed(key, future, pResult, (Throwable) pError);
+				}
+			});
+		} else {
+			completed(key, future, result, null);
+		}
+		return result;
+	}
+
+	/** Publishes the result of a single flight request to the
+	 * waiting requests. The key is removed first, so that later
+	 * requests are executed again.
+	 */
+	private void completed(RequestKey pKey, CompletableFuture pFuture,
+			Object pResult, Throwable pError) {
+		inFlight.remove(pKey, pFuture);
+		if (pError == null) {
+			pFuture.complete(pResult);
+		} else {
+			pFuture.completeExceptionally(pError);
+		}
+	}
+
+	/** Performs the given request. Unlike {@link #execute(XmlRpcRequest)},
+	 * this method doesn't wait, if the handler returns a
+	 * {@link CompletionStage}. This allows transports to release
+	 * their thread, while the handler is waiting for I/O.
+	 * @param pRequest The request being executed.
+	 * @return The result object, or a {@link CompletionStage}, which
+	 * provides the result object.
+	 * @throws XmlRpcException The request failed.
+	 */
+	protected Object executeDeferrable(XmlRpcRequest pRequest) throws XmlRpcException {
 	    final XmlRpcWorkerFactory factory = getWorkerFactory();
-	    final XmlRpcWorker worker = factory.getWorker();
+	    final Bulkhead bulkhead = getBulkhead(factory, pRequest);
+	    if (bulkhead == null) {
+	        return executeWorker(factory, pRequest);
+	    }
+	    // The methods slot is obtained first, so that a request, which
+	    // waits for a busy method, doesn't occupy one of the global slots.
+	    bulkhead.acquire(pRequest.getMethodName());
+	    Object result = null;
+	    try {
+	        result = executeWorker(factory, pRequest);
+	    } finally {
+	        if (result instanceof CompletionStage) {
+	            // The slot is held, until the result is available.
+	            ((CompletionStage) result).whenComplete(new BiConsumer(){
+	                public void accept(Object pResult, Object pError) {
+	                    bulkhead.release();
+	                }
+	            });
+	        } else {
+	            bulkhead.release();
+	        }
+	    }
+	    return result;
+	}
+
+	private Object executeWorker(XmlRpcWorkerFactory pFactory, XmlRpcRequest pRequest)
+	        throws XmlRpcException {
+	    final XmlRpcWorker worker = pFactory.getWorker();
         try {
             return worker.execute(pRequest);
         } finally {
-            factory.releaseWorker(worker);
+            pFactory.releaseWorker(worker);
         }
 	}
+
+	/** Returns the bulkhead, which limits the number of concurrent
+	 * calls of the requests method.
+	 * @return The bulkhead, or null, if the method isn't limited.
+	 */
+	private Bulkhead getBulkhead(XmlRpcWorkerFactory pFactory, XmlRpcRequest pRequest) {
+		if (!(pFactory instanceof XmlRpcServerWorkerFactory)) {
+			return null;
+		}
+		return ((XmlRpcServerWorkerFactory) pFactory).getBulkhead(getHandlerMapping(),
+				pRequest.getMethodName());
+	}
+
+	/** Waits for the result of a handler, which returned a
+	 * {@link CompletionStage}.
+	 * @param pStage The completion stage, which has been returned
+	 * by the handler.
+	 * @return The result object.
+	 * @throws XmlRpcException The request failed, or the
+	 * current thread has been interrupted.
+	 */
+	protected Object getResult(CompletionStage pStage) throws XmlRpcException {
+		try {
+			return pStage.toCompletableFuture().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new XmlRpcException("Interrupted while waiting for the result", e);
+		} catch (ExecutionException e) {
+			final Throwable t = e.getCause() == null ? e : e.getCause();
+			if (t instanceof XmlRpcException) {
+				throw (XmlRpcException) t;
+			}
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new XmlRpcException(t.getMessage(), t);
+		}
+	}
 }
@@ -26,6 +26,10 @@ import org.apache.xmlrpc.XmlRpcConfigImpl;
 public class XmlRpcServerConfigImpl extends XmlRpcConfigImpl
 		implements XmlRpcServerConfig, XmlRpcHttpServerConfig {
 	private boolean isKeepAliveEnabled;
+	private int keepAliveTimeout = 30000;
+	private int maxKeepAliveRequests;
+	private int maxConnectionAge;
+	private int maxRequestSize = 16*1024*1024;
     private boolean isEnabledForExceptions;
 
 	/** Sets, whether HTTP keepalive is enabled for this server. Note that the
@@ -40,6 +44,52 @@ public class XmlRpcServerConfigImpl extends XmlRpcConfigImpl
 
 	public boolean isKeepAliveEnabled() { return isKeepAliveEnabled; }
 
+	/** Sets the number of milliseconds, that a keepalive connection
+	 * may be idle, before it is closed by the server. Defaults to
+	 * 30000 (30 seconds).
+	 * @param pMillis Idle timeout in milliseconds, or 0 for no timeout.
+	 */
+	public void setKeepAliveTimeout(int pMillis) {
+		keepAliveTimeout = pMillis;
+	}
+
+	public int getKeepAliveTimeout() { return keepAliveTimeout; }
+
+	/** Sets the maximum number of requests, which are served over
+	 * a single keepalive connection. Defaults to 0 (no limit).
+	 * @param pMaxRequests Maximum number of requests per connection,
+	 * or 0 for no limit.
+	 */
+	public void setMaxKeepAliveRequests(int pMaxRequests) {
+		maxKeepAliveRequests = pMaxRequests;
+	}
+
+	public int getMaxKeepAliveRequests() { return maxKeepAliveRequests; }
+
+	/** Sets the number of milliseconds, after which a keepalive
+	 * connection is no longer reused. Defaults to 0 (no limit).
+	 * @param pMillis Maximum connection age in milliseconds, or 0
+	 * for no limit.
+	 */
+	public void setMaxConnectionAge(int pMillis) {
+		maxConnectionAge = pMillis;
+	}
+
+	public int getMaxConnectionAge() { return maxConnectionAge; }
+
+	/** Sets the maximum size of a request, which is read into memory,
+	 * before it is processed. Larger requests are rejected with the
+	 * status code 413 (Request Entity Too Large). Defaults to 16777216
+	 * (16 MB).
+	 * @param pMaxSize Maximum request size in bytes, or 0 for no limit.
+	 * @see XmlRpcHttpServerConfig#getMaxRequestSize()
+	 */
+	public void setMaxRequestSize(int pMaxSize) {
+		maxRequestSize = pMaxSize;
+	}
+
+	public int getMaxRequestSize() { return maxRequestSize; }
+
     /** Sets, whether the server may create a "faultCause" element in an error
      * response. Note, that this may be a security issue!
 	 *
@@ -41,7 +41,16 @@ public class XmlRpcServerWorker implements XmlRpcWorker {
 
 	public Object execute(XmlRpcRequest pRequest) throws XmlRpcException {
 		XmlRpcServer server = (XmlRpcServer) getController();
-		XmlRpcHandlerMapping mapping = server.getHandlerMapping();
+		final XmlRpcServer previous = XmlRpcServer.setCurrentServer(server);
+		try {
+			return execute(server, pRequest);
+		} finally {
+			XmlRpcServer.setCurrentServer(previous);
+		}
+	}
+
+	private Object execute(XmlRpcServer pServer, XmlRpcRequest pRequest) throws XmlRpcException {
+		XmlRpcHandlerMapping mapping = pServer.getHandlerMapping();
 		XmlRpcHandler handler = mapping.getHandler(pRequest.getMethodName());
 		return handler.execute(pRequest);
 	}
@@ -22,7 +22,12 @@ import org.apache.xmlrpc.common.XmlRpcWorker;
 import org.apache.xmlrpc.common.XmlRpcWorkerFactory;
 
 
-/** Server specific worker factory.
+/** Server specific worker factory. In addition to the servers
+ * global maximum number of threads, the factory provides the
+ * {@link Bulkhead bulkheads}, which are configured for individual
+ * methods, or handler classes. The server obtains a slot of the
+ * bulkhead before the worker.
+ * @see AbstractReflectiveHandlerMapping#setBulkhead(String, Bulkhead)
  */
 public class XmlRpcServerWorkerFactory extends XmlRpcWorkerFactory {
 	/** Creates a new factory with the given controller.
@@ -35,4 +40,25 @@ public class XmlRpcServerWorkerFactory extends XmlRpcWorkerFactory {
 	protected XmlRpcWorker newWorker() {
 		return new XmlRpcServerWorker(this);
 	}
+
+	/** Returns the bulkhead, which limits the number of concurrent
+	 * calls of the given method. By default, this is the bulkhead for
+	 * the method, or for its handler class, if the mapping is an
+	 * instance of {@link AbstractReflectiveHandlerMapping}.
+	 * @param pMapping The servers handler mapping.
+	 * @param pMethodName The requests method name.
+	 * @return The bulkhead, or null, if the method isn't limited.
+	 */
+	protected Bulkhead getBulkhead(XmlRpcHandlerMapping pMapping, String pMethodName) {
+		if (!(pMapping instanceof AbstractReflectiveHandlerMapping)) {
+			return null;
+		}
+		final AbstractReflectiveHandlerMapping mapping = (AbstractReflectiveHandlerMapping) pMapping;
+		final Bulkhead bulkhead = mapping.getBulkhead(pMethodName);
+		if (bulkhead != null) {
+			return bulkhead;
+		}
+		final int offset = pMethodName.lastIndexOf('.');
+		return offset > 0 ? mapping.getBulkhead(pMethodName.substring(0, offset)) : null;
+	}
 }
@@ -18,13 +18,15 @@
  */
 package org.apache.xmlrpc.server;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.zip.Deflater;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,6 +41,13 @@ import org.apache.xmlrpc.serializer.DefaultXMLWriterFactory;
 import org.apache.xmlrpc.serializer.SerializerHandler;
 import org.apache.xmlrpc.serializer.XmlRpcWriter;
 import org.apache.xmlrpc.serializer.XmlWriterFactory;
+import org.apache.xmlrpc.util.DeflateDictionary;
+import org.apache.xmlrpc.util.DeflaterPool;
+import org.apache.xmlrpc.util.DictionaryDeflaterOutputStream;
+import org.apache.xmlrpc.util.DictionaryInflaterInputStream;
+import org.apache.xmlrpc.util.GzipInputStream;
+import org.apache.xmlrpc.util.GzipOutputStream;
+import org.apache.xmlrpc.util.PooledByteArrayOutputStream;
 import org.apache.xmlrpc.util.SAXParsers;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -55,6 +64,12 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 	private XmlWriterFactory writerFactory = new DefaultXMLWriterFactory();
 	private static final XmlRpcErrorLogger theErrorLogger = new XmlRpcErrorLogger();
 	private XmlRpcErrorLogger errorLogger = theErrorLogger;
+	private final DeflaterPool deflaterPool = new DeflaterPool();
+	private final DeflaterPool dictionaryPool = new DeflaterPool(64, false);
+	private DeflateDictionary deflateDictionary = DeflateDictionary.getDefault();
+	private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private int minCompressionSize;
 	
 	protected XmlRpcRequest getRequest(final XmlRpcStreamRequestConfig pConfig,
 									   InputStream pStream) throws XmlRpcException {
@@ -91,6 +106,11 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 
 	protected void writeResponse(XmlRpcStreamRequestConfig pConfig, OutputStream pStream,
 								 Object pResult) throws XmlRpcException {
+		serializeResponse(pConfig, pStream, pResult);
+	}
+
+	private void serializeResponse(XmlRpcStreamRequestConfig pConfig, OutputStream pStream,
+								   Object pResult) throws XmlRpcException {
 		try {
 			getXmlRpcWriter(pConfig, pStream).write(pConfig, pResult);
 		} catch (SAXException e) {
@@ -98,6 +118,24 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 		}
 	}
 
+	/** Writes a response, which has already been serialized, because
+	 * it is stored in the {@link ResultCache}. Transports, which are
+	 * overriding {@link #writeResponse(XmlRpcStreamRequestConfig, OutputStream, Object)},
+	 * should override this method as well.
+	 * @param pConfig the request configuration
+	 * @param pStream the output stream
+	 * @param pResponse the serialized response
+	 * @throws XmlRpcException if an XML-RPC error occurs
+	 */
+	protected void writeSerializedResponse(XmlRpcStreamRequestConfig pConfig, OutputStream pStream,
+										   byte[] pResponse) throws XmlRpcException {
+		try {
+			pStream.write(pResponse);
+		} catch (IOException e) {
+			throw new XmlRpcException("Failed to write XML-RPC response: " + e.getMessage(), e);
+		}
+	}
+
 	/**
      * This method allows to convert the error into another error. For example, this
      * may be an error, which could be deserialized by the client.
@@ -145,12 +183,183 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 	protected InputStream getInputStream(XmlRpcStreamRequestConfig pConfig,
 										 ServerStreamConnection pConnection) throws IOException {
 		InputStream istream = pConnection.newInputStream();
-		if (pConfig.isEnabledForExtensions()  &&  pConfig.isGzipCompressing()) {
-			istream = new GZIPInputStream(istream);
+		if (pConfig.isEnabledForExtensions()  &&  pConfig.isDictionaryCompressing()) {
+			istream = new DictionaryInflaterInputStream(istream, dictionaryPool, deflateDictionary);
+			compressionMetrics.decompressed();
+		} else if (pConfig.isEnabledForExtensions()  &&  pConfig.isGzipCompressing()) {
+			istream = new GzipInputStream(istream, deflaterPool);
+			compressionMetrics.decompressed();
 		}
 		return istream;
 	}
 
+	/** Sets the preset dictionary, which is used for the
+	 * {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING}.
+	 * Clients must use the same dictionary. Defaults to
+	 * {@link DeflateDictionary#getDefault()}.
+	 * @param pDictionary The preset dictionary.
+	 */
+	public void setDeflateDictionary(DeflateDictionary pDictionary) {
+		deflateDictionary = pDictionary;
+	}
+
+	/** Returns the preset dictionary, which is used for the
+	 * {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING}.
+	 * Defaults to {@link DeflateDictionary#getDefault()}.
+	 * @return The preset dictionary.
+	 */
+	public DeflateDictionary getDeflateDictionary() {
+		return deflateDictionary;
+	}
+
+	/** Sets the compression level, which is used for compressed
+	 * responses. Lower levels are faster, but produce larger responses.
+	 * Defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @param pLevel The compression level, from 0 to 9, or
+	 * {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public void setCompressionLevel(int pLevel) {
+		if (pLevel != Deflater.DEFAULT_COMPRESSION
+				&&  (pLevel < Deflater.NO_COMPRESSION  ||  pLevel > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + pLevel);
+		}
+		compressionLevel = pLevel;
+	}
+
+	/** Returns the compression level, which is used for compressed
+	 * responses. Defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @return The compression level, from 0 to 9, or
+	 * {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/** Sets the minimum size of a response, which is compressed, if the
+	 * client accepts a compressed encoding. Smaller responses are sent
+	 * uncompressed, because the compression costs more CPU time than
+	 * it saves on the wire. The minimum size applies only to responses,
+	 * which are buffered anyways, and to HTTP servers, which are able
+	 * to indicate an uncompressed response. Defaults to 0, in which
+	 * case all responses are compressed.
+	 * @param pSize The minimum size in bytes.
+	 * @see #isCompressionOptional(XmlRpcStreamRequestConfig)
+	 */
+	public void setMinCompressionSize(int pSize) {
+		if (pSize < 0) {
+			throw new IllegalArgumentException("Invalid minimum compression size: " + pSize);
+		}
+		minCompressionSize = pSize;
+	}
+
+	/** Returns the minimum size of a response, which is compressed, if
+	 * the client accepts a compressed encoding. Defaults to 0, in which case
+	 * all responses are compressed.
+	 * @return The minimum size in bytes.
+	 */
+	public int getMinCompressionSize() {
+		return minCompressionSize;
+	}
+
+	/** Returns the servers compression metrics.
+	 * @return The compression metrics.
+	 */
+	public CompressionMetrics getCompressionMetrics() {
+		return compressionMetrics;
+	}
+
+	/** Returns, whether the response is compressed, because the
+	 * client accepts the gzip, or dictionary encoding.
+	 * @param pConfig The request configuration.
+	 * @return True, if the client accepts a compressed response.
+	 */
+	protected boolean isCompressingResponse(XmlRpcStreamRequestConfig pConfig) {
+		return pConfig.isEnabledForExtensions()
+			&&  (pConfig.isGzipRequesting()  ||  pConfig.isDictionaryRequesting());
+	}
+
+	/** Returns, whether the response is compressed with a preset
+	 * dictionary, rather than gzip, because the client accepts the
+	 * {@link org.apache.xmlrpc.util.HttpUtil#DICTIONARY_ENCODING}.
+	 * @param pConfig The request configuration.
+	 * @return True, if the client accepts the dictionary encoding.
+	 */
+	protected boolean isDictionaryCompressingResponse(XmlRpcStreamRequestConfig pConfig) {
+		return pConfig.isEnabledForExtensions()  &&  pConfig.isDictionaryRequesting();
+	}
+
+	/** Returns, whether the server may decide to send an uncompressed
+	 * response, although the client accepts a compressed encoding. This is
+	 * the case for HTTP servers, which indicate a compressed response
+	 * by setting the "Content-Encoding" header.
+	 * @param pConfig The request configuration.
+	 * @return True, if small responses may be sent uncompressed.
+	 */
+	protected boolean isCompressionOptional(XmlRpcStreamRequestConfig pConfig) {
+		return false;
+	}
+
+	/** Called to create a stream, which compresses the response.
+	 * @param pConnection The connection object.
+	 * @param pConfig The request configuration.
+	 * @param pStream The stream, to which the compressed response
+	 * is written.
+	 * @return A stream, which compresses the response.
+	 * @throws IOException Creating the stream failed.
+	 */
+	protected OutputStream getCompressingOutputStream(ServerStreamConnection pConnection,
+			XmlRpcStreamRequestConfig pConfig, OutputStream pStream) throws IOException {
+		if (isDictionaryCompressingResponse(pConfig)) {
+			return new DictionaryDeflaterOutputStream(pStream, dictionaryPool,
+					deflateDictionary, compressionLevel){
+				public void close() throws IOException {
+					super.close();
+					compressionMetrics.compressed(getBytesRead(), getBytesWritten(), getDeflateNanos());
+				}
+			};
+		}
+		return new GzipOutputStream(pStream, deflaterPool, compressionLevel){
+			public void close() throws IOException {
+				super.close();
+				compressionMetrics.compressed(getBytesRead(), getBytesWritten(), getDeflateNanos());
+			}
+		};
+	}
+
+	/** Called to compress a buffered response, if it isn't smaller than
+	 * the minimum compression size, or compression isn't optional.
+	 * @param pConnection The connection object.
+	 * @param pConfig The request configuration.
+	 * @param pBuffer The uncompressed response.
+	 * @return Either of the buffer with the compressed response, or
+	 * the input buffer, if compression has been skipped. In the former
+	 * case, the input buffer has been released.
+	 * @throws IOException Compressing the response failed.
+	 */
+	protected PooledByteArrayOutputStream compress(ServerStreamConnection pConnection,
+			XmlRpcStreamRequestConfig pConfig, PooledByteArrayOutputStream pBuffer)
+			throws IOException {
+		if (pBuffer.size() < minCompressionSize  &&  isCompressionOptional(pConfig)) {
+			compressionMetrics.skipped(pBuffer.size());
+			return pBuffer;
+		}
+		final PooledByteArrayOutputStream result = new PooledByteArrayOutputStream(pBuffer.getHeadroom());
+		boolean success = false;
+		try {
+			final OutputStream ostream = getCompressingOutputStream(pConnection, pConfig, result);
+			pBuffer.writeTo(ostream);
+			ostream.close();
+			success = true;
+		} finally {
+			if (success) {
+				pBuffer.release();
+			} else {
+				result.release();
+			}
+		}
+		return result;
+	}
+
 	/** Called to prepare the output stream. Typically used for enabling
 	 * compression, or similar filters.
 	 * @param pConnection The connection object.
@@ -161,8 +370,8 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 	 */
 	protected OutputStream getOutputStream(ServerStreamConnection pConnection,
 										   XmlRpcStreamRequestConfig pConfig, OutputStream pStream) throws IOException {
-		if (pConfig.isEnabledForExtensions()  &&  pConfig.isGzipRequesting()) {
-			return new GZIPOutputStream(pStream);
+		if (isCompressingResponse(pConfig)) {
+			return getCompressingOutputStream(pConnection, pConfig, pStream);
 		} else {
 			return pStream;
 		}
@@ -204,11 +413,23 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 		try {
 			Object result;
 			Throwable error;
+			ResultCache.Key key = null;
+			ResultCache.Entry entry = null;
 			InputStream istream = null;
 			try {
 				istream = getInputStream(pConfig, pConnection);
 				XmlRpcRequest request = getRequest(pConfig, istream);
-				result = execute(request);
+				key = getCacheKey(request);
+				if (key != null) {
+					entry = key.get();
+				}
+				if (entry == null) {
+					result = executeSingleFlight(request);
+				} else {
+					// The result is needed, unless the response is stored.
+					result = entry.key.cache.isStoringResponses() ? null : entry.getResult();
+					key = null;
+				}
 				istream.close();
 				istream = null;
 				error = null;
@@ -217,31 +438,139 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 				logError(t);
 				result = null;
 				error = t;
+				key = null;
 			} finally {
 				if (istream != null) { try { istream.close(); } catch (Throwable ignore) {} }
 			}
+			if (result instanceof CompletionStage) {
+				final CompletionStage stage = (CompletionStage) result;
+				if (!(stage instanceof Future  &&  ((Future) stage).isDone())
+						&&  pConnection instanceof DeferrableServerStreamConnection
+						&&  ((DeferrableServerStreamConnection) pConnection).deferResponse()) {
+					// The response is written by the thread, which
+					// completes the stage.
+					deferResponse(pConfig, (DeferrableServerStreamConnection) pConnection, stage, key);
+					pConnection = null;
+					log.debug("execute: Response deferred");
+				} else {
+					try {
+						result = getResult(stage);
+					} catch (Throwable t) {
+						logError(t);
+						result = null;
+						error = t;
+						key = null;
+					}
+				}
+			}
+			if (pConnection != null) {
+				if (key != null) {
+					entry = key.put(result);
+				}
+				sendResponse(pConfig, pConnection, result, error, entry);
+				pConnection = null;
+			}
+		} catch (IOException e) {
+			throw new XmlRpcException("I/O error while processing request: "
+					+ e.getMessage(), e);
+		} finally {
+			if (pConnection != null) { try { pConnection.close(); } catch (Throwable ignore) {} }
+		}
+		log.debug("execute: <-");
+	}
+
+	/** Writes the response, when the given stage is complete.
+	 */
+	private void deferResponse(final XmlRpcStreamRequestConfig pConfig,
+			final DeferrableServerStreamConnection pConnection, CompletionStage pStage,
+			final ResultCache.Key pKey) {
+		pStage.whenComplete(new BiConsumer(){
+			public void accept(Object pResult, Object pError) {
+				Throwable error = (Throwable) pError;
+				if (error instanceof CompletionException  &&  error.getCause() != null) {
+					error = error.getCause();
+				}
+				if (error != null) {
+					logError(error);
+				}
+				Throwable failure = null;
+				try {
+					final ResultCache.Entry entry;
+					if (error == null  &&  pKey != null) {
+						entry = pKey.put(pResult);
+					} else {
+						entry = null;
+					}
+					sendResponse(pConfig, pConnection, pResult, error, entry);
+				} catch (IOException e) {
+					failure = new XmlRpcException("I/O error while processing request: "
+							+ e.getMessage(), e);
+				} catch (Throwable t) {
+					failure = t;
+				}
+				pConnection.responseCompleted(failure);
+			}
+		});
+	}
+
+	/** Writes the result, or the error, to the connection, and closes it.
+	 * If the result is cached, then the serialized response may be taken
+	 * from, or stored in the cache entry.
+	 */
+	private void sendResponse(XmlRpcStreamRequestConfig pConfig,
+			ServerStreamConnection pConnection, Object pResult, Throwable pError,
+			ResultCache.Entry pEntry)
+			throws IOException, XmlRpcException {
+		try {
+			byte[] response = null;
+			if (pEntry != null  &&  pEntry.key.cache.isStoringResponses()) {
+				response = pEntry.getResponse(pConfig);
+				if (response == null) {
+					final PooledByteArrayOutputStream serialized = new PooledByteArrayOutputStream();
+					try {
+						serializeResponse(pConfig, serialized, pEntry.getResult());
+						response = serialized.toByteArray();
+					} finally {
+						serialized.release();
+					}
+					pEntry.key.cache.setResponse(pEntry, response, pConfig);
+				}
+			}
 			boolean contentLengthRequired = isContentLengthRequired(pConfig);
-			ByteArrayOutputStream baos;
+			// Small responses may be sent uncompressed, but that's known
+			// only after the response has been buffered.
+			boolean compressLater = contentLengthRequired
+				&&  isCompressingResponse(pConfig)  &&  isCompressionOptional(pConfig);
+			PooledByteArrayOutputStream baos;
 			OutputStream ostream;
 			if (contentLengthRequired) {
-				baos = new ByteArrayOutputStream();
+				// Pooled buffers, so that large responses aren't copied
+				// while growing, and the buffers are reused.
+				baos = new PooledByteArrayOutputStream();
 				ostream = baos;
 			} else {
 				baos = null;
 				ostream = pConnection.newOutputStream();
 			}
-			ostream = getOutputStream(pConnection, pConfig, ostream);
+			if (!compressLater) {
+				ostream = getOutputStream(pConnection, pConfig, ostream);
+			}
 			try {
-				if (error == null) {
-					writeResponse(pConfig, ostream, result);
+				if (response != null) {
+					writeSerializedResponse(pConfig, ostream, response);
+				} else if (pError == null) {
+					writeResponse(pConfig, ostream, pResult);
 				} else {
-					writeError(pConfig, ostream, error);
+					writeError(pConfig, ostream, pError);
 				}
 				ostream.close();
 				ostream = null;
 			} finally {
 				if (ostream != null) { try { ostream.close(); } catch (Throwable ignore) {} }
 			}
+			if (compressLater) {
+				baos = compress(pConnection, pConfig, baos);
+			}
 			if (baos != null) {
 				OutputStream dest = getOutputStream(pConfig, pConnection, baos.size());
 				try {
@@ -250,17 +579,14 @@ public abstract class XmlRpcStreamServer extends XmlRpcServer
 					dest = null;
 				} finally {
 					if (dest != null) { try { dest.close(); } catch (Throwable ignore) {} }
+					baos.release();
 				}
 			}
             pConnection.close();
 			pConnection = null;
-		} catch (IOException e) {
-			throw new XmlRpcException("I/O error while processing request: "
-					+ e.getMessage(), e);
 		} finally {
 			if (pConnection != null) { try { pConnection.close(); } catch (Throwable ignore) {} }
 		}
-		log.debug("execute: <-");
 	}
 
     protected void logError(Throwable t) {
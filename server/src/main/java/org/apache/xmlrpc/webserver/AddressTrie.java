@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.webserver;
+
+import java.net.InetAddress;
+import java.util.StringTokenizer;
+
+
+/** A set of IPv4 and IPv6 address ranges, which is used by the
+ * {@link WebServer WebServer's} client filtering. The ranges are
+ * stored in a prefix trie, which consumes four bits of the address per
+ * level, so that the cost of a lookup depends on the address length
+ * only, and not on the number of ranges.<br>
+ * The following patterns are supported:
+ * <ul>
+ *   <li>Single addresses, like "192.168.5.1", or "2001:db8::1".</li>
+ *   <li>Ranges in CIDR notation, like "192.168.0.0/16",
+ *     or "2001:db8::/32".</li>
+ *   <li>IPv4 addresses with '*' as wildcard octets, like "192.168.*.*",
+ *     or "10.*.0.1".</li>
+ * </ul>
+ * Ranges may be added while lookups are running in other threads.
+ * Lookups don't block.
+ */
+class AddressTrie {
+	private static final int WILDCARD = 16;
+
+	private static class Node {
+		final Node[] children = new Node[WILDCARD + 1];
+		boolean terminal;
+	}
+
+	private final Node ipv4 = new Node();
+	private final Node ipv6 = new Node();
+	/** Written after every modification, and read before every
+	 * lookup, so that lookups see all completed modifications.
+	 */
+	private volatile int modCount;
+
+	/** Adds the given address range.
+	 * @param pPattern The address range being added.
+	 * @throws IllegalArgumentException Parsing the pattern failed.
+	 */
+	synchronized void add(String pPattern) {
+		String address = pPattern.trim();
+		int prefixLength = -1;
+		final int offset = address.indexOf('/');
+		try {
+			if (offset != -1) {
+				prefixLength = Integer.parseInt(address.substring(offset+1));
+				address = address.substring(0, offset);
+			}
+			if (address.indexOf('*') != -1) {
+				if (prefixLength != -1) {
+					throw new IllegalArgumentException();
+				}
+				addWildcardPattern(address);
+			} else {
+				addCidr(address, prefixLength);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("\"" + pPattern
+					+ "\" does not represent a valid IP address, or address range");
+		}
+		++modCount;
+	}
+
+	private void addWildcardPattern(String pAddress) {
+		final StringTokenizer st = new StringTokenizer(pAddress, ".");
+		if (st.countTokens() != 4) {
+			throw new IllegalArgumentException();
+		}
+		final int[] nibbles = new int[8];
+		int numNibbles = 0;
+		for (int i = 0;  i < 4;  i++) {
+			final String next = st.nextToken();
+			if ("*".equals(next)) {
+				nibbles[2*i] = nibbles[2*i+1] = -1;
+			} else {
+				final int octet = Integer.parseInt(next);
+				if (octet < 0  ||  octet > 255) {
+					throw new IllegalArgumentException();
+				}
+				nibbles[2*i] = octet >> 4;
+				nibbles[2*i+1] = octet & 0xf;
+				numNibbles = 2*i+2;
+			}
+		}
+		// Trailing wildcards are a prefix.
+		add(ipv4, nibbles, numNibbles * 4);
+	}
+
+	private void addCidr(String pAddress, int pPrefixLength) {
+		final boolean ipv6Literal = pAddress.indexOf(':') != -1;
+		for (int i = 0;  i < pAddress.length();  i++) {
+			final char c = pAddress.charAt(i);
+			if (c != '.'  &&  c != ':'
+					&&  Character.digit(c, ipv6Literal ? 16 : 10) == -1) {
+				// Not a literal address, don't attempt a DNS lookup.
+				throw new IllegalArgumentException();
+			}
+		}
+		if (!ipv6Literal  &&  new StringTokenizer(pAddress, ".").countTokens() != 4) {
+			// Reject the short forms, like "10.1", which InetAddress accepts.
+			throw new IllegalArgumentException();
+		}
+		final byte[] bytes;
+		try {
+			bytes = InetAddress.getByName(pAddress).getAddress();
+		} catch (Exception e) {
+			throw new IllegalArgumentException();
+		}
+		int prefixLength = pPrefixLength;
+		if (prefixLength == -1) {
+			prefixLength = bytes.length * 8;
+		} else if (ipv6Literal  &&  bytes.length == 4) {
+			// An IPv4 mapped address, like "::ffff:10.0.0.0/104"
+			prefixLength -= 96;
+		}
+		if (prefixLength < 0  ||  prefixLength > bytes.length * 8) {
+			throw new IllegalArgumentException();
+		}
+		final int[] nibbles = new int[bytes.length * 2];
+		for (int i = 0;  i < bytes.length;  i++) {
+			nibbles[2*i] = (bytes[i] >> 4) & 0xf;
+			nibbles[2*i+1] = bytes[i] & 0xf;
+		}
+		add(bytes.length == 4 ? ipv4 : ipv6, nibbles, prefixLength);
+	}
+
+	/** Adds a path to the trie. A value of -1 in the nibbles array
+	 * denotes a wildcard. If the prefix length isn't a multiple of
+	 * four, then the last level is expanded into all matching children.
+	 */
+	private void add(Node pRoot, int[] pNibbles, int pPrefixLength) {
+		final int numNibbles = pPrefixLength / 4;
+		final int remainingBits = pPrefixLength % 4;
+		Node node = pRoot;
+		for (int i = 0;  i < numNibbles;  i++) {
+			if (node.terminal) {
+				return; // The range is already covered.
+			}
+			node = getChild(node, pNibbles[i] == -1 ? WILDCARD : pNibbles[i]);
+		}
+		if (remainingBits == 0) {
+			node.terminal = true;
+		} else if (!node.terminal) {
+			final int freeBits = 4 - remainingBits;
+			final int first = pNibbles[numNibbles] & (0xf << freeBits) & 0xf;
+			for (int i = 0;  i < (1 << freeBits);  i++) {
+				getChild(node, first | i).terminal = true;
+			}
+		}
+	}
+
+	private Node getChild(Node pNode, int pIndex) {
+		Node child = pNode.children[pIndex];
+		if (child == null) {
+			child = new Node();
+			pNode.children[pIndex] = child;
+		}
+		return child;
+	}
+
+	/** Returns, whether the given address is contained in any of
+	 * the ranges.
+	 * @param pAddress The address being checked, as returned by
+	 * {@link InetAddress#getAddress()}.
+	 * @return True, if the address matches.
+	 */
+	boolean matches(byte[] pAddress) {
+		if (modCount == 0) {
+			return false;
+		}
+		return matches(pAddress.length == 4 ? ipv4 : ipv6, pAddress, 0);
+	}
+
+	private static boolean matches(Node pNode, byte[] pAddress, int pLevel) {
+		Node node = pNode;
+		for (int level = pLevel;  ;  level++) {
+			if (node.terminal) {
+				return true;
+			}
+			if (level == pAddress.length * 2) {
+				return false;
+			}
+			final Node wildcard = node.children[WILDCARD];
+			if (wildcard != null  &&  matches(wildcard, pAddress, level+1)) {
+				return true;
+			}
+			final int b = pAddress[level / 2];
+			node = node.children[(level % 2 == 0 ? b >> 4 : b) & 0xf];
+			if (node == null) {
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.webserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.xmlrpc.util.TaskExecutor;
+import org.apache.xmlrpc.util.ThreadPool;
+
+
+/** Implementation of {@link AsyncContext} for the
+ * {@link ServletWebServer}. Once a servlet has started asynchronous
+ * processing, the {@link ServletConnection} releases its thread without
+ * completing the response. The response is completed by invoking
+ * {@link #complete()}, typically from another thread, or by the
+ * timeout.<br>
+ * Dispatching isn't supported. Tasks passed to {@link #start(Runnable)}
+ * are run by the servers executor. If the executor is overloaded, then
+ * the task is discarded, and the response is completed with the status
+ * code 503 (Service Unavailable).
+ */
+class AsyncContextImpl implements AsyncContext {
+	private static Timer timer;
+
+	private static class Listener {
+		final AsyncListener listener;
+		final ServletRequest request;
+		final ServletResponse response;
+
+		Listener(AsyncListener pListener, ServletRequest pRequest, ServletResponse pResponse) {
+			listener = pListener;
+			request = pRequest;
+			response = pResponse;
+		}
+	}
+
+	private final ServletRequest request;
+	private final ServletResponse response;
+	private final HttpServletResponseImpl responseImpl;
+	private final TaskExecutor executor;
+	private final List listeners = new ArrayList();
+	private long timeout = 30000;
+	private TimerTask timeoutTask;
+	private Runnable completionHandler;
+	private boolean completed;
+
+	/** Creates a new instance.
+	 * @param pRequest The request, as passed to
+	 *   {@link jakarta.servlet.ServletRequest#startAsync(ServletRequest, ServletResponse)}.
+	 * @param pResponse The response, as passed to
+	 *   {@link jakarta.servlet.ServletRequest#startAsync(ServletRequest, ServletResponse)}.
+	 * @param pResponseImpl The servers response object, which is
+	 *   finished by {@link #complete()}.
+	 * @param pExecutor The executor, which runs the tasks passed to
+	 *   {@link #start(Runnable)}, or null.
+	 */
+	AsyncContextImpl(ServletRequest pRequest, ServletResponse pResponse,
+			HttpServletResponseImpl pResponseImpl, TaskExecutor pExecutor) {
+		request = pRequest;
+		response = pResponse;
+		responseImpl = pResponseImpl;
+		executor = pExecutor;
+	}
+
+	private static synchronized Timer getTimer() {
+		if (timer == null) {
+			timer = new Timer("XML-RPC AsyncTimeout", true);
+		}
+		return timer;
+	}
+
+	/** Called by the {@link ServletConnection}, after the servlet
+	 * has returned, to start the timeout.
+	 */
+	synchronized void startTimeout() {
+		if (completed  ||  timeout <= 0) {
+			return;
+		}
+		timeoutTask = new TimerTask(){
+			public void run() {
+				onTimeout();
+			}
+		};
+		getTimer().schedule(timeoutTask, timeout);
+	}
+
+	/** Sets the code, which is executed after the response is complete.
+	 * @param pHandler The code being executed.
+	 * @return True, if the handler has been registered. False, if the
+	 * response is already complete, in which case the handler isn't
+	 * executed.
+	 */
+	synchronized boolean setCompletionHandler(Runnable pHandler) {
+		if (completed) {
+			return false;
+		}
+		completionHandler = pHandler;
+		return true;
+	}
+
+	synchronized boolean isCompleted() {
+		return completed;
+	}
+
+	private List getListeners() {
+		synchronized (listeners) {
+			return new ArrayList(listeners);
+		}
+	}
+
+	private void onTimeout() {
+		final List list = getListeners();
+		for (int i = 0;  i < list.size()  &&  !isCompleted();  i++) {
+			final Listener l = (Listener) list.get(i);
+			try {
+				l.listener.onTimeout(new AsyncEvent(this, l.request, l.response));
+			} catch (Throwable ignore) {
+				// Nothing to do
+			}
+		}
+		if (!isCompleted()) {
+			try {
+				if (!responseImpl.isCommitted()) {
+					responseImpl.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				}
+			} catch (Throwable ignore) {
+				// Nothing to do, the client is gone.
+			}
+			complete();
+		}
+	}
+
+	public ServletRequest getRequest() {
+		return request;
+	}
+
+	public ServletResponse getResponse() {
+		return response;
+	}
+
+	public boolean hasOriginalRequestAndResponse() {
+		return true;
+	}
+
+	/** Not supported by the {@link ServletWebServer}, which doesn't
+	 * have a request dispatcher.
+	 * @throws UnsupportedOperationException Always thrown.
+	 */
+	public void dispatch() {
+		throw new UnsupportedOperationException("Dispatching isn't supported by the ServletWebServer");
+	}
+
+	/** Not supported by the {@link ServletWebServer}, which doesn't
+	 * have a request dispatcher.
+	 * @throws UnsupportedOperationException Always thrown.
+	 */
+	public void dispatch(String pPath) {
+		dispatch();
+	}
+
+	/** Not supported by the {@link ServletWebServer}, which doesn't
+	 * have a request dispatcher.
+	 * @throws UnsupportedOperationException Always thrown.
+	 */
+	public void dispatch(ServletContext pContext, String pPath) {
+		dispatch();
+	}
+
+	/** Finishes the response, notifies the listeners, and releases
+	 * the connection.
+	 */
+	public void complete() {
+		final Runnable handler;
+		synchronized (this) {
+			if (completed) {
+				return;
+			}
+			completed = true;
+			if (timeoutTask != null) {
+				timeoutTask.cancel();
+				timeoutTask = null;
+			}
+			handler = completionHandler;
+			completionHandler = null;
+		}
+		try {
+			responseImpl.finish();
+		} catch (IOException ignore) {
+			// Nothing to do, the client is gone.
+		}
+		final List list = getListeners();
+		for (int i = 0;  i < list.size();  i++) {
+			final Listener l = (Listener) list.get(i);
+			try {
+				l.listener.onComplete(new AsyncEvent(this, l.request, l.response));
+			} catch (Throwable ignore) {
+				// Nothing to do
+			}
+		}
+		if (handler != null) {
+			handler.run();
+		}
+	}
+
+	/** Runs the given task by the servers executor. If the executor
+	 * is overloaded, then the task is discarded, and the response is
+	 * completed with the status code 503 (Service Unavailable).
+	 */
+	public void start(final Runnable pRunnable) {
+		if (executor != null  &&  executor.startTask(new ThreadPool.Task(){
+				public void run() throws Throwable {
+					pRunnable.run();
+				}
+			})) {
+			return;
+		}
+		// No executor, or all threads are busy.
+		try {
+			if (!responseImpl.isCommitted()) {
+				responseImpl.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			}
+		} catch (Throwable ignore) {
+			// Nothing to do, the client is gone.
+		}
+		complete();
+	}
+
+	public void addListener(AsyncListener pListener) {
+		addListener(pListener, request, response);
+	}
+
+	public void addListener(AsyncListener pListener, ServletRequest pRequest,
+			ServletResponse pResponse) {
+		synchronized (listeners) {
+			listeners.add(new Listener(pListener, pRequest, pResponse));
+		}
+	}
+
+	public AsyncListener createListener(Class pClass) throws ServletException {
+		try {
+			return (AsyncListener) pClass.newInstance();
+		} catch (Exception e) {
+			throw new ServletException("Failed to create listener: " + e.getMessage(), e);
+		}
+	}
+
+	public synchronized void setTimeout(long pTimeout) {
+		timeout = pTimeout;
+	}
+
+	public synchronized long getTimeout() {
+		return timeout;
+	}
+}
@@ -18,7 +18,6 @@
  */
 package org.apache.xmlrpc.webserver;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -26,27 +25,32 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
-import java.net.SocketException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.xmlrpc.common.ServerStreamConnection;
-import org.apache.xmlrpc.common.XmlRpcHttpRequestConfig;
 import org.apache.xmlrpc.common.XmlRpcNotAuthorizedException;
+import org.apache.xmlrpc.server.DeferrableServerStreamConnection;
 import org.apache.xmlrpc.server.XmlRpcHttpServerConfig;
 import org.apache.xmlrpc.server.XmlRpcStreamServer;
+import org.apache.xmlrpc.util.ChunkedInputStream;
+import org.apache.xmlrpc.util.ChunkedOutputStream;
 import org.apache.xmlrpc.util.HttpUtil;
 import org.apache.xmlrpc.util.LimitedInputStream;
+import org.apache.xmlrpc.util.PooledByteArrayOutputStream;
 import org.apache.xmlrpc.util.ThreadPool;
 
 
 
 /** Handler for a single clients connection. This implementation
  * is able to do HTTP keepalive. In other words, it can serve
- * multiple requests via a single, physical connection.
+ * multiple requests via a single, physical connection.<br>
+ * If a handler returns a {@link java.util.concurrent.CompletionStage},
+ * then the connection releases its thread, and the response is written
+ * by the thread, which completes the stage.
  */
-public class Connection implements ThreadPool.InterruptableTask, ServerStreamConnection {
+public class Connection implements ThreadPool.InterruptableTask, DeferrableServerStreamConnection {
     private static final String US_ASCII = "US-ASCII";
     private static final byte[] ctype = toHTTPBytes("Content-Type: text/xml\r\n");
     private static final byte[] clength = toHTTPBytes("Content-Length: ");
@@ -54,9 +58,23 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
     private static final byte[] doubleNewline = toHTTPBytes("\r\n\r\n");
     private static final byte[] conkeep = toHTTPBytes("Connection: Keep-Alive\r\n");
     private static final byte[] conclose = toHTTPBytes("Connection: close\r\n");
+    private static final byte[] tchunked = toHTTPBytes("Transfer-Encoding: chunked\r\n");
     private static final byte[] ok = toHTTPBytes(" 200 OK\r\n");
     private static final byte[] serverName = toHTTPBytes("Server: Apache XML-RPC 1.0\r\n");
     private static final byte[] wwwAuthenticate = toHTTPBytes("WWW-Authenticate: Basic realm=XML-RPC\r\n");
+    /** Space, which is reserved in front of the response for the header.
+     */
+    private static final int HEADER_SPACE = 512;
+    private static final byte[] CONTENT_LENGTH = toHTTPBytes("content-length:");
+    private static final byte[] CONNECTION = toHTTPBytes("connection:");
+    private static final byte[] AUTHORIZATION = toHTTPBytes("authorization:");
+    private static final byte[] TRANSFER_ENCODING = toHTTPBytes("transfer-encoding:");
+    private static final byte[] CONTENT_ENCODING = toHTTPBytes("content-encoding:");
+    private static final byte[] ACCEPT_ENCODING = toHTTPBytes("accept-encoding:");
+    private static final byte[] KEEP_ALIVE = toHTTPBytes("keep-alive");
+    /** States of a deferred response, see {@link #deferResponse()}.
+     */
+    private static final int NOT_DEFERRED = 0, DEFERRED = 1, DETACHED = 2, COMPLETED = 3;
 
     private static abstract class RequestException extends IOException {
         private static final long serialVersionUID = 2113732921468653309L;
@@ -97,14 +115,21 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
 
     private final WebServer webServer;
     private final Socket socket;
-    private final InputStream input;
+    private final boolean closingSocket;
+    private final HttpInputStream input;
     private final OutputStream output;
     private final XmlRpcStreamServer server;
-    private byte[] buffer;
+    private final ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream(HEADER_SPACE);
     private Map headers;
     private RequestData requestData;
     private boolean shuttingDown;
-    private boolean firstByte;
+    private boolean keepAlive;
+    private long created = System.currentTimeMillis();
+    private int requests;
+    private final AtomicInteger deferral = new AtomicInteger();
+    private volatile Throwable deferredError;
+    private Runnable completionHandler;
+    private boolean pendingRequests;
 
     /** Creates a new webserver connection on the given socket.
      * @param pWebServer The webserver maintaining this connection.
@@ -115,18 +140,41 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
      */
     public Connection(WebServer pWebServer, XmlRpcStreamServer pServer, Socket pSocket)
             throws IOException {
+        this(pWebServer, pServer, pSocket, pSocket.getInputStream(),
+             pSocket.getOutputStream(), true);
+    }
+
+    /** Creates a new webserver connection, which reads requests from,
+     * and writes responses to the given streams, rather than the
+     * sockets own streams. This is used by the non-blocking mode of
+     * the {@link WebServer}, which reads complete requests into memory,
+     * before a connection is created.
+     * @param pWebServer The webserver maintaining this connection.
+     * @param pServer The server being used to execute requests.
+     * @param pSocket The clients socket. The socket is <em>not</em>
+     * closed by the <code>Connection</code>; that remains the
+     * responsibility of the caller.
+     * @param pInput The stream, from which requests are being read.
+     * @param pOutput The stream, to which responses are being written.
+     */
+    public Connection(WebServer pWebServer, XmlRpcStreamServer pServer, Socket pSocket,
+            InputStream pInput, OutputStream pOutput) {
+        this(pWebServer, pServer, pSocket, pInput, pOutput, false);
+    }
+
+    private Connection(WebServer pWebServer, XmlRpcStreamServer pServer, Socket pSocket,
+            InputStream pInput, OutputStream pOutput, boolean pClosingSocket) {
         webServer = pWebServer;
         server = pServer;
         socket = pSocket;
-        input = new BufferedInputStream(socket.getInputStream()){
-            /** It may happen, that the XML parser invokes close().
-             * Closing the input stream must not occur, because
-             * that would close the whole socket. So we suppress it.
-             */
-            public void close() throws IOException {
-            }
-        };
-        output = new BufferedOutputStream(socket.getOutputStream());
+        closingSocket = pClosingSocket;
+        input = new HttpInputStream(pInput);
+        if (pOutput instanceof PooledByteArrayOutputStream) {
+            // The non-blocking mode, no need for another buffer.
+            output = pOutput;
+        } else {
+            output = new BufferedOutputStream(pOutput);
+        }
     }
 
     /** Returns the connections request configuration by
@@ -139,79 +187,141 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
         if (headers != null) {
             headers.clear();
         }
-        firstByte = true;
         XmlRpcHttpServerConfig serverConfig = (XmlRpcHttpServerConfig) server.getConfig();
         requestData.setBasicEncoding(serverConfig.getBasicEncoding());
         requestData.setContentLengthOptional(serverConfig.isContentLengthOptional());
         requestData.setEnabledForExtensions(serverConfig.isEnabledForExtensions());
         requestData.setEnabledForExceptions(serverConfig.isEnabledForExceptions());
 
-        // reset user authentication
-        String line = readLine();
-        if (line == null  &&  firstByte) {
+        if (!input.readRequestHeader()) {
             return null;
         }
-        // Netscape sends an extra \n\r after bodypart, swallow it
-        if (line != null && line.length() == 0) {
-            line = readLine();
-            if (line == null  ||  line.length() == 0) {
-                return null;
-            }
-        }
-
-        // tokenize first line of HTTP request
-        StringTokenizer tokens = new StringTokenizer(line);
-        String method = tokens.nextToken();
-        if (!"POST".equalsIgnoreCase(method)) {
-            throw new BadRequestException(requestData, method);
-        }
+        String method = input.getMethod();
         requestData.setMethod(method);
-        tokens.nextToken(); // Skip URI
-        String httpVersion = tokens.nextToken();
+        String httpVersion = input.getHttpVersion();
         requestData.setHttpVersion(httpVersion);
+        if (!input.isPost()) {
+            throw new BadRequestException(requestData, method);
+        }
         requestData.setKeepAlive(serverConfig.isKeepAliveEnabled()
                 && WebServer.HTTP_11.equals(httpVersion));
-        do {
-            line = readLine();
-            if (line != null) {
-                String lineLower = line.toLowerCase();
-                if (lineLower.startsWith("content-length:")) {
-                    String cLength = line.substring("content-length:".length());
-                    requestData.setContentLength(Integer.parseInt(cLength.trim()));
-                } else if (lineLower.startsWith("connection:")) {
-                    requestData.setKeepAlive(serverConfig.isKeepAliveEnabled()
-                            &&  lineLower.indexOf("keep-alive") > -1);
-                } else if (lineLower.startsWith("authorization:")) {
-                    String credentials = line.substring("authorization:".length());
-                    HttpUtil.parseAuthorization(requestData, credentials);
-                } else if (lineLower.startsWith("transfer-encoding:")) {
-                    String transferEncoding = line.substring("transfer-encoding:".length());
-                    String nonIdentityEncoding = HttpUtil.getNonIdentityTransferEncoding(transferEncoding);
-                    if (nonIdentityEncoding != null) {
-                        throw new BadEncodingException(requestData, nonIdentityEncoding);
-                    }
+        for (int i = 0;  i < input.getHeaderCount();  i++) {
+            if (input.isHeader(i, CONTENT_LENGTH)) {
+                requestData.setContentLength(input.getIntHeaderValue(i, CONTENT_LENGTH));
+            } else if (input.isHeader(i, CONNECTION)) {
+                requestData.setKeepAlive(serverConfig.isKeepAliveEnabled()
+                        &&  input.headerValueContains(i, CONNECTION, KEEP_ALIVE));
+            } else if (input.isHeader(i, AUTHORIZATION)) {
+                String credentials = input.getHeaderValue(i, AUTHORIZATION);
+                HttpUtil.parseAuthorization(requestData, credentials);
+            } else if (input.isHeader(i, TRANSFER_ENCODING)) {
+                String transferEncoding = input.getHeaderValue(i, TRANSFER_ENCODING);
+                String nonIdentityEncoding = HttpUtil.getNonIdentityTransferEncoding(transferEncoding);
+                if ("chunked".equalsIgnoreCase(nonIdentityEncoding)) {
+                    requestData.setChunked(true);
+                } else if (nonIdentityEncoding != null) {
+                    throw new BadEncodingException(requestData, nonIdentityEncoding);
+                }
+            } else if (input.isHeader(i, CONTENT_ENCODING)) {
+                String contentEncoding = input.getHeaderValue(i, CONTENT_ENCODING);
+                if (HttpUtil.isUsingGzipEncoding(contentEncoding)) {
+                    requestData.setGzipCompressing(true);
+                }
+                if (HttpUtil.isUsingDictionaryEncoding(contentEncoding)) {
+                    requestData.setDictionaryCompressing(true);
+                }
+            } else if (input.isHeader(i, ACCEPT_ENCODING)) {
+                String acceptEncoding = input.getHeaderValue(i, ACCEPT_ENCODING);
+                if (HttpUtil.isUsingGzipEncoding(acceptEncoding)) {
+                    requestData.setGzipRequesting(true);
+                }
+                if (HttpUtil.isUsingDictionaryEncoding(acceptEncoding)) {
+                    requestData.setDictionaryRequesting(true);
                 }
             }
         }
-        while (line != null && line.length() != 0);
+        ++requests;
+        if (requestData.isKeepAlive()  &&  isExhausted(serverConfig)) {
+            requestData.setKeepAlive(false);
+        }
 
         return requestData;
     }
 
+    /** Returns, whether the physical connection has served the
+     * maximum number of requests, or exceeded the maximum age, so
+     * that it must not be reused.
+     */
+    private boolean isExhausted(XmlRpcHttpServerConfig pConfig) {
+        final int maxRequests = pConfig.getMaxKeepAliveRequests();
+        if (maxRequests > 0  &&  requests >= maxRequests) {
+            return true;
+        }
+        final int maxAge = pConfig.getMaxConnectionAge();
+        return maxAge > 0  &&  System.currentTimeMillis() - created >= maxAge;
+    }
+
+    /** Returns the time, when an idle keepalive connection is closed.
+     * @param pConfig The servers configuration.
+     * @param pCreated The time, when the connection has been accepted.
+     * @param pIdleSince The time, when the connection became idle.
+     * @return The time in milliseconds, or 0, if the connection may
+     * be idle forever.
+     */
+    static long getIdleDeadline(XmlRpcHttpServerConfig pConfig, long pCreated,
+            long pIdleSince) {
+        long deadline = 0;
+        final int timeout = pConfig.getKeepAliveTimeout();
+        if (timeout > 0) {
+            deadline = pIdleSince + timeout;
+        }
+        final int maxAge = pConfig.getMaxConnectionAge();
+        if (maxAge > 0  &&  (deadline == 0  ||  pCreated + maxAge < deadline)) {
+            deadline = pCreated + maxAge;
+        }
+        return deadline;
+    }
+
+    /** Called in the non-blocking mode, where a new instance is
+     * created for every request, so that the lifecycle limits
+     * apply to the physical connection.
+     * @param pRequests The number of requests, which have been
+     * served over the physical connection.
+     * @param pCreated The time, when the connection has been accepted.
+     */
+    void continueConnection(int pRequests, long pCreated) {
+        requests = pRequests;
+        created = pCreated;
+    }
+
+    /** Called by the {@link KeepAliveParker}, which has already
+     * read the next request, before the connection is resumed.
+     * @param pInput The prebuffered request.
+     */
+    void setPrebuffered(InputStream pInput) {
+        input.setPrebuffered(pInput);
+    }
+
+    /** Returns the number of requests, which have been served
+     * over the physical connection.
+     */
+    int getRequests() {
+        return requests;
+    }
+
+    /** Returns the time, when the physical connection has been
+     * accepted.
+     */
+    long getCreated() {
+        return created;
+    }
+
     public void run() {
+        boolean detached = false;
         try {
-            for (int i = 0;  ;  i++) {
-                RequestData data = getRequestConfig();
-                if (data == null) {
-                    break;
-                }
-                server.execute(data, this);
-                output.flush();
-                if (!data.isKeepAlive()  ||  !data.isSuccess()) {
-                    break;
-                }
-            }
+            detached = serve();
         } catch (RequestException e) {
+            keepAlive = false;
             webServer.log(e.getClass().getName() + ": " + e.getMessage());
             try {
                 writeErrorHeader(e.requestData, e, -1);
@@ -220,44 +330,169 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
                 /* Ignore me */
             }
         } catch (Throwable t) {
+            keepAlive = false;
             if (!shuttingDown) {
                 webServer.log(t);
             }
         } finally {
-            try { output.close(); } catch (Throwable ignore) {}
-            try { input.close(); } catch (Throwable ignore) {}
+            // A parked, or deferred connection may already have been
+            // resumed by another thread, so it must not be touched anymore.
+            if (!detached) {
+                closeConnection();
+            }
+        }
+    }
+
+    /** Processes requests, until the connection is closed, parked,
+     * or a response is deferred.
+     * @return True, if the connection has been parked, or detached from
+     * the current thread, false, if it must be closed.
+     */
+    private boolean serve() throws Throwable {
+        for (;;) {
+            RequestData data = getRequestConfig();
+            if (data == null) {
+                return false;
+            }
+            deferral.set(NOT_DEFERRED);
+            server.execute(data, this);
+            if (deferral.get() != NOT_DEFERRED) {
+                if (deferral.compareAndSet(DEFERRED, DETACHED)) {
+                    // The response is written, and the connection
+                    // continued by responseCompleted().
+                    return true;
+                }
+                // The response has already been completed.
+                if (deferredError != null) {
+                    throw deferredError;
+                }
+            }
+            if (!finishRequest(data)) {
+                return false;
+            }
+            // Rather than blocking the thread, while waiting for the
+            // next request, the idle connection is parked.
+            if (closingSocket  &&  input.available() == 0
+                    &&  webServer.park(this, socket)) {
+                return true;
+            }
+        }
+    }
+
+    /** Called after a response has been written.
+     * @return True, if the connection may be reused.
+     */
+    private boolean finishRequest(RequestData pData) throws IOException {
+        keepAlive = pData.isKeepAlive()  &&  pData.isSuccess();
+        // If the client is pipelining, and the next request is
+        // already available, then the flush is deferred, so that
+        // the responses are written together.
+        if (!keepAlive  ||  !input.isRequestHeaderAvailable()) {
+            output.flush();
+        }
+        return keepAlive;
+    }
+
+    private void closeConnection() {
+        try { output.close(); } catch (Throwable ignore) {}
+        try { input.close(); } catch (Throwable ignore) {}
+        input.releasePrebuffered();
+        if (closingSocket) {
             try { socket.close(); } catch (Throwable ignore) {}
         }
     }
 
-    private String readLine() throws IOException {
-        if (buffer == null) {
-            buffer = new byte[2048];
+    public boolean deferResponse() {
+        deferredError = null;
+        deferral.set(DEFERRED);
+        return true;
+    }
+
+    public void responseCompleted(Throwable pError) {
+        deferredError = pError;
+        if (deferral.compareAndSet(DEFERRED, COMPLETED)) {
+            // run() is still active, and continues the connection.
+            return;
         }
-        int next;
-        int count = 0;
-        for (;;) {
-            try {
-                next = input.read();
-                firstByte = false;
-            } catch (SocketException e) {
-                if (firstByte) {
-                    return null;
-                } else {
-                    throw e;
+        boolean detached = false;
+        try {
+            if (pError != null) {
+                keepAlive = false;
+                if (!shuttingDown) {
+                    webServer.log(pError);
+                }
+            } else if (finishRequest(requestData)) {
+                if (closingSocket) {
+                    // Wait for the next request, either parked, or in a
+                    // new thread, if it is already available.
+                    if (input.available() > 0  ||  !webServer.park(this, socket)) {
+                        webServer.resume(this, socket);
+                    }
+                    detached = true;
+                } else if (input.available() > 0) {
+                    // Non-blocking mode: Pipelined requests are following.
+                    // The completion handler runs the connection again.
+                    pendingRequests = true;
+                    detached = true;
                 }
             }
-            if (next < 0 || next == '\n') {
-                break;
+        } catch (Throwable t) {
+            keepAlive = false;
+            if (!shuttingDown) {
+                webServer.log(t);
             }
-            if (next != '\r') {
-                buffer[count++] = (byte) next;
+        } finally {
+            if (!detached) {
+                closeConnection();
             }
-            if (count >= buffer.length) {
-                throw new IOException("HTTP Header too long");
+            if (completionHandler != null) {
+                completionHandler.run();
             }
         }
-        return new String(buffer, 0, count, US_ASCII);
+    }
+
+    /** Called in the non-blocking mode, before {@link #run()}, to set
+     * the code, which sends the response, if {@link #run()} returns
+     * before the response is complete.
+     * @param pHandler The code, which sends the response.
+     * @see #isDetached()
+     */
+    void setCompletionHandler(Runnable pHandler) {
+        completionHandler = pHandler;
+    }
+
+    /** Called in the non-blocking mode by the
+     * {@link #setCompletionHandler(Runnable) completion handler} to find
+     * out, whether pipelined requests are following the deferred
+     * response. If so, the connection isn't closed, and the handler
+     * must invoke {@link #run()} again, rather than sending the
+     * response.
+     * @return True, if more requests are available.
+     */
+    boolean hasPendingRequests() {
+        final boolean result = pendingRequests;
+        pendingRequests = false;
+        return result;
+    }
+
+    /** Called in the non-blocking mode, after {@link #run()}, to find
+     * out, whether the response is deferred.
+     * @return True, if the
+     * {@link #setCompletionHandler(Runnable) completion handler} will
+     * be invoked, false, if the response is complete.
+     */
+    boolean isDetached() {
+        return deferral.get() == DETACHED;
+    }
+
+    /** Returns, whether the last request, which has been processed by
+     * {@link #run()}, permits to reuse the physical connection for
+     * another request.
+     * @return True, if the client requested keepalive and the
+     * request was processed successfully, false otherwise.
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
     }
 
     /** Writes the response header and the response to the
@@ -269,8 +504,35 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
     public void writeResponse(RequestData pData, OutputStream pBuffer)
             throws IOException {
         ByteArrayOutputStream response = (ByteArrayOutputStream) pBuffer;
-        writeResponseHeader(pData, response.size());
-        response.writeTo(output);
+        headerBuffer.reset();
+        writeResponseHeader(pData, response.size(), headerBuffer);
+        write(headerBuffer, response);
+    }
+
+    /** Writes the header and the response. If possible, the response
+     * buffers are passed on, rather than copied: The header is inserted
+     * into the space reserved in front of the response, so that both
+     * are written together. In the non-blocking mode, the buffers
+     * are moved to the selector thread, which uses a gathering write.
+     */
+    private void write(ByteArrayOutputStream pHeader, ByteArrayOutputStream pResponse)
+            throws IOException {
+        if (!(pResponse instanceof PooledByteArrayOutputStream)) {
+            pHeader.writeTo(output);
+            pResponse.writeTo(output);
+            return;
+        }
+        final PooledByteArrayOutputStream response = (PooledByteArrayOutputStream) pResponse;
+        final byte[] header = pHeader.toByteArray();
+        if (!response.prepend(header, 0, header.length)) {
+            output.write(header);
+        }
+        if (output instanceof PooledByteArrayOutputStream) {
+            ((PooledByteArrayOutputStream) output).append(response);
+        } else {
+            response.writeTo(output);
+            response.release();
+        }
     }
 
     /** Writes the response header to the output stream.	 * 
@@ -280,27 +542,39 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
      */
     public void writeResponseHeader(RequestData pData, int pContentLength)
             throws IOException {
-        output.write(toHTTPBytes(pData.getHttpVersion()));
-        output.write(ok);
-        output.write(serverName);
-        output.write(pData.isKeepAlive() ? conkeep : conclose);
-        output.write(ctype);
+        writeResponseHeader(pData, pContentLength, output);
+    }
+
+    private void writeResponseHeader(RequestData pData, int pContentLength,
+            OutputStream pOutput) throws IOException {
+        pOutput.write(toHTTPBytes(pData.getHttpVersion()));
+        pOutput.write(ok);
+        pOutput.write(serverName);
+        pOutput.write(pData.isKeepAlive() ? conkeep : conclose);
+        pOutput.write(ctype);
+        writeHeaders(pOutput);
+        if (pContentLength != -1) {
+            pOutput.write(clength);
+            pOutput.write(toHTTPBytes(Integer.toString(pContentLength)));
+            pOutput.write(doubleNewline);
+        } else {
+            if (pData.isChunkedResponse()) {
+                pOutput.write(tchunked);
+            }
+            pOutput.write(newline);
+        }
+        pData.setSuccess(true);
+    }
+
+    private void writeHeaders(OutputStream pOutput) throws IOException {
         if (headers != null) {
             for (Iterator iter = headers.entrySet().iterator();  iter.hasNext();  ) {
                 Map.Entry entry = (Map.Entry) iter.next();
                 String header = (String) entry.getKey();
                 String value = (String) entry.getValue();
-                output.write(toHTTPBytes(header + ": " + value + "\r\n"));
+                pOutput.write(toHTTPBytes(header + ": " + value + "\r\n"));
             }
         }
-        if (pContentLength != -1) {
-            output.write(clength);
-            output.write(toHTTPBytes(Integer.toString(pContentLength)));
-            output.write(doubleNewline);
-        } else {
-            output.write(newline);
-        }
-        pData.setSuccess(true);
     }
 
     /** Writes an error response to the output stream.
@@ -311,8 +585,9 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
      */
     public void writeError(RequestData pData, Throwable pError, ByteArrayOutputStream pStream)
             throws IOException {
-        writeErrorHeader(pData, pError, pStream.size());
-        pStream.writeTo(output);
+        headerBuffer.reset();
+        writeErrorHeader(pData, pError, pStream.size(), headerBuffer);
+        write(headerBuffer, pStream);
         output.flush();
     }
 
@@ -324,55 +599,65 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
      */
     public void writeErrorHeader(RequestData pData, Throwable pError, int pContentLength)
             throws IOException {
+        writeErrorHeader(pData, pError, pContentLength, output);
+    }
+
+    private void writeErrorHeader(RequestData pData, Throwable pError, int pContentLength,
+            OutputStream pOutput) throws IOException {
         if (pError instanceof BadRequestException) {
             final byte[] content = toHTTPBytes("Method " + pData.getMethod()
                     + " not implemented (try POST)\r\n");
-            output.write(toHTTPBytes(pData.getHttpVersion()));
-            output.write(toHTTPBytes(" 400 Bad Request"));
-            output.write(newline);
-            output.write(serverName);
-            writeContentLengthHeader(content.length);
-            output.write(newline);
-            output.write(content);
+            pOutput.write(toHTTPBytes(pData.getHttpVersion()));
+            pOutput.write(toHTTPBytes(" 400 Bad Request"));
+            pOutput.write(newline);
+            pOutput.write(serverName);
+            writeContentLengthHeader(content.length, pOutput);
+            pOutput.write(newline);
+            pOutput.write(content);
         } else if (pError instanceof BadEncodingException) {
             final byte[] content = toHTTPBytes("The Transfer-Encoding " + pError.getMessage()
                     + " is not implemented.\r\n");
-            output.write(toHTTPBytes(pData.getHttpVersion()));
-            output.write(toHTTPBytes(" 501 Not Implemented"));
-            output.write(newline);
-            output.write(serverName);
-            writeContentLengthHeader(content.length);
-            output.write(newline);
-            output.write(content);
+            pOutput.write(toHTTPBytes(pData.getHttpVersion()));
+            pOutput.write(toHTTPBytes(" 501 Not Implemented"));
+            pOutput.write(newline);
+            pOutput.write(serverName);
+            writeContentLengthHeader(content.length, pOutput);
+            pOutput.write(newline);
+            pOutput.write(content);
         } else if (pError instanceof XmlRpcNotAuthorizedException) {
             final byte[] content = toHTTPBytes("Method " + pData.getMethod()
                     + " requires a " + "valid user name and password.\r\n");
-            output.write(toHTTPBytes(pData.getHttpVersion()));
-            output.write(toHTTPBytes(" 401 Unauthorized"));
-            output.write(newline);
-            output.write(serverName);
-            writeContentLengthHeader(content.length);
-            output.write(wwwAuthenticate);
-            output.write(newline);
-            output.write(content);
+            pOutput.write(toHTTPBytes(pData.getHttpVersion()));
+            pOutput.write(toHTTPBytes(" 401 Unauthorized"));
+            pOutput.write(newline);
+            pOutput.write(serverName);
+            writeContentLengthHeader(content.length, pOutput);
+            pOutput.write(wwwAuthenticate);
+            pOutput.write(newline);
+            pOutput.write(content);
         } else {
-            output.write(toHTTPBytes(pData.getHttpVersion()));
-            output.write(ok);
-            output.write(serverName);
-            output.write(conclose);
-            output.write(ctype);
-            writeContentLengthHeader(pContentLength);
-            output.write(newline);
+            pOutput.write(toHTTPBytes(pData.getHttpVersion()));
+            pOutput.write(ok);
+            pOutput.write(serverName);
+            pOutput.write(conclose);
+            pOutput.write(ctype);
+            writeHeaders(pOutput);
+            if (pContentLength == -1  &&  pData.isChunkedResponse()) {
+                pOutput.write(tchunked);
+            }
+            writeContentLengthHeader(pContentLength, pOutput);
+            pOutput.write(newline);
         }
     }
 
-    private void writeContentLengthHeader(int pContentLength) throws IOException {
+    private void writeContentLengthHeader(int pContentLength, OutputStream pOutput)
+            throws IOException {
         if (pContentLength == -1) {
             return;
         }
-        output.write(clength);
-        output.write(toHTTPBytes(Integer.toString(pContentLength)));
-        output.write(newline);
+        pOutput.write(clength);
+        pOutput.write(toHTTPBytes(Integer.toString(pContentLength)));
+        pOutput.write(newline);
     }
 
     /** Sets a response header value.
@@ -380,22 +665,30 @@ public class Connection implements ThreadPool.InterruptableTask, ServerStreamCon
      * @param pValue  the header value
      */
     public void setResponseHeader(String pHeader, String pValue) {
+        if (headers == null) {
+            headers = new HashMap();
+        }
         headers.put(pHeader, pValue);
     }
 
 
     public OutputStream newOutputStream() throws IOException {
-        boolean useContentLength;
-        useContentLength = !requestData.isEnabledForExtensions()
-            ||  !((XmlRpcHttpRequestConfig) requestData).isContentLengthOptional();
-        if (useContentLength) {
-            return new ByteArrayOutputStream();
+        // A keepalive connection requires a content length, or the
+        // chunked encoding, so that the client can detect the end
+        // of the response.
+        if (requestData.isByteArrayRequired()) {
+            return new PooledByteArrayOutputStream(HEADER_SPACE);
+        } else if (requestData.isChunkedResponse()) {
+            return new ChunkedOutputStream(output);
         } else {
             return output;
         }
     }
 
     public InputStream newInputStream() throws IOException {
+        if (requestData.isChunked()) {
+            return new ChunkedInputStream(input);
+        }
         int contentLength = requestData.getContentLength();
         if (contentLength == -1) {
             return input;
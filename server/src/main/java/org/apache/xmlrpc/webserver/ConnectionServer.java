@@ -18,7 +18,6 @@
  */
 package org.apache.xmlrpc.webserver;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -26,16 +25,36 @@ import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.common.ServerStreamConnection;
 import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
 import org.apache.xmlrpc.server.XmlRpcHttpServer;
+import org.apache.xmlrpc.util.PooledByteArrayOutputStream;
 
 
 class ConnectionServer extends XmlRpcHttpServer {
+	protected OutputStream getOutputStream(ServerStreamConnection pConnection,
+			XmlRpcStreamRequestConfig pConfig, OutputStream pStream) throws IOException {
+		if (((RequestData) pConfig).isByteArrayRequired()) {
+			// The buffered response is compressed in writeResponse,
+			// or writeError.
+			return pStream;
+		}
+		return super.getOutputStream(pConnection, pConfig, pStream);
+	}
+
+	private PooledByteArrayOutputStream compress(RequestData pData, OutputStream pStream)
+			throws IOException {
+		final PooledByteArrayOutputStream buffer = (PooledByteArrayOutputStream) pStream;
+		if (isCompressingResponse(pData)) {
+			return compress(pData.getConnection(), pData, buffer);
+		}
+		return buffer;
+	}
+
 	protected void writeError(XmlRpcStreamRequestConfig pConfig, OutputStream pStream,
 							  Throwable pError) throws XmlRpcException {
 		RequestData data = (RequestData) pConfig;
 		try {
 			if (data.isByteArrayRequired()) {
 				super.writeError(pConfig, pStream, pError);
-				data.getConnection().writeError(data, pError, (ByteArrayOutputStream) pStream);
+				data.getConnection().writeError(data, pError, compress(data, pStream));
 			} else {
 				data.getConnection().writeErrorHeader(data, pError, -1);
 				super.writeError(pConfig, pStream, pError);
@@ -51,7 +70,7 @@ class ConnectionServer extends XmlRpcHttpServer {
 		try {
 			if (data.isByteArrayRequired()) {
 				super.writeResponse(pConfig, pStream, pResult);
-				data.getConnection().writeResponse(data, pStream);
+				data.getConnection().writeResponse(data, compress(data, pStream));
 			} else {
 				data.getConnection().writeResponseHeader(data, -1);
 				super.writeResponse(pConfig, pStream, pResult);
@@ -62,6 +81,23 @@ class ConnectionServer extends XmlRpcHttpServer {
 		}
 	}
 
+	protected void writeSerializedResponse(XmlRpcStreamRequestConfig pConfig, OutputStream pStream,
+										   byte[] pResponse) throws XmlRpcException {
+		RequestData data = (RequestData) pConfig;
+		try {
+			if (data.isByteArrayRequired()) {
+				pStream.write(pResponse);
+				data.getConnection().writeResponse(data, compress(data, pStream));
+			} else {
+				data.getConnection().writeResponseHeader(data, -1);
+				pStream.write(pResponse);
+				pStream.flush();
+			}
+		} catch (IOException e) {
+			throw new XmlRpcException(e.getMessage(), e);
+		}
+	}
+
 	protected void setResponseHeader(ServerStreamConnection pConnection, String pHeader, String pValue) {
 		((Connection) pConnection).setResponseHeader(pHeader, pValue);
 	}
@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketException;
+
+
+/** A buffered input stream, which is able to parse HTTP request
+ * headers. Unlike the {@link java.io.BufferedInputStream}, this
+ * class isn't thread safe, so reading doesn't require a monitor.
+ * The request header is read into a reusable buffer. Header names
+ * are matched in place, and a string is created only, if a caller
+ * asks for a header value. The bytes following the header remain
+ * in the buffer and may be read as the request body. Note, that
+ * reading the body invalidates the parsed header.
+ */
+class HttpInputStream extends InputStream {
+	private static final int MAX_HEADER_SIZE = 65536;
+	private static final String POST = "POST";
+	private static final byte[] POST_LOWER_CASE = toBytes("post");
+	private static final String HTTP_10 = "HTTP/1.0";
+
+	private final InputStream in;
+	private InputStream prebuffered;
+	private byte[] buffer = new byte[8192];
+	private int pos, limit;
+	private int[] lineStart = new int[16];
+	private int[] lineEnd = new int[16];
+	private int numLines;
+	private int methodEnd, versionStart;
+
+	/** Creates a new instance.
+	 * @param pIn The underlying input stream.
+	 */
+	HttpInputStream(InputStream pIn) {
+		in = pIn;
+	}
+
+	/** Sets a stream with input, which has already been read from the
+	 * underlying stream, and must be consumed first. The stream is
+	 * closed, as soon as it has been consumed.
+	 * @param pInput The prebuffered input.
+	 * @see RequestBuffer
+	 */
+	void setPrebuffered(InputStream pInput) {
+		releasePrebuffered();
+		prebuffered = pInput;
+	}
+
+	/** Discards the prebuffered input, if any, which hasn't been
+	 * consumed.
+	 */
+	void releasePrebuffered() {
+		if (prebuffered != null) {
+			try { prebuffered.close(); } catch (Throwable ignore) {}
+			prebuffered = null;
+		}
+	}
+
+	private int readIn(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (prebuffered != null) {
+			final int res = prebuffered.read(pBuffer, pOffset, pLen);
+			if (prebuffered.available() == 0) {
+				releasePrebuffered();
+			}
+			if (res != -1) {
+				return res;
+			}
+		}
+		return in.read(pBuffer, pOffset, pLen);
+	}
+
+	/** Converts the given US-ASCII string into bytes.
+	 */
+	static byte[] toBytes(String pValue) {
+		final byte[] result = new byte[pValue.length()];
+		for (int i = 0;  i < result.length;  i++) {
+			result[i] = (byte) pValue.charAt(i);
+		}
+		return result;
+	}
+
+	private int fill() throws IOException {
+		if (pos > 0) {
+			limit -= pos;
+			System.arraycopy(buffer, pos, buffer, 0, limit);
+			pos = 0;
+		}
+		if (limit == buffer.length) {
+			if (buffer.length >= MAX_HEADER_SIZE) {
+				throw new IOException("HTTP Header too long");
+			}
+			final byte[] newBuffer = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, newBuffer, 0, limit);
+			buffer = newBuffer;
+		}
+		final int res = readIn(buffer, limit, buffer.length - limit);
+		if (res > 0) {
+			limit += res;
+		}
+		return res;
+	}
+
+	/** Reads the next request header.
+	 * @return True, if a request header has been read, false, if the
+	 * end of the stream has been reached before the first byte of
+	 * a request.
+	 * @throws IOException Reading the header failed, or the request
+	 * line is invalid.
+	 */
+	boolean readRequestHeader() throws IOException {
+		numLines = 0;
+		// Netscape sends an extra \n\r after bodypart, swallow it
+		for (;;) {
+			while (pos < limit  &&  (buffer[pos] == '\r'  ||  buffer[pos] == '\n')) {
+				++pos;
+			}
+			if (pos < limit) {
+				break;
+			}
+			try {
+				if (fill() == -1) {
+					return false;
+				}
+			} catch (SocketException e) {
+				return false;
+			}
+		}
+		// Offsets are relative to pos, because fill() may move the buffer.
+		int start = 0;
+		int offset = 0;
+		for (;;) {
+			while (pos + offset < limit  &&  buffer[pos + offset] != '\n') {
+				++offset;
+			}
+			if (pos + offset == limit) {
+				if (fill() == -1) {
+					// Accept a truncated header: Processing the
+					// request will fail anyways.
+					if (start < offset) {
+						addLine(start, offset);
+					}
+					break;
+				}
+				continue;
+			}
+			if (start == offset  ||  (start + 1 == offset  &&  buffer[pos + start] == '\r')) {
+				// Empty line, end of header
+				++offset;
+				break;
+			}
+			addLine(start, offset);
+			start = ++offset;
+		}
+		for (int i = 0;  i < numLines;  i++) {
+			lineStart[i] += pos;
+			lineEnd[i] += pos;
+		}
+		pos += offset;
+		parseRequestLine();
+		return true;
+	}
+
+	/** Returns, whether the complete header of another request is
+	 * available in the buffer, so that {@link #readRequestHeader()}
+	 * won't block. This is the case, if the client is pipelining.
+	 */
+	boolean isRequestHeaderAvailable() {
+		int offset = pos;
+		while (offset < limit  &&  (buffer[offset] == '\r'  ||  buffer[offset] == '\n')) {
+			++offset;
+		}
+		for (int i = offset + 1;  i < limit;  i++) {
+			if (buffer[i] == '\n'  &&  (buffer[i-1] == '\n'
+					||  (buffer[i-1] == '\r'  &&  i-2 >= offset  &&  buffer[i-2] == '\n'))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void addLine(int pStart, int pEnd) {
+		if (numLines == lineStart.length) {
+			final int[] newStart = new int[numLines * 2];
+			System.arraycopy(lineStart, 0, newStart, 0, numLines);
+			lineStart = newStart;
+			final int[] newEnd = new int[numLines * 2];
+			System.arraycopy(lineEnd, 0, newEnd, 0, numLines);
+			lineEnd = newEnd;
+		}
+		if (pEnd > pStart  &&  buffer[pos + pEnd - 1] == '\r') {
+			--pEnd;
+		}
+		lineStart[numLines] = pStart;
+		lineEnd[numLines] = pEnd;
+		++numLines;
+	}
+
+	private void parseRequestLine() throws IOException {
+		final int start = lineStart[0];
+		final int end = lineEnd[0];
+		methodEnd = skipToken(start, end);
+		final int uriStart = skipWhitespace(methodEnd, end);
+		final int uriEnd = skipToken(uriStart, end);
+		versionStart = skipWhitespace(uriEnd, end);
+		if (methodEnd == start  ||  uriEnd == uriStart  ||  versionStart == end) {
+			throw new IOException("Invalid HTTP request line");
+		}
+	}
+
+	private int skipToken(int pOffset, int pEnd) {
+		while (pOffset < pEnd  &&  !isWhitespace(buffer[pOffset])) {
+			++pOffset;
+		}
+		return pOffset;
+	}
+
+	private int skipWhitespace(int pOffset, int pEnd) {
+		while (pOffset < pEnd  &&  isWhitespace(buffer[pOffset])) {
+			++pOffset;
+		}
+		return pOffset;
+	}
+
+	private static boolean isWhitespace(byte pByte) {
+		return pByte == ' '  ||  pByte == '\t';
+	}
+
+	private String newString(int pStart, int pEnd) {
+		try {
+			return new String(buffer, pStart, pEnd - pStart, "US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e.getMessage() +
+			": HTTP requires US-ASCII encoding");
+		}
+	}
+
+	private boolean equals(int pStart, int pEnd, String pValue) {
+		if (pEnd - pStart != pValue.length()) {
+			return false;
+		}
+		for (int i = 0;  i < pValue.length();  i++) {
+			if (buffer[pStart + i] != pValue.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Returns, whether the request method is POST. The check is
+	 * case insensitive.
+	 */
+	boolean isPost() {
+		return matchesIgnoreCase(lineStart[0], methodEnd, POST_LOWER_CASE);
+	}
+
+	/** Returns the request method.
+	 */
+	String getMethod() {
+		if (equals(lineStart[0], methodEnd, POST)) {
+			return POST;
+		}
+		return newString(lineStart[0], methodEnd);
+	}
+
+	/** Returns the HTTP version from the request line.
+	 */
+	String getHttpVersion() {
+		final int versionEnd = skipToken(versionStart, lineEnd[0]);
+		if (equals(versionStart, versionEnd, WebServer.HTTP_11)) {
+			return WebServer.HTTP_11;
+		}
+		if (equals(versionStart, versionEnd, HTTP_10)) {
+			return HTTP_10;
+		}
+		return newString(versionStart, versionEnd);
+	}
+
+	/** Returns the number of header lines, excluding the request line.
+	 */
+	int getHeaderCount() {
+		return numLines - 1;
+	}
+
+	/** Returns, whether the header with the given index has the given name.
+	 * @param pHeader The headers index, from 0 to {@link #getHeaderCount()}-1.
+	 * @param pLowerCaseName The header name in lower case, including
+	 * the trailing colon, for example "content-length:".
+	 */
+	boolean isHeader(int pHeader, byte[] pLowerCaseName) {
+		final int start = lineStart[pHeader+1];
+		final int end = Math.min(lineEnd[pHeader+1], start + pLowerCaseName.length);
+		return matchesIgnoreCase(start, end, pLowerCaseName);
+	}
+
+	private boolean matchesIgnoreCase(int pStart, int pEnd, byte[] pLowerCase) {
+		if (pEnd - pStart != pLowerCase.length) {
+			return false;
+		}
+		for (int i = 0;  i < pLowerCase.length;  i++) {
+			int b = buffer[pStart + i];
+			if (b >= 'A'  &&  b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != pLowerCase[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int getValueStart(int pHeader, byte[] pLowerCaseName) {
+		return skipWhitespace(lineStart[pHeader+1] + pLowerCaseName.length, lineEnd[pHeader+1]);
+	}
+
+	private int getValueEnd(int pHeader, int pStart) {
+		int end = lineEnd[pHeader+1];
+		while (end > pStart  &&  isWhitespace(buffer[end-1])) {
+			--end;
+		}
+		return end;
+	}
+
+	/** Returns the value of the header with the given index.
+	 * @param pHeader The headers index, as in {@link #isHeader(int, byte[])}.
+	 * @param pLowerCaseName The header name, which has been matched by
+	 * {@link #isHeader(int, byte[])}.
+	 * @return The header value, with leading and trailing white space removed.
+	 */
+	String getHeaderValue(int pHeader, byte[] pLowerCaseName) {
+		final int start = getValueStart(pHeader, pLowerCaseName);
+		return newString(start, getValueEnd(pHeader, start));
+	}
+
+	/** Parses the value of the header with the given index as a
+	 * non-negative integer, without creating a string.
+	 * @param pHeader The headers index, as in {@link #isHeader(int, byte[])}.
+	 * @param pLowerCaseName The header name, which has been matched by
+	 * {@link #isHeader(int, byte[])}.
+	 * @throws IOException The header value isn't a valid number.
+	 */
+	int getIntHeaderValue(int pHeader, byte[] pLowerCaseName) throws IOException {
+		final int start = getValueStart(pHeader, pLowerCaseName);
+		final int end = getValueEnd(pHeader, start);
+		if (start == end) {
+			throw new IOException("Invalid " + newString(lineStart[pHeader+1], end) + " header");
+		}
+		long l = 0;
+		for (int i = start;  i < end;  i++) {
+			final byte b = buffer[i];
+			if (b < '0'  ||  b > '9') {
+				throw new IOException("Invalid " + newString(lineStart[pHeader+1], end) + " header");
+			}
+			l = l * 10 + (b - '0');
+			if (l > Integer.MAX_VALUE) {
+				throw new IOException("Invalid " + newString(lineStart[pHeader+1], end) + " header");
+			}
+		}
+		return (int) l;
+	}
+
+	/** Returns, whether the value of the header with the given index
+	 * contains the given token. The check is case insensitive.
+	 * @param pHeader The headers index, as in {@link #isHeader(int, byte[])}.
+	 * @param pLowerCaseName The header name, which has been matched by
+	 * {@link #isHeader(int, byte[])}.
+	 * @param pLowerCaseToken The token being searched, in lower case.
+	 */
+	boolean headerValueContains(int pHeader, byte[] pLowerCaseName, byte[] pLowerCaseToken) {
+		final int start = getValueStart(pHeader, pLowerCaseName);
+		final int end = lineEnd[pHeader+1] - pLowerCaseToken.length;
+		for (int i = start;  i <= end;  i++) {
+			if (matchesIgnoreCase(i, i + pLowerCaseToken.length, pLowerCaseToken)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int read() throws IOException {
+		if (pos == limit) {
+			pos = limit = 0;
+			if (fill() <= 0) {
+				return -1;
+			}
+		}
+		return buffer[pos++] & 0xff;
+	}
+
+	public int read(byte[] pBuffer, int pOffset, int pLen) throws IOException {
+		if (pLen == 0) {
+			return 0;
+		}
+		if (pos == limit) {
+			if (pLen >= buffer.length) {
+				// Large reads bypass the buffer.
+				return readIn(pBuffer, pOffset, pLen);
+			}
+			pos = limit = 0;
+			if (fill() <= 0) {
+				return -1;
+			}
+		}
+		final int len = Math.min(pLen, limit - pos);
+		System.arraycopy(buffer, pos, pBuffer, pOffset, len);
+		pos += len;
+		return len;
+	}
+
+	public long skip(long pNum) throws IOException {
+		if (pos == limit) {
+			if (prebuffered != null  &&  prebuffered.available() > 0) {
+				return prebuffered.skip(pNum);
+			}
+			return in.skip(pNum);
+		}
+		final int len = (int) Math.min(pNum, limit - pos);
+		pos += len;
+		return len;
+	}
+
+	public int available() throws IOException {
+		return (limit - pos) + (prebuffered == null ? 0 : prebuffered.available())
+			+ in.available();
+	}
+
+	/** Does nothing. It may happen, that the XML parser invokes close().
+	 * Closing the input stream must not occur, because
+	 * that would close the whole socket. So we suppress it.
+	 */
+	public void close() throws IOException {
+	}
+}
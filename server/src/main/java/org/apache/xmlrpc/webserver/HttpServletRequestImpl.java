@@ -57,7 +57,9 @@ import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 
 import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.util.ChunkedInputStream;
 import org.apache.xmlrpc.util.HttpUtil;
+import org.apache.xmlrpc.util.TaskExecutor;
 
 
 /** Stub implementation of a {@link jakarta.servlet.http.HttpServletRequest}
@@ -82,6 +84,13 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 	private Map parameters;
 	private String characterEncoding;
 	private int contentBytesRemaining = -1;
+	private final InputStream bufferedInput;
+	private ChunkedInputStream chunkedInput;
+	private HttpServletResponseImpl asyncResponse;
+	private TaskExecutor asyncExecutor;
+	private AsyncContextImpl asyncContext;
+	private ReadListener readListener;
+	private boolean endOfInput;
 
 	/** Creates a new instance, which reads input from the given
 	 * socket.
@@ -89,8 +98,18 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 	 * @throws IOException Accessing the sockets input stream failed.
 	 */
 	public HttpServletRequestImpl(Socket pSocket) throws IOException {
+		this(pSocket, pSocket.getInputStream());
+	}
+
+	/** Creates a new instance, which reads input from the given
+	 * stream. The socket is used for informational purposes only,
+	 * for example to determine the clients IP address.
+	 * @param pSocket The socket, to which the client is connected.
+	 * @param pInput The stream, from which the request is being read.
+	 */
+	public HttpServletRequestImpl(Socket pSocket, InputStream pInput) {
 		socket = pSocket;
-		final InputStream bis = new BufferedInputStream(socket.getInputStream()){
+		final InputStream bis = new BufferedInputStream(pInput){
     		/** It may happen, that the XML parser invokes close().
     		 * Closing the input stream must not occur, because
     		 * that would close the whole socket. So we suppress it.
@@ -98,28 +117,43 @@ public class HttpServletRequestImpl implements HttpServletRequest {
         	public void close() throws IOException {
         	}
         };
+		bufferedInput = bis;
 		istream = new ServletInputStream(){
 			public int read() throws IOException {
 				if (contentBytesRemaining == 0) {
 					return -1;
 				}
-				int c = bis.read();
-				if (c != -1  &&  contentBytesRemaining > 0) {
+				int c = chunkedInput == null ? bis.read() : chunkedInput.read();
+				if (c == -1) {
+					endOfInput = true;
+				} else if (contentBytesRemaining > 0) {
 					--contentBytesRemaining;
 				}
 				return c;
 			}
 
 			public boolean isFinished() {
-				return contentBytesRemaining == 0;
+				return contentBytesRemaining == 0  ||  endOfInput
+					||  (chunkedInput != null  &&  chunkedInput.isFinished());
 			}
 
 			public boolean isReady() {
 				return true;
 			}
 
-			public void setReadListener(ReadListener arg0) {
-				throw new IllegalStateException("Not implemented.");
+			public void setReadListener(ReadListener pListener) {
+				if (pListener == null) {
+					throw new NullPointerException("The ReadListener must not be null.");
+				}
+				synchronized (HttpServletRequestImpl.this) {
+					if (asyncContext == null) {
+						throw new IllegalStateException("Asynchronous processing has not been started.");
+					}
+					if (readListener != null) {
+						throw new IllegalStateException("The ReadListener has already been set.");
+					}
+					readListener = pListener;
+				}
 			}
 		};
 	}
@@ -189,7 +223,16 @@ public class HttpServletRequestImpl implements HttpServletRequest {
                   line);
 			}
 		}
-		contentBytesRemaining = getIntHeader("content-length");
+		String nonIdentityEncoding = HttpUtil.getNonIdentityTransferEncoding(getHeader("transfer-encoding"));
+		if ("chunked".equalsIgnoreCase(nonIdentityEncoding)) {
+			chunkedInput = new ChunkedInputStream(bufferedInput);
+			contentBytesRemaining = -1;
+		} else if (nonIdentityEncoding != null) {
+			throw new ServletWebServer.Exception(501, "Not Implemented", "The Transfer-Encoding "
+			  + nonIdentityEncoding + " is not implemented.");
+		} else {
+			contentBytesRemaining = getIntHeader("content-length");
+		}
 	}
 
 	protected String readLine(byte[] pBuffer) throws IOException {
@@ -316,19 +359,83 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 		return sb;
 	}
 
-	public AsyncContext getAsyncContext() { throw new IllegalStateException("Not implemented"); }
+	/** Enables asynchronous processing of this request.
+	 * @param pResponse The response, which is completed by the
+	 *   {@link AsyncContext}.
+	 * @param pExecutor The executor, which runs the tasks passed to
+	 *   {@link AsyncContext#start(Runnable)}, or null.
+	 */
+	void setAsyncSupported(HttpServletResponseImpl pResponse, TaskExecutor pExecutor) {
+		asyncResponse = pResponse;
+		asyncExecutor = pExecutor;
+	}
+
+	/** Returns the {@link AsyncContext}, if asynchronous processing
+	 * has been started.
+	 * @return The context, or null.
+	 */
+	synchronized AsyncContextImpl getAsyncContextImpl() {
+		return asyncContext;
+	}
+
+	/** Called by the {@link ServletConnection}, after the servlet has
+	 * returned, to notify the {@link ReadListener}, if any. The input is
+	 * always ready: In the non-blocking mode, the request has already
+	 * been read by the {@link NioConnection}. In the blocking mode,
+	 * reading blocks the connections thread, as usual.
+	 */
+	void notifyReadListener() {
+		final ReadListener listener;
+		synchronized (this) {
+			listener = readListener;
+		}
+		if (listener == null) {
+			return;
+		}
+		try {
+			if (!istream.isFinished()) {
+				listener.onDataAvailable();
+				if (!istream.isFinished()) {
+					throw new IOException("The ReadListener didn't consume the request.");
+				}
+			}
+			listener.onAllDataRead();
+		} catch (Throwable t) {
+			listener.onError(t);
+		}
+	}
+
+	public synchronized AsyncContext getAsyncContext() {
+		if (asyncContext == null) {
+			throw new IllegalStateException("Asynchronous processing has not been started.");
+		}
+		return asyncContext;
+	}
 
-	public boolean isAsyncSupported() { return false; }
+	public boolean isAsyncSupported() { return asyncResponse != null; }
 
-	public boolean isAsyncStarted() { return false; }
+	public synchronized boolean isAsyncStarted() {
+		return asyncContext != null  &&  !asyncContext.isCompleted();
+	}
 
 	public ServletContext getServletContext() { throw new IllegalStateException("Not implemented"); }
 
-	public AsyncContext startAsync(ServletRequest req, ServletResponse resp) { throw new IllegalStateException("Not implemented"); }
+	public synchronized AsyncContext startAsync(ServletRequest pRequest, ServletResponse pResponse) {
+		if (asyncResponse == null) {
+			throw new IllegalStateException("Asynchronous processing is not supported.");
+		}
+		if (asyncContext != null) {
+			throw new IllegalStateException("Asynchronous processing has already been started.");
+		}
+		asyncContext = new AsyncContextImpl(pRequest, pResponse, asyncResponse, asyncExecutor);
+		return asyncContext;
+	}
 
-	public AsyncContext startAsync() { throw new IllegalStateException("Not implemented"); }
+	public AsyncContext startAsync() {
+		return startAsync(this, asyncResponse);
+	}
 
-	public DispatcherType getDispatcherType() { throw new IllegalStateException("Not implemented"); }
+	public DispatcherType getDispatcherType() { return DispatcherType.REQUEST; }
 
 	public String getRequestedSessionId() { throw new IllegalStateException("Not implemented"); }
 
@@ -595,7 +702,14 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 
 	protected String getHttpVersion() { return httpVersion; }
 
-	public long getContentLengthLong() { throw new IllegalStateException("Not implemented."); }
+	public long getContentLengthLong() {
+		final String s = getHeader("content-length");
+		try {
+			return s == null ? -1 : Long.parseLong(s.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
 
 	public String changeSessionId() { throw new IllegalStateException("Not implemented."); }
 
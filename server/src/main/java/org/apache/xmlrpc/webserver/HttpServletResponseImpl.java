@@ -54,14 +54,24 @@ public class HttpServletResponseImpl implements HttpServletResponse {
 	private String charEncoding;
 	private PrintWriter writer;
 	private ServletOutputStreamImpl soStream;
+	private boolean chunkingAllowed;
 
 	/** Creates a new instance.
 	 * @param pSocket The clients socket.
 	 * @throws IOException Accessing the sockets output stream failed.
 	 */
 	public HttpServletResponseImpl(Socket pSocket) throws IOException {
+		this(pSocket, pSocket.getOutputStream());
+	}
+
+	/** Creates a new instance, which writes the response to the
+	 * given stream.
+	 * @param pSocket The clients socket.
+	 * @param pOutput The stream, to which the response is being written.
+	 */
+	public HttpServletResponseImpl(Socket pSocket, OutputStream pOutput) {
 		socket = pSocket;
-		ostream = socket.getOutputStream();
+		ostream = pOutput;
 	}
 
 	public void addCookie(Cookie pCookie) { throw new IllegalStateException("Not implemented"); }
@@ -258,6 +268,19 @@ public class HttpServletResponseImpl implements HttpServletResponse {
 		}
 	}
 
+	/** Called to complete an asynchronous response: Writes the
+	 * buffered output, unless the servlet has already closed the
+	 * response.
+	 * @throws IOException Writing the response failed.
+	 */
+	void finish() throws IOException {
+		if (writer != null) {
+			writer.close();
+		} else {
+			getOutputStream().close();
+		}
+	}
+
 	public boolean isCommitted() {
 		return soStream != null  &&  soStream.isCommitted();
 	}
@@ -437,9 +460,31 @@ public class HttpServletResponseImpl implements HttpServletResponse {
 		}
 	}
 
+	/** Sets, whether the client accepts the chunked transfer encoding.
+	 * If so, a response, which is committed before its length is
+	 * known, is chunked.
+	 * @param pChunkingAllowed True for a HTTP/1.1 client, false otherwise.
+	 */
+	void setChunkingAllowed(boolean pChunkingAllowed) {
+		chunkingAllowed = pChunkingAllowed;
+	}
+
+	/** Returns, whether the response ought to be chunked, if it is
+	 * committed before its length is known.
+	 * @return True, if the client accepts chunks, and no content
+	 * length has been set.
+	 */
+	boolean isChunking() {
+		return chunkingAllowed  &&  !containsHeader("content-length");
+	}
+
 	String getHttpHeaders(Integer pContentLength) {
+		return getHttpHeaders(pContentLength, false);
+	}
+
+	String getHttpHeaders(Integer pContentLength, boolean pChunked) {
 		StringBuffer sb = new StringBuffer();
-		sb.append("HTTP/1.0 ");
+		sb.append(pChunked ? "HTTP/1.1 " : "HTTP/1.0 ");
 		sb.append(status);
 		sb.append(' ');
 		sb.append(message);
@@ -484,6 +529,10 @@ public class HttpServletResponseImpl implements HttpServletResponse {
 			sb.append(pContentLength);
 			sb.append("\r\n");
 		}
+		if (pChunked) {
+			sb.append("Transfer-Encoding: chunked\r\n");
+			sb.append("Connection: close\r\n");
+		}
 		sb.append("\r\n");
 		return sb.toString();
 	}
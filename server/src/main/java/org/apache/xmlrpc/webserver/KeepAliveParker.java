@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.webserver;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xmlrpc.server.XmlRpcHttpServerConfig;
+import org.apache.xmlrpc.util.ThreadPool;
+
+
+/** Parks the idle keepalive connections of the {@link WebServer WebServer's}
+ * blocking mode. Rather than blocking a thread while waiting for
+ * the next request, a connection registers its channel
+ * with the parkers selector. As soon as the client sends a request,
+ * the connection is handed over to the servers
+ * {@link org.apache.xmlrpc.util.TaskExecutor}. Connections,
+ * which are idle for too long, or exceed the maximum connection age,
+ * are closed by the parker.<br>
+ * If {@link WebServer#setPrebuffering(boolean) prebuffering} is enabled,
+ * then new connections are parked as well, and the parker reads the
+ * complete request into a
+ * {@link RequestBuffer}, before the connection is handed over. In other
+ * words, slow clients don't occupy a worker thread while uploading.
+ * A client, which doesn't complete the request within the
+ * {@link WebServer#setPrebufferTimeout(int) prebuffer timeout}, as
+ * measured from the requests first byte, is disconnected.
+ * @see XmlRpcHttpServerConfig#getKeepAliveTimeout()
+ * @see XmlRpcHttpServerConfig#getMaxConnectionAge()
+ */
+class KeepAliveParker implements Runnable {
+	/** Maximum number of milliseconds between two checks for
+	 * expired connections.
+	 */
+	private static final long REAP_INTERVAL = 1000;
+
+	private static class Parked {
+		final ThreadPool.Task task;
+		final SocketChannel channel;
+		final long created;
+		final boolean prebuffering;
+		final long since;
+		long requestStarted;
+		RequestBuffer buffer;
+
+		Parked(ThreadPool.Task pTask, SocketChannel pChannel, long pCreated, long pSince,
+				boolean pPrebuffering) {
+			task = pTask;
+			channel = pChannel;
+			created = pCreated;
+			since = pSince;
+			prebuffering = pPrebuffering;
+		}
+	}
+
+	private final WebServer webServer;
+	private final XmlRpcHttpServerConfig config;
+	private final Selector selector;
+	private final boolean prebuffering;
+	private final int prebufferHeapSize;
+	private final int maxPrebufferSize;
+	private final int prebufferTimeout;
+	private final long maxPrebufferTotalSize;
+	private final AtomicLong prebufferTotalSize = new AtomicLong();
+	private final Queue pending = new ConcurrentLinkedQueue();
+	private volatile boolean closed;
+	private long nextReap;
+
+	/** Creates a new instance.
+	 * @param pWebServer The web server, which is running the parker.
+	 * @param pConfig The servers configuration.
+	 * @throws IOException Opening the selector failed.
+	 */
+	KeepAliveParker(WebServer pWebServer, XmlRpcHttpServerConfig pConfig)
+			throws IOException {
+		webServer = pWebServer;
+		config = pConfig;
+		prebuffering = pWebServer.isPrebuffering();
+		prebufferHeapSize = pWebServer.getPrebufferHeapSize();
+		maxPrebufferSize = pWebServer.getMaxPrebufferSize();
+		prebufferTimeout = pWebServer.getPrebufferTimeout();
+		maxPrebufferTotalSize = pWebServer.getMaxPrebufferTotalSize();
+		selector = Selector.open();
+	}
+
+	/** Called to park an idle connection.
+	 * @param pTask The task, which processes the connection, as soon
+	 * as a request arrives.
+	 * @param pChannel The connections channel.
+	 * @param pCreated The time, when the connection has been accepted.
+	 * @return True, if the connection has been parked, false, if the
+	 * parker is closed.
+	 */
+	boolean park(ThreadPool.Task pTask, SocketChannel pChannel, long pCreated) {
+		if (closed) {
+			return false;
+		}
+		pending.add(new Parked(pTask, pChannel, pCreated, System.currentTimeMillis(),
+				prebuffering  &&  pTask instanceof Connection));
+		if (closed) {
+			closePending();
+		} else {
+			selector.wakeup();
+		}
+		return true;
+	}
+
+	/** Runs the parker, until {@link #close()} is invoked.
+	 */
+	public void run() {
+		final List resumed = new ArrayList();
+		try {
+			while (!closed) {
+				try {
+					register();
+					final long now = System.currentTimeMillis();
+					if (now >= nextReap) {
+						reap(now);
+					}
+					selector.select(Math.max(1, nextReap - now));
+					for (Iterator iter = selector.selectedKeys().iterator();  iter.hasNext();  ) {
+						final SelectionKey key = (SelectionKey) iter.next();
+						iter.remove();
+						final Parked parked = (Parked) key.attachment();
+						if (parked.prebuffering  &&  !prebuffer(parked)) {
+							continue;
+						}
+						key.cancel();
+						resumed.add(parked);
+					}
+					if (!resumed.isEmpty()) {
+						// The cancelled keys must be deregistered, before
+						// the channels may be switched back to blocking mode.
+						selector.selectNow();
+						for (int i = 0;  i < resumed.size();  i++) {
+							resume((Parked) resumed.get(i));
+						}
+						resumed.clear();
+					}
+				} catch (ClosedSelectorException e) {
+					break;
+				} catch (Throwable t) {
+					webServer.log(t);
+				}
+			}
+		} finally {
+			try {
+				for (Iterator iter = selector.keys().iterator();  iter.hasNext();  ) {
+					close((Parked) ((SelectionKey) iter.next()).attachment());
+				}
+			} catch (Throwable ignore) {
+			}
+			try { selector.close(); } catch (Throwable ignore) {}
+			closePending();
+		}
+	}
+
+	private void register() {
+		for (;;) {
+			final Parked parked = (Parked) pending.poll();
+			if (parked == null) {
+				return;
+			}
+			try {
+				parked.channel.configureBlocking(false);
+				parked.channel.register(selector, SelectionKey.OP_READ, parked);
+			} catch (IOException e) {
+				close(parked.channel);
+			}
+		}
+	}
+
+	/** Reads the available input of a prebuffering connection.
+	 * @return True, if the request is complete, and the connection
+	 * may be resumed.
+	 */
+	private boolean prebuffer(Parked pParked) {
+		if (pParked.buffer == null) {
+			pParked.buffer = new RequestBuffer(prebufferHeapSize, maxPrebufferSize,
+					prebufferTotalSize, maxPrebufferTotalSize);
+			pParked.requestStarted = System.currentTimeMillis();
+		}
+		try {
+			if (pParked.buffer.read(pParked.channel)) {
+				return true;
+			}
+		} catch (IOException e) {
+			webServer.log(e);
+			close(pParked);
+		}
+		return false;
+	}
+
+	private void resume(Parked pParked) {
+		try {
+			pParked.channel.configureBlocking(true);
+		} catch (IOException e) {
+			close(pParked);
+			return;
+		}
+		if (pParked.buffer != null) {
+			((Connection) pParked.task).setPrebuffered(pParked.buffer.newInputStream());
+		}
+		webServer.resume(pParked.task, pParked.channel.socket());
+	}
+
+	/** Closes the connections, which have been idle for too long,
+	 * or are exceeding the maximum age.
+	 */
+	private void reap(long pNow) {
+		nextReap = pNow + REAP_INTERVAL;
+		for (Iterator iter = selector.keys().iterator();  iter.hasNext();  ) {
+			final SelectionKey key = (SelectionKey) iter.next();
+			if (!key.isValid()) {
+				continue;
+			}
+			final Parked parked = (Parked) key.attachment();
+			final long deadline;
+			if (parked.buffer == null) {
+				deadline = Connection.getIdleDeadline(config, parked.created, parked.since);
+			} else {
+				// A request is being read, so the maximum connection
+				// age doesn't apply. The deadline isn't extended by
+				// partial reads, so that a client cannot hold the
+				// buffer by trickling bytes.
+				deadline = prebufferTimeout > 0 ? parked.requestStarted + prebufferTimeout : 0;
+			}
+			if (deadline == 0) {
+				continue;
+			}
+			if (deadline <= pNow) {
+				close(parked);
+			} else if (deadline < nextReap) {
+				nextReap = deadline;
+			}
+		}
+	}
+
+	private void closePending() {
+		for (;;) {
+			final Parked parked = (Parked) pending.poll();
+			if (parked == null) {
+				return;
+			}
+			close(parked.channel);
+		}
+	}
+
+	private void close(Parked pParked) {
+		if (pParked.buffer != null) {
+			pParked.buffer.release();
+		}
+		close(pParked.channel);
+	}
+
+	private void close(SocketChannel pChannel) {
+		try { pChannel.close(); } catch (Throwable ignore) {}
+	}
+
+	/** Stops the parker, and closes the parked connections.
+	 */
+	void close() {
+		closed = true;
+		selector.wakeup();
+	}
+}
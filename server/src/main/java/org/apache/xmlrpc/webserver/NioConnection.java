@@ -0,0 +1,571 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.    
+ */
+package org.apache.xmlrpc.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import org.apache.xmlrpc.server.XmlRpcHttpServerConfig;
+import org.apache.xmlrpc.util.HttpUtil;
+import org.apache.xmlrpc.util.PooledByteArrayOutputStream;
+import org.apache.xmlrpc.util.ThreadPool;
+
+
+/** A single client connection in the {@link WebServer WebServer's}
+ * non-blocking mode. The selector thread accumulates the clients
+ * input, until a complete request is available. The request is then
+ * processed by a thread from the pool, as an instance of
+ * {@link ThreadPool.Task}. If the pool is overloaded, the client
+ * receives the status code 503 (Service Unavailable) instead.
+ * @see WebServer#setNonBlocking(boolean)
+ */
+class NioConnection implements ThreadPool.RejectableTask {
+	private static final int MAX_HEADER_SIZE = 65536;
+	private static final int MAX_PIPELINED_SIZE = 1048576;
+	private static final byte[] CONTENT_LENGTH = toBytes("content-length:");
+	private static final byte[] TRANSFER_ENCODING = toBytes("transfer-encoding:");
+	private static final byte[] POST = toBytes("post ");
+
+	private final NioEventLoop loop;
+	private final SocketChannel channel;
+	private SelectionKey key;
+	private byte[] buffer = new byte[1024];
+	private int length;
+	private int scanOffset;
+	private int headerLength = -1;
+	private int contentLength;
+	private boolean bodyExpected;
+	private boolean chunked;
+	private boolean inTrailer;
+	private int chunkOffset;
+	private boolean eof;
+	private boolean requestTooLarge;
+	private byte[] request;
+	private int requestSize;
+	private Connection continued;
+	private PooledByteArrayOutputStream continuedOutput;
+	private boolean busy;
+	private PooledByteArrayOutputStream responseStream;
+	private ByteBuffer[] response;
+	private boolean keepAlive;
+	private final long created = System.currentTimeMillis();
+	private long lastActivity = created;
+	private int requests;
+
+	/** Creates a new instance.
+	 * @param pLoop The selector loop, which is handling the connection.
+	 * @param pChannel The clients channel.
+	 */
+	NioConnection(NioEventLoop pLoop, SocketChannel pChannel) {
+		loop = pLoop;
+		channel = pChannel;
+	}
+
+	private static byte[] toBytes(String pValue) {
+		final byte[] result = new byte[pValue.length()];
+		for (int i = 0;  i < result.length;  i++) {
+			result[i] = (byte) pValue.charAt(i);
+		}
+		return result;
+	}
+
+	void register(Selector pSelector) throws ClosedChannelException {
+		key = channel.register(pSelector, SelectionKey.OP_READ, this);
+	}
+
+	/** Called by the selector thread to read the available input.
+	 * @param pBuffer A temporary buffer, which is shared by all
+	 * connections.
+	 * @throws IOException Reading the input failed.
+	 */
+	void read(ByteBuffer pBuffer) throws IOException {
+		for (;;) {
+			pBuffer.clear();
+			final int res = channel.read(pBuffer);
+			if (res == -1) {
+				eof = true;
+				return;
+			}
+			if (res == 0) {
+				return;
+			}
+			lastActivity = System.currentTimeMillis();
+			if (length + res > buffer.length) {
+				byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + res)];
+				System.arraycopy(buffer, 0, newBuffer, 0, length);
+				buffer = newBuffer;
+			}
+			pBuffer.flip();
+			pBuffer.get(buffer, length, res);
+			length += res;
+		}
+	}
+
+	/** Called by the selector thread to check, whether complete
+	 * requests are available. If so, the requests are handed over to
+	 * the thread pool. Otherwise, the selector continues reading.
+	 * While a worker thread is processing requests, the selector
+	 * continues reading, and framing, pipelined requests.
+	 * @throws IOException The request is invalid.
+	 */
+	void processInput() throws IOException {
+		if (busy) {
+			if (!eof  &&  length <= MAX_PIPELINED_SIZE) {
+				getRequestLength();
+			}
+			if (eof  ||  requestTooLarge  ||  length > MAX_PIPELINED_SIZE) {
+				key.interestOps(0);
+			}
+			return;
+		}
+		requestSize = 0;
+		for (;;) {
+			final int requestLength = getRequestLength();
+			if (requestLength == -1) {
+				break;
+			}
+			// Pipelined requests are processed by a single task, so
+			// that their responses are written together.
+			if (request == null  ||  requestSize + requestLength > request.length) {
+				final byte[] newRequest = new byte[requestSize + requestLength];
+				if (requestSize > 0) {
+					System.arraycopy(request, 0, newRequest, 0, requestSize);
+				}
+				request = newRequest;
+			}
+			System.arraycopy(buffer, 0, request, requestSize, requestLength);
+			requestSize += requestLength;
+			length -= requestLength;
+			System.arraycopy(buffer, requestLength, buffer, 0, length);
+			scanOffset = 0;
+			headerLength = -1;
+		}
+		if (requestSize == 0) {
+			if (requestTooLarge) {
+				rejectRequestTooLarge();
+			} else if (eof) {
+				close();
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+			return;
+		}
+		busy = true;
+		// A request, which is too large, is rejected after the
+		// preceding requests have been processed.
+		key.interestOps(eof  ||  requestTooLarge ? 0 : SelectionKey.OP_READ);
+		loop.dispatch(this);
+	}
+
+	private int getRequestLength() throws IOException {
+		if (requestTooLarge) {
+			return -1;
+		}
+		if (headerLength == -1) {
+			// Netscape sends an extra \n\r after bodypart, swallow it
+			int offset = 0;
+			while (offset < length  &&  (buffer[offset] == '\r'  ||  buffer[offset] == '\n')) {
+				++offset;
+			}
+			if (offset > 0) {
+				length -= offset;
+				System.arraycopy(buffer, offset, buffer, 0, length);
+			}
+			for (int i = Math.max(scanOffset, 1);  i < length;  i++) {
+				if (buffer[i] == '\n') {
+					if (buffer[i-1] == '\n') {
+						headerLength = i+1;
+						break;
+					}
+					if (i > 1  &&  buffer[i-1] == '\r'  &&  buffer[i-2] == '\n') {
+						headerLength = i+1;
+						break;
+					}
+				}
+			}
+			if (headerLength == -1) {
+				scanOffset = Math.max(length - 2, 0);
+				if (length > MAX_HEADER_SIZE) {
+					throw new IOException("HTTP Header too long");
+				}
+				return -1;
+			}
+			parseHeaders();
+		}
+		if (!bodyExpected) {
+			return headerLength;
+		}
+		final int requestLength;
+		final long bodyLength;
+		if (chunked) {
+			requestLength = getChunkedRequestLength();
+			// The chunk headers announce the size of the chunks, before
+			// the data is read.
+			bodyLength = (requestLength == -1 ? Math.max(chunkOffset, length) : requestLength) - headerLength;
+		} else if (contentLength == -1) {
+			// The request body is terminated by the end of input.
+			requestLength = eof ? length : -1;
+			bodyLength = length - headerLength;
+		} else {
+			requestLength = length - headerLength >= contentLength ? headerLength + contentLength : -1;
+			bodyLength = contentLength;
+		}
+		final int maxSize = loop.getMaxRequestSize();
+		if (maxSize > 0  &&  bodyLength > maxSize) {
+			// Rejected, before the body is read into memory.
+			requestTooLarge = true;
+			return -1;
+		}
+		return requestLength;
+	}
+
+	/** Scans the request header for the information, which is required
+	 * to detect the end of the request. The header is parsed again
+	 * by the {@link Connection}, so invalid requests are simply
+	 * passed through.
+	 */
+	private void parseHeaders() throws IOException {
+		contentLength = -1;
+		chunked = false;
+		inTrailer = false;
+		chunkOffset = headerLength;
+		// Requests other than POST are rejected by the Connection,
+		// without reading the body.
+		bodyExpected = startsWithIgnoreCase(0, POST);
+		int offset = 0;
+		while (offset < headerLength) {
+			int end = offset;
+			while (end < headerLength  &&  buffer[end] != '\n') {
+				++end;
+			}
+			if (startsWithIgnoreCase(offset, CONTENT_LENGTH)) {
+				long l = 0;
+				for (int i = offset + CONTENT_LENGTH.length;  i < end;  i++) {
+					final byte b = buffer[i];
+					if (b >= '0'  &&  b <= '9') {
+						l = l * 10 + (b - '0');
+						if (l > Integer.MAX_VALUE) {
+							throw new IOException("Invalid Content-Length");
+						}
+					} else if (b != ' '  &&  b != '\t'  &&  b != '\r') {
+						throw new IOException("Invalid Content-Length");
+					}
+				}
+				contentLength = (int) l;
+			} else if (startsWithIgnoreCase(offset, TRANSFER_ENCODING)) {
+				final int start = offset + TRANSFER_ENCODING.length;
+				final String transferEncoding = new String(buffer, start, end - start, "US-ASCII");
+				final String encoding = HttpUtil.getNonIdentityTransferEncoding(transferEncoding);
+				if ("chunked".equalsIgnoreCase(encoding)) {
+					chunked = true;
+				} else if (encoding != null) {
+					// Not supported by the Connection, which will send an error.
+					bodyExpected = false;
+				}
+			}
+			offset = end + 1;
+		}
+	}
+
+	/** Scans the chunks, which are available so far, for the last
+	 * chunk, and the trailer. The chunks are decoded by the
+	 * {@link Connection}.
+	 */
+	private int getChunkedRequestLength() throws IOException {
+		for (;;) {
+			if (chunkOffset > length) {
+				return eof ? length : -1;
+			}
+			int end = chunkOffset;
+			while (end < length  &&  buffer[end] != '\n') {
+				++end;
+			}
+			if (end == length) {
+				if (end - chunkOffset > MAX_HEADER_SIZE) {
+					throw new IOException("Chunk header too long");
+				}
+				return eof ? length : -1;
+			}
+			final int lineEnd = end > chunkOffset  &&  buffer[end-1] == '\r' ? end-1 : end;
+			final int lineLength = lineEnd - chunkOffset;
+			if (inTrailer) {
+				chunkOffset = end + 1;
+				if (lineLength <= 0) {
+					return chunkOffset;
+				}
+				continue;
+			}
+			long size = 0;
+			int digits = 0;
+			for (int i = chunkOffset;  i < chunkOffset + lineLength;  i++) {
+				final int digit = Character.digit((char) buffer[i], 16);
+				if (digit == -1) {
+					if (buffer[i] == ';'  ||  buffer[i] == ' '  ||  buffer[i] == '\t') {
+						break;
+					}
+					throw new IOException("Invalid chunk size");
+				}
+				size = size * 16 + digit;
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("Invalid chunk size");
+				}
+				++digits;
+			}
+			if (digits == 0) {
+				throw new IOException("Invalid chunk size");
+			}
+			if (size == 0) {
+				inTrailer = true;
+				chunkOffset = end + 1;
+			} else {
+				// Chunk data, followed by CRLF
+				final long next = end + 1 + size + 2;
+				if (next > Integer.MAX_VALUE) {
+					throw new IOException("Request too large");
+				}
+				chunkOffset = (int) next;
+			}
+		}
+	}
+
+	private boolean startsWithIgnoreCase(int pOffset, byte[] pLowerCaseName) {
+		if (pOffset + pLowerCaseName.length > headerLength) {
+			return false;
+		}
+		for (int i = 0;  i < pLowerCaseName.length;  i++) {
+			int b = buffer[pOffset + i];
+			if (b >= 'A'  &&  b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != pLowerCaseName[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Called by a worker thread to process the current requests.
+	 */
+	public void run() {
+		final Connection resumed = continued;
+		final PooledByteArrayOutputStream pbaos;
+		if (resumed == null) {
+			pbaos = new PooledByteArrayOutputStream();
+		} else {
+			// Pipelined requests, which have been following a
+			// deferred response.
+			pbaos = continuedOutput;
+			continued = null;
+			continuedOutput = null;
+		}
+		boolean reusable = false;
+		try {
+			final ThreadPool.Task task;
+			if (resumed == null) {
+				task = loop.newTask(channel.socket(),
+						new ByteArrayInputStream(request, 0, requestSize), pbaos);
+				request = null;
+			} else {
+				task = resumed;
+			}
+			if (task instanceof Connection) {
+				final Connection connection = (Connection) task;
+				connection.continueConnection(requests, created);
+				connection.setCompletionHandler(new Runnable(){
+					public void run() {
+						requests = connection.getRequests();
+						if (connection.hasPendingRequests()) {
+							// The responses are written together, after
+							// the remaining requests have been processed.
+							continued = connection;
+							continuedOutput = pbaos;
+							loop.dispatch(NioConnection.this);
+						} else {
+							sendResponse(pbaos, connection.isKeepAlive());
+						}
+					}
+				});
+			}
+			task.run();
+			if (task instanceof Connection) {
+				if (((Connection) task).isDetached()) {
+					// A handler has returned a CompletionStage. The
+					// response is sent, when the stage is complete.
+					return;
+				}
+				requests = ((Connection) task).getRequests();
+				reusable = ((Connection) task).isKeepAlive();
+			} else if (task instanceof ServletConnection
+					&&  ((ServletConnection) task).deferCompletion(new Runnable(){
+						public void run() {
+							sendResponse(pbaos, false);
+						}
+					})) {
+				// The servlet has started asynchronous processing. The
+				// response is sent, when the processing is complete.
+				return;
+			}
+		} catch (Throwable t) {
+			loop.log(t);
+		}
+		sendResponse(pbaos, reusable);
+	}
+
+	private void sendResponse(PooledByteArrayOutputStream pbaos, boolean reusable) {
+		keepAlive = reusable;
+		// If possible, the Connection has moved its response buffers
+		// into pbaos, rather than copying them. Header and body are
+		// written with a single gathering write.
+		responseStream = pbaos;
+		response = pbaos.toByteBuffers();
+		try {
+			// The selector doesn't write to the channel while we are
+			// running (it may read pipelined requests, though), so it's
+			// safe to attempt writing the response without another
+			// round trip through the selector.
+			channel.write(response);
+		} catch (IOException e) {
+			response = null;
+			keepAlive = false;
+		}
+		loop.resume(this);
+	}
+
+	/** Called, if the request cannot be processed, because the
+	 * server is overloaded. This happens in the selector thread, if
+	 * the pool is full, or in a worker thread, if the request has
+	 * been waiting in the queue for too long.
+	 */
+	public void reject() {
+		request = null;
+		if (continued != null) {
+			// Send the responses, which are available, and close the
+			// connection.
+			final PooledByteArrayOutputStream output = continuedOutput;
+			continued = null;
+			continuedOutput = null;
+			sendResponse(output, false);
+			return;
+		}
+		final PooledByteArrayOutputStream pbaos = new PooledByteArrayOutputStream();
+		try {
+			loop.writeServiceUnavailable(pbaos);
+			responseStream = pbaos;
+			response = pbaos.toByteBuffers();
+		} catch (IOException e) {
+			pbaos.release();
+			response = null;
+		}
+		keepAlive = false;
+		loop.resume(this);
+	}
+
+	/** Called by the selector thread, if the next request exceeds the
+	 * maximum request size. The client receives the status code 413
+	 * (Request Entity Too Large), and the connection is closed.
+	 */
+	private void rejectRequestTooLarge() {
+		loop.log("Request exceeds the maximum size of " + loop.getMaxRequestSize()
+				+ " bytes, rejecting client");
+		busy = true;
+		key.interestOps(0);
+		final PooledByteArrayOutputStream pbaos = new PooledByteArrayOutputStream();
+		try {
+			loop.writeRequestTooLarge(pbaos);
+			responseStream = pbaos;
+			response = pbaos.toByteBuffers();
+		} catch (IOException e) {
+			pbaos.release();
+			response = null;
+		}
+		keepAlive = false;
+		loop.resume(this);
+	}
+
+	/** Called by the selector thread, after a worker thread has
+	 * processed a request.
+	 * @throws IOException Processing the connection failed.
+	 */
+	void resume() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		if (!isResponseWritten()) {
+			key.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+		response = null;
+		if (responseStream != null) {
+			responseStream.release();
+			responseStream = null;
+		}
+		busy = false;
+		lastActivity = System.currentTimeMillis();
+		if (keepAlive) {
+			processInput();
+		} else {
+			close();
+		}
+	}
+
+	/** Called by the selector thread, if the channel is ready for
+	 * writing the remaining response.
+	 * @throws IOException Writing the response failed.
+	 */
+	void write() throws IOException {
+		channel.write(response);
+		if (isResponseWritten()) {
+			resume();
+		}
+	}
+
+	private boolean isResponseWritten() {
+		// A gathering write fills the buffers in order, so it is
+		// sufficient to check the last buffer.
+		return response == null  ||  response.length == 0
+			||  !response[response.length-1].hasRemaining();
+	}
+
+	/** Returns the time, when the connection is closed, unless
+	 * it receives another request.
+	 * @param pConfig The servers configuration.
+	 * @return The time in milliseconds, or 0, if the connection
+	 * is busy, or may be idle forever.
+	 */
+	long getIdleDeadline(XmlRpcHttpServerConfig pConfig) {
+		if (busy) {
+			return 0;
+		}
+		return Connection.getIdleDeadline(pConfig, created, lastActivity);
+	}
+
+	/** Closes the connection.
+	 */
+	void close() {
+		if (key != null) {
+			key.cancel();
+		}
+		try { channel.close(); } catch (Throwable ignore) {}
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.    
+ */
+package org.apache.xmlrpc.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.xmlrpc.server.XmlRpcHttpServerConfig;
+import org.apache.xmlrpc.server.XmlRpcStreamServer;
+import org.apache.xmlrpc.util.TaskExecutor;
+import org.apache.xmlrpc.util.ThreadPool;
+
+
+/** The selector loop of the {@link WebServer WebServer's} non-blocking
+ * mode. The loop accepts connections, and reads requests without
+ * blocking. Complete requests are handed over to the servers
+ * {@link TaskExecutor}. Connections, which are idle for too long, or
+ * exceed the maximum connection age, are closed by the loop.
+ * @see WebServer#setNonBlocking(boolean)
+ */
+class NioEventLoop implements Runnable {
+	/** Maximum number of milliseconds between two checks for
+	 * expired connections.
+	 */
+	private static final long REAP_INTERVAL = 1000;
+
+	private final WebServer webServer;
+	private final XmlRpcStreamServer server;
+	private final ServerSocketChannel serverSocketChannel;
+	private final TaskExecutor pool;
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+	private final List resumed = new ArrayList();
+	private Selector selector;
+	private long nextReap;
+
+	/** Creates a new instance.
+	 * @param pWebServer The web server, which is running the loop.
+	 * @param pServer The server being used to execute requests.
+	 * @param pServerSocketChannel The channel, on which connections
+	 * are being accepted.
+	 * @param pPool The executor, which is processing complete requests.
+	 */
+	NioEventLoop(WebServer pWebServer, XmlRpcStreamServer pServer,
+				 ServerSocketChannel pServerSocketChannel, TaskExecutor pPool) {
+		webServer = pWebServer;
+		server = pServer;
+		serverSocketChannel = pServerSocketChannel;
+		pool = pPool;
+	}
+
+	/** Runs the loop, until the web server is shut down.
+	 */
+	public void run() {
+		try {
+			selector = Selector.open();
+			serverSocketChannel.configureBlocking(false);
+			serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			webServer.log(e);
+			return;
+		}
+		try {
+			while (webServer.isListening()) {
+				try {
+					final long now = System.currentTimeMillis();
+					if (now >= nextReap) {
+						reap(now);
+					}
+					selector.select(Math.max(1, nextReap - now));
+					runResumed();
+					for (Iterator iter = selector.selectedKeys().iterator();  iter.hasNext();  ) {
+						SelectionKey key = (SelectionKey) iter.next();
+						iter.remove();
+						handle(key);
+					}
+				} catch (ClosedSelectorException e) {
+					break;
+				} catch (Throwable t) {
+					webServer.log(t);
+				}
+			}
+		} finally {
+			close();
+		}
+	}
+
+	private void handle(SelectionKey pKey) throws IOException {
+		if (!pKey.isValid()) {
+			return;
+		}
+		if (pKey.isAcceptable()) {
+			accept();
+			return;
+		}
+		final NioConnection connection = (NioConnection) pKey.attachment();
+		try {
+			if (pKey.isReadable()) {
+				connection.read(readBuffer);
+				connection.processInput();
+			} else if (pKey.isWritable()) {
+				connection.write();
+			}
+		} catch (IOException e) {
+			connection.close();
+			webServer.log(e);
+		}
+	}
+
+	private void accept() throws IOException {
+		for (;;) {
+			SocketChannel channel = serverSocketChannel.accept();
+			if (channel == null) {
+				return;
+			}
+			try {
+				final Socket socket = channel.socket();
+				try {
+					socket.setTcpNoDelay(true);
+				} catch (SocketException socketOptEx) {
+					webServer.log(socketOptEx);
+				}
+				if (webServer.allowConnection(socket)) {
+					channel.configureBlocking(false);
+					new NioConnection(this, channel).register(selector);
+					channel = null;
+				}
+			} finally {
+				if (channel != null) { try { channel.close(); } catch (Throwable ignore) {} }
+			}
+		}
+	}
+
+	/** Closes the connections, which have been idle for too long,
+	 * or are exceeding the maximum age. Connections, which are
+	 * processing a request, are left alone.
+	 */
+	private void reap(long pNow) {
+		nextReap = pNow + REAP_INTERVAL;
+		final XmlRpcHttpServerConfig config = (XmlRpcHttpServerConfig) server.getConfig();
+		for (Iterator iter = selector.keys().iterator();  iter.hasNext();  ) {
+			final SelectionKey key = (SelectionKey) iter.next();
+			if (!key.isValid()  ||  !(key.attachment() instanceof NioConnection)) {
+				continue;
+			}
+			final long deadline = ((NioConnection) key.attachment()).getIdleDeadline(config);
+			if (deadline == 0) {
+				continue;
+			}
+			if (deadline <= pNow) {
+				((NioConnection) key.attachment()).close();
+			} else if (deadline < nextReap) {
+				nextReap = deadline;
+			}
+		}
+	}
+
+	/** Called by the selector thread to hand over a complete
+	 * request to the executor.
+	 * @param pConnection The connection, which has read the request.
+	 */
+	void dispatch(NioConnection pConnection) {
+		if (!pool.startTask(pConnection)) {
+			webServer.log("Maximum load of " + pool.getMaxThreads()
+					+ " exceeded, rejecting client");
+			pConnection.reject();
+		}
+	}
+
+	/** Writes the response, which is sent to a client, if the server
+	 * is overloaded.
+	 */
+	void writeServiceUnavailable(OutputStream pOutput) throws IOException {
+		webServer.writeServiceUnavailable(pOutput);
+	}
+
+	/** Writes the response, which is sent to a client, if the request
+	 * is too large.
+	 */
+	void writeRequestTooLarge(OutputStream pOutput) throws IOException {
+		webServer.writeRequestTooLarge(pOutput);
+	}
+
+	/** Returns the maximum size of a request, which is read into memory.
+	 * @return Maximum request size in bytes, or 0 for no limit.
+	 */
+	int getMaxRequestSize() {
+		return ((XmlRpcHttpServerConfig) server.getConfig()).getMaxRequestSize();
+	}
+
+	/** Called by a worker thread, after the response has been created.
+	 * The selector thread will continue to process the connection.
+	 * @param pConnection The connection, which has processed a request.
+	 */
+	void resume(NioConnection pConnection) {
+		synchronized (resumed) {
+			resumed.add(pConnection);
+		}
+		selector.wakeup();
+	}
+
+	private void runResumed() {
+		final NioConnection[] connections;
+		synchronized (resumed) {
+			if (resumed.isEmpty()) {
+				return;
+			}
+			connections = (NioConnection[]) resumed.toArray(new NioConnection[resumed.size()]);
+			resumed.clear();
+		}
+		for (int i = 0;  i < connections.length;  i++) {
+			try {
+				connections[i].resume();
+			} catch (IOException e) {
+				connections[i].close();
+				webServer.log(e);
+			}
+		}
+	}
+
+	/** Creates the task, which processes a complete request.
+	 */
+	ThreadPool.Task newTask(Socket pSocket, InputStream pInput, OutputStream pOutput)
+			throws IOException {
+		return webServer.newTask(webServer, server, pSocket, pInput, pOutput);
+	}
+
+	/** Logs an error.
+	 */
+	void log(Throwable pError) {
+		webServer.log(pError);
+	}
+
+	/** Logs a message.
+	 */
+	void log(String pMessage) {
+		webServer.log(pMessage);
+	}
+
+	private void close() {
+		try {
+			for (Iterator iter = selector.keys().iterator();  iter.hasNext();  ) {
+				SelectionKey key = (SelectionKey) iter.next();
+				if (key.attachment() instanceof NioConnection) {
+					((NioConnection) key.attachment()).close();
+				}
+			}
+		} catch (Throwable ignore) {
+		}
+		try { selector.close(); } catch (Throwable ignore) {}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Accumulates a request, which is read by the {@link KeepAliveParker}
+ * in the {@link WebServer WebServer's} blocking mode, before the
+ * connection is handed over to a worker thread. Requests up to a
+ * threshold are held in the heap. The body of a larger request is read
+ * into a memory mapped temporary file. The buffer knows just enough
+ * about HTTP to detect the end of a request with a
+ * <code>Content-Length</code> header. Other requests are considered
+ * complete with the header, and their body is read by the worker, as
+ * usual. The buffered bytes are replayed by the {@link HttpInputStream}.
+ * The total size of the temporary files is limited: If a request
+ * exceeds the remaining space, then it is handed over after the header.
+ * @see WebServer#setPrebuffering(boolean)
+ * @see WebServer#setMaxPrebufferTotalSize(long)
+ */
+class RequestBuffer {
+	private static final int MAX_HEADER_SIZE = 65536;
+	private static final byte[] CONTENT_LENGTH = HttpInputStream.toBytes("content-length:");
+	private static final byte[] TRANSFER_ENCODING = HttpInputStream.toBytes("transfer-encoding:");
+	private static final byte[] POST = HttpInputStream.toBytes("post ");
+
+	private final int maxHeapSize;
+	private final int maxSize;
+	private final AtomicLong mappedSize;
+	private final long maxMappedSize;
+	private long reserved;
+	private byte[] heap = new byte[1024];
+	private int heapLength;
+	private int headerStart;
+	private int headerLength = -1;
+	private int scanOffset;
+	private long expectedSize = -1;
+	private boolean complete;
+	private File file;
+	private RandomAccessFile raf;
+	private MappedByteBuffer mapped;
+
+	/** Creates a new instance.
+	 * @param pMaxHeapSize The maximum size of a request, which is held
+	 * in the heap.
+	 * @param pMaxSize The maximum size of a request, which is buffered.
+	 * Larger requests are handed over to the worker after the header.
+	 * @param pMappedSize The total size of the temporary files, which
+	 * is shared by all buffers.
+	 * @param pMaxMappedSize The maximum total size of the temporary files.
+	 */
+	RequestBuffer(int pMaxHeapSize, int pMaxSize, AtomicLong pMappedSize, long pMaxMappedSize) {
+		maxHeapSize = pMaxHeapSize;
+		maxSize = pMaxSize;
+		mappedSize = pMappedSize;
+		maxMappedSize = pMaxMappedSize;
+	}
+
+	/** Reads the available input, until the request is complete, or
+	 * no more input is available.
+	 * @param pChannel The clients channel, which must be in the
+	 * non-blocking mode.
+	 * @return True, if the request is complete, or the client has
+	 * closed the connection.
+	 * @throws IOException Reading the input, or creating the temporary
+	 * file failed.
+	 */
+	boolean read(SocketChannel pChannel) throws IOException {
+		while (!complete) {
+			final ByteBuffer target;
+			if (mapped == null) {
+				if (heapLength == heap.length) {
+					final byte[] newHeap = new byte[heap.length * 2];
+					System.arraycopy(heap, 0, newHeap, 0, heapLength);
+					heap = newHeap;
+				}
+				target = ByteBuffer.wrap(heap, heapLength, heap.length - heapLength);
+			} else {
+				target = mapped;
+			}
+			final int res = pChannel.read(target);
+			if (res == -1) {
+				complete = true;
+			} else if (res == 0) {
+				break;
+			} else {
+				if (mapped == null) {
+					heapLength += res;
+				}
+				if (headerLength == -1) {
+					scanHeader();
+				} else {
+					checkComplete();
+				}
+			}
+		}
+		return complete;
+	}
+
+	private int getSize() {
+		return heapLength + (mapped == null ? 0 : mapped.position());
+	}
+
+	private void scanHeader() throws IOException {
+		// Netscape sends an extra \n\r after bodypart, skip it
+		while (headerStart < heapLength  &&  (heap[headerStart] == '\r'  ||  heap[headerStart] == '\n')) {
+			++headerStart;
+		}
+		for (int i = Math.max(scanOffset, headerStart + 1);  i < heapLength;  i++) {
+			if (heap[i] == '\n'  &&  (heap[i-1] == '\n'
+					||  (i > headerStart + 1  &&  heap[i-1] == '\r'  &&  heap[i-2] == '\n'))) {
+				headerLength = i + 1;
+				break;
+			}
+		}
+		if (headerLength == -1) {
+			scanOffset = Math.max(heapLength - 2, headerStart);
+			if (heapLength - headerStart > MAX_HEADER_SIZE) {
+				// Let the Connection send the error.
+				complete = true;
+			}
+			return;
+		}
+		expectedSize = getExpectedSize();
+		if (expectedSize == -1  ||  expectedSize > maxSize) {
+			complete = true;
+		} else if (expectedSize > maxHeapSize  &&  expectedSize > heapLength) {
+			final long size = expectedSize - heapLength;
+			if (mappedSize.addAndGet(size) > maxMappedSize) {
+				// Too many large requests are being buffered.
+				mappedSize.addAndGet(-size);
+				complete = true;
+			} else {
+				reserved = size;
+				map((int) size);
+			}
+		} else {
+			checkComplete();
+		}
+	}
+
+	private void checkComplete() {
+		if (getSize() >= expectedSize) {
+			complete = true;
+		}
+	}
+
+	/** Returns the size of the request, or -1, if the header doesn't
+	 * contain a <code>Content-Length</code>.
+	 */
+	private long getExpectedSize() {
+		if (!startsWithIgnoreCase(headerStart, POST)) {
+			return -1;
+		}
+		long contentLength = -1;
+		int offset = headerStart;
+		while (offset < headerLength) {
+			int end = offset;
+			while (end < headerLength  &&  heap[end] != '\n') {
+				++end;
+			}
+			if (startsWithIgnoreCase(offset, TRANSFER_ENCODING)) {
+				return -1;
+			}
+			if (startsWithIgnoreCase(offset, CONTENT_LENGTH)) {
+				contentLength = 0;
+				for (int i = offset + CONTENT_LENGTH.length;  i < end;  i++) {
+					final byte b = heap[i];
+					if (b >= '0'  &&  b <= '9') {
+						contentLength = contentLength * 10 + (b - '0');
+						if (contentLength > Integer.MAX_VALUE) {
+							return -1;
+						}
+					} else if (b != ' '  &&  b != '\t'  &&  b != '\r') {
+						// Let the Connection send the error.
+						return -1;
+					}
+				}
+			}
+			offset = end + 1;
+		}
+		return contentLength == -1 ? -1 : headerLength + contentLength;
+	}
+
+	private boolean startsWithIgnoreCase(int pOffset, byte[] pLowerCaseName) {
+		if (pOffset + pLowerCaseName.length > headerLength) {
+			return false;
+		}
+		for (int i = 0;  i < pLowerCaseName.length;  i++) {
+			int b = heap[pOffset + i];
+			if (b >= 'A'  &&  b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != pLowerCaseName[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void map(int pSize) throws IOException {
+		file = File.createTempFile("xmlrpc", ".req");
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, pSize);
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+		// The mapping remains valid, so the file may be deleted now,
+		// except on platforms, which don't permit to delete open files.
+		if (file.delete()) {
+			file = null;
+		}
+	}
+
+	/** Returns, whether the request body is held in a temporary file.
+	 */
+	boolean isMapped() {
+		return mapped != null;
+	}
+
+	/** Returns an input stream, which reads the buffered bytes. Closing
+	 * the stream {@link #release() releases} the buffer.
+	 */
+	InputStream newInputStream() {
+		final ByteBuffer[] buffers;
+		if (mapped == null) {
+			buffers = new ByteBuffer[]{ByteBuffer.wrap(heap, 0, heapLength)};
+		} else {
+			final ByteBuffer body = mapped.duplicate();
+			body.flip();
+			buffers = new ByteBuffer[]{ByteBuffer.wrap(heap, 0, heapLength), body};
+		}
+		return new InputStream(){
+			private int current;
+			private boolean closed;
+
+			public int read() {
+				final byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			public int read(byte[] pBytes, int pOffset, int pLen) {
+				if (pLen == 0) {
+					return 0;
+				}
+				// The mapped buffer must not be accessed after release().
+				while (!closed  &&  current < buffers.length) {
+					final ByteBuffer buffer = buffers[current];
+					if (buffer.hasRemaining()) {
+						final int len = Math.min(pLen, buffer.remaining());
+						buffer.get(pBytes, pOffset, len);
+						return len;
+					}
+					++current;
+				}
+				return -1;
+			}
+
+			public int available() {
+				if (closed) {
+					return 0;
+				}
+				int result = 0;
+				for (int i = current;  i < buffers.length;  i++) {
+					result += buffers[i].remaining();
+				}
+				return result;
+			}
+
+			public void close() {
+				closed = true;
+				release();
+			}
+		};
+	}
+
+	/** Unmaps, and deletes the temporary file, if any.
+	 */
+	void release() {
+		if (mapped != null) {
+			unmap(mapped);
+			mapped = null;
+		}
+		if (raf != null) {
+			try { raf.close(); } catch (Throwable ignore) {}
+			raf = null;
+		}
+		if (file != null) {
+			file.delete();
+			file = null;
+		}
+		if (reserved > 0) {
+			mappedSize.addAndGet(-reserved);
+			reserved = 0;
+		}
+	}
+
+	/** Releases the mapping immediately, rather than waiting for the
+	 * garbage collector. The platform specific cleaner is invoked via
+	 * reflection: <code>sun.misc.Unsafe.invokeCleaner()</code> in Java 9,
+	 * or later, and <code>DirectByteBuffer.cleaner()</code> in Java 8.
+	 * If neither is available, the mapping is left to the garbage
+	 * collector.
+	 */
+	private static void unmap(MappedByteBuffer pBuffer) {
+		try {
+			final Class unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", new Class[]{ByteBuffer.class});
+				final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), new Object[]{pBuffer});
+				return;
+			} catch (NoSuchMethodException e) {
+				// Java 8
+			}
+			final Method cleanerMethod = pBuffer.getClass().getMethod("cleaner", new Class[0]);
+			cleanerMethod.setAccessible(true);
+			final Object cleaner = cleanerMethod.invoke(pBuffer, new Object[0]);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean", new Class[0]).invoke(cleaner, new Object[0]);
+			}
+		} catch (Throwable ignore) {
+			// Leave it to the garbage collector.
+		}
+	}
+}
@@ -30,6 +30,7 @@ public class RequestData extends XmlRpcHttpRequestConfigImpl {
 	private boolean keepAlive;
 	private String method, httpVersion;
 	private int contentLength = -1;
+	private boolean chunked;
 	private boolean success;
 
 	/** Creates a new instance.
@@ -82,12 +83,37 @@ public class RequestData extends XmlRpcHttpRequestConfigImpl {
 		contentLength = pContentLength;
 	}
 
+	/** Returns, whether the request body uses the chunked
+	 * transfer encoding.
+	 * @return True, if the request body is chunked, false otherwise.
+	 */
+	public boolean isChunked() { return chunked; }
+
+	/** Sets, whether the request body uses the chunked
+	 * transfer encoding.
+	 * @param pChunked True, if the request body is chunked, false otherwise.
+	 */
+	public void setChunked(boolean pChunked) {
+		chunked = pChunked;
+	}
+
+	/** Returns, whether the response is streamed, using the chunked
+	 * transfer encoding. This is the case for a keepalive connection
+	 * with a HTTP/1.1 client, if the content length is optional.
+	 * @return True, if the response is chunked, false otherwise.
+	 */
+	public boolean isChunkedResponse() {
+		return isKeepAlive()  &&  WebServer.HTTP_11.equals(getHttpVersion())
+			&&  isEnabledForExtensions()  &&  isContentLengthOptional();
+	}
+
 	/** Returns, whether a byte array for buffering the output is
 	 * required.
 	 * @return True, if the byte array is required, false otherwise.
 	 */
 	public boolean isByteArrayRequired() {
-		return isKeepAlive() || !isEnabledForExtensions() || !isContentLengthOptional();
+		return (isKeepAlive()  &&  !isChunkedResponse())
+			|| !isEnabledForExtensions() || !isContentLengthOptional();
 	}
 
 	/** Returns the request method.
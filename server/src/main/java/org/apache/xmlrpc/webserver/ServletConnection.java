@@ -19,10 +19,13 @@
 package org.apache.xmlrpc.webserver;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 
 import jakarta.servlet.http.HttpServlet;
 
+import org.apache.xmlrpc.util.TaskExecutor;
 import org.apache.xmlrpc.util.ThreadPool.InterruptableTask;
 
 
@@ -36,6 +39,7 @@ public class ServletConnection implements InterruptableTask {
 	private final HttpServletRequestImpl request;
 	private final HttpServletResponseImpl response;
     private boolean shuttingDown;
+    private TaskExecutor executor;
 
 	/** Creates a new instance.
 	 * @param pServlet The servlet, which ought to handle the request.
@@ -49,10 +53,33 @@ public class ServletConnection implements InterruptableTask {
 		response = new HttpServletResponseImpl(socket);
 	}
 
+	/** Creates a new instance, which reads the request from, and
+	 * writes the response to the given streams, rather than the
+	 * sockets own streams.
+	 * @param pServlet The servlet, which ought to handle the request.
+	 * @param pSocket The socket, to which the client is connected.
+	 * @param pInput The stream, from which the request is being read.
+	 * @param pOutput The stream, to which the response is being written.
+	 */
+	public ServletConnection(HttpServlet pServlet, Socket pSocket,
+							 InputStream pInput, OutputStream pOutput) {
+		servlet = pServlet;
+		socket = pSocket;
+		request = new HttpServletRequestImpl(socket, pInput);
+		response = new HttpServletResponseImpl(socket, pOutput);
+	}
+
 	public void run() throws Throwable {
         try {
             request.readHttpHeaders();
+            response.setChunkingAllowed("1.1".equals(request.getHttpVersion()));
+            request.setAsyncSupported(response, executor);
             servlet.service(request, response);
+            final AsyncContextImpl context = request.getAsyncContextImpl();
+            if (context != null) {
+                context.startTimeout();
+                request.notifyReadListener();
+            }
         } catch (Throwable t) {
             if (!shuttingDown) {
                 throw t;
@@ -60,6 +87,28 @@ public class ServletConnection implements InterruptableTask {
         }
 	}
 
+	/** Sets the executor, which runs the tasks passed to
+	 * {@link jakarta.servlet.AsyncContext#start(Runnable)}.
+	 * @param pExecutor The executor, or null for starting a new thread
+	 *   per task.
+	 */
+	void setTaskExecutor(TaskExecutor pExecutor) {
+		executor = pExecutor;
+	}
+
+	/** Called after {@link #run()}, if the response is written by the
+	 * caller, to find out, whether the servlet has started asynchronous
+	 * processing.
+	 * @param pHandler The code, which writes the response, once
+	 *   the asynchronous processing is complete.
+	 * @return True, if the handler will be invoked. False, if the
+	 *   response is already complete.
+	 */
+	boolean deferCompletion(Runnable pHandler) {
+		final AsyncContextImpl context = request.getAsyncContextImpl();
+		return context != null  &&  context.setCompletionHandler(pHandler);
+	}
+
     public void shutdown() throws Throwable {
         shuttingDown = true;
         socket.close();
@@ -24,20 +24,25 @@ import java.io.OutputStream;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.WriteListener;
 
+import org.apache.xmlrpc.util.ChunkedOutputStream;
+
 
 /** Default implementation of a servlet output stream.
  * Handles output of HTTP headers.
  */
 class ServletOutputStreamImpl extends ServletOutputStream {
 	private final OutputStream target;
+	private OutputStream out;
 	private final HttpServletResponseImpl res;
 	private final byte[] buffer = new byte[HttpServletResponseImpl.BUFFER_SIZE];
 	private int bufferOffset;
 	private boolean closed;
 	private boolean committed;
+	private WriteListener writeListener;
 
 	ServletOutputStreamImpl(OutputStream pTarget, HttpServletResponseImpl pResponse) {
 		target = pTarget;
+		out = pTarget;
 		res = pResponse;
 	}
 
@@ -66,11 +71,17 @@ class ServletOutputStreamImpl extends ServletOutputStream {
 	private void flush(boolean pClosing) throws IOException {
 		if (!committed) {
 			committed = true;
-			String headers = res.getHttpHeaders(pClosing ? new Integer(bufferOffset) : null);
+			// If the response is committed before it is complete, then
+			// its length is unknown. Use chunks, if the client accepts them.
+			final boolean chunked = !pClosing  &&  res.isChunking();
+			String headers = res.getHttpHeaders(pClosing ? new Integer(bufferOffset) : null, chunked);
 			target.write(headers.getBytes("US-ASCII"));
+			if (chunked) {
+				out = new ChunkedOutputStream(target);
+			}
 		}
 		if (bufferOffset > 0) {
-			target.write(buffer, 0, bufferOffset);
+			out.write(buffer, 0, bufferOffset);
 			bufferOffset = 0;
 		}
 	}
@@ -79,6 +90,10 @@ class ServletOutputStreamImpl extends ServletOutputStream {
 		if (!closed) {
 			flush(true);
 			closed = true;
+			if (out != target) {
+				// Writes the last chunk
+				out.close();
+			}
 			target.close();
 		}
 	}
@@ -88,7 +103,7 @@ class ServletOutputStreamImpl extends ServletOutputStream {
 			throw new IOException("This output stream is already closed.");
 		}
 		flush(false);
-		target.flush();
+		out.flush();
 	}
 
 	void reset() {
@@ -103,5 +118,22 @@ class ServletOutputStreamImpl extends ServletOutputStream {
 
 	public boolean isReady() { return true; }
 
-	public void setWriteListener(WriteListener arg0) { throw new IllegalStateException("Not implemented."); }
+	/** Sets the listener, which is notified immediately: The stream
+	 * is always ready, because it is either writing into a buffer,
+	 * in the non-blocking mode, or blocking.
+	 */
+	public void setWriteListener(WriteListener pListener) {
+		if (pListener == null) {
+			throw new NullPointerException("The WriteListener must not be null.");
+		}
+		if (writeListener != null) {
+			throw new IllegalStateException("The WriteListener has already been set.");
+		}
+		writeListener = pListener;
+		try {
+			pListener.onWritePossible();
+		} catch (Throwable t) {
+			pListener.onError(t);
+		}
+	}
 }
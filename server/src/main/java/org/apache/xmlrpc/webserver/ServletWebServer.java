@@ -19,6 +19,8 @@
 package org.apache.xmlrpc.webserver;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.Enumeration;
@@ -49,6 +51,24 @@ import org.apache.xmlrpc.util.ThreadPool;
  * other words, the servlet must not have any instance variables,
  * other than those which are read only after the servlets
  * initialization.</p>
+ * <p>Servlets may use asynchronous processing, as started by
+ * {@link jakarta.servlet.ServletRequest#startAsync()}: The connections
+ * thread is released, when the servlet returns, and the response is
+ * sent, when {@link jakarta.servlet.AsyncContext#complete()} is invoked.
+ * Dispatching isn't supported: The dispatch methods of the
+ * {@link jakarta.servlet.AsyncContext} throw an
+ * {@link UnsupportedOperationException}. Tasks, which are passed to
+ * {@link jakarta.servlet.AsyncContext#start(Runnable)}, are run by the
+ * servers executor. If it is overloaded, then the response is completed
+ * with the status code 503 (Service Unavailable). For example, the {@link XmlRpcServlet}
+ * may be configured to process requests asynchronously by
+ * {@link XmlRpcServletServer#setAsyncEnabled(boolean)}.
+ * The {@link jakarta.servlet.ReadListener}, and the
+ * {@link jakarta.servlet.WriteListener} are supported as well. In the
+ * {@link #setNonBlocking(boolean) non-blocking mode}, they don't block,
+ * because the request has already been read by the selector thread, and
+ * the response is buffered. In the blocking mode, they are notified
+ * by the connections thread, which is blocking as usual.</p>
  * <p>The XmlRpcServlet is by default using a property file named
  * <code>org/apache/xmlrpc/server/webserver/XmlRpcServlet.properties</code>.
  * See the {@link PropertyHandlerMapping} for details on the property
@@ -145,6 +165,17 @@ public class ServletWebServer extends WebServer {
 	protected ThreadPool.Task newTask(WebServer pWebServer,
 									  XmlRpcStreamServer pXmlRpcServer,
 									  Socket pSocket) throws IOException {
-		return new ServletConnection(servlet, pSocket);
+		final ServletConnection connection = new ServletConnection(servlet, pSocket);
+		connection.setTaskExecutor(getPool());
+		return connection;
+	}
+
+	protected ThreadPool.Task newTask(WebServer pWebServer,
+									  XmlRpcStreamServer pXmlRpcServer,
+									  Socket pSocket, InputStream pInput,
+									  OutputStream pOutput) throws IOException {
+		final ServletConnection connection = new ServletConnection(servlet, pSocket, pInput, pOutput);
+		connection.setTaskExecutor(getPool());
+		return connection;
 	}
 }
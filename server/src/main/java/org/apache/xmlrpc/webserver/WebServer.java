@@ -19,18 +19,28 @@
 package org.apache.xmlrpc.webserver;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.StringTokenizer;
 
+import org.apache.xmlrpc.server.XmlRpcHttpServerConfig;
 import org.apache.xmlrpc.server.XmlRpcStreamServer;
+import org.apache.xmlrpc.util.TaskExecutor;
 import org.apache.xmlrpc.util.ThreadPool;
+import org.apache.xmlrpc.util.VirtualThreadExecutor;
 
 
 /**
@@ -65,52 +75,120 @@ import org.apache.xmlrpc.util.ThreadPool;
  *   server.setHandlerMapping(mapping);
  *   webServer.start();
  * </pre>
+ * <p>By default, the {@link WebServer} uses blocking I/O: Each
+ * {@link Connection} occupies a thread from the {@link ThreadPool},
+ * while it is reading a request, or writing a response. If keepalive is
+ * enabled, then connections, which are idle between two requests, are
+ * parked on a selector, provided that the server socket has a
+ * channel, as is the case with the default
+ * {@link #createServerSocket(int, int, InetAddress)}. Otherwise, an idle
+ * keepalive connection occupies its thread as well. Alternatively, you
+ * may invoke {@link #setNonBlocking(boolean) setNonBlocking(true)} before
+ * {@link #start()}. In that case, a single selector thread reads
+ * requests without blocking, and hands over complete requests to the
+ * {@link ThreadPool}.</p>
+ * <p>In both modes, the idle timeout, the maximum number of requests
+ * per connection, and the maximum connection age are configured by the
+ * {@link XmlRpcHttpServerConfig}.</p>
+ * <p>The threads, which are processing requests, are obtained from a
+ * {@link TaskExecutor}, by default the {@link ThreadPool}. If handlers
+ * spend most of their time waiting for slow backends, you may
+ * prefer virtual threads (Java 21, or later):
+ * <pre>
+ *   webServer.setTaskExecutor(new VirtualThreadExecutor(0, "XML-RPC"));
+ * </pre>
+ * <p>If all threads of the {@link ThreadPool} are busy, then up to
+ * {@link #setMaxQueueSize(int) maxQueueSize} connections are waiting
+ * for a thread, for at most {@link #setQueueTimeout(long) queueTimeout}
+ * milliseconds. Other clients receive the status code 503 (Service
+ * Unavailable), with a {@link #setRetryAfter(int) Retry-After} header.</p>
  */
 public class WebServer implements Runnable {
-	private class AddressMatcher {
-		private final int pattern[];
-		
-		AddressMatcher(String pAddress) {
-			try {
-				pattern = new int[4];
-				StringTokenizer st = new StringTokenizer(pAddress, ".");
-				if (st.countTokens() != 4) {
-					throw new IllegalArgumentException();
-				}
-				for (int i = 0; i < 4; i++)	{
-					String next = st.nextToken();
-					if ("*".equals(next)) {
-						pattern[i] = 256;
-					} else {
-					    /* Note: *Not* pattern[i] = Integer.parseInt(next);
-					     * See XMLRPC-145
-					     */
-						pattern[i] = (byte) Integer.parseInt(next);
-					}
-				}
-			} catch (Exception e) {
-				throw new IllegalArgumentException("\"" + pAddress
-						+ "\" does not represent a valid IP address");
-			}
+	/** An element of the lists {@link WebServer#accept}, and
+	 * {@link WebServer#deny}.
+	 * @deprecated The client filtering rules are matched by
+	 *   an {@link AddressTrie}.
+	 */
+	private static class AddressMatcher {
+		private final String pattern;
+
+		AddressMatcher(String pPattern) {
+			pattern = pPattern;
 		}
-		
-		boolean matches(byte[] pAddress) {
-			for (int i = 0; i < 4; i++)	{
-				if (pattern[i] > 255) {
-					continue; // Wildcard
-				}
-				if (pattern[i] != pAddress[i]) {
-					return false;
-				}
+
+		public String toString() {
+			return pattern;
+		}
+	}
+
+	/** The client filtering rules. Replaced as a whole, so that
+	 * a set of rules may be updated atomically.
+	 */
+	private static class ClientFilter {
+		final AddressTrie accept;
+		final AddressTrie deny;
+
+		ClientFilter(AddressTrie pAccept, AddressTrie pDeny) {
+			accept = pAccept;
+			deny = pDeny;
+		}
+	}
+
+	/** Wraps a connection task in the blocking mode, so that the
+	 * client can be notified, if the task is discarded by the
+	 * thread pool.
+	 */
+	private class QueuedConnection implements ThreadPool.InterruptableTask,
+			ThreadPool.RejectableTask {
+		private final ThreadPool.Task task;
+		private final Socket socket;
+
+		QueuedConnection(ThreadPool.Task pTask, Socket pSocket) {
+			task = pTask;
+			socket = pSocket;
+		}
+
+		public void run() throws Throwable {
+			task.run();
+		}
+
+		public void shutdown() throws Throwable {
+			if (task instanceof ThreadPool.InterruptableTask) {
+				((ThreadPool.InterruptableTask) task).shutdown();
 			}
-			return true;
+		}
+
+		public void reject() {
+			log("Queue timeout exceeded, rejecting client");
+			rejectConnection(socket);
 		}
 	}
 
+	/** Option for binding multiple sockets to the same port, which
+	 * is available as of Java 9, or null.
+	 */
+	private static final SocketOption SO_REUSEPORT = getReusePortOption();
+
 	protected ServerSocket serverSocket;
-	private Thread listener;
-	private ThreadPool pool;
+	private ServerSocket[] serverSockets;
+	private ServerSocketChannel serverSocketChannel;
+	private volatile Thread listener;
+	private TaskExecutor pool;
+	private TaskExecutor taskExecutor;
+	private volatile KeepAliveParker parker;
+	private volatile ClientFilter clientFilter =
+		new ClientFilter(new AddressTrie(), new AddressTrie());
+	/** The accepted client addresses, as added by
+	 * {@link #acceptClient(String)}, or {@link #setClientFilter(List, List)}.
+	 * @deprecated This list is no longer used by
+	 *   {@link #allowConnection(Socket)}, and modifying it has no effect.
+	 */
 	protected final List accept = new ArrayList();
+	/** The denied client addresses, as added by
+	 * {@link #denyClient(String)}, or {@link #setClientFilter(List, List)}.
+	 * @deprecated This list is no longer used by
+	 *   {@link #allowConnection(Socket)}, and modifying it has no effect.
+	 */
 	protected final List deny = new ArrayList();
 	protected final XmlRpcStreamServer server = newXmlRpcStreamServer();
 
@@ -123,6 +201,17 @@ public class WebServer implements Runnable {
 	private int port;
 	
 	private boolean paranoid;
+	private boolean nonBlocking;
+	private int maxQueueSize = 50;
+	private long queueTimeout = 10000;
+	private int retryAfter = 5;
+	private boolean prebuffering;
+	private int prebufferHeapSize = 262144;
+	private int maxPrebufferSize = 67108864;
+	private long maxPrebufferTotalSize = 268435456;
+	private int prebufferTimeout = 30000;
+	private int backlog = 50;
+	private int listenerThreads = 1;
 	
 	static final String HTTP_11 = "HTTP/1.1";
 	/** Creates a web server at the specified port number.
@@ -147,6 +236,9 @@ public class WebServer implements Runnable {
 	 * Factory method to manufacture the server socket.  Useful as a
 	 * hook method for subclasses to override when they desire
 	 * different flavor of socket (i.e. a <code>SSLServerSocket</code>).
+	 * The default implementation returns the socket of a
+	 * {@link ServerSocketChannel}, which allows to park idle keepalive
+	 * connections without occupying a thread.
 	 *
 	 * @param pPort Port number; 0 for a random port, choosen by the operating
 	 * system.
@@ -159,9 +251,63 @@ public class WebServer implements Runnable {
 	 */
 	protected ServerSocket createServerSocket(int pPort, int backlog, InetAddress addr)
 			throws IOException {
-		return new ServerSocket(pPort, backlog, addr);
+		return createServerSocketChannel(pPort, backlog, addr).socket();
 	}
 	
+	/**
+	 * Factory method to manufacture the server socket channel, which
+	 * is being used in non-blocking mode. Useful as a hook method for
+	 * subclasses to override.
+	 *
+	 * @param pPort Port number; 0 for a random port, choosen by the operating
+	 * system.
+	 * @param backlog requested maximum length of the queue of incoming connections.
+	 * @param addr If <code>null</code>, binds to
+	 * <code>INADDR_ANY</code>, meaning that all network interfaces on
+	 * a multi-homed host will be listening.
+	 * @return the server socket channel
+	 * @exception IOException Error creating listener socket.
+	 * @see #setNonBlocking(boolean)
+	 */
+	protected ServerSocketChannel createServerSocketChannel(int pPort, int backlog,
+															InetAddress addr)
+			throws IOException {
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			if (listenerThreads > 1) {
+				setReusePort(channel);
+			}
+			channel.socket().bind(new InetSocketAddress(addr, pPort), backlog);
+			return channel;
+		} catch (IOException e) {
+			try { channel.close(); } catch (Throwable ignore) {}
+			throw e;
+		}
+	}
+
+	private static SocketOption getReusePortOption() {
+		try {
+			return (SocketOption) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	private static boolean setReusePort(ServerSocketChannel pChannel) throws IOException {
+		if (SO_REUSEPORT == null  ||  !pChannel.supportedOptions().contains(SO_REUSEPORT)) {
+			return false;
+		}
+		pChannel.setOption(SO_REUSEPORT, Boolean.TRUE);
+		return true;
+	}
+
+	private static boolean isReusePort(ServerSocket pSocket) throws IOException {
+		final ServerSocketChannel channel = pSocket.getChannel();
+		return channel != null  &&  SO_REUSEPORT != null
+			&&  channel.supportedOptions().contains(SO_REUSEPORT)
+			&&  Boolean.TRUE.equals(channel.getOption(SO_REUSEPORT));
+	}
+
 	/**
 	 * Initializes this server's listener socket with the specified
 	 * attributes, assuring that a socket timeout has been set.  The
@@ -178,12 +324,8 @@ public class WebServer implements Runnable {
 		// reasons before relinquishing their hold.
 		for (int i = 1;  ;  i++) {
 			try {
-				serverSocket = createServerSocket(port, backlog, address);
-				// A socket timeout must be set.
-				if (serverSocket.getSoTimeout() <= 0) {
-					serverSocket.setSoTimeout(4096);
-				}
-				return;
+				serverSocket = newServerSocket(port, backlog);
+				break;
 			} catch (BindException e) {
 				if (i == 10) {
 					throw e;
@@ -203,6 +345,46 @@ public class WebServer implements Runnable {
 				}
 			}
 		}
+		serverSocketChannel = nonBlocking ? serverSocket.getChannel() : null;
+
+		// With SO_REUSEPORT, every listener thread has a socket of its
+		// own, and the kernel distributes the incoming connections.
+		// Otherwise, the listener threads share a single socket.
+		final int numSockets = isReusePort(serverSocket) ? listenerThreads : 1;
+		serverSockets = new ServerSocket[numSockets];
+		serverSockets[0] = serverSocket;
+		try {
+			for (int i = 1;  i < numSockets;  i++) {
+				serverSockets[i] = newServerSocket(serverSocket.getLocalPort(), backlog);
+			}
+		} catch (IOException e) {
+			closeServerSockets();
+			throw e;
+		}
+	}
+
+	private ServerSocket newServerSocket(int pPort, int pBacklog) throws IOException {
+		if (nonBlocking) {
+			return createServerSocketChannel(pPort, pBacklog, address).socket();
+		}
+		final ServerSocket socket = createServerSocket(pPort, pBacklog, address);
+		// A socket timeout must be set.
+		if (socket.getSoTimeout() <= 0) {
+			socket.setSoTimeout(4096);
+		}
+		return socket;
+	}
+
+	private void closeServerSockets() {
+		for (int i = 0;  i < serverSockets.length;  i++) {
+			if (serverSockets[i] != null) {
+				try {
+					serverSockets[i].close();
+				} catch (IOException e) {
+					log(e);
+				}
+			}
+		}
 	}
 	
 	/**
@@ -213,7 +395,7 @@ public class WebServer implements Runnable {
 	 * @throws IOException Binding the server socket failed.
 	 */
 	public void start() throws IOException {
-		setupServerSocket(50);
+		setupServerSocket(backlog);
 		
 		// The listener reference is released upon shutdown().
 		if (listener == null) {
@@ -223,6 +405,79 @@ public class WebServer implements Runnable {
 		}
 	}
 	
+	/**
+	 * Sets the requested maximum length of the queue of incoming
+	 * connections, which haven't yet been accepted. Defaults to 50.
+	 * The operating system may silently limit the value (for example,
+	 * <code>net.core.somaxconn</code> on Linux). This method must be
+	 * invoked before {@link #start()}.
+	 * @param pBacklog The backlog, or 0 for the operating systems default.
+	 */
+	public void setBacklog(int pBacklog) {
+		backlog = pBacklog;
+	}
+
+	/**
+	 * Returns the requested maximum length of the queue of incoming
+	 * connections. Defaults to 50.
+	 * @return The backlog, or 0 for the operating systems default.
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Sets the number of threads, which are accepting connections. In
+	 * the non-blocking mode, every thread runs a selector loop of its
+	 * own, with its own buffers. If the platform supports the socket
+	 * option <code>SO_REUSEPORT</code> (Java 9, or later, on Linux, or
+	 * BSD), then every thread has a socket of its own, which is bound
+	 * to the same port, and the operating system distributes the
+	 * incoming connections among them. Otherwise, the threads are
+	 * sharing a single server socket. This method must be invoked
+	 * before {@link #start()}.
+	 * @param pThreads The number of listener threads. Defaults to 1.
+	 */
+	public void setListenerThreads(int pThreads) {
+		if (pThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of listener threads: " + pThreads);
+		}
+		listenerThreads = pThreads;
+	}
+
+	/**
+	 * Returns the number of threads, which are accepting connections.
+	 * @return The number of listener threads. Defaults to 1.
+	 */
+	public int getListenerThreads() {
+		return listenerThreads;
+	}
+
+	/**
+	 * Switches the non-blocking mode on/off. In non-blocking mode, a
+	 * single selector thread reads the request headers and bodies of all
+	 * connections. Only complete requests are handed over to the
+	 * {@link ThreadPool}, so that idle keepalive connections don't
+	 * occupy a thread. The downside is, that request bodies are
+	 * buffered in memory, rather than streamed. This method must be
+	 * invoked before {@link #start()}.
+	 * @param pNonBlocking True to enable the non-blocking mode,
+	 * false otherwise (default).
+	 * @see #newTask(WebServer, XmlRpcStreamServer, Socket, InputStream, OutputStream)
+	 */
+	public void setNonBlocking(boolean pNonBlocking) {
+		nonBlocking = pNonBlocking;
+	}
+
+	/**
+	 * Returns, whether the non-blocking mode is enabled.
+	 * @return True, if the non-blocking mode is enabled, false otherwise.
+	 * @see #setNonBlocking(boolean)
+	 */
+	public boolean isNonBlocking() {
+		return nonBlocking;
+	}
+
 	/**
 	 * Switch client filtering on/off.
 	 * @param pParanoid True to enable filtering, false otherwise.
@@ -243,30 +498,72 @@ public class WebServer implements Runnable {
 		return paranoid;
 	}
 	
-	/** Add an IP address to the list of accepted clients. The parameter can
-	 * contain '*' as wildcard character, e.g. "192.168.*.*". You must call
-	 * setParanoid(true) in order for this to have any effect.
+	/** Add an IP address, or address range, to the list of accepted
+	 * clients. The parameter may be an IPv4, or IPv6 address, a range
+	 * in CIDR notation, e.g. "10.0.0.0/8", or "2001:db8::/32", or an IPv4
+	 * address with '*' as wildcard character, e.g. "192.168.*.*". You must
+	 * call setParanoid(true) in order for this to have any effect. This
+	 * method may be invoked while the server is running.
 	 * @param pAddress The IP address being enabled.
 	 * @see #denyClient(java.lang.String)
+	 * @see #setClientFilter(List, List)
 	 * @see #setParanoid(boolean)
 	 * @throws IllegalArgumentException Parsing the address failed.
 	 */
-	public void acceptClient(String pAddress) {
+	public synchronized void acceptClient(String pAddress) {
+		clientFilter.accept.add(pAddress);
 		accept.add(new AddressMatcher(pAddress));
 	}
 	
 	/**
-	 * Add an IP address to the list of denied clients. The parameter can
-	 * contain '*' as wildcard character, e.g. "192.168.*.*". You must call
-	 * setParanoid(true) in order for this to have any effect.
+	 * Add an IP address, or address range, to the list of denied clients.
+	 * The parameter may be an IPv4, or IPv6 address, a range in CIDR
+	 * notation, e.g. "10.0.0.0/8", or "2001:db8::/32", or an IPv4 address
+	 * with '*' as wildcard character, e.g. "192.168.*.*". You must call
+	 * setParanoid(true) in order for this to have any effect. This
+	 * method may be invoked while the server is running.
 	 * @param pAddress The IP address being disabled.
 	 * @see #acceptClient(java.lang.String)
+	 * @see #setClientFilter(List, List)
 	 * @see #setParanoid(boolean)
 	 * @throws IllegalArgumentException Parsing the address failed.
 	 */
-	public void denyClient(String pAddress) {
+	public synchronized void denyClient(String pAddress) {
+		clientFilter.deny.add(pAddress);
 		deny.add(new AddressMatcher(pAddress));
 	}
+
+	/**
+	 * Replaces the lists of accepted, and denied clients. The new rules
+	 * are applied atomically: Concurrent connections are either checked
+	 * against the old, or the new rules, but never against a mixture.
+	 * If parsing any of the addresses fails, then the current rules
+	 * remain unchanged.
+	 * @param pAccepted The accepted IP addresses, or address ranges,
+	 * as strings. See {@link #acceptClient(String)} for the syntax.
+	 * @param pDenied The denied IP addresses, or address ranges,
+	 * as strings.
+	 * @throws IllegalArgumentException Parsing an address failed.
+	 */
+	public synchronized void setClientFilter(List pAccepted, List pDenied) {
+		final AddressTrie accepted = new AddressTrie();
+		for (Iterator iter = pAccepted.iterator();  iter.hasNext();  ) {
+			accepted.add((String) iter.next());
+		}
+		final AddressTrie denied = new AddressTrie();
+		for (Iterator iter = pDenied.iterator();  iter.hasNext();  ) {
+			denied.add((String) iter.next());
+		}
+		clientFilter = new ClientFilter(accepted, denied);
+		accept.clear();
+		for (Iterator iter = pAccepted.iterator();  iter.hasNext();  ) {
+			accept.add(new AddressMatcher((String) iter.next()));
+		}
+		deny.clear();
+		for (Iterator iter = pDenied.iterator();  iter.hasNext();  ) {
+			deny.add(new AddressMatcher((String) iter.next()));
+		}
+	}
 	
 	/**
 	 * Checks incoming connections to see if they should be allowed.
@@ -280,23 +577,9 @@ public class WebServer implements Runnable {
 			return true;
 		}
 		
-		int l = deny.size();
+		final ClientFilter filter = clientFilter;
 		byte addr[] = s.getInetAddress().getAddress();
-		for (int i = 0; i < l; i++) {
-			AddressMatcher match = (AddressMatcher) deny.get(i);
-			if (match.matches(addr))
-			{
-				return false;
-			}
-		}
-		l = accept.size();
-		for (int i = 0; i < l; i++) {
-			AddressMatcher match = (AddressMatcher) accept.get(i);
-			if (match.matches(addr)) {
-				return true;
-			}
-		}
-		return false;
+		return !filter.deny.matches(addr)  &&  filter.accept.matches(addr);
 	}
 
 	protected ThreadPool.Task newTask(WebServer pServer, XmlRpcStreamServer pXmlRpcServer,
@@ -304,6 +587,27 @@ public class WebServer implements Runnable {
 		return new Connection(pServer, pXmlRpcServer, pSocket);
 	}
 
+	/**
+	 * Creates a task for processing a request, which has been read
+	 * by the non-blocking selector thread. Unlike the task created by
+	 * {@link #newTask(WebServer, XmlRpcStreamServer, Socket)}, the
+	 * returned task must not access the sockets streams, or close the
+	 * socket.
+	 * @param pServer The web server.
+	 * @param pXmlRpcServer The server being used to execute requests.
+	 * @param pSocket The clients socket.
+	 * @param pInput The stream, from which the request is being read.
+	 * @param pOutput The stream, to which the response is being written.
+	 * @return The task for processing the request.
+	 * @throws IOException Creating the task failed.
+	 * @see #setNonBlocking(boolean)
+	 */
+	protected ThreadPool.Task newTask(WebServer pServer, XmlRpcStreamServer pXmlRpcServer,
+									  Socket pSocket, InputStream pInput,
+									  OutputStream pOutput) throws IOException {
+		return new Connection(pServer, pXmlRpcServer, pSocket, pInput, pOutput);
+	}
+
 	/**
 	 * Listens for client requests until stopped.  Call {@link
 	 * #start()} to invoke this method, and {@link #shutdown()} to
@@ -317,45 +621,38 @@ public class WebServer implements Runnable {
 	 * @see #shutdown()
 	 */
 	public void run() {
-		pool = newThreadPool();
+		pool = newTaskExecutor();
+		final Thread[] listeners = new Thread[listenerThreads - 1];
 		try {
-			while (listener != null) {
-				try {
-					Socket socket = serverSocket.accept();
-					try {
-						socket.setTcpNoDelay(true);
-					} catch (SocketException socketOptEx) {
-						log(socketOptEx);
-					}
-					
-					try {
-						if (allowConnection(socket)) {
-					        // set read timeout to 30 seconds
-					        socket.setSoTimeout(30000);
-							final ThreadPool.Task task = newTask(this, server, socket);
-							if (pool.startTask(task)) {
-								socket = null;
-							} else {
-								log("Maximum load of " + pool.getMaxThreads()
-									+ " exceeded, rejecting client");
-							}
-						}
-					} finally {
-						if (socket != null) { try { socket.close(); } catch (Throwable ignore) {} }
+			if (serverSocketChannel == null
+					&&  (getConfig().isKeepAliveEnabled()  ||  prebuffering)) {
+				startParker();
+			}
+			for (int i = 0;  i < listeners.length;  i++) {
+				final ServerSocket socket = serverSockets[(i + 1) % serverSockets.length];
+				listeners[i] = new Thread(new Runnable(){
+					public void run() {
+						listen(socket);
 					}
-				} catch (InterruptedIOException checkState) {
-					// Timeout while waiting for a client (from
-					// SO_TIMEOUT)...try again if still listening.
-				} catch (Throwable t) {
-					log(t);
-				}
+				}, "XML-RPC Weblistener-" + (i + 1));
+				listeners[i].setDaemon(true);
+				listeners[i].start();
 			}
+			listen(serverSocket);
 		} finally {
-			if (serverSocket != null) {
-				try {
-					serverSocket.close();
-				} catch (IOException e) {
-					log(e);
+			if (parker != null) {
+				parker.close();
+				parker = null;
+			}
+			// Closing the sockets wakes up the other listener threads.
+			closeServerSockets();
+			for (int i = 0;  i < listeners.length;  i++) {
+				if (listeners[i] != null) {
+					try {
+						listeners[i].join();
+					} catch (InterruptedException e) {
+						// Continue the shutdown
+					}
 				}
 			}
 			
@@ -364,10 +661,406 @@ public class WebServer implements Runnable {
 		}
 	}
 
+	/**
+	 * Accepts connections on the given socket until stopped.
+	 */
+	private void listen(ServerSocket pServerSocket) {
+		if (serverSocketChannel != null) {
+			new NioEventLoop(this, server, pServerSocket.getChannel(), pool).run();
+			return;
+		}
+		while (listener != null) {
+			try {
+				Socket socket = pServerSocket.accept();
+				try {
+					socket.setTcpNoDelay(true);
+				} catch (SocketException socketOptEx) {
+					log(socketOptEx);
+				}
+			
+				try {
+					if (allowConnection(socket)) {
+						// The read timeout is also the idle timeout of
+						// connections, which cannot be parked.
+						socket.setSoTimeout(getConfig().getKeepAliveTimeout());
+						final ThreadPool.Task task = newTask(this, server, socket);
+						// A prebuffering connection reads its first request
+						// without occupying a thread. Other connections are
+						// parked between keepalive requests only.
+						if (!prebuffering  ||  !park(task, socket, System.currentTimeMillis())) {
+							startTask(task, socket);
+						}
+						socket = null;
+					}
+				} finally {
+					if (socket != null) { try { socket.close(); } catch (Throwable ignore) {} }
+				}
+			} catch (InterruptedIOException checkState) {
+				// Timeout while waiting for a client (from
+				// SO_TIMEOUT)...try again if still listening.
+			} catch (Throwable t) {
+				// Interrupting the listener, or closing the socket,
+				// while shutting down, isn't an error.
+				if (listener != null) {
+					log(t);
+				}
+			}
+		}
+	}
+
+	private XmlRpcHttpServerConfig getConfig() {
+		return (XmlRpcHttpServerConfig) server.getConfig();
+	}
+
+	private void startParker() {
+		if (serverSocket.getChannel() == null) {
+			// Sockets without a channel cannot be parked.
+			return;
+		}
+		try {
+			parker = new KeepAliveParker(this, getConfig());
+		} catch (IOException e) {
+			log(e);
+			return;
+		}
+		final Thread thread = new Thread(parker, "XML-RPC KeepAlive");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Hands over a connection to the executor. If the executor is
+	 * overloaded, the client is rejected instead.
+	 */
+	private void startTask(ThreadPool.Task pTask, Socket pSocket) {
+		if (!pool.startTask(new QueuedConnection(pTask, pSocket))) {
+			log("Maximum load of " + pool.getMaxThreads()
+				+ " exceeded, rejecting client");
+			rejectConnection(pSocket);
+		}
+	}
+
+	/** Called by a {@link Connection} in the blocking mode, which is
+	 * waiting for the next request, to release its thread.
+	 * @param pConnection The idle connection.
+	 * @param pSocket The connections socket.
+	 * @return True, if the connection has been parked, and will be
+	 * resumed by {@link #resume(ThreadPool.Task, Socket)}, false, if the
+	 * connection must continue reading.
+	 */
+	boolean park(Connection pConnection, Socket pSocket) {
+		return park(pConnection, pSocket, pConnection.getCreated());
+	}
+
+	private boolean park(ThreadPool.Task pTask, Socket pSocket, long pCreated) {
+		final KeepAliveParker p = parker;
+		final SocketChannel channel = pSocket.getChannel();
+		return p != null  &&  channel != null  &&  p.park(pTask, channel, pCreated);
+	}
+
+	/** Called by the {@link KeepAliveParker}, if a parked connection
+	 * has received input.
+	 */
+	void resume(ThreadPool.Task pTask, Socket pSocket) {
+		startTask(pTask, pSocket);
+	}
+
     protected ThreadPool newThreadPool() {
-        return new ThreadPool(server.getMaxThreads(), "XML-RPC");
+        final ThreadPool threadPool = new ThreadPool(server.getMaxThreads(), "XML-RPC");
+        threadPool.setMaxQueueSize(maxQueueSize);
+        threadPool.setQueueTimeout(queueTimeout);
+        return threadPool;
     }
+
+	/**
+	 * Sets the maximum number of connections, which are waiting
+	 * for a thread, if all threads are busy. Connections, which
+	 * cannot be queued, are rejected with the status code 503
+	 * (Service Unavailable). Defaults to 50. This method must be
+	 * invoked before {@link #start()}.
+	 * @param pMaxQueueSize Maximum number of waiting connections,
+	 * or 0 for rejecting connections immediately.
+	 * @see ThreadPool#setMaxQueueSize(int)
+	 */
+	public void setMaxQueueSize(int pMaxQueueSize) {
+		maxQueueSize = pMaxQueueSize;
+	}
+
+	/**
+	 * Returns the maximum number of connections, which are waiting
+	 * for a thread, if all threads are busy. Defaults to 50.
+	 * @return Maximum number of waiting connections.
+	 */
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * Sets the maximum number of milliseconds, that a connection
+	 * may wait for a thread. Connections, which are waiting longer,
+	 * are rejected with the status code 503 (Service Unavailable).
+	 * Defaults to 10000 (10 seconds). This method must be invoked
+	 * before {@link #start()}.
+	 * @param pMillis The queue timeout in milliseconds, or 0 for
+	 * waiting forever.
+	 * @see ThreadPool#setQueueTimeout(long)
+	 */
+	public void setQueueTimeout(long pMillis) {
+		queueTimeout = pMillis;
+	}
+
+	/**
+	 * Returns the maximum number of milliseconds, that a connection
+	 * may wait for a thread. Defaults to 10000 (10 seconds).
+	 * @return The queue timeout in milliseconds, or 0.
+	 */
+	public long getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/**
+	 * Sets the number of seconds, which are suggested to rejected
+	 * clients by the <code>Retry-After</code> header. Defaults to 5.
+	 * @param pSeconds Number of seconds, or 0 for omitting the header.
+	 */
+	public void setRetryAfter(int pSeconds) {
+		retryAfter = pSeconds;
+	}
+
+	/**
+	 * Returns the number of seconds, which are suggested to rejected
+	 * clients by the <code>Retry-After</code> header. Defaults to 5.
+	 * @return Number of seconds, or 0, if the header is omitted.
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Sets, whether requests are read completely, before they are
+	 * handed over to a worker thread. This applies to the blocking mode,
+	 * where otherwise a worker is occupied by a slow client, while the
+	 * request is being uploaded. Requests are read by the same selector
+	 * thread, which is waiting for idle connections. The non-blocking
+	 * mode is always reading complete requests. Defaults to false.
+	 * This method must be invoked before {@link #start()}.
+	 * @param pPrebuffering True for reading complete requests.
+	 * @see #setPrebufferHeapSize(int)
+	 * @see #setMaxPrebufferSize(int)
+	 * @see #setMaxPrebufferTotalSize(long)
+	 * @see #setPrebufferTimeout(int)
+	 */
+	public void setPrebuffering(boolean pPrebuffering) {
+		prebuffering = pPrebuffering;
+	}
+
+	/**
+	 * Returns, whether requests are read completely, before they are
+	 * handed over to a worker thread. Defaults to false.
+	 * @return True for reading complete requests.
+	 */
+	public boolean isPrebuffering() {
+		return prebuffering;
+	}
+
+	/**
+	 * Sets the maximum size of a prebuffered request, which is held
+	 * in the heap. The body of a larger request is stored in a memory
+	 * mapped temporary file. Defaults to 262144 (256 kB).
+	 * @param pBytes The maximum number of bytes in the heap.
+	 */
+	public void setPrebufferHeapSize(int pBytes) {
+		prebufferHeapSize = pBytes;
+	}
+
+	/**
+	 * Returns the maximum size of a prebuffered request, which is held
+	 * in the heap. Defaults to 262144 (256 kB).
+	 * @return The maximum number of bytes in the heap.
+	 */
+	public int getPrebufferHeapSize() {
+		return prebufferHeapSize;
+	}
+
+	/**
+	 * Sets the maximum size of a prebuffered request. Larger requests,
+	 * and requests without a <code>Content-Length</code> header, are
+	 * handed over, as soon as the header is complete, and the worker
+	 * is reading the body. Defaults to 67108864 (64 MB).
+	 * @param pBytes The maximum request size in bytes.
+	 */
+	public void setMaxPrebufferSize(int pBytes) {
+		maxPrebufferSize = pBytes;
+	}
+
+	/**
+	 * Returns the maximum size of a prebuffered request. Defaults
+	 * to 67108864 (64 MB).
+	 * @return The maximum request size in bytes.
+	 */
+	public int getMaxPrebufferSize() {
+		return maxPrebufferSize;
+	}
+
+	/**
+	 * Sets the maximum total size of the temporary files, which are
+	 * used by the prebuffered requests at any time. A large request,
+	 * which doesn't fit, is handed over, as soon as the header is
+	 * complete, as if it exceeded the {@link #setMaxPrebufferSize(int)
+	 * maximum size}. Defaults to 268435456 (256 MB).
+	 * @param pBytes The maximum total size in bytes.
+	 */
+	public void setMaxPrebufferTotalSize(long pBytes) {
+		maxPrebufferTotalSize = pBytes;
+	}
+
+	/**
+	 * Returns the maximum total size of the temporary files, which are
+	 * used by the prebuffered requests at any time. Defaults to
+	 * 268435456 (256 MB).
+	 * @return The maximum total size in bytes.
+	 */
+	public long getMaxPrebufferTotalSize() {
+		return maxPrebufferTotalSize;
+	}
+
+	/**
+	 * Sets the maximum time for prebuffering a request, as measured
+	 * from its first byte. A client, which doesn't send the complete
+	 * request in time, is disconnected. Defaults to 30000 (30 seconds).
+	 * @param pMillis The timeout in milliseconds, or 0 for no timeout.
+	 */
+	public void setPrebufferTimeout(int pMillis) {
+		prebufferTimeout = pMillis;
+	}
+
+	/**
+	 * Returns the maximum time for prebuffering a request, as measured
+	 * from its first byte. Defaults to 30000 (30 seconds).
+	 * @return The timeout in milliseconds, or 0 for no timeout.
+	 */
+	public int getPrebufferTimeout() {
+		return prebufferTimeout;
+	}
+
+	/**
+	 * Writes the response, which is sent to a client, if the server
+	 * is overloaded: The status code 503 (Service Unavailable), and
+	 * the <code>Retry-After</code> header.
+	 * @param pOutput The stream, to which the response is written.
+	 * @throws IOException Writing the response failed.
+	 * @see #setRetryAfter(int)
+	 */
+	protected void writeServiceUnavailable(OutputStream pOutput) throws IOException {
+		final StringBuffer sb = new StringBuffer();
+		sb.append("HTTP/1.0 503 Service Unavailable\r\n");
+		sb.append("Server: Apache XML-RPC 1.0\r\n");
+		if (retryAfter > 0) {
+			sb.append("Retry-After: ").append(retryAfter).append("\r\n");
+		}
+		sb.append("Connection: close\r\n");
+		sb.append("Content-Length: 0\r\n");
+		sb.append("\r\n");
+		pOutput.write(sb.toString().getBytes("US-ASCII"));
+		pOutput.flush();
+	}
+
+	/**
+	 * Writes the response, which is sent to a client, if the request
+	 * exceeds the {@link XmlRpcHttpServerConfig#getMaxRequestSize()
+	 * maximum request size}: The status code 413 (Request Entity Too Large).
+	 * @param pOutput The stream, to which the response is written.
+	 * @throws IOException Writing the response failed.
+	 */
+	protected void writeRequestTooLarge(OutputStream pOutput) throws IOException {
+		final StringBuffer sb = new StringBuffer();
+		sb.append("HTTP/1.0 413 Request Entity Too Large\r\n");
+		sb.append("Server: Apache XML-RPC 1.0\r\n");
+		sb.append("Connection: close\r\n");
+		sb.append("Content-Length: 0\r\n");
+		sb.append("\r\n");
+		pOutput.write(sb.toString().getBytes("US-ASCII"));
+		pOutput.flush();
+	}
+
+	/**
+	 * Rejects a client, because the server is overloaded. Sends the
+	 * response created by {@link #writeServiceUnavailable(OutputStream)},
+	 * and closes the socket.
+	 * @param pSocket The clients socket.
+	 */
+	protected void rejectConnection(Socket pSocket) {
+		try {
+			writeServiceUnavailable(pSocket.getOutputStream());
+		} catch (Throwable ignore) {
+			// The client is gone, or isn't reading.
+		} finally {
+			try { pSocket.close(); } catch (Throwable ignore) {}
+		}
+	}
+
+	/**
+	 * Creates the executor, which runs the tasks created by
+	 * {@link #newTask(WebServer, XmlRpcStreamServer, Socket)}.
+	 * The default implementation returns the executor, which has been
+	 * configured by {@link #setTaskExecutor(TaskExecutor)}, if any, or
+	 * invokes {@link #newThreadPool()} otherwise.
+	 * Errors thrown by the tasks of a {@link VirtualThreadExecutor}
+	 * without an error handler are passed to {@link #log(Throwable)}.
+	 * @return The executor, which is being shut down together with the
+	 * server.
+	 */
+	protected TaskExecutor newTaskExecutor() {
+		if (taskExecutor != null) {
+			if (taskExecutor instanceof VirtualThreadExecutor) {
+				final VirtualThreadExecutor executor = (VirtualThreadExecutor) taskExecutor;
+				if (executor.getErrorHandler() == null) {
+					executor.setErrorHandler(new Thread.UncaughtExceptionHandler(){
+						public void uncaughtException(Thread pThread, Throwable pError) {
+							log(pError);
+						}
+					});
+				}
+			}
+			return taskExecutor;
+		}
+		return newThreadPool();
+	}
+
+	/**
+	 * Sets the executor, which runs the connection tasks. By default, a
+	 * {@link ThreadPool} is created. The executor is shut down, when the
+	 * server is shut down. This method must be invoked before
+	 * {@link #start()}.
+	 * @param pExecutor The executor, or null for the default thread pool.
+	 * @see org.apache.xmlrpc.util.VirtualThreadExecutor
+	 */
+	public void setTaskExecutor(TaskExecutor pExecutor) {
+		taskExecutor = pExecutor;
+	}
+
+	/**
+	 * Returns the executor, which runs the connection tasks.
+	 * @return The executor, or null for the default thread pool.
+	 */
+	public TaskExecutor getTaskExecutor() {
+		return taskExecutor;
+	}
 	
+	/** Returns the executor, which is running the connection tasks.
+	 * @return The executor, or null, if the server isn't running.
+	 */
+	TaskExecutor getPool() {
+		return pool;
+	}
+
+	/**
+	 * Returns, whether the server is still listening for
+	 * client connections.
+	 */
+	boolean isListening() {
+		return listener != null;
+	}
+
 	/**
 	 * Stop listening on the server port.  Shutting down our {@link
 	 * #listener} effectively breaks it out of its {@link #run()}
@@ -52,6 +52,15 @@ import org.apache.xmlrpc.util.ReflectionUtil;
  *     <tr><td>enabledForExtensions</td><td>Sets the value
  *       {@link XmlRpcConfig#isEnabledForExtensions()}
  *       to true.</td></tr>
+ *     <tr><td>asyncEnabled</td><td>Sets the value
+ *       {@link XmlRpcServletServer#setAsyncEnabled(boolean)}
+ *       to true. In a servlet container, the servlet must
+ *       be declared as async-supported.</td></tr>
+ *     <tr><td>asyncTimeout</td><td>Sets the value
+ *       {@link XmlRpcServletServer#setAsyncTimeout(long)}.</td></tr>
+ *     <tr><td>nonBlockingIo</td><td>Sets the value
+ *       {@link XmlRpcServletServer#setNonBlockingIo(boolean)}
+ *       to true.</td></tr>
  *   </table>
  */
 public class XmlRpcServlet extends HttpServlet {
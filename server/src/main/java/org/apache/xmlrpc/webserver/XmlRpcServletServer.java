@@ -21,8 +21,16 @@ package org.apache.xmlrpc.webserver;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
@@ -31,18 +39,37 @@ import org.apache.xmlrpc.common.ServerStreamConnection;
 import org.apache.xmlrpc.common.XmlRpcHttpRequestConfig;
 import org.apache.xmlrpc.common.XmlRpcHttpRequestConfigImpl;
 import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.apache.xmlrpc.server.DeferrableServerStreamConnection;
+import org.apache.xmlrpc.server.XmlRpcErrorLogger;
 import org.apache.xmlrpc.server.XmlRpcHttpServer;
 import org.apache.xmlrpc.server.XmlRpcHttpServerConfig;
 import org.apache.xmlrpc.util.HttpUtil;
+import org.apache.xmlrpc.util.PooledByteArrayOutputStream;
 
 
 /** An extension of {@link org.apache.xmlrpc.server.XmlRpcServer},
  * which is suitable for processing servlet requests.
  */
 public class XmlRpcServletServer extends XmlRpcHttpServer {
-	protected static class ServletStreamConnection implements ServerStreamConnection {
+	private boolean asyncEnabled;
+	private long asyncTimeout = 30000;
+	private Executor asyncExecutor;
+	private boolean nonBlockingIo;
+
+	/** The connection, which is used to process a servlet request.
+	 * If the request is processed asynchronously, then the response
+	 * may be {@link DeferrableServerStreamConnection deferred}: A handler,
+	 * which returns a {@link java.util.concurrent.CompletionStage},
+	 * releases the thread, and the response is written, and the
+	 * {@link AsyncContext} is completed, by the thread, which completes
+	 * the stage.
+	 */
+	protected static class ServletStreamConnection implements DeferrableServerStreamConnection {
 		private final HttpServletRequest request;
 		private final HttpServletResponse response;
+		private AsyncContext asyncContext;
+		private XmlRpcErrorLogger errorLogger;
+		private boolean deferred;
 
 		protected ServletStreamConnection(HttpServletRequest pRequest,
 				HttpServletResponse pResponse) {
@@ -58,6 +85,27 @@ public class XmlRpcServletServer extends XmlRpcHttpServer {
 		 * @return the response
 		 */
 		public HttpServletResponse getResponse() { return response; }
+		/** Returns the asynchronous context.
+		 * @return The context, or null, if the request isn't processed
+		 * asynchronously.
+		 */
+		public AsyncContext getAsyncContext() { return asyncContext; }
+		/** Sets the asynchronous context.
+		 * @param pContext The context, or null, if the request isn't
+		 * processed asynchronously.
+		 * @param pErrorLogger The logger, which reports errors while
+		 * writing a deferred response.
+		 */
+		protected void setAsyncContext(AsyncContext pContext, XmlRpcErrorLogger pErrorLogger) {
+			asyncContext = pContext;
+			errorLogger = pErrorLogger;
+		}
+		/** Returns, whether the response has been deferred.
+		 * @return True, if the response is written, and the
+		 * {@link #getAsyncContext() asynchronous context} is completed,
+		 * by {@link #responseCompleted(Throwable)}.
+		 */
+		protected boolean isDeferred() { return deferred; }
 
 		public InputStream newInputStream() throws IOException {
             return request.getInputStream();
@@ -71,8 +119,79 @@ public class XmlRpcServletServer extends XmlRpcHttpServer {
         public void close() throws IOException {
             response.getOutputStream().close();
         }
+
+		public boolean deferResponse() {
+			if (asyncContext == null) {
+				return false;
+			}
+			deferred = true;
+			return true;
+		}
+
+		public void responseCompleted(Throwable pError) {
+			try {
+				if (pError != null) {
+					errorLogger.log(pError.getMessage() == null ? pError.getClass().getName() : pError.getMessage(), pError);
+					if (!response.isCommitted()) {
+						response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					}
+				}
+			} catch (Throwable ignore) {
+				// Nothing to do, the client is gone.
+			} finally {
+				try {
+					asyncContext.complete();
+				} catch (IllegalStateException ignore) {
+					// The request has timed out, and is already complete.
+				}
+			}
+		}
     }
 
+	/** A stream connection, which reads the request from a buffer,
+	 * and writes the response into a buffer, as used by the
+	 * {@link XmlRpcServletServer#setNonBlockingIo(boolean) non-blocking I/O}.
+	 */
+	private class BufferedStreamConnection extends ServletStreamConnection {
+		final PooledByteArrayOutputStream body;
+		final PooledByteArrayOutputStream result = new PooledByteArrayOutputStream();
+
+		BufferedStreamConnection(HttpServletRequest pRequest, HttpServletResponse pResponse,
+				AsyncContext pContext, PooledByteArrayOutputStream pBody) {
+			super(pRequest, pResponse);
+			setAsyncContext(pContext, getErrorLogger());
+			body = pBody;
+		}
+
+		public InputStream newInputStream() throws IOException {
+			return body.newInputStream();
+		}
+
+		public OutputStream newOutputStream() throws IOException {
+			getResponse().setContentType("text/xml");
+			return result;
+		}
+
+		public void close() throws IOException {
+			// The response is written by the WriteListener.
+		}
+
+		public void responseCompleted(Throwable pError) {
+			if (pError == null) {
+				try {
+					writeAsync(getAsyncContext(), this);
+					return;
+				} catch (Throwable t) {
+					pError = t;
+				}
+			}
+			logError(pError);
+			result.release();
+			sendError(getResponse(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			getAsyncContext().complete();
+		}
+	}
+
 	/** Create a new config.
 	 * @param pRequest The request object.
 	 * @return the config
@@ -90,6 +209,8 @@ public class XmlRpcServletServer extends XmlRpcHttpServer {
 		result.setEnabledForExtensions(serverConfig.isEnabledForExtensions());
 		result.setGzipCompressing(HttpUtil.isUsingGzipEncoding(pRequest.getHeader("Content-Encoding")));
 		result.setGzipRequesting(HttpUtil.isUsingGzipEncoding(pRequest.getHeaders("Accept-Encoding")));
+		result.setDictionaryCompressing(HttpUtil.isUsingDictionaryEncoding(pRequest.getHeader("Content-Encoding")));
+		result.setDictionaryRequesting(HttpUtil.isUsingDictionaryEncoding(pRequest.getHeaders("Accept-Encoding")));
 		result.setEncoding(pRequest.getCharacterEncoding());
         result.setEnabledForExceptions(serverConfig.isEnabledForExceptions());
 		HttpUtil.parseAuthorization(result, pRequest.getHeader("Authorization"));
@@ -111,6 +232,10 @@ public class XmlRpcServletServer extends XmlRpcHttpServer {
 			throws ServletException, IOException {
 		XmlRpcHttpRequestConfigImpl config = getConfig(pRequest);
 		ServletStreamConnection ssc = newStreamConnection(pRequest, pResponse);
+		if (asyncEnabled  &&  pRequest.isAsyncSupported()) {
+			executeAsync(config, ssc);
+			return;
+		}
 		try {
 			super.execute(config, ssc);
 		} catch (XmlRpcException e) {
@@ -118,6 +243,274 @@ public class XmlRpcServletServer extends XmlRpcHttpServer {
 		}
 	}
 
+	/** Processes the servlet request asynchronously: The request is
+	 * processed by the {@link #setAsyncExecutor(Executor) executor},
+	 * if any, or by the container thread otherwise. In either case, a
+	 * handler, which returns a {@link java.util.concurrent.CompletionStage},
+	 * releases the thread, and the response is written, when the stage
+	 * is complete.
+	 */
+	private void executeAsync(final XmlRpcHttpRequestConfigImpl pConfig,
+			final ServletStreamConnection pConnection) throws IOException {
+		final AsyncContext context = pConnection.getRequest().startAsync(pConnection.getRequest(),
+				pConnection.getResponse());
+		context.setTimeout(asyncTimeout);
+		if (nonBlockingIo) {
+			readAsync(context, pConfig, pConnection);
+			return;
+		}
+		pConnection.setAsyncContext(context, getErrorLogger());
+		final Runnable task = new Runnable(){
+			public void run() {
+				try {
+					XmlRpcServletServer.super.execute(pConfig, pConnection);
+				} catch (Throwable t) {
+					logError(t);
+					sendError(pConnection.getResponse(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				} finally {
+					if (!pConnection.isDeferred()) {
+						context.complete();
+					}
+				}
+			}
+		};
+		if (asyncExecutor == null) {
+			// Handing the request to another container thread wouldn't
+			// release anything.
+			task.run();
+		} else {
+			dispatch(context, pConnection.getResponse(), task);
+		}
+	}
+
+	private void dispatch(AsyncContext pContext, HttpServletResponse pResponse, Runnable pTask) {
+		final Executor executor = asyncExecutor;
+		if (executor == null) {
+			pContext.start(pTask);
+			return;
+		}
+		try {
+			executor.execute(pTask);
+		} catch (RejectedExecutionException e) {
+			sendError(pResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			pContext.complete();
+		}
+	}
+
+	/** Reads the request body into a buffer, as it becomes available,
+	 * and dispatches the request, when the body is complete. Requests,
+	 * which exceed the {@link XmlRpcHttpServerConfig#getMaxRequestSize()
+	 * maximum request size}, are rejected with the status code 413
+	 * (Request Entity Too Large).
+	 */
+	private void readAsync(final AsyncContext pContext, final XmlRpcHttpRequestConfigImpl pConfig,
+			final ServletStreamConnection pConnection) throws IOException {
+		final int maxSize = ((XmlRpcHttpServerConfig) getConfig()).getMaxRequestSize();
+		if (maxSize > 0  &&  pConnection.getRequest().getContentLengthLong() > maxSize) {
+			rejectRequestTooLarge(pContext, pConnection.getResponse(), maxSize);
+			return;
+		}
+		final ServletInputStream istream = pConnection.getRequest().getInputStream();
+		final PooledByteArrayOutputStream body = new PooledByteArrayOutputStream();
+		istream.setReadListener(new ReadListener(){
+			private final byte[] buffer = new byte[8192];
+			private boolean rejected;
+
+			public void onDataAvailable() throws IOException {
+				while (!rejected  &&  istream.isReady()) {
+					final int res = istream.read(buffer);
+					if (res == -1) {
+						return;
+					}
+					if (maxSize > 0  &&  body.size() + res > maxSize) {
+						// A chunked request, or an invalid Content-Length.
+						rejected = true;
+						body.release();
+						rejectRequestTooLarge(pContext, pConnection.getResponse(), maxSize);
+						return;
+					}
+					body.write(buffer, 0, res);
+				}
+			}
+
+			public void onAllDataRead() {
+				if (rejected) {
+					return;
+				}
+				dispatch(pContext, pConnection.getResponse(), new Runnable(){
+					public void run() {
+						executeBuffered(pContext, pConfig, new BufferedStreamConnection(pConnection.getRequest(),
+								pConnection.getResponse(), pContext, body));
+					}
+				});
+			}
+
+			public void onError(Throwable pError) {
+				if (rejected) {
+					return;
+				}
+				logError(pError);
+				body.release();
+				sendError(pConnection.getResponse(), HttpServletResponse.SC_BAD_REQUEST);
+				pContext.complete();
+			}
+		});
+	}
+
+	private void executeBuffered(AsyncContext pContext, XmlRpcHttpRequestConfigImpl pConfig,
+			BufferedStreamConnection pConnection) {
+		try {
+			super.execute(pConfig, pConnection);
+			pConnection.body.release();
+			if (!pConnection.isDeferred()) {
+				writeAsync(pContext, pConnection);
+			}
+		} catch (Throwable t) {
+			logError(t);
+			pConnection.body.release();
+			pConnection.result.release();
+			sendError(pConnection.getResponse(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			pContext.complete();
+		}
+	}
+
+	/** Writes the buffered response, as the servlet output stream
+	 * becomes ready.
+	 */
+	private void writeAsync(final AsyncContext pContext, BufferedStreamConnection pConnection)
+			throws IOException {
+		final HttpServletResponse response = pConnection.getResponse();
+		final PooledByteArrayOutputStream result = pConnection.result;
+		response.setContentLength(result.size());
+		final ServletOutputStream ostream = response.getOutputStream();
+		final ByteBuffer[] buffers = result.toByteBuffers();
+		ostream.setWriteListener(new WriteListener(){
+			private int current;
+			private boolean finished;
+
+			public void onWritePossible() throws IOException {
+				while (ostream.isReady()) {
+					if (current == buffers.length) {
+						finish();
+						return;
+					}
+					final ByteBuffer buffer = buffers[current++];
+					ostream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				}
+			}
+
+			public void onError(Throwable pError) {
+				logError(pError);
+				finish();
+			}
+
+			private synchronized void finish() {
+				if (!finished) {
+					finished = true;
+					result.release();
+					pContext.complete();
+				}
+			}
+		});
+	}
+
+	private void rejectRequestTooLarge(AsyncContext pContext, HttpServletResponse pResponse,
+			int pMaxSize) {
+		getErrorLogger().log("Request exceeds the maximum size of " + pMaxSize + " bytes, rejecting client");
+		sendError(pResponse, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+		pContext.complete();
+	}
+
+	private void sendError(HttpServletResponse pResponse, int pStatusCode) {
+		try {
+			if (!pResponse.isCommitted()) {
+				pResponse.sendError(pStatusCode);
+			}
+		} catch (Throwable ignore) {
+			// Nothing to do, the client is gone.
+		}
+	}
+
+	/** Sets, whether requests are processed asynchronously, if the
+	 * servlet container supports it. In that case, the containers
+	 * thread is released, while the request is being processed by the
+	 * {@link #setAsyncExecutor(Executor) executor}, or while a handler,
+	 * which returns a {@link java.util.concurrent.CompletionStage}, is
+	 * waiting for the result. Defaults to false.
+	 * @param pAsyncEnabled True for asynchronous processing.
+	 * @see jakarta.servlet.ServletRequest#startAsync()
+	 */
+	public void setAsyncEnabled(boolean pAsyncEnabled) {
+		asyncEnabled = pAsyncEnabled;
+	}
+
+	/** Returns, whether requests are processed asynchronously, if the
+	 * servlet container supports it. Defaults to false.
+	 * @return True for asynchronous processing.
+	 */
+	public boolean isAsyncEnabled() {
+		return asyncEnabled;
+	}
+
+	/** Sets the timeout of asynchronous requests. If the timeout
+	 * is exceeded, then the servlet container completes the request
+	 * with an error. Defaults to 30000 (30 seconds).
+	 * @param pMillis The timeout in milliseconds, or 0 for no timeout.
+	 */
+	public void setAsyncTimeout(long pMillis) {
+		asyncTimeout = pMillis;
+	}
+
+	/** Returns the timeout of asynchronous requests. Defaults to
+	 * 30000 (30 seconds).
+	 * @return The timeout in milliseconds, or 0 for no timeout.
+	 */
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	/** Sets, whether asynchronous requests are using non-blocking I/O.
+	 * If so, the request body is read into a buffer by a
+	 * {@link ReadListener}, as it becomes available. The request is
+	 * processed, when the body is complete, and the response is written
+	 * by a {@link WriteListener}. In other words, a slow client doesn't
+	 * block the containers threads. This setting is ignored, unless
+	 * {@link #setAsyncEnabled(boolean) asynchronous processing} is enabled.
+	 * Defaults to false.
+	 * @param pNonBlockingIo True for non-blocking I/O.
+	 */
+	public void setNonBlockingIo(boolean pNonBlockingIo) {
+		nonBlockingIo = pNonBlockingIo;
+	}
+
+	/** Returns, whether asynchronous requests are using non-blocking I/O.
+	 * Defaults to false.
+	 * @return True for non-blocking I/O.
+	 */
+	public boolean isNonBlockingIo() {
+		return nonBlockingIo;
+	}
+
+	/** Sets the executor, which processes asynchronous requests. By
+	 * default, requests are processed by the container thread, or, in
+	 * the case of {@link #setNonBlockingIo(boolean) non-blocking I/O},
+	 * by the servlet containers executor, as provided by
+	 * {@link AsyncContext#start(Runnable)}. If the executor rejects a
+	 * request, then the status code 503 (Service Unavailable) is
+	 * returned.
+	 * @param pExecutor The executor, or null for the containers executor.
+	 */
+	public void setAsyncExecutor(Executor pExecutor) {
+		asyncExecutor = pExecutor;
+	}
+
+	/** Returns the executor, which processes asynchronous requests.
+	 * @return The executor, or null for the containers executor.
+	 */
+	public Executor getAsyncExecutor() {
+		return asyncExecutor;
+	}
+
 	/** Returns, whether the requests content length is required.
 	 */
 	protected boolean isContentLengthRequired(XmlRpcStreamRequestConfig pConfig) {
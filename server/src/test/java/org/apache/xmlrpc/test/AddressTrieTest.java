@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the client filtering of the {@link WebServer},
+ * which is based on the address trie.
+ */
+public class AddressTrieTest extends TestCase {
+	private static class FilteringWebServer extends WebServer {
+		FilteringWebServer() {
+			super(0);
+			setParanoid(true);
+		}
+
+		boolean isAllowed(String pAddress) throws Exception {
+			final InetAddress address = InetAddress.getByName(pAddress);
+			return allowConnection(new Socket() {
+				public InetAddress getInetAddress() {
+					return address;
+				}
+			});
+		}
+	}
+
+	private FilteringWebServer server;
+
+	protected void setUp() throws Exception {
+		server = new FilteringWebServer();
+	}
+
+	/** Tests, whether single IPv4 addresses are matched.
+	 * @throws Exception The test failed.
+	 */
+	public void testSingleAddress() throws Exception {
+		assertFalse(server.isAllowed("127.0.0.1"));
+		server.acceptClient("127.0.0.1");
+		assertTrue(server.isAllowed("127.0.0.1"));
+		assertFalse(server.isAllowed("127.0.0.2"));
+		assertFalse(server.isAllowed("::1"));
+	}
+
+	/** Tests ranges in CIDR notation, including prefix lengths,
+	 * which aren't a multiple of four.
+	 * @throws Exception The test failed.
+	 */
+	public void testCidr() throws Exception {
+		server.acceptClient("10.0.0.0/8");
+		server.acceptClient("192.168.4.0/22");
+		server.acceptClient("172.16.0.1/31");
+		assertTrue(server.isAllowed("10.255.1.2"));
+		assertFalse(server.isAllowed("11.0.0.0"));
+		assertTrue(server.isAllowed("192.168.4.0"));
+		assertTrue(server.isAllowed("192.168.7.255"));
+		assertFalse(server.isAllowed("192.168.3.255"));
+		assertFalse(server.isAllowed("192.168.8.0"));
+		assertTrue(server.isAllowed("172.16.0.0"));
+		assertTrue(server.isAllowed("172.16.0.1"));
+		assertFalse(server.isAllowed("172.16.0.2"));
+	}
+
+	/** Tests IPv6 addresses, and ranges.
+	 * @throws Exception The test failed.
+	 */
+	public void testIpv6() throws Exception {
+		server.acceptClient("2001:db8::/32");
+		server.acceptClient("::1");
+		server.acceptClient("fe80::/10");
+		assertTrue(server.isAllowed("2001:db8::1"));
+		assertTrue(server.isAllowed("2001:db8:ffff:ffff::1"));
+		assertFalse(server.isAllowed("2001:db9::1"));
+		assertTrue(server.isAllowed("::1"));
+		assertFalse(server.isAllowed("::2"));
+		assertTrue(server.isAllowed("febf::1"));
+		assertFalse(server.isAllowed("fec0::1"));
+		assertFalse(server.isAllowed("127.0.0.1"));
+	}
+
+	/** Tests IPv4 addresses with wildcard octets.
+	 * @throws Exception The test failed.
+	 */
+	public void testWildcards() throws Exception {
+		server.acceptClient("192.168.*.*");
+		server.acceptClient("10.*.0.1");
+		assertTrue(server.isAllowed("192.168.0.1"));
+		assertTrue(server.isAllowed("192.168.255.255"));
+		assertFalse(server.isAllowed("192.169.0.1"));
+		assertTrue(server.isAllowed("10.1.0.1"));
+		assertTrue(server.isAllowed("10.200.0.1"));
+		assertFalse(server.isAllowed("10.1.0.2"));
+		assertFalse(server.isAllowed("10.1.1.1"));
+	}
+
+	/** Tests, whether denied addresses take precedence over
+	 * accepted addresses.
+	 * @throws Exception The test failed.
+	 */
+	public void testDenyPrecedence() throws Exception {
+		server.acceptClient("10.0.0.0/8");
+		server.denyClient("10.1.*.*");
+		server.denyClient("10.2.3.4");
+		assertTrue(server.isAllowed("10.0.0.1"));
+		assertFalse(server.isAllowed("10.1.0.1"));
+		assertFalse(server.isAllowed("10.2.3.4"));
+		assertTrue(server.isAllowed("10.2.3.5"));
+	}
+
+	/** Tests, whether the rules are replaced atomically, and remain
+	 * unchanged, if parsing a new rule fails.
+	 * @throws Exception The test failed.
+	 */
+	public void testSetClientFilter() throws Exception {
+		server.acceptClient("10.0.0.0/8");
+		server.setClientFilter(Arrays.asList(new String[]{"192.168.0.0/16"}),
+				Collections.singletonList("192.168.1.1"));
+		assertFalse(server.isAllowed("10.0.0.1"));
+		assertTrue(server.isAllowed("192.168.0.1"));
+		assertFalse(server.isAllowed("192.168.1.1"));
+		try {
+			server.setClientFilter(Arrays.asList(new String[]{"10.0.0.0/8", "10.0.0.0/33"}),
+					Collections.EMPTY_LIST);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// Ok
+		}
+		assertFalse(server.isAllowed("10.0.0.1"));
+		assertTrue(server.isAllowed("192.168.0.1"));
+	}
+
+	/** Tests, whether host names, and malformed patterns are rejected,
+	 * rather than being resolved.
+	 * @throws Exception The test failed.
+	 */
+	public void testInvalidPatterns() throws Exception {
+		final String[] patterns = new String[]{
+			"localhost", "www.example.com", "10.0.0", "10.0.0.256",
+			"10.*.0.0/8", "10.0.0.0/33", "2001:db8::/129", "10.0.0.0/x",
+			"2001:db8::g"
+		};
+		for (int i = 0;  i < patterns.length;  i++) {
+			try {
+				server.acceptClient(patterns[i]);
+				fail("Expected IllegalArgumentException for " + patterns[i]);
+			} catch (IllegalArgumentException e) {
+				// Ok
+			}
+		}
+		assertFalse(server.isAllowed("127.0.0.1"));
+	}
+
+	/** Tests, whether all connections are allowed, if the server
+	 * isn't paranoid.
+	 * @throws Exception The test failed.
+	 */
+	public void testNotParanoid() throws Exception {
+		server.setParanoid(false);
+		assertTrue(server.isAllowed("10.0.0.1"));
+		assertTrue(server.isAllowed("::1"));
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.IOException;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.webserver.ServletWebServer;
+
+
+/** Test case for the {@link jakarta.servlet.AsyncContext} of the
+ * {@link ServletWebServer}.
+ */
+public class AsyncContextTest extends TestCase {
+	/** A servlet, which writes its response by a task, that is
+	 * passed to {@link AsyncContext#start(Runnable)}.
+	 */
+	public static class StartingServlet extends HttpServlet {
+		private static final long serialVersionUID = 1L;
+
+		protected void doPost(HttpServletRequest pRequest, HttpServletResponse pResponse)
+				throws ServletException, IOException {
+			if (pRequest.getHeader("X-Dispatch") != null) {
+				final AsyncContext context = pRequest.startAsync();
+				try {
+					context.dispatch();
+					pResponse.setStatus(HttpServletResponse.SC_OK);
+				} catch (UnsupportedOperationException e) {
+					pResponse.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED);
+				}
+				context.complete();
+				return;
+			}
+			final AsyncContext context = pRequest.startAsync();
+			final String servletThread = Thread.currentThread().getName();
+			context.start(new Runnable(){
+				public void run() {
+					try {
+						final HttpServletResponse response = (HttpServletResponse) context.getResponse();
+						response.setContentType("text/plain");
+						response.getWriter().print(servletThread.equals(Thread.currentThread().getName())
+								? "same" : "other");
+					} catch (IOException e) {
+						// Ignore me
+					}
+					context.complete();
+				}
+			});
+		}
+	}
+
+	private ServletWebServer webServer;
+
+	private void startWebServer(int pMaxThreads) throws Exception {
+		webServer = new ServletWebServer(new StartingServlet(), 0);
+		webServer.getXmlRpcServer().setMaxThreads(pMaxThreads);
+		webServer.setMaxQueueSize(0);
+		webServer.start();
+	}
+
+	protected void tearDown() throws Exception {
+		if (webServer != null) {
+			webServer.shutdown();
+			webServer = null;
+		}
+	}
+
+	private HttpTestConnection.Response call(String pHeader) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			conn.write("POST / HTTP/1.0\r\n" + pHeader + "Content-Length: 0\r\n\r\n");
+			return conn.readResponse();
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether the task is run by another thread of the
+	 * servers executor.
+	 * @throws Exception The test failed.
+	 */
+	public void testStart() throws Exception {
+		startWebServer(2);
+		final HttpTestConnection.Response response = call("");
+		assertTrue(response.statusLine, response.statusLine.indexOf(" 200 ") != -1);
+		assertEquals("other", response.getBody());
+	}
+
+	/** Tests, whether the response is completed with the status
+	 * code 503, if the executor is overloaded, rather than running
+	 * the task by a new thread.
+	 * @throws Exception The test failed.
+	 */
+	public void testStartRejected() throws Exception {
+		// The only thread is busy with the connection.
+		startWebServer(1);
+		final HttpTestConnection.Response response = call("");
+		assertTrue(response.statusLine, response.statusLine.indexOf(" 503 ") != -1);
+	}
+
+	/** Tests, whether dispatching is reported as unsupported.
+	 * @throws Exception The test failed.
+	 */
+	public void testDispatch() throws Exception {
+		startWebServer(2);
+		final HttpTestConnection.Response response = call("X-Dispatch: true\r\n");
+		assertTrue(response.statusLine, response.statusLine.indexOf(" 501 ") != -1);
+	}
+}
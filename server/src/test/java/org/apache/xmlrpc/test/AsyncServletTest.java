@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.webserver.ServletWebServer;
+import org.apache.xmlrpc.webserver.XmlRpcServlet;
+import org.apache.xmlrpc.webserver.XmlRpcServletServer;
+
+
+/** Test case for the {@link XmlRpcServletServer XmlRpcServletServer's}
+ * non-blocking I/O, which is reading the request by a
+ * {@link jakarta.servlet.ReadListener}, and writing the response by a
+ * {@link jakarta.servlet.WriteListener}.
+ */
+public class AsyncServletTest extends TestCase {
+	private static final String THREAD_NAME = "AsyncServletTest";
+
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the given string, and the name of the current thread.
+		 */
+		public Object[] echo(String pValue) {
+			return new Object[]{pValue, Thread.currentThread().getName()};
+		}
+
+		/** Returns the given string, after it has been
+		 * completed by another thread.
+		 */
+		public CompletionStage deferredEcho(final String pValue) {
+			final CompletableFuture future = new CompletableFuture();
+			new Thread(){
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						// Ignore me
+					}
+					future.complete(pValue);
+				}
+			}.start();
+			return future;
+		}
+	}
+
+	private ServletWebServer webServer;
+	private XmlRpcServletServer server;
+	private ExecutorService executor;
+
+	private void startWebServer(boolean pNonBlocking) throws Exception {
+		final XmlRpcServlet servlet = new XmlRpcServlet();
+		webServer = new ServletWebServer(servlet, 0);
+		webServer.setNonBlocking(pNonBlocking);
+		server = servlet.getXmlRpcServletServer();
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		server.setHandlerMapping(mapping);
+		server.setAsyncEnabled(true);
+		server.setNonBlockingIo(true);
+		executor = Executors.newFixedThreadPool(2, new ThreadFactory(){
+			public Thread newThread(Runnable pRunnable) {
+				return new Thread(pRunnable, THREAD_NAME);
+			}
+		});
+		server.setAsyncExecutor(executor);
+		webServer.start();
+	}
+
+	protected void tearDown() throws Exception {
+		if (webServer != null) {
+			webServer.shutdown();
+			webServer = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private XmlRpcClient getClient() throws Exception {
+		final XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+		config.setServerURL(new URL("http://127.0.0.1:" + webServer.getPort() + "/"));
+		final XmlRpcClient client = new XmlRpcClient();
+		client.setConfig(config);
+		return client;
+	}
+
+	private static String getString(int pLength) {
+		final StringBuffer sb = new StringBuffer(pLength);
+		for (int i = 0;  i < pLength;  i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		return sb.toString();
+	}
+
+	private void testRoundTrip(boolean pNonBlocking) throws Exception {
+		startWebServer(pNonBlocking);
+		final XmlRpcClient client = getClient();
+		// Larger than the listeners buffers.
+		final String[] values = new String[]{"abc", getString(100000)};
+		for (int i = 0;  i < values.length;  i++) {
+			final Object[] result = (Object[]) client.execute("Handler.echo", new Object[]{values[i]});
+			assertEquals(values[i], result[0]);
+			assertEquals(THREAD_NAME, result[1]);
+		}
+	}
+
+	/** Tests, whether small, and large requests are read, and
+	 * processed by the executor with a blocking web server.
+	 * @throws Exception The test failed.
+	 */
+	public void testRoundTrip() throws Exception {
+		testRoundTrip(false);
+	}
+
+	/** Tests, whether small, and large requests are read, and
+	 * processed by the executor with a non-blocking web server.
+	 * @throws Exception The test failed.
+	 */
+	public void testRoundTripNonBlocking() throws Exception {
+		testRoundTrip(true);
+	}
+
+	/** Tests, whether a deferred response is written, when the
+	 * handlers result is complete.
+	 * @throws Exception The test failed.
+	 */
+	public void testDeferredResponse() throws Exception {
+		startWebServer(true);
+		final String value = getString(20000);
+		assertEquals(value, getClient().execute("Handler.deferredEcho", new Object[]{value}));
+	}
+
+	private HttpTestConnection.Response call(String pBody) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			conn.write(HttpTestConnection.getRequest(pBody));
+			return conn.readResponse();
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether requests, which exceed the maximum request
+	 * size, are rejected with the status code 413.
+	 * @throws Exception The test failed.
+	 */
+	public void testRequestTooLarge() throws Exception {
+		startWebServer(true);
+		((XmlRpcServerConfigImpl) server.getConfig()).setMaxRequestSize(1000);
+		final String small = "<?xml version=\"1.0\"?><methodCall><methodName>Handler.echo</methodName>"
+			+ "<params><param><value>abc</value></param></params></methodCall>";
+		assertTrue(call(small).statusLine.indexOf(" 200 ") != -1);
+		final String large = "<?xml version=\"1.0\"?><methodCall><methodName>Handler.echo</methodName>"
+			+ "<params><param><value>" + getString(2000) + "</value></param></params></methodCall>";
+		assertTrue(call(large).statusLine.indexOf(" 413 ") != -1);
+	}
+
+	/** Tests, whether requests, which are rejected by the executor,
+	 * are answered with the status code 503.
+	 * @throws Exception The test failed.
+	 */
+	public void testRejectedExecution() throws Exception {
+		startWebServer(true);
+		server.setAsyncExecutor(new Executor(){
+			public void execute(Runnable pCommand) {
+				throw new RejectedExecutionException();
+			}
+		});
+		assertTrue(call(HttpTestConnection.getCall("Handler.echo", 1)).statusLine.indexOf(" 503 ") != -1);
+	}
+}
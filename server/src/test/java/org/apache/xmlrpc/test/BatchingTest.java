@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.common.XmlRpcInvocationException;
+import org.apache.xmlrpc.common.XmlRpcLoadException;
+import org.apache.xmlrpc.server.BatchRequestProcessor;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.RequestProcessorFactoryFactory;
+
+
+/** Test case for the batching of calls to a
+ * {@link BatchRequestProcessor}.
+ */
+public class BatchingTest extends TestCase {
+	private static final String THREAD_NAME = "BatchingTest";
+
+	/** The handler being invoked by the test. It records the
+	 * batches, which it performs.
+	 */
+	public static class Handler implements BatchRequestProcessor {
+		static final List batches = Collections.synchronizedList(new ArrayList());
+
+		/** Returns the argument, incremented by one.
+		 */
+		public int add(int pArg) {
+			batches.add("add:single");
+			return pArg + 1;
+		}
+
+		/** Returns twice the argument.
+		 */
+		public int twice(int pArg) {
+			return pArg * 2;
+		}
+
+		/** Fails, if invoked in a batch.
+		 */
+		public int broken(int pArg) {
+			return pArg;
+		}
+
+		/** Returns too few results, if invoked in a batch.
+		 */
+		public int wrong(int pArg) {
+			return pArg;
+		}
+
+		public Object[] executeBatch(String pMethodName, Object[][] pArgs) throws XmlRpcException {
+			batches.add(pMethodName + ":" + pArgs.length + ":" + Thread.currentThread().getName());
+			if ("broken".equals(pMethodName)) {
+				throw new XmlRpcException("Broken batch");
+			}
+			if ("wrong".equals(pMethodName)) {
+				return new Object[0];
+			}
+			final Object[] results = new Object[pArgs.length];
+			for (int i = 0;  i < results.length;  i++) {
+				final int arg = ((Integer) pArgs[i][0]).intValue();
+				if ("twice".equals(pMethodName)) {
+					results[i] = new Integer(twice(arg));
+				} else if (arg < 0) {
+					results[i] = new IllegalArgumentException("Negative argument: " + arg);
+				} else {
+					results[i] = new Integer(arg + 1);
+				}
+			}
+			return results;
+		}
+	}
+
+	private static final Executor executor = new Executor(){
+		public void execute(Runnable pCommand) {
+			new Thread(pCommand, THREAD_NAME).start();
+		}
+	};
+
+	private PropertyHandlerMapping mapping;
+
+	protected void setUp() throws Exception {
+		Handler.batches.clear();
+		mapping = new PropertyHandlerMapping();
+	}
+
+	private void addHandler(boolean pStateless, int pMaxBatchSize, long pDelay, Executor pExecutor)
+			throws XmlRpcException {
+		if (pStateless) {
+			mapping.setRequestProcessorFactoryFactory(new RequestProcessorFactoryFactory.StatelessProcessorFactoryFactory());
+		}
+		mapping.setMaxBatchSize(pMaxBatchSize);
+		mapping.setBatchDelay(pDelay);
+		mapping.setBatchExecutor(pExecutor);
+		mapping.addHandler("Handler", Handler.class);
+	}
+
+	private Object execute(String pMethodName, int pArg) throws XmlRpcException {
+		return mapping.getHandler(pMethodName).execute(new XmlRpcClientRequestImpl(new XmlRpcClientConfigImpl(),
+				pMethodName, new Object[]{new Integer(pArg)}));
+	}
+
+	private static Object getResult(Object pStage) throws Exception {
+		return ((CompletionStage) pStage).toCompletableFuture().get(5, TimeUnit.SECONDS);
+	}
+
+	private static Throwable getError(Object pStage) throws Exception {
+		try {
+			getResult(pStage);
+			fail("Expected ExecutionException");
+			return null;
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+	}
+
+	/** Tests, whether the methods are invoked one by one, unless
+	 * batching is enabled.
+	 * @throws Exception The test failed.
+	 */
+	public void testDisabledByDefault() throws Exception {
+		assertEquals(0, mapping.getMaxBatchSize());
+		mapping.addHandler("Handler", Handler.class);
+		assertEquals(new Integer(2), execute("Handler.add", 1));
+		assertEquals(new Integer(3), execute("Handler.add", 2));
+		assertEquals(Collections.nCopies(2, "add:single"), Handler.batches);
+	}
+
+	/** Tests, whether a full batch is performed by the thread,
+	 * which adds the last call.
+	 * @throws Exception The test failed.
+	 */
+	public void testFullBatch() throws Exception {
+		addHandler(true, 3, 10000, executor);
+		final Object[] stages = new Object[3];
+		for (int i = 0;  i < stages.length;  i++) {
+			stages[i] = execute("Handler.add", i);
+			assertEquals(i == 2, ((CompletionStage) stages[i]).toCompletableFuture().isDone());
+		}
+		for (int i = 0;  i < stages.length;  i++) {
+			assertEquals(new Integer(i+1), getResult(stages[i]));
+		}
+		assertEquals(Collections.singletonList("add:3:" + Thread.currentThread().getName()), Handler.batches);
+	}
+
+	/** Tests, whether calls are grouped by method, and performed by
+	 * the batch executor, when the delay has expired.
+	 * @throws Exception The test failed.
+	 */
+	public void testDelay() throws Exception {
+		addHandler(true, 100, 50, executor);
+		final Object add1 = execute("Handler.add", 1);
+		final Object twice = execute("Handler.twice", 3);
+		final Object add2 = execute("Handler.add", 2);
+		assertEquals(new Integer(2), getResult(add1));
+		assertEquals(new Integer(6), getResult(twice));
+		assertEquals(new Integer(3), getResult(add2));
+		final List batches = new ArrayList(Handler.batches);
+		Collections.sort(batches);
+		assertEquals(2, batches.size());
+		assertEquals("add:2:" + THREAD_NAME, batches.get(0));
+		assertEquals("twice:1:" + THREAD_NAME, batches.get(1));
+	}
+
+	/** Tests, whether calls are grouped by request processor, so that
+	 * request specific processors don't share a batch.
+	 * @throws Exception The test failed.
+	 */
+	public void testRequestSpecificProcessors() throws Exception {
+		addHandler(false, 100, 20, executor);
+		final Object add1 = execute("Handler.add", 1);
+		final Object add2 = execute("Handler.add", 2);
+		assertEquals(new Integer(2), getResult(add1));
+		assertEquals(new Integer(3), getResult(add2));
+		assertEquals(Collections.nCopies(2, "add:1:" + THREAD_NAME), Handler.batches);
+	}
+
+	/** Tests, whether a {@link Throwable} result fails the respective
+	 * call only, whereas an exception fails all calls of the batch.
+	 * @throws Exception The test failed.
+	 */
+	public void testFailures() throws Exception {
+		addHandler(true, 2, 10000, executor);
+		final Object ok = execute("Handler.add", 1);
+		final Object negative = execute("Handler.add", -1);
+		assertEquals(new Integer(2), getResult(ok));
+		final Throwable t = getError(negative);
+		assertTrue(t instanceof XmlRpcInvocationException);
+		assertTrue(t.getCause() instanceof IllegalArgumentException);
+
+		final Object broken1 = execute("Handler.broken", 1);
+		final Object broken2 = execute("Handler.broken", 2);
+		assertEquals("Broken batch", getError(broken1).getMessage());
+		assertEquals("Broken batch", getError(broken2).getMessage());
+
+		final Object wrong1 = execute("Handler.wrong", 1);
+		final Object wrong2 = execute("Handler.wrong", 2);
+		assertTrue(getError(wrong1) instanceof XmlRpcException);
+		assertTrue(getError(wrong2) instanceof XmlRpcException);
+	}
+
+	/** Tests, whether the calls of a batch, which is rejected by the
+	 * batch executor, are failed.
+	 * @throws Exception The test failed.
+	 */
+	public void testRejectedBatch() throws Exception {
+		addHandler(true, 100, 10, new Executor(){
+			public void execute(Runnable pCommand) {
+				throw new RejectedExecutionException("Rejected");
+			}
+		});
+		final Object stage = execute("Handler.add", 1);
+		assertTrue(getError(stage) instanceof XmlRpcLoadException);
+		assertTrue(Handler.batches.isEmpty());
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xmlrpc.common.XmlRpcLoadException;
+import org.apache.xmlrpc.server.Bulkhead;
+
+
+/** Test case for the {@link Bulkhead}, in particular for the
+ * queue timeout, and the rejection of requests.
+ */
+public class BulkheadTest extends GatedHandlerTestCase {
+	/** Submits the given number of slow requests, and waits, until
+	 * they are running.
+	 */
+	private Future[] submitSlow(int pNum) throws Exception {
+		final Future[] futures = new Future[pNum];
+		for (int i = 0;  i < pNum;  i++) {
+			futures[i] = submit("Handler.slow", i);
+		}
+		awaitStarted(pNum);
+		return futures;
+	}
+
+	private static void waitForQueuedRequests(Bulkhead pBulkhead, int pNum) throws Exception {
+		for (int i = 0;  i < 1000  &&  pBulkhead.getQueuedRequests() < pNum;  i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(pNum, pBulkhead.getQueuedRequests());
+	}
+
+	/** Tests, whether requests are rejected immediately, if the limit
+	 * is reached, and no queue is configured.
+	 * @throws Exception The test failed.
+	 */
+	public void testRejection() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead(1);
+		mapping.setBulkhead("Handler.slow", bulkhead);
+		final Future[] futures = submitSlow(1);
+		assertEquals(1, bulkhead.getActiveRequests());
+		try {
+			execute("Handler.slow", 1);
+			fail("Expected XmlRpcLoadException");
+		} catch (XmlRpcLoadException e) {
+			// Ok
+		}
+		assertEquals(1, bulkhead.getRejectedRequests());
+		// Other methods aren't affected.
+		assertEquals(new Integer(2), execute("Handler.fast", 1));
+		openGate();
+		assertEquals(new Integer(0), futures[0].get(10, TimeUnit.SECONDS));
+		assertEquals(0, bulkhead.getActiveRequests());
+	}
+
+	/** Tests, whether queued requests are rejected, when the queue
+	 * timeout expires, and further requests are rejected immediately,
+	 * if the queue is full.
+	 * @throws Exception The test failed.
+	 */
+	public void testQueueTimeout() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead(1);
+		assertEquals(5000, bulkhead.getQueueTimeout());
+		bulkhead.setMaxQueuedRequests(1);
+		bulkhead.setQueueTimeout(300);
+		mapping.setBulkhead("Handler.slow", bulkhead);
+		final Future[] futures = submitSlow(1);
+		final long start = System.currentTimeMillis();
+		final Future queued = submit("Handler.slow", 1);
+		waitForQueuedRequests(bulkhead, 1);
+		try {
+			execute("Handler.slow", 2);
+			fail("Expected XmlRpcLoadException");
+		} catch (XmlRpcLoadException e) {
+			assertTrue(e.getMessage().startsWith("Maximum number of concurrent requests"));
+		}
+		final Throwable t = getError(queued);
+		assertTrue(t instanceof XmlRpcLoadException);
+		assertTrue(t.getMessage().startsWith("Timeout while waiting for a free slot"));
+		assertTrue(System.currentTimeMillis() - start >= 300);
+		assertEquals(0, bulkhead.getQueuedRequests());
+		assertEquals(2, bulkhead.getRejectedRequests());
+		openGate();
+		assertEquals(new Integer(0), futures[0].get(10, TimeUnit.SECONDS));
+	}
+
+	/** Tests, whether a queued request proceeds, when a slot is
+	 * released.
+	 * @throws Exception The test failed.
+	 */
+	public void testQueuedRequest() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead(1);
+		bulkhead.setMaxQueuedRequests(1);
+		mapping.setBulkhead("Handler", bulkhead);  // Applies to all methods
+		final Future[] futures = submitSlow(1);
+		final Future queued = submit("Handler.fast", 1);
+		waitForQueuedRequests(bulkhead, 1);
+		assertFalse(queued.isDone());
+		openGate();
+		assertEquals(new Integer(0), futures[0].get(10, TimeUnit.SECONDS));
+		assertEquals(new Integer(2), queued.get(10, TimeUnit.SECONDS));
+		assertEquals(0, bulkhead.getRejectedRequests());
+	}
+
+	/** Tests, whether queued requests don't occupy the servers global
+	 * slots, so that other methods are still served.
+	 * @throws Exception The test failed.
+	 */
+	public void testGlobalSlots() throws Exception {
+		server.setMaxThreads(2);
+		final Bulkhead bulkhead = new Bulkhead(1);
+		bulkhead.setMaxQueuedRequests(5);
+		mapping.setBulkhead("Handler.slow", bulkhead);
+		final Future[] futures = submitSlow(1);
+		final Future queued1 = submit("Handler.slow", 1);
+		final Future queued2 = submit("Handler.slow", 2);
+		waitForQueuedRequests(bulkhead, 2);
+		assertEquals(new Integer(2), execute("Handler.fast", 1));
+		openGate();
+		assertEquals(new Integer(0), futures[0].get(10, TimeUnit.SECONDS));
+		assertEquals(new Integer(1), queued1.get(10, TimeUnit.SECONDS));
+		assertEquals(new Integer(2), queued2.get(10, TimeUnit.SECONDS));
+	}
+
+	/** Tests, whether a deferred request holds its slot, until its
+	 * result is available.
+	 * @throws Exception The test failed.
+	 */
+	public void testDeferredRequest() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead(1);
+		mapping.setBulkhead("Handler.deferred", bulkhead);
+		final CompletionStage stage = (CompletionStage) server.executeNested(newRequest("Handler.deferred", 1));
+		assertEquals(1, bulkhead.getActiveRequests());
+		try {
+			execute("Handler.deferred", 2);
+			fail("Expected XmlRpcLoadException");
+		} catch (XmlRpcLoadException e) {
+			// Ok
+		}
+		openGate();
+		assertEquals(new Integer(1), stage.toCompletableFuture().get(10, TimeUnit.SECONDS));
+		for (int i = 0;  i < 100  &&  bulkhead.getActiveRequests() > 0;  i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, bulkhead.getActiveRequests());
+		assertEquals(new Integer(3), execute("Handler.deferred", 3));
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServer;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.util.ChunkedInputStream;
+import org.apache.xmlrpc.util.ChunkedOutputStream;
+import org.apache.xmlrpc.webserver.ServletWebServer;
+import org.apache.xmlrpc.webserver.WebServer;
+import org.apache.xmlrpc.webserver.XmlRpcServlet;
+
+
+/** Test case for the chunked transfer encoding of requests,
+ * and responses.
+ */
+public class ChunkedEncodingTest extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the argument, incremented by one.
+		 */
+		public int inc(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	private WebServer webServer;
+
+	protected void tearDown() throws Exception {
+		if (webServer != null) {
+			webServer.shutdown();
+			webServer = null;
+		}
+	}
+
+	private PropertyHandlerMapping newMapping() throws Exception {
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		return mapping;
+	}
+
+	private void initServer(XmlRpcServer pServer, boolean pContentLengthOptional) throws Exception {
+		pServer.setHandlerMapping(newMapping());
+		final XmlRpcServerConfigImpl config = (XmlRpcServerConfigImpl) pServer.getConfig();
+		config.setKeepAliveEnabled(true);
+		config.setEnabledForExtensions(pContentLengthOptional);
+		config.setContentLengthOptional(pContentLengthOptional);
+	}
+
+	private int startWebServer(boolean pNonBlocking, boolean pContentLengthOptional) throws Exception {
+		webServer = new WebServer(0);
+		webServer.setNonBlocking(pNonBlocking);
+		initServer(webServer.getXmlRpcServer(), pContentLengthOptional);
+		webServer.start();
+		return webServer.getPort();
+	}
+
+	private int startServletWebServer() throws Exception {
+		final XmlRpcServlet servlet = new XmlRpcServlet();
+		final ServletWebServer server = new ServletWebServer(servlet, 0);
+		initServer(servlet.getXmlRpcServletServer(), false);
+		webServer = server;
+		server.start();
+		return server.getPort();
+	}
+
+	private static byte[] toChunks(String pBody, int pChunkSize) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final ChunkedOutputStream cos = new ChunkedOutputStream(baos, pChunkSize);
+		final byte[] bytes = pBody.getBytes("UTF-8");
+		for (int i = 0;  i < bytes.length;  i++) {
+			cos.write(bytes[i]);
+		}
+		cos.close();
+		return baos.toByteArray();
+	}
+
+	private static String read(InputStream pStream) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (;;) {
+			final int c = pStream.read();
+			if (c == -1) {
+				return baos.toString("UTF-8");
+			}
+			baos.write(c);
+		}
+	}
+
+	/** Tests writing, and reading chunks.
+	 * @throws Exception The test failed.
+	 */
+	public void testChunkedStreams() throws Exception {
+		final byte[] chunks = toChunks("Hello, world!", 5);
+		assertEquals("5\r\nHello\r\n5\r\n, wor\r\n3\r\nld!\r\n0\r\n\r\n", new String(chunks, "US-ASCII"));
+		final ChunkedInputStream cis = new ChunkedInputStream(new ByteArrayInputStream(chunks));
+		assertEquals("Hello, world!", read(cis));
+		assertTrue(cis.isFinished());
+
+		// Large blocks are written as a chunk of their own.
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final ChunkedOutputStream cos = new ChunkedOutputStream(baos, 5);
+		cos.write("ab".getBytes("US-ASCII"));
+		cos.write("Hello, world!".getBytes("US-ASCII"));
+		cos.close();
+		assertEquals("2\r\nab\r\nd\r\nHello, world!\r\n0\r\n\r\n", baos.toString("US-ASCII"));
+
+		// Extensions, and trailers are ignored.
+		final String s = "4;name=value\r\nabcd\r\nA\r\n0123456789\r\n0\r\nTrailer: x\r\n\r\n";
+		assertEquals("abcd0123456789", read(new ChunkedInputStream(new ByteArrayInputStream(s.getBytes("US-ASCII")))));
+	}
+
+	/** Tests, whether invalid, or truncated chunks are rejected.
+	 * @throws Exception The test failed.
+	 */
+	public void testInvalidChunks() throws Exception {
+		final String[] invalid = new String[]{
+			"x\r\nabc\r\n0\r\n\r\n",
+			"5\r\nabc",
+			"3\r\nabcd\r\n0\r\n\r\n"
+		};
+		for (int i = 0;  i < invalid.length;  i++) {
+			try {
+				read(new ChunkedInputStream(new ByteArrayInputStream(invalid[i].getBytes("US-ASCII"))));
+				fail("Expected IOException for " + invalid[i]);
+			} catch (IOException e) {
+				// Ok
+			}
+		}
+	}
+
+	private void testChunkedRequest(int pPort, int pNumRequests) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(pPort);
+		try {
+			for (int i = 0;  i < pNumRequests;  i++) {
+				conn.write("POST / HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Type: text/xml\r\n"
+						+ "Transfer-Encoding: chunked\r\n\r\n");
+				conn.write(toChunks(HttpTestConnection.getCall("Handler.inc", i), 16));
+				final HttpTestConnection.Response response = conn.readResponse();
+				assertTrue(response.statusLine, response.statusLine.endsWith(" 200 OK"));
+				assertEquals(String.valueOf(i+1), response.getIntResult());
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests a chunked request in blocking mode. The connection is
+	 * reused for a second request.
+	 * @throws Exception The test failed.
+	 */
+	public void testChunkedRequest() throws Exception {
+		testChunkedRequest(startWebServer(false, false), 2);
+	}
+
+	/** Tests a chunked request in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testChunkedRequestNonBlocking() throws Exception {
+		testChunkedRequest(startWebServer(true, false), 2);
+	}
+
+	/** Tests a chunked request, which is read by a servlet. The
+	 * servlet web server closes the connection after the response.
+	 * @throws Exception The test failed.
+	 */
+	public void testChunkedRequestServlet() throws Exception {
+		testChunkedRequest(startServletWebServer(), 1);
+	}
+
+	/** Tests, whether the response is chunked, if the content length
+	 * is optional, and whether the connection remains usable.
+	 * @throws Exception The test failed.
+	 */
+	public void testChunkedResponse() throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(startWebServer(false, true));
+		try {
+			for (int i = 0;  i < 2;  i++) {
+				conn.write(HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.inc", i)));
+				final HttpTestConnection.Response response = conn.readResponse();
+				assertEquals("chunked", response.getHeader("Transfer-Encoding"));
+				assertNull(response.getHeader("Content-Length"));
+				assertEquals(String.valueOf(i+1), response.getIntResult());
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether the response has a content length, if the
+	 * client requires it.
+	 * @throws Exception The test failed.
+	 */
+	public void testContentLengthResponse() throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(startWebServer(false, false));
+		try {
+			conn.write(HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.inc", 5)));
+			final HttpTestConnection.Response response = conn.readResponse();
+			assertNull(response.getHeader("Transfer-Encoding"));
+			assertEquals(String.valueOf(response.body.length), response.getHeader("Content-Length"));
+			assertEquals("6", response.getIntResult());
+		} finally {
+			conn.close();
+		}
+	}
+}
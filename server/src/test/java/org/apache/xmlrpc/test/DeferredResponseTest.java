@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for handlers, which return a {@link CompletionStage}
+ * that fails, or completes late, against the {@link WebServer}.
+ */
+public class DeferredResponseTest extends TestCase {
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	static volatile CompletableFuture pending;
+
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Fails with the given fault code, after a short delay.
+		 */
+		public CompletionStage fail(final int pCode) {
+			final CompletableFuture future = new CompletableFuture();
+			scheduler.schedule(new Runnable(){
+				public void run() {
+					future.completeExceptionally(new XmlRpcException(pCode, "Failed: " + pCode));
+				}
+			}, 100, TimeUnit.MILLISECONDS);
+			return future;
+		}
+
+		/** Fails with a runtime exception, after a short delay.
+		 */
+		public CompletionStage broken() {
+			final CompletableFuture future = new CompletableFuture();
+			scheduler.schedule(new Runnable(){
+				public void run() {
+					future.completeExceptionally(new IllegalStateException("Broken"));
+				}
+			}, 100, TimeUnit.MILLISECONDS);
+			return future;
+		}
+
+		/** Returns a stage, which has already failed.
+		 */
+		public CompletionStage failed(int pCode) {
+			final CompletableFuture future = new CompletableFuture();
+			future.completeExceptionally(new XmlRpcException(pCode, "Failed: " + pCode));
+			return future;
+		}
+
+		/** Returns twice the argument, after the given number of
+		 * milliseconds.
+		 */
+		public CompletionStage late(final int pArg, int pMillis) {
+			final CompletableFuture future = new CompletableFuture();
+			scheduler.schedule(new Runnable(){
+				public void run() {
+					future.complete(new Integer(pArg * 2));
+				}
+			}, pMillis, TimeUnit.MILLISECONDS);
+			return future;
+		}
+
+		/** Returns a stage, which is completed by the test.
+		 */
+		public CompletionStage pending(int pArg) {
+			final CompletableFuture future = new CompletableFuture();
+			pending = future;
+			return future;
+		}
+
+		/** Returns the argument, incremented by one.
+		 */
+		public int plain(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	private WebServer webServer;
+
+	private void startWebServer(boolean pNonBlocking) throws Exception {
+		pending = null;
+		webServer = new WebServer(0);
+		webServer.setNonBlocking(pNonBlocking);
+		PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+		XmlRpcServerConfigImpl config = (XmlRpcServerConfigImpl) webServer.getXmlRpcServer().getConfig();
+		config.setKeepAliveEnabled(true);
+		webServer.start();
+	}
+
+	protected void tearDown() throws Exception {
+		if (webServer != null) {
+			webServer.shutdown();
+			webServer = null;
+		}
+	}
+
+	private XmlRpcClient newClient() throws Exception {
+		final XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+		config.setServerURL(new URL("http://127.0.0.1:" + webServer.getPort() + "/"));
+		final XmlRpcClient client = new XmlRpcClient();
+		client.setConfig(config);
+		return client;
+	}
+
+	private String getRequest(String pMethod, int pArg) {
+		return HttpTestConnection.getRequest(HttpTestConnection.getCall(pMethod, pArg));
+	}
+
+	private void assertFault(XmlRpcClient pClient, String pMethod, Object[] pParams,
+			int pCode, String pMessage) throws Exception {
+		try {
+			pClient.execute(pMethod, pParams);
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			assertEquals(pCode, e.code);
+			assertEquals(pMessage, e.getMessage());
+		}
+	}
+
+	private void assertFault(HttpTestConnection.Response pResponse, String pMessage)
+			throws Exception {
+		assertEquals("HTTP/1.1 200 OK", pResponse.statusLine);
+		assertEquals("close", pResponse.getHeader("Connection"));
+		assertTrue(pResponse.getBody(), pResponse.getBody().indexOf("<fault>") != -1);
+		assertTrue(pResponse.getBody(), pResponse.getBody().indexOf(pMessage) != -1);
+	}
+
+	private void testFailedStage(boolean pNonBlocking) throws Exception {
+		startWebServer(pNonBlocking);
+		final XmlRpcClient client = newClient();
+		assertFault(client, "Handler.fail", new Object[]{new Integer(42)}, 42, "Failed: 42");
+		assertFault(client, "Handler.failed", new Object[]{new Integer(43)}, 43, "Failed: 43");
+		// Like an exception of a synchronous method.
+		assertFault(client, "Handler.broken", new Object[0], 0,
+				"Failed to invoke method broken in class " + Handler.class.getName() + ": Broken");
+
+		// Like any fault, a deferred fault closes the connection,
+		// including a pipelined request.
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			conn.write(getRequest("Handler.fail", 7) + getRequest("Handler.plain", 1));
+			assertFault(conn.readResponse(), "Failed: 7");
+			assertTrue(conn.isClosed());
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests stages, which fail, in blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testFailedStage() throws Exception {
+		testFailedStage(false);
+	}
+
+	/** Tests stages, which fail, in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testFailedStageNonBlocking() throws Exception {
+		testFailedStage(true);
+	}
+
+	private void testLateStage(boolean pNonBlocking) throws Exception {
+		startWebServer(pNonBlocking);
+		XmlRpcServerConfigImpl config = (XmlRpcServerConfigImpl) webServer.getXmlRpcServer().getConfig();
+		config.setKeepAliveTimeout(200);
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			// The connection isn't idle, while the response is pending.
+			conn.write(HttpTestConnection.getRequest("<?xml version=\"1.0\"?><methodCall>"
+					+ "<methodName>Handler.late</methodName><params>"
+					+ "<param><value><i4>4</i4></value></param>"
+					+ "<param><value><i4>1000</i4></value></param>"
+					+ "</params></methodCall>"));
+			assertEquals("8", conn.readResponse().getIntResult());
+			conn.write(getRequest("Handler.plain", 5));
+			assertEquals("6", conn.readResponse().getIntResult());
+			// Afterwards, the keepalive timeout applies again.
+			Thread.sleep(1000);
+			assertTrue(conn.isClosed());
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests a stage, which completes after the keepalive timeout,
+	 * in blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testLateStage() throws Exception {
+		testLateStage(false);
+	}
+
+	/** Tests a stage, which completes after the keepalive timeout,
+	 * in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testLateStageNonBlocking() throws Exception {
+		testLateStage(true);
+	}
+
+	private CompletableFuture waitForPending() throws InterruptedException {
+		for (int i = 0;  i < 100  &&  pending == null;  i++) {
+			Thread.sleep(50);
+		}
+		assertNotNull(pending);
+		final CompletableFuture result = pending;
+		pending = null;
+		return result;
+	}
+
+	private void testPendingStage(boolean pNonBlocking) throws Exception {
+		startWebServer(pNonBlocking);
+		// A single worker: The pending response must not occupy it.
+		webServer.getXmlRpcServer().setMaxThreads(1);
+		final HttpTestConnection conn1 = new HttpTestConnection(webServer.getPort());
+		final HttpTestConnection conn2 = new HttpTestConnection(webServer.getPort());
+		HttpTestConnection conn3 = null;
+		try {
+			conn1.write(getRequest("Handler.pending", 0));
+			final CompletableFuture future = waitForPending();
+			conn2.write(getRequest("Handler.plain", 1));
+			assertEquals("2", conn2.readResponse().getIntResult());
+			future.complete(new Integer(5));
+			assertEquals("5", conn1.readResponse().getIntResult());
+			conn1.write(getRequest("Handler.plain", 2));
+			assertEquals("3", conn1.readResponse().getIntResult());
+
+			conn1.write(getRequest("Handler.pending", 0));
+			final CompletableFuture failing = waitForPending();
+			conn2.write(getRequest("Handler.plain", 3));
+			assertEquals("4", conn2.readResponse().getIntResult());
+			failing.completeExceptionally(new XmlRpcException(44, "Failed: 44"));
+			assertFault(conn1.readResponse(), "Failed: 44");
+			assertTrue(conn1.isClosed());
+
+			// The client disconnects, before the stage completes. In
+			// blocking mode, a new connection occupies the worker, until
+			// its request has been read, so it is opened only now.
+			conn3 = new HttpTestConnection(webServer.getPort());
+			conn3.write(getRequest("Handler.pending", 0));
+			final CompletableFuture abandoned = waitForPending();
+			conn3.close();
+			Thread.sleep(100);
+			abandoned.complete(new Integer(6));
+			conn2.write(getRequest("Handler.plain", 4));
+			assertEquals("5", conn2.readResponse().getIntResult());
+		} finally {
+			conn1.close();
+			conn2.close();
+			if (conn3 != null) {
+				conn3.close();
+			}
+		}
+		assertEquals(new Integer(6), newClient().execute("Handler.plain", new Object[]{new Integer(5)}));
+	}
+
+	/** Tests stages, which are completed by another thread, while the
+	 * worker serves other clients, in blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testPendingStage() throws Exception {
+		testPendingStage(false);
+	}
+
+	/** Tests stages, which are completed by another thread, while the
+	 * worker serves other clients, in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testPendingStageNonBlocking() throws Exception {
+		testPendingStage(true);
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.server.CompressionMetrics;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServer;
+import org.apache.xmlrpc.server.XmlRpcStreamServer;
+import org.apache.xmlrpc.util.DeflateDictionary;
+import org.apache.xmlrpc.util.DeflaterPool;
+import org.apache.xmlrpc.util.DictionaryDeflaterOutputStream;
+import org.apache.xmlrpc.util.DictionaryInflaterInputStream;
+
+
+/** Test case for the deflate compression with a preset dictionary.
+ */
+public class DictionaryCompressionTest extends XmlRpcTestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the given string.
+		 */
+		public String echo(String pValue) {
+			return pValue;
+		}
+	}
+
+	private static final String CALL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+		+ "<methodCall><methodName>Handler.echo</methodName><params><param>"
+		+ "<value><string>abc</string></value></param></params></methodCall>";
+
+	protected XmlRpcHandlerMapping getHandlerMapping() throws IOException, XmlRpcException {
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		return mapping;
+	}
+
+	private static byte[] deflate(byte[] pBytes, DeflaterPool pPool,
+			DeflateDictionary pDictionary) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DictionaryDeflaterOutputStream dos = new DictionaryDeflaterOutputStream(baos,
+				pPool, pDictionary, Deflater.DEFAULT_COMPRESSION);
+		dos.write(pBytes);
+		dos.close();
+		assertEquals(pBytes.length, dos.getBytesRead());
+		assertEquals(baos.size(), dos.getBytesWritten());
+		return baos.toByteArray();
+	}
+
+	private static byte[] inflate(byte[] pBytes, DeflaterPool pPool,
+			DeflateDictionary pDictionary) throws IOException {
+		final InputStream istream = new DictionaryInflaterInputStream(new ByteArrayInputStream(pBytes),
+				pPool, pDictionary);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[512];
+		for (;;) {
+			final int res = istream.read(buffer);
+			if (res == -1) {
+				istream.close();
+				return baos.toByteArray();
+			}
+			baos.write(buffer, 0, res);
+		}
+	}
+
+	/** Tests, whether the dictionary streams are compatible, and
+	 * whether the default dictionary pays off for a small message.
+	 * @throws Exception The test failed.
+	 */
+	public void testDictionaryStreams() throws Exception {
+		final DeflaterPool pool = new DeflaterPool(4, false);
+		final byte[] bytes = CALL.getBytes("UTF-8");
+		final byte[] compressed = deflate(bytes, pool, DeflateDictionary.getDefault());
+		assertTrue(Arrays.equals(bytes, inflate(compressed, pool, DeflateDictionary.getDefault())));
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DeflaterOutputStream dos = new DeflaterOutputStream(baos);
+		dos.write(bytes);
+		dos.close();
+		assertTrue(compressed.length < baos.size() / 2);
+	}
+
+	/** Tests, whether a trained dictionary contains the samples
+	 * common markup, and whether data, which has been compressed
+	 * with another dictionary, is rejected.
+	 * @throws Exception The test failed.
+	 */
+	public void testTrainedDictionary() throws Exception {
+		final List samples = new ArrayList();
+		for (int i = 0;  i < 10;  i++) {
+			samples.add(("<call><name>n" + i + "</name><arg>" + i + "</arg></call>").getBytes("UTF-8"));
+		}
+		final DeflateDictionary dictionary = DeflateDictionary.train(samples, 1000);
+		final String contents = new String(dictionary.getBytes(), "UTF-8");
+		assertTrue(contents.indexOf("</name><arg>") != -1);
+		assertTrue(contents.indexOf("n1") == -1);
+		assertNotSame(DeflateDictionary.getDefault(), dictionary);
+		assertTrue(dictionary.getId() != DeflateDictionary.getDefault().getId());
+		final List noMarkup = new ArrayList();
+		noMarkup.add("abc".getBytes("UTF-8"));
+		assertSame(DeflateDictionary.getDefault(), DeflateDictionary.train(noMarkup, 1000));
+
+		final DeflaterPool pool = new DeflaterPool(4, false);
+		final byte[] bytes = (byte[]) samples.get(0);
+		final byte[] compressed = deflate(bytes, pool, dictionary);
+		assertTrue(Arrays.equals(bytes, inflate(compressed, pool, dictionary)));
+		try {
+			inflate(compressed, pool, DeflateDictionary.getDefault());
+			fail("Expected ZipException");
+		} catch (ZipException e) {
+			assertTrue(e.getMessage().startsWith("Unknown preset dictionary"));
+		}
+	}
+
+	private XmlRpcClient getClient(ClientProvider pProvider) throws Exception {
+		final XmlRpcClientConfigImpl config = getConfig(pProvider);
+		config.setEnabledForExtensions(true);
+		config.setDictionaryCompressing(true);
+		config.setDictionaryRequesting(true);
+		final XmlRpcClient client = pProvider.getClient();
+		client.setConfig(config);
+		return client;
+	}
+
+	/** Tests, whether client, and server are exchanging dictionary
+	 * compressed requests, and responses.
+	 * @throws Exception The test failed.
+	 */
+	public void testRoundTrip() throws Exception {
+		for (int i = 0;  i < providers.length;  i++) {
+			testRoundTrip(providers[i]);
+		}
+	}
+
+	private void testRoundTrip(ClientProvider pProvider) throws Exception {
+		final XmlRpcClient client = getClient(pProvider);
+		assertEquals("abc", client.execute("Handler.echo", new Object[]{"abc"}));
+		final XmlRpcServer server = pProvider.getServer();
+		if (server instanceof XmlRpcStreamServer) {
+			final CompressionMetrics metrics = ((XmlRpcStreamServer) server).getCompressionMetrics();
+			assertEquals(1, metrics.getDecompressedRequests());
+			assertEquals(1, metrics.getCompressedResponses());
+		}
+	}
+
+	/** Tests, whether the server rejects a request, which has been
+	 * compressed with another dictionary.
+	 * @throws Exception The test failed.
+	 */
+	public void testDictionaryMismatch() throws Exception {
+		for (int i = 0;  i < providers.length;  i++) {
+			if (providers[i].getServer() instanceof XmlRpcStreamServer) {
+				testDictionaryMismatch(providers[i]);
+			}
+		}
+	}
+
+	private void testDictionaryMismatch(ClientProvider pProvider) throws Exception {
+		final XmlRpcClient client = getClient(pProvider);
+		client.setDeflateDictionary(new DeflateDictionary("<value><string>".getBytes("UTF-8")));
+		try {
+			client.execute("Handler.echo", new Object[]{"abc"});
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			// Ok
+		}
+	}
+}
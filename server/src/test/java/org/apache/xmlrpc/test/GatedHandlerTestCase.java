@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServer;
+
+
+/** Abstract base class for test cases, which invoke a handler
+ * concurrently through an {@link XmlRpcServer}. The handlers slow
+ * methods block, until the test opens the gate.
+ */
+public abstract class GatedHandlerTestCase extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		static final AtomicInteger invocations = new AtomicInteger();
+		static Semaphore started;
+		static CountDownLatch gate;
+
+		private static void start() {
+			invocations.incrementAndGet();
+			started.release();
+		}
+
+		private static void await() throws InterruptedException {
+			start();
+			if (!gate.await(10, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("Timeout");
+			}
+		}
+
+		/** Returns a stage, which is completed by another thread,
+		 * when the gate is open.
+		 */
+		private static CompletionStage defer(final Object pResult, final Throwable pError) {
+			start();
+			final CompletableFuture future = new CompletableFuture();
+			new Thread(){
+				public void run() {
+					try {
+						gate.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						// Ignore me
+					}
+					if (pError == null) {
+						future.complete(pResult);
+					} else {
+						future.completeExceptionally(pError);
+					}
+				}
+			}.start();
+			return future;
+		}
+
+		/** Returns the argument, when the gate is open.
+		 */
+		public int slow(int pArg) throws InterruptedException {
+			await();
+			return pArg;
+		}
+
+		/** Returns twice the argument, when the gate is open, or
+		 * fails, if the argument is negative.
+		 */
+		public int twice(int pArg) throws Exception {
+			await();
+			if (pArg < 0) {
+				throw new XmlRpcException(1, "Negative argument: " + pArg);
+			}
+			return pArg * 2;
+		}
+
+		/** Throws a runtime exception, when the gate is open.
+		 */
+		public int fail(int pArg) throws Exception {
+			await();
+			throw new IllegalArgumentException("Invalid argument: " + pArg);
+		}
+
+		/** Returns a stage, which is completed with the argument,
+		 * when the gate is open.
+		 */
+		public CompletionStage deferred(int pArg) {
+			return defer(new Integer(pArg), null);
+		}
+
+		/** Returns a stage, which fails, when the gate is open.
+		 */
+		public CompletionStage deferredFail(int pArg) {
+			return defer(null, new XmlRpcException(2, "Deferred failure: " + pArg));
+		}
+
+		/** Returns the argument, incremented by one.
+		 */
+		public int fast(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	protected PropertyHandlerMapping mapping;
+	protected XmlRpcServer server;
+	private ExecutorService executor;
+
+	protected void setUp() throws Exception {
+		Handler.invocations.set(0);
+		Handler.started = new Semaphore(0);
+		Handler.gate = new CountDownLatch(1);
+		mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		server = new XmlRpcServer();
+		server.setHandlerMapping(mapping);
+		executor = Executors.newCachedThreadPool();
+	}
+
+	protected void tearDown() throws Exception {
+		openGate();
+		executor.shutdown();
+	}
+
+	/** Waits, until the given number of handler invocations have started.
+	 */
+	protected void awaitStarted(int pNum) throws InterruptedException {
+		assertTrue(Handler.started.tryAcquire(pNum, 10, TimeUnit.SECONDS));
+	}
+
+	/** Lets the blocked handler invocations proceed.
+	 */
+	protected void openGate() {
+		Handler.gate.countDown();
+	}
+
+	protected XmlRpcClientRequestImpl newRequest(String pMethodName, int pArg, String pUser) {
+		final XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+		config.setBasicUserName(pUser);
+		return new XmlRpcClientRequestImpl(config, pMethodName, new Object[]{new Integer(pArg)});
+	}
+
+	protected XmlRpcClientRequestImpl newRequest(String pMethodName, int pArg) {
+		return newRequest(pMethodName, pArg, null);
+	}
+
+	protected Object execute(String pMethodName, int pArg) throws XmlRpcException {
+		return server.execute(newRequest(pMethodName, pArg));
+	}
+
+	/** Executes a request on another thread.
+	 * @param pUser The requests user name, or null.
+	 */
+	protected Future submit(String pMethodName, int pArg, String pUser) {
+		final XmlRpcClientRequestImpl request = newRequest(pMethodName, pArg, pUser);
+		return executor.submit(new Callable(){
+			public Object call() throws Exception {
+				return server.execute(request);
+			}
+		});
+	}
+
+	protected Future submit(String pMethodName, int pArg) {
+		return submit(pMethodName, pArg, null);
+	}
+
+	/** Returns the error of a request, which must fail.
+	 */
+	protected static Throwable getError(Future pFuture) throws Exception {
+		try {
+			pFuture.get(10, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+			return null;
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.server.CompressionMetrics;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.server.XmlRpcStreamServer;
+import org.apache.xmlrpc.util.DeflaterPool;
+import org.apache.xmlrpc.util.GzipInputStream;
+import org.apache.xmlrpc.util.GzipOutputStream;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the gzip streams, the {@link DeflaterPool}, and the
+ * servers minimum compression size.
+ */
+public class GzipCompressionTest extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns a string of the given length.
+		 */
+		public String fill(int pLength) {
+			final StringBuffer sb = new StringBuffer(pLength);
+			for (int i = 0;  i < pLength;  i++) {
+				sb.append((char) ('a' + i % 26));
+			}
+			return sb.toString();
+		}
+	}
+
+	/** A pool, which counts the instances, which are borrowed.
+	 */
+	private static class CountingPool extends DeflaterPool {
+		int borrowedDeflaters, borrowedInflaters;
+
+		CountingPool(int pMaxSize) {
+			super(pMaxSize);
+		}
+
+		public Deflater getDeflater(int pLevel) {
+			++borrowedDeflaters;
+			return super.getDeflater(pLevel);
+		}
+
+		public void release(Deflater pDeflater) {
+			--borrowedDeflaters;
+			super.release(pDeflater);
+		}
+
+		public Inflater getInflater() {
+			++borrowedInflaters;
+			return super.getInflater();
+		}
+
+		public void release(Inflater pInflater) {
+			--borrowedInflaters;
+			super.release(pInflater);
+		}
+	}
+
+	private WebServer webServer;
+
+	protected void tearDown() throws Exception {
+		if (webServer != null) {
+			webServer.shutdown();
+			webServer = null;
+		}
+	}
+
+	private static byte[] getBytes(int pLength) {
+		final byte[] bytes = new byte[pLength];
+		for (int i = 0;  i < bytes.length;  i++) {
+			bytes[i] = (byte) ("<value><i4>" + i + "</i4></value>").charAt(i % 20);
+		}
+		return bytes;
+	}
+
+	private static byte[] read(InputStream pStream) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[512];
+		for (;;) {
+			final int res = pStream.read(buffer);
+			if (res == -1) {
+				pStream.close();
+				return baos.toByteArray();
+			}
+			baos.write(buffer, 0, res);
+		}
+	}
+
+	/** Tests, whether the gzip streams are compatible with those of the JDK,
+	 * and return their deflaters, and inflaters to the pool.
+	 * @throws Exception The test failed.
+	 */
+	public void testGzipStreams() throws Exception {
+		final CountingPool pool = new CountingPool(4);
+		final byte[] bytes = getBytes(100000);
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final GzipOutputStream gos = new GzipOutputStream(baos, pool, Deflater.BEST_SPEED);
+		gos.write(bytes, 0, 1000);
+		gos.write(bytes, 1000, bytes.length - 1000);
+		assertEquals(1, pool.borrowedDeflaters);
+		gos.close();
+		assertEquals(0, pool.borrowedDeflaters);
+		assertEquals(bytes.length, gos.getBytesRead());
+		assertEquals(baos.size(), gos.getBytesWritten());
+		assertTrue(baos.size() < bytes.length / 2);
+		assertTrue(Arrays.equals(bytes, read(new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray())))));
+
+		final ByteArrayOutputStream jdk = new ByteArrayOutputStream();
+		final GZIPOutputStream jos = new GZIPOutputStream(jdk);
+		jos.write(bytes);
+		jos.close();
+		final GzipInputStream gis = new GzipInputStream(new ByteArrayInputStream(jdk.toByteArray()), pool);
+		assertEquals(1, pool.borrowedInflaters);
+		assertTrue(Arrays.equals(bytes, read(gis)));
+		assertEquals(0, pool.borrowedInflaters);
+	}
+
+	/** Tests, whether a corrupt gzip header is rejected, and the
+	 * inflater is returned to the pool anyways.
+	 * @throws Exception The test failed.
+	 */
+	public void testInvalidGzipHeader() throws Exception {
+		final CountingPool pool = new CountingPool(4);
+		try {
+			new GzipInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}), pool);
+			fail("Expected IOException");
+		} catch (IOException e) {
+			// Ok
+		}
+		assertEquals(0, pool.borrowedInflaters);
+	}
+
+	/** Tests, whether the pool reuses its instances, and discards
+	 * instances, if it is full.
+	 * @throws Exception The test failed.
+	 */
+	public void testDeflaterPool() throws Exception {
+		final DeflaterPool pool = new DeflaterPool(1);
+		final Deflater d1 = pool.getDeflater(Deflater.BEST_SPEED);
+		final Deflater d2 = pool.getDeflater(Deflater.BEST_SPEED);
+		assertNotSame(d1, d2);
+		d1.setInput(getBytes(100));
+		pool.release(d1);
+		pool.release(d2);  // Discarded, because the pool is full
+		final Deflater d3 = pool.getDeflater(Deflater.BEST_COMPRESSION);
+		assertSame(d1, d3);
+		assertEquals(0, d3.getBytesRead());  // The deflater has been reset
+		assertNotSame(d2, pool.getDeflater(Deflater.BEST_SPEED));
+
+		final Inflater i1 = pool.getInflater();
+		pool.release(i1);
+		assertSame(i1, pool.getInflater());
+	}
+
+	private HttpTestConnection.Response call(int pLength) throws IOException {
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			final String body = HttpTestConnection.getCall("Handler.fill", pLength);
+			conn.write("POST / HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Type: text/xml\r\n"
+					+ "Accept-Encoding: gzip\r\nConnection: close\r\nContent-Length: "
+					+ body.length() + "\r\n\r\n" + body);
+			return conn.readResponse();
+		} finally {
+			conn.close();
+		}
+	}
+
+	private String getResult(HttpTestConnection.Response pResponse) throws IOException {
+		final byte[] body;
+		if ("gzip".equals(pResponse.getHeader("Content-Encoding"))) {
+			body = read(new GZIPInputStream(new ByteArrayInputStream(pResponse.body)));
+		} else {
+			body = pResponse.body;
+		}
+		final String s = new String(body, "UTF-8");
+		final int offset = s.indexOf("<value>") + "<value>".length();
+		return s.substring(offset, s.indexOf("</value>", offset));
+	}
+
+	/** Tests, whether small responses are sent uncompressed, and
+	 * larger responses compressed.
+	 * @throws Exception The test failed.
+	 */
+	public void testMinCompressionSize() throws Exception {
+		webServer = new WebServer(0);
+		final XmlRpcStreamServer server = webServer.getXmlRpcServer();
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		server.setHandlerMapping(mapping);
+		server.setMinCompressionSize(1000);
+		// Compression is an extension.
+		((XmlRpcServerConfigImpl) server.getConfig()).setEnabledForExtensions(true);
+		webServer.start();
+		final Handler handler = new Handler();
+
+		final HttpTestConnection.Response small = call(10);
+		assertNull(small.getHeader("Content-Encoding"));
+		assertEquals(handler.fill(10), getResult(small));
+
+		final HttpTestConnection.Response large = call(10000);
+		assertEquals("gzip", large.getHeader("Content-Encoding"));
+		assertEquals(String.valueOf(large.body.length), large.getHeader("Content-Length"));
+		assertTrue(large.body.length < 1000);
+		assertEquals(handler.fill(10000), getResult(large));
+
+		final CompressionMetrics metrics = server.getCompressionMetrics();
+		assertEquals(1, metrics.getCompressedResponses());
+		assertEquals(1, metrics.getSkippedResponses());
+		assertTrue(metrics.getUncompressedBytes() > 10000);
+		assertEquals(large.body.length, metrics.getCompressedBytes());
+	}
+}
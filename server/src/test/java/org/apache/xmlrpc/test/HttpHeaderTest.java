@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the parsing of request headers by the
+ * {@link WebServer} in blocking mode.
+ */
+public class HttpHeaderTest extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the argument, incremented by one.
+		 */
+		public int plain(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	private static class LoggingWebServer extends WebServer {
+		final List errors = new ArrayList();
+
+		LoggingWebServer() {
+			super(0);
+		}
+
+		public void log(Throwable pError) {
+			synchronized (errors) {
+				errors.add(pError);
+			}
+		}
+
+		String getLastError() {
+			synchronized (errors) {
+				return errors.isEmpty() ? null : ((Throwable) errors.get(errors.size()-1)).getMessage();
+			}
+		}
+	}
+
+	private LoggingWebServer webServer;
+
+	protected void setUp() throws Exception {
+		webServer = new LoggingWebServer();
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+		webServer.start();
+	}
+
+	protected void tearDown() throws Exception {
+		webServer.shutdown();
+	}
+
+	private HttpTestConnection newConnection() throws IOException {
+		return new HttpTestConnection(webServer.getPort());
+	}
+
+	private String getRequest(String pHeaders, String pBody) {
+		return "POST / HTTP/1.1\r\n" + pHeaders + "Content-Length: " + pBody.length()
+			+ "\r\n\r\n" + pBody;
+	}
+
+	/** Sends the given request, and checks the result.
+	 */
+	private void assertAnswered(String pRequest, int pArg) throws IOException {
+		final HttpTestConnection conn = newConnection();
+		try {
+			conn.write(pRequest);
+			final HttpTestConnection.Response response = conn.readResponse();
+			assertTrue(response.statusLine, response.statusLine.endsWith(" 200 OK"));
+			assertEquals(String.valueOf(pArg + 1), response.getIntResult());
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Sends the given request, and checks, whether the server closes
+	 * the connection without a response.
+	 */
+	private void assertRejected(String pRequest) throws IOException {
+		final HttpTestConnection conn = newConnection();
+		try {
+			try {
+				conn.write(pRequest);
+			} catch (IOException e) {
+				// The server may close the connection, before the
+				// request has been written completely.
+			}
+			boolean closed;
+			try {
+				closed = conn.isClosed();
+			} catch (IOException e) {
+				closed = true;
+			}
+			assertTrue(closed);
+		} finally {
+			conn.close();
+		}
+		// The server must still be usable.
+		assertAnswered(HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.plain", 3)), 3);
+	}
+
+	/** Tests, whether header names are matched case insensitively,
+	 * and whether white space, and bare line feeds are accepted.
+	 * @throws Exception The test failed.
+	 */
+	public void testHeaderSyntax() throws Exception {
+		final String body = HttpTestConnection.getCall("Handler.plain", 1);
+		assertAnswered("\r\npost  /   HTTP/1.1\r\nhost: 127.0.0.1\r\nCONTENT-type:text/xml\r\n"
+				+ "content-LENGTH: \t" + body.length() + " \t\r\n\r\n" + body, 1);
+		assertAnswered("POST / HTTP/1.0\nContent-Type: text/xml\nContent-Length: "
+				+ body.length() + "\n\n" + body, 1);
+		final StringBuffer sb = new StringBuffer();
+		for (int i = 0;  i < 100;  i++) {
+			sb.append("X-Header-" + i + ": " + i + "\r\n");
+		}
+		assertAnswered(getRequest(sb.toString(), body), 1);
+	}
+
+	/** Tests a request, which is sent in pieces, so that the header,
+	 * including the line terminators, is split across reads.
+	 * @throws Exception The test failed.
+	 */
+	public void testSplitHeader() throws Exception {
+		final StringBuffer filler = new StringBuffer("X-Filler: ");
+		for (int i = 0;  i < 20000;  i++) {
+			filler.append((char) ('a' + i % 26));
+		}
+		filler.append("\r\n");
+		final byte[] bytes = getRequest("Host: 127.0.0.1\r\n" + filler,
+				HttpTestConnection.getCall("Handler.plain", 2)).getBytes("UTF-8");
+		final HttpTestConnection conn = newConnection();
+		try {
+			int offset = 0;
+			for (int i = 0;  offset < bytes.length;  i++) {
+				// Single bytes at the start, then larger pieces.
+				final int len = Math.min(i < 40 ? 1 : 997, bytes.length - offset);
+				final byte[] piece = new byte[len];
+				System.arraycopy(bytes, offset, piece, 0, len);
+				conn.write(piece);
+				offset += len;
+				Thread.sleep(1);
+			}
+			final HttpTestConnection.Response response = conn.readResponse();
+			assertEquals("HTTP/1.1 200 OK", response.statusLine);
+			assertEquals("3", response.getIntResult());
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests request lines, which are missing the URI, or the version.
+	 * @throws Exception The test failed.
+	 */
+	public void testMalformedRequestLine() throws Exception {
+		assertRejected("POST\r\nContent-Length: 0\r\n\r\n");
+		assertEquals("Invalid HTTP request line", webServer.getLastError());
+		assertRejected("POST /\r\nContent-Length: 0\r\n\r\n");
+		assertEquals("Invalid HTTP request line", webServer.getLastError());
+		assertRejected(" \t\r\nContent-Length: 0\r\n\r\n");
+		assertEquals("Invalid HTTP request line", webServer.getLastError());
+	}
+
+	/** Tests, whether a method other than POST is answered with 400.
+	 * @throws Exception The test failed.
+	 */
+	public void testGetRequest() throws Exception {
+		final HttpTestConnection conn = newConnection();
+		try {
+			conn.write("GET / HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n");
+			final HttpTestConnection.Response response = conn.readResponse();
+			assertEquals("HTTP/1.1 400 Bad Request", response.statusLine);
+			assertEquals("Method GET not implemented (try POST)\r\n", response.getBody());
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests invalid values of the Content-Length header.
+	 * @throws Exception The test failed.
+	 */
+	public void testBadContentLength() throws Exception {
+		final String[] values = new String[]{"abc", "-1", "1x", "", "99999999999", "2147483648"};
+		for (int i = 0;  i < values.length;  i++) {
+			assertRejected("POST / HTTP/1.1\r\nContent-Length: " + values[i] + "\r\n\r\n");
+			assertEquals("Invalid Content-Length: " + values[i] + " header",
+					webServer.getLastError());
+		}
+		final String body = HttpTestConnection.getCall("Handler.plain", 4);
+		assertAnswered("POST / HTTP/1.1\r\nContent-Length: 2147483647\r\nContent-Length: "
+				+ body.length() + "\r\n\r\n" + body, 4);
+	}
+
+	/** Tests, whether a header, which exceeds the maximum size of
+	 * 64 kilobytes, is rejected.
+	 * @throws Exception The test failed.
+	 */
+	public void testOversizedHeader() throws Exception {
+		final StringBuffer sb = new StringBuffer();
+		for (int i = 0;  i < 1000;  i++) {
+			sb.append("X-Header-" + i + ": 0123456789012345678901234567890123456789012345678901234567890123456789\r\n");
+		}
+		assertRejected(getRequest(sb.toString(), ""));
+		assertEquals("HTTP Header too long", webServer.getLastError());
+		final StringBuffer line = new StringBuffer("X-Filler: ");
+		for (int i = 0;  i < 70000;  i++) {
+			line.append('x');
+		}
+		assertRejected(getRequest(line.append("\r\n").toString(), ""));
+		assertEquals("HTTP Header too long", webServer.getLastError());
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.xmlrpc.util.ChunkedInputStream;
+import org.apache.xmlrpc.util.LimitedInputStream;
+
+
+/** A minimal HTTP/1.1 client for tests, which need control over
+ * the bytes on the wire, like chunked, or pipelined requests.
+ */
+class HttpTestConnection {
+	/** A response, which has been read from the connection.
+	 */
+	static class Response {
+		final String statusLine;
+		final Map headers;
+		final byte[] body;
+
+		Response(String pStatusLine, Map pHeaders, byte[] pBody) {
+			statusLine = pStatusLine;
+			headers = pHeaders;
+			body = pBody;
+		}
+
+		/** Returns the value of the given header.
+		 * @param pName The header name, case insensitive.
+		 * @return The header value, or null.
+		 */
+		String getHeader(String pName) {
+			return (String) headers.get(pName.toLowerCase());
+		}
+
+		/** Returns the response body as a string.
+		 */
+		String getBody() throws IOException {
+			return new String(body, "UTF-8");
+		}
+
+		/** Returns the content of the first "i4" element of the body.
+		 */
+		String getIntResult() throws IOException {
+			final String s = getBody();
+			final int offset = s.indexOf("<i4>");
+			if (offset == -1) {
+				throw new IllegalStateException("Not an int response: " + s);
+			}
+			return s.substring(offset + 4, s.indexOf("</i4>", offset));
+		}
+	}
+
+	private final Socket socket;
+	private final InputStream istream;
+	private final OutputStream ostream;
+
+	/** Creates a new connection to the given port on the local host.
+	 */
+	HttpTestConnection(int pPort) throws IOException {
+		socket = new Socket("127.0.0.1", pPort);
+		socket.setSoTimeout(10000);
+		istream = new BufferedInputStream(socket.getInputStream());
+		ostream = socket.getOutputStream();
+	}
+
+	/** Returns the body of a call of the given method with a
+	 * single int parameter.
+	 */
+	static String getCall(String pMethodName, int pArg) {
+		return "<?xml version=\"1.0\"?><methodCall><methodName>" + pMethodName
+			+ "</methodName><params><param><value><i4>" + pArg
+			+ "</i4></value></param></params></methodCall>";
+	}
+
+	/** Returns a POST request with the given body, and a content length.
+	 */
+	static String getRequest(String pBody) {
+		return "POST / HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Type: text/xml\r\nContent-Length: "
+			+ pBody.length() + "\r\n\r\n" + pBody;
+	}
+
+	/** Writes the given bytes to the connection.
+	 */
+	void write(byte[] pBytes) throws IOException {
+		ostream.write(pBytes);
+		ostream.flush();
+	}
+
+	/** Writes the given string to the connection.
+	 */
+	void write(String pString) throws IOException {
+		write(pString.getBytes("UTF-8"));
+	}
+
+	/** Reads the next response. The body is delimited by the content
+	 * length, by the chunked transfer encoding, or by the end of the
+	 * connection.
+	 */
+	Response readResponse() throws IOException {
+		final String statusLine = readLine();
+		if (statusLine == null) {
+			throw new IOException("Connection closed");
+		}
+		final Map headers = new HashMap();
+		for (;;) {
+			final String line = readLine();
+			if (line == null) {
+				throw new IOException("Unexpected end of headers");
+			}
+			if (line.length() == 0) {
+				break;
+			}
+			final int offset = line.indexOf(':');
+			headers.put(line.substring(0, offset).trim().toLowerCase(), line.substring(offset+1).trim());
+		}
+		final InputStream body;
+		final String contentLength = (String) headers.get("content-length");
+		if ("chunked".equalsIgnoreCase((String) headers.get("transfer-encoding"))) {
+			body = new ChunkedInputStream(istream);
+		} else if (contentLength != null) {
+			body = new LimitedInputStream(istream, Integer.parseInt(contentLength));
+		} else {
+			body = istream;
+		}
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		for (;;) {
+			final int res = body.read(buffer);
+			if (res == -1) {
+				break;
+			}
+			baos.write(buffer, 0, res);
+		}
+		return new Response(statusLine, headers, baos.toByteArray());
+	}
+
+	private String readLine() throws IOException {
+		final StringBuffer sb = new StringBuffer();
+		for (;;) {
+			final int c = istream.read();
+			if (c == -1) {
+				return sb.length() == 0 ? null : sb.toString();
+			}
+			if (c == '\n') {
+				final int len = sb.length();
+				if (len > 0  &&  sb.charAt(len-1) == '\r') {
+					sb.setLength(len-1);
+				}
+				return sb.toString();
+			}
+			sb.append((char) c);
+		}
+	}
+
+	/** Returns, whether the server has closed the connection.
+	 */
+	boolean isClosed() throws IOException {
+		return istream.read() == -1;
+	}
+
+	/** Closes the connection.
+	 */
+	void close() throws IOException {
+		socket.close();
+	}
+}
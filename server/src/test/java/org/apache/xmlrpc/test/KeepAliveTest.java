@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the parking of idle keepalive connections, and the
+ * connection lifecycle limits of the {@link WebServer}.
+ */
+public class KeepAliveTest extends TestCase {
+	private static final String PARKER_THREAD = "XML-RPC KeepAlive";
+
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the argument, incremented by one.
+		 */
+		public int plain(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	private WebServer webServer;
+	private XmlRpcServerConfigImpl config;
+
+	protected void setUp() throws Exception {
+		// Wait for the parkers of previous tests to terminate.
+		for (int i = 0;  i < 100  &&  isParkerRunning();  i++) {
+			Thread.sleep(10);
+		}
+		webServer = new WebServer(0);
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+		config = (XmlRpcServerConfigImpl) webServer.getXmlRpcServer().getConfig();
+	}
+
+	protected void tearDown() throws Exception {
+		webServer.shutdown();
+	}
+
+	private static boolean isParkerRunning() {
+		for (Iterator iter = Thread.getAllStackTraces().keySet().iterator();  iter.hasNext();  ) {
+			if (PARKER_THREAD.equals(((Thread) iter.next()).getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static HttpTestConnection.Response call(HttpTestConnection pConnection, int pArg)
+			throws Exception {
+		pConnection.write(HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.plain", pArg)));
+		return pConnection.readResponse();
+	}
+
+	/** Tests, whether the parker isn't started, if keepalive is
+	 * disabled, and connections are closed after a single request.
+	 * @throws Exception The test failed.
+	 */
+	public void testKeepAliveDisabled() throws Exception {
+		webServer.start();
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			assertEquals("2", call(conn, 1).getIntResult());
+			assertTrue(conn.isClosed());
+		} finally {
+			conn.close();
+		}
+		assertFalse(isParkerRunning());
+	}
+
+	/** Tests, whether an idle connection is parked, and resumed by
+	 * the next request.
+	 * @throws Exception The test failed.
+	 */
+	public void testParkedConnection() throws Exception {
+		config.setKeepAliveEnabled(true);
+		webServer.start();
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			for (int i = 0;  i < 3;  i++) {
+				final HttpTestConnection.Response response = call(conn, i);
+				assertEquals(String.valueOf(i+1), response.getIntResult());
+				assertFalse("close".equalsIgnoreCase(response.getHeader("Connection")));
+				Thread.sleep(200);
+			}
+		} finally {
+			conn.close();
+		}
+		assertTrue(isParkerRunning());
+	}
+
+	/** Tests, whether a parked connection is closed, when the
+	 * keepalive timeout expires.
+	 * @throws Exception The test failed.
+	 */
+	public void testKeepAliveTimeout() throws Exception {
+		config.setKeepAliveEnabled(true);
+		config.setKeepAliveTimeout(300);
+		webServer.start();
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			assertEquals("2", call(conn, 1).getIntResult());
+			final long start = System.currentTimeMillis();
+			assertTrue(conn.isClosed());
+			assertTrue(System.currentTimeMillis() - start >= 250);
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether the connection is closed after the maximum
+	 * number of requests.
+	 * @throws Exception The test failed.
+	 */
+	public void testMaxKeepAliveRequests() throws Exception {
+		config.setKeepAliveEnabled(true);
+		config.setMaxKeepAliveRequests(2);
+		webServer.start();
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			assertFalse("close".equalsIgnoreCase(call(conn, 1).getHeader("Connection")));
+			final HttpTestConnection.Response last = call(conn, 2);
+			assertEquals("3", last.getIntResult());
+			assertEquals("close", last.getHeader("Connection"));
+			assertTrue(conn.isClosed());
+		} finally {
+			conn.close();
+		}
+	}
+}
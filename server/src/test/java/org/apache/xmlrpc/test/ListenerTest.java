@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the listener threads, and the backlog of
+ * the {@link WebServer}.
+ */
+public class ListenerTest extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the argument, incremented by one.
+		 */
+		public int plain(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	private static class RecordingWebServer extends WebServer {
+		final List backlogs = new ArrayList();
+
+		RecordingWebServer() {
+			super(0);
+		}
+
+		protected ServerSocketChannel createServerSocketChannel(int pPort, int pBacklog,
+				InetAddress pAddr) throws IOException {
+			synchronized (backlogs) {
+				backlogs.add(new Integer(pBacklog));
+			}
+			return super.createServerSocketChannel(pPort, pBacklog, pAddr);
+		}
+	}
+
+	private RecordingWebServer webServer;
+
+	protected void setUp() throws Exception {
+		webServer = new RecordingWebServer();
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+	}
+
+	protected void tearDown() throws Exception {
+		webServer.shutdown();
+	}
+
+	/** Returns, whether multiple sockets may be bound to the same port.
+	 */
+	private static boolean isReusePortSupported() throws IOException {
+		final SocketOption option;
+		try {
+			option = (SocketOption) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (Exception e) {
+			return false;
+		}
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			return channel.supportedOptions().contains(option);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/** Returns the names of the live listener threads.
+	 */
+	private static List getListenerThreads() {
+		final List result = new ArrayList();
+		for (Iterator iter = Thread.getAllStackTraces().keySet().iterator();  iter.hasNext();  ) {
+			final Thread t = (Thread) iter.next();
+			if (t.isAlive()  &&  t.getName().startsWith("XML-RPC Weblistener")) {
+				result.add(t.getName());
+			}
+		}
+		return result;
+	}
+
+	private void waitForListenerThreads(int pNum) throws InterruptedException {
+		for (int i = 0;  i < 100  &&  getListenerThreads().size() != pNum;  i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(getListenerThreads().toString(), pNum, getListenerThreads().size());
+	}
+
+	/** Tests the default values, and the validation of the settings.
+	 */
+	public void testSettings() {
+		assertEquals(50, webServer.getBacklog());
+		assertEquals(1, webServer.getListenerThreads());
+		webServer.setBacklog(0);
+		assertEquals(0, webServer.getBacklog());
+		webServer.setListenerThreads(3);
+		assertEquals(3, webServer.getListenerThreads());
+		try {
+			webServer.setListenerThreads(0);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertEquals(3, webServer.getListenerThreads());
+		}
+	}
+
+	private void testBacklog(boolean pNonBlocking) throws Exception {
+		webServer.setNonBlocking(pNonBlocking);
+		webServer.setBacklog(7);
+		webServer.start();
+		assertEquals(1, webServer.backlogs.size());
+		assertEquals(new Integer(7), webServer.backlogs.get(0));
+		assertCalls(1);
+	}
+
+	/** Tests, whether the backlog is passed to the server socket in
+	 * blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testBacklog() throws Exception {
+		testBacklog(false);
+	}
+
+	/** Tests, whether the backlog is passed to the server socket in
+	 * non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testBacklogNonBlocking() throws Exception {
+		testBacklog(true);
+	}
+
+	/** Opens the given number of connections at once, and performs
+	 * a call over each.
+	 */
+	private void assertCalls(int pNum) throws IOException {
+		final HttpTestConnection[] conns = new HttpTestConnection[pNum];
+		try {
+			for (int i = 0;  i < pNum;  i++) {
+				conns[i] = new HttpTestConnection(webServer.getPort());
+			}
+			for (int i = 0;  i < pNum;  i++) {
+				conns[i].write(HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.plain", i)));
+			}
+			for (int i = 0;  i < pNum;  i++) {
+				assertEquals(String.valueOf(i + 1), conns[i].readResponse().getIntResult());
+			}
+		} finally {
+			for (int i = 0;  i < pNum;  i++) {
+				if (conns[i] != null) {
+					conns[i].close();
+				}
+			}
+		}
+	}
+
+	private void testListenerThreads(boolean pNonBlocking) throws Exception {
+		webServer.setNonBlocking(pNonBlocking);
+		webServer.setListenerThreads(4);
+		webServer.start();
+		waitForListenerThreads(4);
+		assertTrue(getListenerThreads().contains("XML-RPC Weblistener"));
+		assertTrue(getListenerThreads().contains("XML-RPC Weblistener-3"));
+		// With SO_REUSEPORT, every listener thread has a socket of its own.
+		final int numSockets = isReusePortSupported() ? 4 : 1;
+		assertEquals(numSockets, webServer.backlogs.size());
+		assertCalls(40);
+
+		webServer.shutdown();
+		waitForListenerThreads(0);
+		try {
+			new Socket("127.0.0.1", webServer.getPort()).close();
+			fail("Expected ConnectException");
+		} catch (ConnectException e) {
+			// All sockets have been closed.
+		}
+	}
+
+	/** Tests multiple listener threads in blocking mode, including
+	 * the shutdown.
+	 * @throws Exception The test failed.
+	 */
+	public void testListenerThreads() throws Exception {
+		testListenerThreads(false);
+	}
+
+	/** Tests multiple listener threads in non-blocking mode, including
+	 * the shutdown.
+	 * @throws Exception The test failed.
+	 */
+	public void testListenerThreadsNonBlocking() throws Exception {
+		testListenerThreads(true);
+	}
+}
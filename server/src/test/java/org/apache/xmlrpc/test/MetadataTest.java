@@ -21,7 +21,9 @@ package org.apache.xmlrpc.test;
 import java.io.IOException;
 import java.text.Collator;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.client.XmlRpcClient;
@@ -76,11 +78,12 @@ public class MetadataTest extends XmlRpcTestCase {
         Object o = client.execute("system.listMethods", new Object[0]);
         Object[] methodList = (Object[]) o;
         Arrays.sort(methodList, Collator.getInstance(Locale.US));
-        assertEquals(4, methodList.length);
+        assertEquals(5, methodList.length);
         assertEquals("Adder.add", methodList[0]);
         assertEquals("system.listMethods", methodList[1]);
         assertEquals("system.methodHelp", methodList[2]);
         assertEquals("system.methodSignature", methodList[3]);
+        assertEquals("system.multicall", methodList[4]);
     }
 
     /**
@@ -120,5 +123,47 @@ public class MetadataTest extends XmlRpcTestCase {
         assertEquals("int", signature[0]);
         assertEquals("int", signature[1]);
         assertEquals("int", signature[2]);
+
+        // The method returns a CompletionStage, which provides the array.
+        signatures = (Object[]) client.execute("system.methodSignature", new Object[]{"system.multicall"});
+        assertEquals(1, signatures.length);
+        signature = (Object[]) signatures[0];
+        assertEquals(2, signature.length);
+        assertEquals("array", signature[0]);
+        assertEquals("array", signature[1]);
+    }
+
+    /**
+     * Test for system.multicall.
+     */
+    public void testMulticall() throws Exception {
+        for (int i = 0;  i < providers.length;  i++) {
+            testMulticall(providers[i]);
+        }
+    }
+
+    private Map newCall(String pMethodName, Object[] pParams) {
+        Map call = new HashMap();
+        call.put("methodName", pMethodName);
+        call.put("params", pParams);
+        return call;
+    }
+
+    private void testMulticall(ClientProvider pProvider) throws Exception {
+        XmlRpcClient client = pProvider.getClient();
+        XmlRpcClientConfig config = getConfig(pProvider);
+        client.setConfig(config);
+        Object[] calls = new Object[]{
+            newCall("Adder.add", new Object[]{new Integer(3), new Integer(5)}),
+            newCall("Adder.unknown", new Object[0]),
+            newCall("system.multicall", new Object[]{new Object[0]}),
+            newCall("Adder.add", new Object[]{new Integer(1), new Integer(2)})
+        };
+        Object[] results = (Object[]) client.execute("system.multicall", new Object[]{calls});
+        assertEquals(4, results.length);
+        assertEquals(new Integer(8), ((Object[]) results[0])[0]);
+        assertNotNull(((Map) results[1]).get("faultString"));
+        assertNotNull(((Map) results[2]).get("faultString"));
+        assertEquals(new Integer(3), ((Object[]) results[3])[0]);
     }
 }
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.common.TypeConverter;
+import org.apache.xmlrpc.common.TypeConverterFactory;
+import org.apache.xmlrpc.common.XmlRpcInvocationException;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.RequestProcessorFactoryFactory;
+
+
+/** Test case for the invocation of handler methods by the
+ * {@link org.apache.xmlrpc.server.ReflectiveXmlRpcHandler}, which
+ * uses method handles, if possible, and reflection otherwise.
+ */
+public class MethodHandleTest extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the sum of the arguments.
+		 */
+		public int add(int pNum1, int pNum2) {
+			return pNum1 + pNum2;
+		}
+
+		/** Returns the concatenation of the arguments.
+		 */
+		public String concat(Object[] pArgs) {
+			final StringBuffer sb = new StringBuffer();
+			for (int i = 0;  i < pArgs.length;  i++) {
+				sb.append(pArgs[i]);
+			}
+			return sb.toString();
+		}
+
+		/** Throws a {@link ClassCastException} by itself.
+		 */
+		public int castFail(String pArg) {
+			return ((Integer) (Object) pArg).intValue();
+		}
+
+		/** Throws an {@link XmlRpcException}, which is passed to the
+		 * client unmodified.
+		 */
+		public int xmlRpcFail() throws XmlRpcException {
+			throw new XmlRpcException(42, "Custom failure");
+		}
+
+		/** A static method, which is only exposed by the
+		 * {@link StaticMapping}.
+		 */
+		public static int twice(int pArg) {
+			return 2 * pArg;
+		}
+	}
+
+	/** A handler, which isn't accessible from other packages, so
+	 * that no method handle can be created.
+	 */
+	static class HiddenHandler {
+		/** Returns the argument, incremented by one.
+		 */
+		public int increment(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	/** A mapping, which exposes static methods as well.
+	 */
+	private static class StaticMapping extends PropertyHandlerMapping {
+		protected boolean isHandlerMethod(Method pMethod) {
+			if (Modifier.isStatic(pMethod.getModifiers())
+					&&  Modifier.isPublic(pMethod.getModifiers())) {
+				return true;
+			}
+			return super.isHandlerMethod(pMethod);
+		}
+	}
+
+	/** A type converter factory, which accepts any argument without
+	 * converting it, so that the handler method is invoked with
+	 * arguments of the wrong type.
+	 */
+	private static class AcceptingTypeConverterFactory implements TypeConverterFactory {
+		public TypeConverter getTypeConverter(Class pClass) {
+			return new TypeConverter(){
+				public boolean isConvertable(Object pObject) { return true; }
+				public Object convert(Object pObject) { return pObject; }
+				public Object backConvert(Object pObject) { return pObject; }
+			};
+		}
+	}
+
+	private PropertyHandlerMapping mapping;
+
+	private Object execute(String pMethodName, Object[] pArgs) throws XmlRpcException {
+		return mapping.getHandler(pMethodName).execute(new XmlRpcClientRequestImpl(new XmlRpcClientConfigImpl(),
+				pMethodName, pArgs));
+	}
+
+	/** Tests invocations of instance methods by method handles,
+	 * including the propagation of exceptions.
+	 * @throws Exception The test failed.
+	 */
+	public void testMethodHandle() throws Exception {
+		mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		assertEquals(new Integer(5), execute("Handler.add", new Object[]{new Integer(2), new Integer(3)}));
+		assertEquals("abc", execute("Handler.concat", new Object[]{new Object[]{"a", "b", "c"}}));
+		try {
+			execute("Handler.xmlRpcFail", new Object[0]);
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			assertEquals(42, e.code);
+			assertEquals("Custom failure", e.getMessage());
+		}
+		try {
+			execute("Handler.castFail", new Object[]{"abc"});
+			fail("Expected XmlRpcInvocationException");
+		} catch (XmlRpcInvocationException e) {
+			assertTrue(e.getCause() instanceof ClassCastException);
+		}
+	}
+
+	/** Tests invocations of static methods.
+	 * @throws Exception The test failed.
+	 */
+	public void testStaticMethod() throws Exception {
+		mapping = new StaticMapping();
+		mapping.addHandler("Handler", Handler.class);
+		assertEquals(new Integer(6), execute("Handler.twice", new Object[]{new Integer(3)}));
+		assertEquals(new Integer(5), execute("Handler.add", new Object[]{new Integer(2), new Integer(3)}));
+	}
+
+	/** Tests, whether static methods aren't exposed by default.
+	 * @throws Exception The test failed.
+	 */
+	public void testStaticMethodHidden() throws Exception {
+		mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		try {
+			mapping.getHandler("Handler.twice");
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			// Ok
+		}
+	}
+
+	/** Tests, whether reflection is used for methods, which aren't
+	 * accessible by a method handle, and whether its errors are
+	 * reported as before.
+	 * @throws Exception The test failed.
+	 */
+	public void testReflectionFallback() throws Exception {
+		mapping = new PropertyHandlerMapping();
+		mapping.setRequestProcessorFactoryFactory(new RequestProcessorFactoryFactory(){
+			public RequestProcessorFactory getRequestProcessorFactory(Class pClass) {
+				return new RequestProcessorFactory(){
+					public Object getRequestProcessor(XmlRpcRequest pRequest) {
+						return new HiddenHandler();
+					}
+				};
+			}
+		});
+		mapping.addHandler("Hidden", HiddenHandler.class);
+		try {
+			execute("Hidden.increment", new Object[]{new Integer(1)});
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Illegal access to method increment"));
+			assertTrue(e.getCause() instanceof IllegalAccessException);
+		}
+	}
+
+	/** Tests, whether arguments of the wrong type are reported as
+	 * illegal arguments, and not as failures of the method.
+	 * @throws Exception The test failed.
+	 */
+	public void testIllegalArgument() throws Exception {
+		mapping = new PropertyHandlerMapping();
+		mapping.setTypeConverterFactory(new AcceptingTypeConverterFactory());
+		mapping.addHandler("Handler", Handler.class);
+		final Object[][] args = new Object[][]{
+			new Object[]{"2", new Integer(3)},
+			new Object[]{null, new Integer(3)},
+			new Object[]{new Long(2), new Integer(3)}
+		};
+		for (int i = 0;  i < args.length;  i++) {
+			try {
+				execute("Handler.add", args[i]);
+				fail("Expected XmlRpcException");
+			} catch (XmlRpcInvocationException e) {
+				fail("Unexpected XmlRpcInvocationException: " + e.getMessage());
+			} catch (XmlRpcException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Illegal argument for method add"));
+			}
+		}
+		// Exceptions of the same type, which are thrown by the method,
+		// are still reported as invocation failures.
+		try {
+			execute("Handler.castFail", new Object[]{"abc"});
+			fail("Expected XmlRpcInvocationException");
+		} catch (XmlRpcInvocationException e) {
+			assertTrue(e.getCause() instanceof ClassCastException);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.    
+ */
+package org.apache.xmlrpc.test;
+
+import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+
+
+/** Implementation of {@link BaseTest} for testing the
+ * {@link org.apache.xmlrpc.webserver.WebServer WebServer's}
+ * non-blocking mode with HTTP keepalive.
+ */
+public class NonBlockingWebServerProvider extends SunHttpTransportProvider {
+	/** Creates a new instance.
+	 * @param pMapping The test servers handler mapping.
+	 * @param pContentLength Number of bytes being transmitted.
+	 */
+	public NonBlockingWebServerProvider(XmlRpcHandlerMapping pMapping, boolean pContentLength) {
+		super(pMapping, pContentLength);
+		webServer.setNonBlocking(true);
+	}
+
+	protected void initWebServer() throws Exception {
+		XmlRpcServerConfigImpl serverConfig = (XmlRpcServerConfigImpl) webServer.getXmlRpcServer().getConfig();
+		serverConfig.setKeepAliveEnabled(true);
+		super.initWebServer();
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.common.TypeConverter;
+import org.apache.xmlrpc.common.TypeConverterFactory;
+import org.apache.xmlrpc.common.TypeConverterFactoryImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+
+
+/** Test case for the cache of resolved overloaded methods in the
+ * {@link org.apache.xmlrpc.server.ReflectiveXmlRpcHandler}.
+ */
+public class OverloadCacheTest extends TestCase {
+	/** The handler being invoked by the test. Its methods return
+	 * their signature.
+	 */
+	public static class Handler {
+		/** Returns the signature.
+		 */
+		public String over(int pArg) { return "int"; }
+		/** Returns the signature.
+		 */
+		public String over(String pArg) { return "String"; }
+		/** Returns the signature.
+		 */
+		public String over(double pArg) { return "double"; }
+		/** Returns the signature.
+		 */
+		public String over(String pArg1, int pArg2) { return "String,int"; }
+		/** Returns the signature.
+		 */
+		public String over(int pArg1, String pArg2) { return "int,String"; }
+	}
+
+	/** A handler, which is used with the {@link ValueTypeConverterFactory}.
+	 */
+	public static class ValueHandler {
+		/** Returns the signature.
+		 */
+		public String value(String pArg) { return "String"; }
+		/** Returns the signature.
+		 */
+		public String value(Object pArg) { return "Object"; }
+	}
+
+	/** A type converter factory, which violates the caches
+	 * assumption: Strings are convertible to a string parameter,
+	 * if they start with "s", and to an object parameter otherwise.
+	 */
+	private static class ValueTypeConverterFactory extends TypeConverterFactoryImpl {
+		public TypeConverter getTypeConverter(Class pClass) {
+			final TypeConverter converter = super.getTypeConverter(pClass);
+			if (pClass != String.class  &&  pClass != Object.class) {
+				return converter;
+			}
+			final boolean stringParam = pClass == String.class;
+			return new TypeConverter(){
+				public boolean isConvertable(Object pObject) {
+					final boolean s = pObject instanceof String  &&  ((String) pObject).startsWith("s");
+					return stringParam ? s : !s;
+				}
+				public Object convert(Object pObject) {
+					return converter.convert(pObject);
+				}
+				public Object backConvert(Object pObject) {
+					return converter.backConvert(pObject);
+				}
+			};
+		}
+	}
+
+	private static final Object[][] ARGS = new Object[][]{
+		new Object[]{new Integer(1)},
+		new Object[]{"a"},
+		new Object[]{new Double(1.5)},
+		new Object[]{null},
+		new Object[]{"a", new Integer(1)},
+		new Object[]{new Integer(1), "a"},
+		new Object[]{null, new Integer(1)},
+		new Object[]{new Integer(1), null}
+	};
+	private static final String[] RESULTS = new String[]{
+		"int", "String", "double", "String", "String,int", "int,String",
+		"String,int", "int,String"
+	};
+
+	private static PropertyHandlerMapping newMapping(int pCacheSize,
+			TypeConverterFactory pFactory) throws XmlRpcException {
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.setOverloadCacheSize(pCacheSize);
+		if (pFactory != null) {
+			mapping.setTypeConverterFactory(pFactory);
+		}
+		mapping.addHandler("Handler", Handler.class);
+		mapping.addHandler("ValueHandler", ValueHandler.class);
+		return mapping;
+	}
+
+	private static Object execute(PropertyHandlerMapping pMapping, String pMethodName,
+			Object[] pArgs) throws XmlRpcException {
+		return pMapping.getHandler(pMethodName).execute(new XmlRpcClientRequestImpl(new XmlRpcClientConfigImpl(),
+				pMethodName, pArgs));
+	}
+
+	private void assertResolved(PropertyHandlerMapping pMapping) throws XmlRpcException {
+		// Repeat, so that both cache misses, and hits are checked.
+		for (int i = 0;  i < 3;  i++) {
+			for (int j = 0;  j < ARGS.length;  j++) {
+				assertEquals(RESULTS[j], execute(pMapping, "Handler.over", ARGS[j]));
+			}
+		}
+	}
+
+	/** Tests, whether overloaded methods are resolved correctly
+	 * with the default cache size.
+	 * @throws Exception The test failed.
+	 */
+	public void testDefaultCache() throws Exception {
+		assertResolved(newMapping(64, null));
+	}
+
+	/** Tests, whether overloaded methods are resolved correctly,
+	 * if all signatures are mapped to the same cache slot.
+	 * @throws Exception The test failed.
+	 */
+	public void testSlotCollisions() throws Exception {
+		assertResolved(newMapping(1, null));
+		assertResolved(newMapping(2, null));
+	}
+
+	/** Tests, whether null arguments are cached separately from
+	 * non-null arguments.
+	 * @throws Exception The test failed.
+	 */
+	public void testNullArguments() throws Exception {
+		final PropertyHandlerMapping mapping = newMapping(64, null);
+		assertEquals("String,int", execute(mapping, "Handler.over", new Object[]{null, new Integer(1)}));
+		assertEquals("int,String", execute(mapping, "Handler.over", new Object[]{new Integer(1), null}));
+		assertEquals("String,int", execute(mapping, "Handler.over", new Object[]{"a", new Integer(1)}));
+		assertEquals("String,int", execute(mapping, "Handler.over", new Object[]{null, new Integer(1)}));
+		try {
+			// Null isn't convertible to an int.
+			execute(mapping, "Handler.over", new Object[]{null, null});
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("No method matching arguments"));
+		}
+	}
+
+	/** Tests, whether a cache size of 0 disables the cache, and
+	 * documents the assumption, that the converters depend on the
+	 * arguments class only: Otherwise, the cached method may be
+	 * used for arguments, which it doesn't accept.
+	 * @throws Exception The test failed.
+	 */
+	public void testValueDependentConverters() throws Exception {
+		final TypeConverterFactory factory = new ValueTypeConverterFactory();
+		assertResolved(newMapping(0, null));
+		final PropertyHandlerMapping uncached = newMapping(0, factory);
+		assertEquals("String", execute(uncached, "ValueHandler.value", new Object[]{"sss"}));
+		assertEquals("Object", execute(uncached, "ValueHandler.value", new Object[]{"abc"}));
+		assertEquals("String", execute(uncached, "ValueHandler.value", new Object[]{"sss"}));
+
+		final PropertyHandlerMapping cached = newMapping(64, factory);
+		assertEquals("String", execute(cached, "ValueHandler.value", new Object[]{"sss"}));
+		// The cached method is reused for the same argument class.
+		assertEquals("String", execute(cached, "ValueHandler.value", new Object[]{"abc"}));
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for HTTP/1.1 pipelining against the
+ * {@link WebServer}, in particular for requests, which
+ * are queued behind a deferred response.
+ */
+public class PipeliningTest extends TestCase {
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns twice the argument, after a short delay.
+		 */
+		public CompletionStage slow(final int pArg) {
+			final CompletableFuture future = new CompletableFuture();
+			scheduler.schedule(new Runnable(){
+				public void run() {
+					future.complete(new Integer(pArg * 2));
+				}
+			}, 200, TimeUnit.MILLISECONDS);
+			return future;
+		}
+
+		/** Returns the argument, incremented by one.
+		 */
+		public int plain(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	private WebServer webServer;
+
+	private int startWebServer(boolean pNonBlocking) throws Exception {
+		webServer = new WebServer(0);
+		webServer.setNonBlocking(pNonBlocking);
+		PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+		XmlRpcServerConfigImpl config = (XmlRpcServerConfigImpl) webServer.getXmlRpcServer().getConfig();
+		config.setKeepAliveEnabled(true);
+		webServer.start();
+		return webServer.getPort();
+	}
+
+	protected void tearDown() throws Exception {
+		if (webServer != null) {
+			webServer.shutdown();
+			webServer = null;
+		}
+	}
+
+	private String getRequest(String pMethod, int pArg) {
+		return HttpTestConnection.getRequest(HttpTestConnection.getCall(pMethod, pArg));
+	}
+
+	private void testPipelinedRequests(boolean pNonBlocking) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(startWebServer(pNonBlocking));
+		try {
+			final StringBuffer sb = new StringBuffer();
+			for (int i = 0;  i < 10;  i++) {
+				sb.append(getRequest("Handler.plain", i));
+			}
+			conn.write(sb.toString());
+			for (int i = 0;  i < 10;  i++) {
+				assertEquals(String.valueOf(i+1), conn.readResponse().getIntResult());
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether pipelined requests, which are sent with a single
+	 * write, are answered in order in blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testPipelinedRequests() throws Exception {
+		testPipelinedRequests(false);
+	}
+
+	/** Tests, whether pipelined requests, which are sent with a single
+	 * write, are answered in order in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testPipelinedRequestsNonBlocking() throws Exception {
+		testPipelinedRequests(true);
+	}
+
+	private void testSplitRequests(boolean pNonBlocking) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(startWebServer(pNonBlocking));
+		try {
+			final StringBuffer sb = new StringBuffer();
+			for (int i = 0;  i < 5;  i++) {
+				sb.append(getRequest("Handler.plain", i));
+			}
+			// Pieces, which end in the middle of headers, and bodies.
+			final byte[] bytes = sb.toString().getBytes("UTF-8");
+			for (int offset = 0;  offset < bytes.length;  ) {
+				final int len = Math.min(97, bytes.length - offset);
+				final byte[] piece = new byte[len];
+				System.arraycopy(bytes, offset, piece, 0, len);
+				conn.write(piece);
+				offset += len;
+				Thread.sleep(2);
+			}
+			for (int i = 0;  i < 5;  i++) {
+				assertEquals(String.valueOf(i+1), conn.readResponse().getIntResult());
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests pipelined requests, which arrive in pieces, in blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testSplitRequests() throws Exception {
+		testSplitRequests(false);
+	}
+
+	/** Tests pipelined requests, which arrive in pieces, in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testSplitRequestsNonBlocking() throws Exception {
+		testSplitRequests(true);
+	}
+
+	private void testConnectionClose(boolean pNonBlocking) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(startWebServer(pNonBlocking));
+		try {
+			final String body = HttpTestConnection.getCall("Handler.plain", 2);
+			conn.write(getRequest("Handler.plain", 1)
+					+ "POST / HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\nContent-Type: text/xml\r\n"
+					+ "Content-Length: " + body.length() + "\r\n\r\n" + body);
+			assertEquals("2", conn.readResponse().getIntResult());
+			final HttpTestConnection.Response response = conn.readResponse();
+			assertEquals("3", response.getIntResult());
+			assertEquals("close", response.getHeader("Connection"));
+			assertTrue(conn.isClosed());
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether the connection is closed after a pipelined
+	 * request with "Connection: close" in blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testConnectionClose() throws Exception {
+		testConnectionClose(false);
+	}
+
+	/** Tests, whether the connection is closed after a pipelined
+	 * request with "Connection: close" in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testConnectionCloseNonBlocking() throws Exception {
+		testConnectionClose(true);
+	}
+
+	private void testPipelinedDeferredResponse(boolean pNonBlocking) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(startWebServer(pNonBlocking));
+		try {
+			conn.write(getRequest("Handler.slow", 5) + getRequest("Handler.plain", 7)
+					+ getRequest("Handler.slow", 9) + getRequest("Handler.plain", 1));
+			assertEquals("10", conn.readResponse().getIntResult());
+			assertEquals("8", conn.readResponse().getIntResult());
+			assertEquals("18", conn.readResponse().getIntResult());
+			assertEquals("2", conn.readResponse().getIntResult());
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether a plain call, which is pipelined behind a call
+	 * returning a {@link CompletionStage}, is answered in blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testPipelinedDeferredResponse() throws Exception {
+		testPipelinedDeferredResponse(false);
+	}
+
+	/** Tests, whether a plain call, which is pipelined behind a call
+	 * returning a {@link CompletionStage}, is answered in non-blocking mode.
+	 * @throws Exception The test failed.
+	 */
+	public void testPipelinedDeferredResponseNonBlocking() throws Exception {
+		testPipelinedDeferredResponse(true);
+	}
+}
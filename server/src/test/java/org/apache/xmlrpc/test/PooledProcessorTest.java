@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.RequestProcessorFactoryFactory;
+import org.apache.xmlrpc.server.RequestProcessorFactoryFactory.PooledProcessorFactoryFactory;
+import org.apache.xmlrpc.server.RequestProcessorFactoryFactory.ReleasingRequestProcessorFactory;
+
+
+/** Test case for the {@link PooledProcessorFactoryFactory}.
+ */
+public class PooledProcessorTest extends TestCase {
+	/** The handler being invoked by the test. It counts its
+	 * instances, and keeps some state, which is cleared by
+	 * {@link #reset()}.
+	 */
+	public static class Handler implements RequestProcessorFactoryFactory.Resettable {
+		static int numInstances;
+		static CompletableFuture pending;
+		private int numCalls;
+
+		/** Creates a new instance.
+		 */
+		public Handler() {
+			++numInstances;
+		}
+
+		/** Returns the number of calls since the last reset.
+		 */
+		public int count() {
+			return ++numCalls;
+		}
+
+		/** Returns a stage, which is completed by the test.
+		 */
+		public CompletionStage deferredCount() {
+			pending = new CompletableFuture();
+			final int result = ++numCalls;
+			return pending.thenApply(new Function(){
+				public Object apply(Object pIgnored) {
+					return new Integer(result);
+				}
+			});
+		}
+
+		public void reset() {
+			numCalls = 0;
+		}
+	}
+
+	/** A handler with a constructor, which isn't public.
+	 */
+	public static class HiddenHandler {
+		HiddenHandler() {
+			// Not public
+		}
+	}
+
+	private PropertyHandlerMapping mapping;
+
+	protected void setUp() throws Exception {
+		Handler.numInstances = 0;
+		mapping = new PropertyHandlerMapping();
+		mapping.setRequestProcessorFactoryFactory(new PooledProcessorFactoryFactory(1));
+		mapping.addHandler("Handler", Handler.class);
+	}
+
+	private Object execute(String pMethodName) throws XmlRpcException {
+		return mapping.getHandler(pMethodName).execute(new XmlRpcClientRequestImpl(new XmlRpcClientConfigImpl(),
+				pMethodName, new Object[0]));
+	}
+
+	/** Tests, whether request processors are reused, and reset
+	 * before they are reused.
+	 * @throws Exception The test failed.
+	 */
+	public void testReuse() throws Exception {
+		for (int i = 0;  i < 5;  i++) {
+			assertEquals(new Integer(1), execute("Handler.count"));
+		}
+		assertEquals(1, Handler.numInstances);
+	}
+
+	/** Tests, whether a request processor is kept by a deferred
+	 * request, until the result is complete.
+	 * @throws Exception The test failed.
+	 */
+	public void testDeferredRequest() throws Exception {
+		final CompletionStage stage = (CompletionStage) execute("Handler.deferredCount");
+		final CompletableFuture pending = Handler.pending;
+		assertEquals(new Integer(1), execute("Handler.count"));
+		assertEquals(2, Handler.numInstances);
+		pending.complete(null);
+		assertEquals(new Integer(1), stage.toCompletableFuture().get());
+		// The pool holds a single instance, so one of both has been discarded.
+		assertEquals(new Integer(1), execute("Handler.count"));
+		assertEquals(new Integer(1), execute("Handler.count"));
+		assertEquals(2, Handler.numInstances);
+	}
+
+	/** Tests, whether the {@link RequestProcessorFactoryFactory.Resettable}
+	 * interface isn't exposed as a remote method.
+	 * @throws Exception The test failed.
+	 */
+	public void testResetNotExposed() throws Exception {
+		try {
+			mapping.getHandler("Handler.reset");
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			// Ok
+		}
+	}
+
+	/** Tests, whether the pool size is respected, and request
+	 * processors, which can't be reset, are discarded.
+	 * @throws Exception The test failed.
+	 */
+	public void testPoolSize() throws Exception {
+		final PooledProcessorFactoryFactory factoryFactory = new PooledProcessorFactoryFactory(1){
+			protected boolean resetRequestProcessor(Object pProcessor) {
+				if (((Handler) pProcessor).numCalls > 1) {
+					throw new IllegalStateException();
+				}
+				return ((Handler) pProcessor).numCalls == 0;
+			}
+		};
+		final ReleasingRequestProcessorFactory factory = (ReleasingRequestProcessorFactory)
+			factoryFactory.getRequestProcessorFactory(Handler.class);
+		final Handler h1 = (Handler) factory.getRequestProcessor(null);
+		final Handler h2 = (Handler) factory.getRequestProcessor(null);
+		assertNotSame(h1, h2);
+		factory.releaseRequestProcessor(h1);
+		factory.releaseRequestProcessor(h2);  // Discarded, because the pool is full
+		assertSame(h1, factory.getRequestProcessor(null));
+		assertNotSame(h2, factory.getRequestProcessor(null));
+
+		h1.count();
+		factory.releaseRequestProcessor(h1);  // Discarded, because reset returns false
+		assertNotSame(h1, factory.getRequestProcessor(null));
+		h1.count();
+		factory.releaseRequestProcessor(h1);  // Discarded, because reset throws
+		assertNotSame(h1, factory.getRequestProcessor(null));
+
+		final ReleasingRequestProcessorFactory unpooled = (ReleasingRequestProcessorFactory)
+			new PooledProcessorFactoryFactory(0).getRequestProcessorFactory(Handler.class);
+		final Object h3 = unpooled.getRequestProcessor(null);
+		unpooled.releaseRequestProcessor(h3);
+		assertNotSame(h3, unpooled.getRequestProcessor(null));
+	}
+
+	/** Tests, whether a class without public constructor is
+	 * rejected like by the other factories.
+	 * @throws Exception The test failed.
+	 */
+	public void testHiddenConstructor() throws Exception {
+		final RequestProcessorFactoryFactory.RequestProcessorFactory factory =
+			new PooledProcessorFactoryFactory().getRequestProcessorFactory(HiddenHandler.class);
+		try {
+			factory.getRequestProcessor(null);
+			fail("Expected XmlRpcException");
+		} catch (XmlRpcException e) {
+			// Ok
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the {@link WebServer#setPrebuffering(boolean) prebuffering}
+ * of requests in the blocking mode of the {@link WebServer}.
+ */
+public class PrebufferTest extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the argument.
+		 */
+		public String echo(String pArg) {
+			return pArg;
+		}
+
+		/** Returns the argument, incremented by one.
+		 */
+		public int plain(int pArg) {
+			return pArg + 1;
+		}
+	}
+
+	private WebServer webServer;
+
+	protected void setUp() throws Exception {
+		webServer = new WebServer(0);
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+		webServer.setPrebuffering(true);
+	}
+
+	protected void tearDown() throws Exception {
+		webServer.shutdown();
+	}
+
+	private XmlRpcClient getClient() throws Exception {
+		final XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+		config.setServerURL(new URL("http://127.0.0.1:" + webServer.getPort() + "/"));
+		final XmlRpcClient client = new XmlRpcClient();
+		client.setConfig(config);
+		return client;
+	}
+
+	/** Returns a string of the given length, which contains non-ASCII
+	 * characters, so that multibyte sequences are split at various
+	 * offsets.
+	 */
+	private static String getString(int pLength) {
+		final StringBuffer sb = new StringBuffer(pLength);
+		for (int i = 0;  i < pLength;  i++) {
+			sb.append(i % 7 == 0 ? '\u00e4' : i % 11 == 0 ? '\u20ac' : (char) ('a' + i % 26));
+		}
+		return sb.toString();
+	}
+
+	/** Returns the body of a call of Handler.echo with an ASCII string
+	 * of the given length.
+	 */
+	private static String getEchoCall(int pLength) {
+		final StringBuffer sb = new StringBuffer(pLength);
+		for (int i = 0;  i < pLength;  i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		return "<?xml version=\"1.0\"?><methodCall><methodName>Handler.echo</methodName>"
+			+ "<params><param><value>" + sb + "</value></param></params></methodCall>";
+	}
+
+	/** Returns, whether the response has the given status code.
+	 */
+	private static boolean hasStatus(HttpTestConnection.Response pResponse, int pStatus) {
+		return pResponse.statusLine.indexOf(" " + pStatus + " ") != -1;
+	}
+
+	/** Sends a request, and returns the response.
+	 */
+	private HttpTestConnection.Response call(String pRequest) throws Exception {
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			conn.write(pRequest);
+			return conn.readResponse();
+		} finally {
+			conn.close();
+		}
+	}
+
+	/** Tests, whether requests around the heap threshold, and larger
+	 * requests, which are read into a temporary file, are replayed
+	 * unmodified.
+	 * @throws Exception The test failed.
+	 */
+	public void testRoundTrip() throws Exception {
+		webServer.setPrebufferHeapSize(2048);
+		webServer.start();
+		final XmlRpcClient client = getClient();
+		// The requests header, and the encoding of the characters add
+		// several hundred bytes, so these requests cross the threshold.
+		for (int len = 1000;  len < 1800;  len += 7) {
+			final String value = getString(len);
+			assertEquals(value, client.execute("Handler.echo", new Object[]{value}));
+		}
+		final String value = getString(200000);
+		assertEquals(value, client.execute("Handler.echo", new Object[]{value}));
+	}
+
+	/** Tests, whether a slow client doesn't occupy a thread, while its
+	 * request is being prebuffered, both in the heap, and in a
+	 * temporary file, and whether the temporary files space is
+	 * released after a request.
+	 * @throws Exception The test failed.
+	 */
+	public void testSlowClient() throws Exception {
+		webServer.getXmlRpcServer().setMaxThreads(1);
+		// A request may wait for the thread, until the previous
+		// request has finished, but not for the slow client.
+		webServer.setMaxQueueSize(1);
+		webServer.setQueueTimeout(2000);
+		webServer.setPrebufferHeapSize(1000);
+		webServer.setMaxPrebufferTotalSize(30000);
+		webServer.start();
+		final String[] bodies = new String[]{getEchoCall(100), getEchoCall(20000)};
+		for (int i = 0;  i < bodies.length;  i++) {
+			// Do this twice, so that the reserved space must be
+			// released by the first request.
+			for (int j = 0;  j < 2;  j++) {
+				final String request = HttpTestConnection.getRequest(bodies[i]);
+				final HttpTestConnection slow = new HttpTestConnection(webServer.getPort());
+				try {
+					slow.write(request.substring(0, request.length() - 50));
+					Thread.sleep(100);
+					final HttpTestConnection.Response response = call(HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.plain", 1)));
+					assertTrue(response.statusLine, hasStatus(response, 200));
+					assertEquals("2", response.getIntResult());
+					slow.write(request.substring(request.length() - 50));
+					final HttpTestConnection.Response slowResponse = slow.readResponse();
+					assertTrue(slowResponse.statusLine, hasStatus(slowResponse, 200));
+					assertTrue(slowResponse.getBody().indexOf(bodies[i].substring(100, 200)) != -1);
+				} finally {
+					slow.close();
+				}
+			}
+		}
+	}
+
+	/** Tests, whether a request, which exceeds the maximum total size
+	 * of the temporary files, is handed over after the header, and
+	 * read by the worker thread.
+	 * @throws Exception The test failed.
+	 */
+	public void testMaxPrebufferTotalSize() throws Exception {
+		webServer.getXmlRpcServer().setMaxThreads(1);
+		webServer.setMaxQueueSize(0);
+		webServer.setPrebufferHeapSize(1000);
+		webServer.setMaxPrebufferTotalSize(10000);
+		webServer.start();
+		final String body = getEchoCall(20000);
+		final String request = HttpTestConnection.getRequest(body);
+		final HttpTestConnection slow = new HttpTestConnection(webServer.getPort());
+		try {
+			slow.write(request.substring(0, request.length() - 50));
+			Thread.sleep(100);
+			// The worker is busy reading the slow request.
+			final HttpTestConnection.Response response = call(HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.plain", 1)));
+			assertTrue(response.statusLine, hasStatus(response, 503));
+			slow.write(request.substring(request.length() - 50));
+			final HttpTestConnection.Response slowResponse = slow.readResponse();
+			assertTrue(slowResponse.statusLine, hasStatus(slowResponse, 200));
+			assertTrue(slowResponse.getBody().indexOf(body.substring(100, 200)) != -1);
+		} finally {
+			slow.close();
+		}
+	}
+
+	/** Tests, whether a client, which doesn't complete its request
+	 * within the prebuffer timeout, is disconnected.
+	 * @throws Exception The test failed.
+	 */
+	public void testPrebufferTimeout() throws Exception {
+		webServer.setPrebufferTimeout(300);
+		webServer.start();
+		final String request = HttpTestConnection.getRequest(getEchoCall(100));
+		final HttpTestConnection slow = new HttpTestConnection(webServer.getPort());
+		try {
+			final long start = System.currentTimeMillis();
+			slow.write(request.substring(0, request.length() - 10));
+			assertTrue(slow.isClosed());
+			final long elapsed = System.currentTimeMillis() - start;
+			assertTrue(String.valueOf(elapsed), elapsed >= 250  &&  elapsed < 5000);
+		} finally {
+			slow.close();
+		}
+	}
+
+	/** Tests, whether subsequent requests on a keepalive connection
+	 * are prebuffered, and replayed, as well.
+	 * @throws Exception The test failed.
+	 */
+	public void testKeepAlive() throws Exception {
+		((XmlRpcServerConfigImpl) webServer.getXmlRpcServer().getConfig()).setKeepAliveEnabled(true);
+		webServer.setPrebufferHeapSize(1000);
+		webServer.start();
+		final HttpTestConnection conn = new HttpTestConnection(webServer.getPort());
+		try {
+			for (int i = 0;  i < 4;  i++) {
+				final String body = getEchoCall(i % 2 == 0 ? 100 : 5000);
+				final String request = HttpTestConnection.getRequest(body);
+				conn.write(request.substring(0, 20));
+				Thread.sleep(20);
+				conn.write(request.substring(20));
+				final HttpTestConnection.Response response = conn.readResponse();
+				assertTrue(response.statusLine, hasStatus(response, 200));
+				assertTrue(response.getBody().indexOf(body.substring(100, 150)) != -1);
+			}
+		} finally {
+			conn.close();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.metadata.XmlRpcSystemImpl;
+import org.apache.xmlrpc.server.Bulkhead;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+
+
+/** Test case for {@link PropertyHandlerMapping#reload(ClassLoader, Map)},
+ * and {@link PropertyHandlerMapping#removeHandler(String)}.
+ */
+public class ReloadTest extends TestCase {
+	/** The first version of a handler, which is loaded from properties.
+	 */
+	public static class Handler1 {
+		/** Returns the handlers version.
+		 */
+		public String name() { return "one"; }
+	}
+
+	/** The second version of a handler, which is loaded from properties.
+	 */
+	public static class Handler2 {
+		/** Returns the handlers version.
+		 */
+		public String name() { return "two"; }
+	}
+
+	/** A handler, which is added by {@link PropertyHandlerMapping#addHandler(String, Class)}.
+	 */
+	public static class FixedHandler {
+		/** Returns the handlers name.
+		 */
+		public String name() { return "fixed"; }
+	}
+
+	private PropertyHandlerMapping mapping;
+
+	protected void setUp() throws Exception {
+		mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Fixed", FixedHandler.class);
+		XmlRpcSystemImpl.addSystemHandler(mapping);
+		final Map props = new HashMap();
+		props.put("Props", Handler1.class.getName());
+		props.put("Props.name@cacheTimeToLive", "1000");
+		props.put("Props@maxConcurrentRequests", "2");
+		mapping.load(getClass().getClassLoader(), props);
+	}
+
+	private Object execute(String pMethodName) throws XmlRpcException {
+		return mapping.getHandler(pMethodName).execute(new XmlRpcClientRequestImpl(new XmlRpcClientConfigImpl(),
+				pMethodName, new Object[0]));
+	}
+
+	private boolean isRegistered(String pMethodName) throws XmlRpcException {
+		final String[] names = mapping.getListMethods();
+		for (int i = 0;  i < names.length;  i++) {
+			if (names[i].equals(pMethodName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void reload(String[] pKeysAndValues) throws XmlRpcException {
+		final Map props = new HashMap();
+		for (int i = 0;  i < pKeysAndValues.length;  i += 2) {
+			props.put(pKeysAndValues[i], pKeysAndValues[i+1]);
+		}
+		mapping.reload(getClass().getClassLoader(), props);
+	}
+
+	private void assertUnchanged() throws XmlRpcException {
+		assertEquals("one", execute("Props.name"));
+		assertEquals(1000, mapping.getCacheTimeToLive("Props.name"));
+		assertEquals(2, mapping.getBulkhead("Props").getMaxConcurrentRequests());
+		assertEquals("fixed", execute("Fixed.name"));
+	}
+
+	/** Tests, whether the handlers, and options from properties are
+	 * replaced, while other handlers remain.
+	 * @throws Exception The test failed.
+	 */
+	public void testReload() throws Exception {
+		assertUnchanged();
+		reload(new String[]{
+			"Props", Handler2.class.getName(),
+			"Other", Handler1.class.getName(),
+			"Other.name@singleFlight", "true"
+		});
+		assertEquals("two", execute("Props.name"));
+		assertEquals("one", execute("Other.name"));
+		assertEquals(0, mapping.getCacheTimeToLive("Props.name"));
+		assertNull(mapping.getBulkhead("Props"));
+		assertTrue(mapping.isSingleFlight("Other.name"));
+		assertEquals("fixed", execute("Fixed.name"));
+		assertTrue(isRegistered("system.listMethods"));
+
+		// Handlers, which are no longer in the properties, are removed.
+		reload(new String[]{"Other", Handler2.class.getName()});
+		assertFalse(isRegistered("Props.name"));
+		assertEquals("two", execute("Other.name"));
+		assertFalse(mapping.isSingleFlight("Other.name"));
+		assertEquals("fixed", execute("Fixed.name"));
+		assertTrue(isRegistered("system.methodHelp"));
+	}
+
+	/** Tests, whether the old handlers, and options remain, if
+	 * creating the new handlers, or parsing the options fails.
+	 * @throws Exception The test failed.
+	 */
+	public void testRollback() throws Exception {
+		final String[][] invalid = new String[][]{
+			new String[]{"Props", Handler2.class.getName(), "Props.name@maxConcurrentRequests", "-1"},
+			new String[]{"Props", Handler2.class.getName(), "Props.name@unknownOption", "1"},
+			new String[]{"Props", Handler2.class.getName(), "Props.name@cacheTimeToLive", "abc"},
+			new String[]{"Props", Handler2.class.getName(), "Missing", "org.apache.xmlrpc.test.NoSuchClass"}
+		};
+		for (int i = 0;  i < invalid.length;  i++) {
+			try {
+				reload(invalid[i]);
+				fail("Expected XmlRpcException");
+			} catch (XmlRpcException e) {
+				// Ok
+			}
+			assertUnchanged();
+		}
+	}
+
+	/** Tests, whether concurrent requests see either the old, or the
+	 * new handlers, while the handlers are being replaced.
+	 * @throws Exception The test failed.
+	 */
+	public void testConcurrentGetHandler() throws Exception {
+		final List errors = new ArrayList();
+		final boolean[] stopped = new boolean[1];
+		final Thread[] threads = new Thread[4];
+		for (int i = 0;  i < threads.length;  i++) {
+			threads[i] = new Thread(){
+				public void run() {
+					try {
+						for (;;) {
+							synchronized (stopped) {
+								if (stopped[0]) {
+									return;
+								}
+							}
+							final Object result = execute("Props.name");
+							if (!"one".equals(result)  &&  !"two".equals(result)) {
+								throw new IllegalStateException("Unexpected result: " + result);
+							}
+							execute("Fixed.name");
+						}
+					} catch (Throwable t) {
+						synchronized (errors) {
+							errors.add(t);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			for (int i = 0;  i < 200;  i++) {
+				reload(new String[]{
+					"Props", (i % 2 == 0 ? Handler2.class : Handler1.class).getName(),
+					"Props.name@cacheTimeToLive", "1000"
+				});
+			}
+		} finally {
+			synchronized (stopped) {
+				stopped[0] = true;
+			}
+			for (int i = 0;  i < threads.length;  i++) {
+				threads[i].join(5000);
+			}
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals("one", execute("Props.name"));
+	}
+
+	/** Tests, whether removing a handler removes its options as well,
+	 * so that they don't apply to a handler, which is added later on
+	 * with the same name.
+	 * @throws Exception The test failed.
+	 */
+	public void testRemoveHandler() throws Exception {
+		mapping.setSingleFlight("Props.name", true);
+		mapping.setBulkhead("Props.name", new Bulkhead(1));
+		mapping.setCacheTimeToLive("Fixed.name", 1000);
+		mapping.removeHandler("Props");
+		assertFalse(isRegistered("Props.name"));
+		assertEquals(0, mapping.getCacheTimeToLive("Props.name"));
+		assertFalse(mapping.isSingleFlight("Props.name"));
+		assertNull(mapping.getBulkhead("Props.name"));
+		assertNull(mapping.getBulkhead("Props"));
+		// Other handlers keep their options.
+		assertEquals(1000, mapping.getCacheTimeToLive("Fixed.name"));
+
+		mapping.addHandler("Props", Handler2.class);
+		assertEquals("two", execute("Props.name"));
+		assertEquals(0, mapping.getCacheTimeToLive("Props.name"));
+
+		// The handler isn't loaded from properties anymore, so it
+		// survives a reload.
+		reload(new String[]{"Other", Handler1.class.getName()});
+		assertEquals("two", execute("Props.name"));
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.common.ServerStreamConnection;
+import org.apache.xmlrpc.common.XmlRpcHttpRequestConfigImpl;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.apache.xmlrpc.serializer.XmlRpcWriter;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.ResultCache;
+import org.apache.xmlrpc.server.XmlRpcServer;
+import org.apache.xmlrpc.server.XmlRpcStreamServer;
+
+
+/** Test case for the {@link ResultCache}.
+ */
+public class ResultCacheTest extends TestCase {
+	/** The handler being invoked by the test. It counts its
+	 * invocations.
+	 */
+	public static class Handler {
+		static int invocations;
+		static Object[] lastResult;
+
+		/** Returns the argument, and a string.
+		 */
+		public Object[] lookup(int pArg) {
+			++invocations;
+			lastResult = new Object[]{new Integer(pArg), "value" + pArg};
+			return lastResult;
+		}
+
+		/** Returns the argument.
+		 */
+		public Object[] echo(Object[] pArg) {
+			++invocations;
+			return pArg;
+		}
+
+		/** Returns an object, which can't be copied.
+		 */
+		public Object mutable(int pArg) {
+			++invocations;
+			return new StringBuffer(String.valueOf(pArg));
+		}
+	}
+
+	private PropertyHandlerMapping mapping;
+	private ResultCache cache;
+	private XmlRpcServer server;
+
+	protected void setUp() throws Exception {
+		Handler.invocations = 0;
+		mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		server = new XmlRpcServer();
+		server.setHandlerMapping(mapping);
+	}
+
+	private void setCache(ResultCache pCache, long pTimeToLive) {
+		cache = pCache;
+		mapping.setResultCache(pCache);
+		mapping.setCacheTimeToLive("Handler.lookup", pTimeToLive);
+		mapping.setCacheTimeToLive("Handler.echo", pTimeToLive);
+		mapping.setCacheTimeToLive("Handler.mutable", pTimeToLive);
+	}
+
+	private Object execute(String pMethodName, Object pArg) throws XmlRpcException {
+		return server.execute(new XmlRpcClientRequestImpl(new XmlRpcClientConfigImpl(),
+				pMethodName, new Object[]{pArg}));
+	}
+
+	private Object lookup(int pArg) throws XmlRpcException {
+		return execute("Handler.lookup", new Integer(pArg));
+	}
+
+	/** Tests, whether results are cached, until their time to
+	 * live has expired.
+	 * @throws Exception The test failed.
+	 */
+	public void testTimeToLive() throws Exception {
+		setCache(new ResultCache(), 200);
+		final Object[] result = (Object[]) lookup(1);
+		assertTrue(Arrays.equals(result, (Object[]) lookup(1)));
+		assertEquals(1, Handler.invocations);
+		assertEquals(1, cache.getHits());
+		lookup(2);
+		assertEquals(2, Handler.invocations);
+		Thread.sleep(300);
+		assertTrue(Arrays.equals(result, (Object[]) lookup(1)));
+		assertEquals(3, Handler.invocations);
+		assertEquals(1, cache.getExpirations());
+		assertEquals(2, cache.getSize());
+	}
+
+	/** Tests, whether the least recently used entries are evicted,
+	 * if the maximum number of entries is exceeded.
+	 * @throws Exception The test failed.
+	 */
+	public void testMaxEntries() throws Exception {
+		setCache(new ResultCache(2, 1024*1024), 60000);
+		lookup(1);
+		lookup(2);
+		lookup(1);
+		lookup(3);  // Evicts 2, which is the least recently used.
+		assertEquals(3, Handler.invocations);
+		assertEquals(1, cache.getEvictions());
+		lookup(1);
+		lookup(3);
+		assertEquals(3, Handler.invocations);
+		lookup(2);
+		assertEquals(4, Handler.invocations);
+		assertEquals(2, cache.getSize());
+	}
+
+	/** Tests, whether entries are evicted, if the maximum memory
+	 * size is exceeded, and results, which exceed the memory size,
+	 * aren't cached at all.
+	 * @throws Exception The test failed.
+	 */
+	public void testMaxMemorySize() throws Exception {
+		setCache(new ResultCache(), 60000);
+		lookup(1);
+		final long entrySize = cache.getMemorySize();
+		assertTrue(entrySize > 0);
+
+		setCache(new ResultCache(100, entrySize * 2 + entrySize / 2), 60000);
+		lookup(1);
+		lookup(2);
+		lookup(3);
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getEvictions());
+		assertTrue(cache.getMemorySize() <= entrySize * 2 + entrySize / 2);
+
+		final char[] chars = new char[(int) entrySize * 2];
+		Arrays.fill(chars, 'x');
+		final Object[] large = new Object[]{new String(chars)};
+		final int invocations = Handler.invocations;
+		execute("Handler.echo", large);
+		execute("Handler.echo", large);
+		assertEquals(invocations + 2, Handler.invocations);
+		assertEquals(2, cache.getSize());
+	}
+
+	/** Tests, whether neither the handler, nor the receiver of a
+	 * result, nor the caller, who is modifying the parameters, can
+	 * modify the cached value. Results, which can't be copied, aren't
+	 * cached.
+	 * @throws Exception The test failed.
+	 */
+	public void testCopies() throws Exception {
+		setCache(new ResultCache(), 60000);
+		final Object[] result = (Object[]) lookup(1);
+		result[1] = "modified";
+		Handler.lastResult[1] = "modified";
+		assertEquals("value1", ((Object[]) lookup(1))[1]);
+
+		final Object[] param = new Object[]{"a", new Object[]{"b"}};
+		execute("Handler.echo", param);
+		((Object[]) param[1])[0] = "c";
+		final Object[] echo = (Object[]) execute("Handler.echo", new Object[]{"a", new Object[]{"b"}});
+		assertEquals("b", ((Object[]) echo[1])[0]);
+		assertEquals(2, Handler.invocations);
+
+		execute("Handler.mutable", new Integer(1));
+		execute("Handler.mutable", new Integer(1));
+		assertEquals(4, Handler.invocations);
+		assertEquals(2, cache.getSize());
+	}
+
+	/** A stream server, which counts the serialized responses.
+	 */
+	private static class CountingStreamServer extends XmlRpcStreamServer {
+		int serializations;
+
+		protected XmlRpcWriter getXmlRpcWriter(XmlRpcStreamRequestConfig pConfig,
+				OutputStream pStream) throws XmlRpcException {
+			++serializations;
+			return super.getXmlRpcWriter(pConfig, pStream);
+		}
+	}
+
+	private String execute(XmlRpcStreamServer pServer, String pEncoding) throws Exception {
+		final XmlRpcHttpRequestConfigImpl config = new XmlRpcHttpRequestConfigImpl();
+		config.setEncoding(pEncoding);
+		final byte[] request = HttpTestConnection.getCall("Handler.lookup", 1).getBytes("UTF-8");
+		final ByteArrayOutputStream response = new ByteArrayOutputStream();
+		pServer.execute(config, new ServerStreamConnection(){
+			public InputStream newInputStream() {
+				return new ByteArrayInputStream(request);
+			}
+			public OutputStream newOutputStream() {
+				return response;
+			}
+			public void close() {
+			}
+		});
+		return new String(response.toByteArray(), pEncoding);
+	}
+
+	/** Tests, whether the serialized response is cached, and reused,
+	 * if the serialization would be the same.
+	 * @throws Exception The test failed.
+	 */
+	public void testStoringResponses() throws Exception {
+		final CountingStreamServer streamServer = new CountingStreamServer();
+		streamServer.setHandlerMapping(mapping);
+		setCache(new ResultCache(), 60000);
+		cache.setStoringResponses(true);
+
+		final String utf8 = execute(streamServer, "UTF-8");
+		assertTrue(utf8.indexOf("UTF-8") != -1);
+		assertTrue(utf8.indexOf("value1") != -1);
+		assertEquals(1, streamServer.serializations);
+		final long memorySize = cache.getMemorySize();
+		assertEquals(utf8, execute(streamServer, "UTF-8"));
+		assertEquals(1, streamServer.serializations);
+		assertEquals(memorySize, cache.getMemorySize());
+
+		// Another encoding requires another serialization.
+		final String latin1 = execute(streamServer, "ISO-8859-1");
+		assertTrue(latin1.indexOf("ISO-8859-1") != -1);
+		assertEquals(2, streamServer.serializations);
+		assertEquals(1, Handler.invocations);
+		assertEquals(2, cache.getHits());
+	}
+}
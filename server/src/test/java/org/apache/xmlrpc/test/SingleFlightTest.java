@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.common.XmlRpcHttpRequestConfig;
+import org.apache.xmlrpc.common.XmlRpcNotAuthorizedException;
+import org.apache.xmlrpc.server.AbstractReflectiveHandlerMapping.AuthenticationHandler;
+
+
+/** Test case for the single flight execution of requests, in
+ * particular for the propagation of errors to the waiting requests.
+ */
+public class SingleFlightTest extends GatedHandlerTestCase {
+	private static final int NUM_REQUESTS = 5;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		mapping.setSingleFlight("Handler.twice", true);
+		mapping.setSingleFlight("Handler.fail", true);
+		mapping.setSingleFlight("Handler.deferredFail", true);
+		mapping.setAuthenticationHandler(new AuthenticationHandler(){
+			public boolean isAuthorized(XmlRpcRequest pRequest) {
+				return !"guest".equals(((XmlRpcHttpRequestConfig) pRequest.getConfig()).getBasicUserName());
+			}
+		});
+	}
+
+	/** Submits the leader, and the followers, which are waiting for
+	 * the leaders result.
+	 */
+	private Future[] submitConcurrently(String pMethodName, int pArg) throws Exception {
+		final Future[] futures = new Future[NUM_REQUESTS];
+		futures[0] = submit(pMethodName, pArg);
+		awaitStarted(1);
+		for (int i = 1;  i < futures.length;  i++) {
+			futures[i] = submit(pMethodName, pArg);
+		}
+		// Give the followers some time to join the leader.
+		Thread.sleep(200);
+		openGate();
+		return futures;
+	}
+
+	/** Tests, whether concurrent requests share a single invocation.
+	 * @throws Exception The test failed.
+	 */
+	public void testSharedResult() throws Exception {
+		final Future[] futures = submitConcurrently("Handler.twice", 3);
+		for (int i = 0;  i < futures.length;  i++) {
+			assertEquals(new Integer(6), futures[i].get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1, Handler.invocations.get());
+		// The next request is executed again.
+		submit("Handler.twice", 4).get(10, TimeUnit.SECONDS);
+		assertEquals(2, Handler.invocations.get());
+	}
+
+	/** Tests, whether an {@link XmlRpcException} is propagated to
+	 * all waiting requests, and isn't remembered afterwards.
+	 * @throws Exception The test failed.
+	 */
+	public void testErrorPropagation() throws Exception {
+		final Future[] futures = submitConcurrently("Handler.twice", -1);
+		for (int i = 0;  i < futures.length;  i++) {
+			final Throwable t = getError(futures[i]);
+			assertTrue(t instanceof XmlRpcException);
+			assertEquals(1, ((XmlRpcException) t).code);
+			assertEquals("Negative argument: -1", t.getMessage());
+		}
+		assertEquals(1, Handler.invocations.get());
+		assertNotNull(getError(submit("Handler.twice", -1)));
+		assertEquals(2, Handler.invocations.get());
+	}
+
+	/** Tests, whether a runtime exception of the handler is reported
+	 * to all waiting requests in the same way.
+	 * @throws Exception The test failed.
+	 */
+	public void testRuntimeExceptionPropagation() throws Exception {
+		final Future[] futures = submitConcurrently("Handler.fail", 1);
+		final Throwable leader = getError(futures[0]);
+		assertTrue(leader instanceof XmlRpcException);
+		for (int i = 1;  i < futures.length;  i++) {
+			final Throwable t = getError(futures[i]);
+			assertSame(leader.getClass(), t.getClass());
+			assertEquals(leader.getMessage(), t.getMessage());
+		}
+		assertEquals(1, Handler.invocations.get());
+	}
+
+	/** Tests, whether the failure of a deferred result is propagated to
+	 * all waiting requests.
+	 * @throws Exception The test failed.
+	 */
+	public void testDeferredErrorPropagation() throws Exception {
+		final Future[] futures = submitConcurrently("Handler.deferredFail", 1);
+		for (int i = 0;  i < futures.length;  i++) {
+			final Throwable t = getError(futures[i]);
+			assertTrue(t instanceof XmlRpcException);
+			assertEquals(2, ((XmlRpcException) t).code);
+		}
+		assertEquals(1, Handler.invocations.get());
+	}
+
+	/** Tests, whether a waiting request is rejected, if its user
+	 * isn't authorized, although the leader is.
+	 * @throws Exception The test failed.
+	 */
+	public void testUnauthorizedFollower() throws Exception {
+		final Future leader = submit("Handler.twice", 1);
+		awaitStarted(1);
+		final Future follower = submit("Handler.twice", 1, "guest");
+		assertTrue(getError(follower) instanceof XmlRpcNotAuthorizedException);
+		openGate();
+		assertEquals(new Integer(2), leader.get(10, TimeUnit.SECONDS));
+		assertEquals(1, Handler.invocations.get());
+	}
+}
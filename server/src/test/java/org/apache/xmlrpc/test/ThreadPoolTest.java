@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.util.ThreadPool;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the queue of the {@link ThreadPool}, and the
+ * rejection of overloaded clients by the {@link WebServer}.
+ */
+public class ThreadPoolTest extends TestCase {
+	/** A task, which blocks, until the gate is opened.
+	 */
+	private static class BlockingTask implements ThreadPool.Task {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		public void run() throws Throwable {
+			started.countDown();
+			gate.await(10, TimeUnit.SECONDS);
+		}
+	}
+
+	/** A task, which records, whether it has been run or rejected.
+	 */
+	private static class RecordingTask implements ThreadPool.RejectableTask {
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile boolean ran, rejected;
+		volatile Thread rejectingThread;
+		public void run() throws Throwable {
+			ran = true;
+			done.countDown();
+		}
+		public void reject() throws Throwable {
+			rejected = true;
+			rejectingThread = Thread.currentThread();
+			done.countDown();
+		}
+	}
+
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		static CountDownLatch started;
+		static CountDownLatch gate;
+
+		/** Blocks, until the gate is opened.
+		 */
+		public int slow(int pArg) throws InterruptedException {
+			started.countDown();
+			gate.await(10, TimeUnit.SECONDS);
+			return pArg + 1;
+		}
+	}
+
+	private ThreadPool pool;
+	private BlockingTask blocker;
+
+	protected void setUp() throws Exception {
+		pool = new ThreadPool(1, "ThreadPoolTest");
+		blocker = new BlockingTask();
+	}
+
+	protected void tearDown() throws Exception {
+		blocker.gate.countDown();
+		pool.shutdown();
+	}
+
+	private void block() throws Exception {
+		assertTrue(pool.startTask(blocker));
+		assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+	}
+
+	/** Tests, whether tasks are rejected immediately, if the queue
+	 * is disabled.
+	 * @throws Exception The test failed.
+	 */
+	public void testNoQueue() throws Exception {
+		block();
+		assertFalse(pool.startTask(new RecordingTask()));
+		assertEquals(0, pool.getNumWaitingTasks());
+	}
+
+	/** Tests the maximum queue size, and whether queued tasks are
+	 * run, when a thread becomes available.
+	 * @throws Exception The test failed.
+	 */
+	public void testQueueBound() throws Exception {
+		pool.setMaxQueueSize(2);
+		block();
+		final RecordingTask t1 = new RecordingTask();
+		final RecordingTask t2 = new RecordingTask();
+		final RecordingTask t3 = new RecordingTask();
+		assertTrue(pool.startTask(t1));
+		assertTrue(pool.startTask(t2));
+		assertFalse(pool.startTask(t3));
+		assertEquals(2, pool.getNumWaitingTasks());
+		blocker.gate.countDown();
+		assertTrue(t1.done.await(5, TimeUnit.SECONDS));
+		assertTrue(t2.done.await(5, TimeUnit.SECONDS));
+		assertTrue(t1.ran);
+		assertTrue(t2.ran);
+		assertFalse(t3.ran  ||  t3.rejected);
+		assertEquals(0, pool.getNumWaitingTasks());
+	}
+
+	/** Tests, whether a task is rejected after the queue timeout,
+	 * while all threads are still busy, and whether it is rejected
+	 * by another thread than the caller of startTask.
+	 * @throws Exception The test failed.
+	 */
+	public void testQueueTimeout() throws Exception {
+		pool.setMaxQueueSize(2);
+		pool.setQueueTimeout(200);
+		block();
+		final long start = System.currentTimeMillis();
+		final RecordingTask t1 = new RecordingTask();
+		assertTrue(pool.startTask(t1));
+		assertTrue(t1.done.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 150);
+		assertTrue(t1.rejected);
+		assertFalse(t1.ran);
+		assertNotNull(t1.rejectingThread);
+		assertNotSame(Thread.currentThread(), t1.rejectingThread);
+		assertEquals(0, pool.getNumWaitingTasks());
+		assertEquals(1, blocker.gate.getCount());
+
+		// The queue accepts new tasks after the sweep.
+		final RecordingTask t2 = new RecordingTask();
+		assertTrue(pool.startTask(t2));
+		blocker.gate.countDown();
+		assertTrue(t2.done.await(5, TimeUnit.SECONDS));
+		assertTrue(t2.ran);
+	}
+
+	/** Tests, whether waiting tasks are rejected, if the pool is
+	 * shut down.
+	 * @throws Exception The test failed.
+	 */
+	public void testShutdown() throws Exception {
+		pool.setMaxQueueSize(2);
+		pool.setQueueTimeout(10000);
+		block();
+		final RecordingTask t1 = new RecordingTask();
+		assertTrue(pool.startTask(t1));
+		pool.shutdown();
+		assertTrue(t1.done.await(5, TimeUnit.SECONDS));
+		assertTrue(t1.rejected);
+		assertFalse(pool.startTask(new RecordingTask()));
+	}
+
+	/** Tests, whether overloaded clients receive the status code 503
+	 * with a Retry-After header, both if the queue is full, and if
+	 * the queue timeout is exceeded.
+	 * @throws Exception The test failed.
+	 */
+	public void testServiceUnavailable() throws Exception {
+		Handler.started = new CountDownLatch(1);
+		Handler.gate = new CountDownLatch(1);
+		final WebServer webServer = new WebServer(0);
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+		webServer.getXmlRpcServer().setMaxThreads(1);
+		webServer.setMaxQueueSize(1);
+		webServer.setQueueTimeout(300);
+		webServer.setRetryAfter(7);
+		webServer.start();
+		final String request = HttpTestConnection.getRequest(HttpTestConnection.getCall("Handler.slow", 1));
+		// Connections are queued, or rejected, when they are accepted.
+		final HttpTestConnection busy = new HttpTestConnection(webServer.getPort());
+		HttpTestConnection queued = null;
+		HttpTestConnection rejected = null;
+		try {
+			busy.write(request);
+			assertTrue(Handler.started.await(5, TimeUnit.SECONDS));
+			final long start = System.currentTimeMillis();
+			queued = new HttpTestConnection(webServer.getPort());
+			queued.write(request);
+			Thread.sleep(50);
+			rejected = new HttpTestConnection(webServer.getPort());
+
+			HttpTestConnection.Response response = rejected.readResponse();
+			assertTrue(response.statusLine, response.statusLine.indexOf(" 503 ") != -1);
+			assertEquals("7", response.getHeader("Retry-After"));
+
+			response = queued.readResponse();
+			assertTrue(System.currentTimeMillis() - start >= 250);
+			assertTrue(response.statusLine, response.statusLine.indexOf(" 503 ") != -1);
+			assertEquals("7", response.getHeader("Retry-After"));
+			assertEquals(1, Handler.gate.getCount());
+
+			Handler.gate.countDown();
+			assertEquals("2", busy.readResponse().getIntResult());
+		} finally {
+			Handler.gate.countDown();
+			busy.close();
+			if (queued != null) {
+				queued.close();
+			}
+			if (rejected != null) {
+				rejected.close();
+			}
+			webServer.shutdown();
+		}
+	}
+}
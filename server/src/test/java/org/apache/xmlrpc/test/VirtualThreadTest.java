@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.xmlrpc.test;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.util.ThreadPool;
+import org.apache.xmlrpc.util.VirtualThreadExecutor;
+import org.apache.xmlrpc.webserver.WebServer;
+
+
+/** Test case for the {@link VirtualThreadExecutor}, and the
+ * {@link WebServer WebServer's} task executor. The tests, which
+ * require virtual threads, are skipped on platforms before Java 21.
+ */
+public class VirtualThreadTest extends TestCase {
+	/** The handler being invoked by the test.
+	 */
+	public static class Handler {
+		/** Returns the name of the current thread, and whether
+		 * it is a virtual thread.
+		 */
+		public Object[] thread() throws Exception {
+			return new Object[]{Thread.currentThread().getName(),
+					Boolean.valueOf(isVirtual(Thread.currentThread()))};
+		}
+	}
+
+	/** A web server, which records the logged errors.
+	 */
+	private static class LoggingWebServer extends WebServer {
+		final List errors = new ArrayList();
+
+		LoggingWebServer() {
+			super(0);
+		}
+
+		public void log(Throwable pError) {
+			synchronized (errors) {
+				errors.add(pError);
+			}
+		}
+	}
+
+	private LoggingWebServer webServer;
+
+	protected void setUp() throws Exception {
+		webServer = new LoggingWebServer();
+		final PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("Handler", Handler.class);
+		webServer.getXmlRpcServer().setHandlerMapping(mapping);
+	}
+
+	protected void tearDown() throws Exception {
+		webServer.shutdown();
+	}
+
+	static boolean isVirtual(Thread pThread) throws Exception {
+		final Method method;
+		try {
+			method = Thread.class.getMethod("isVirtual", new Class[0]);
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+		return ((Boolean) method.invoke(pThread, new Object[0])).booleanValue();
+	}
+
+	private Object[] callThread() throws Exception {
+		final XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+		config.setServerURL(new URL("http://127.0.0.1:" + webServer.getPort() + "/"));
+		final XmlRpcClient client = new XmlRpcClient();
+		client.setConfig(config);
+		return (Object[]) client.execute("Handler.thread", new Object[0]);
+	}
+
+	/** Tests, whether the availability of virtual threads is
+	 * detected, and the executor refuses to be created otherwise.
+	 * @throws Exception The test failed.
+	 */
+	public void testAvailability() throws Exception {
+		boolean expected;
+		try {
+			Thread.class.getMethod("ofVirtual", new Class[0]);
+			expected = true;
+		} catch (NoSuchMethodException e) {
+			expected = false;
+		}
+		assertEquals(expected, VirtualThreadExecutor.isAvailable());
+		if (!expected) {
+			try {
+				new VirtualThreadExecutor(0, "VirtualThreadTest");
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				// Ok
+			}
+		}
+	}
+
+	/** Tests, whether the web server falls back to a thread pool,
+	 * if no executor has been configured, and uses a configured
+	 * executor otherwise.
+	 * @throws Exception The test failed.
+	 */
+	public void testDefaultExecutor() throws Exception {
+		assertNull(webServer.getTaskExecutor());
+		webServer.start();
+		final Object[] result = callThread();
+		assertTrue((String) result[0], ((String) result[0]).startsWith("XML-RPC-"));
+		assertEquals(Boolean.FALSE, result[1]);
+	}
+
+	/** Tests, whether a configured executor is used.
+	 * @throws Exception The test failed.
+	 */
+	public void testCustomExecutor() throws Exception {
+		final ThreadPool pool = new ThreadPool(2, "VirtualThreadTest");
+		webServer.setTaskExecutor(pool);
+		webServer.start();
+		final Object[] result = callThread();
+		assertTrue((String) result[0], ((String) result[0]).startsWith("VirtualThreadTest-"));
+	}
+
+	/** Tests, whether requests are processed by virtual threads.
+	 * @throws Exception The test failed.
+	 */
+	public void testVirtualThreads() throws Exception {
+		if (!VirtualThreadExecutor.isAvailable()) {
+			return;
+		}
+		webServer.setTaskExecutor(new VirtualThreadExecutor(0, "VirtualThreadTest"));
+		webServer.start();
+		for (int i = 0;  i < 3;  i++) {
+			final Object[] result = callThread();
+			assertTrue((String) result[0], ((String) result[0]).startsWith("VirtualThreadTest-"));
+			assertEquals(Boolean.TRUE, result[1]);
+		}
+	}
+
+	/** Tests the maximum number of concurrent tasks.
+	 * @throws Exception The test failed.
+	 */
+	public void testMaxThreads() throws Exception {
+		if (!VirtualThreadExecutor.isAvailable()) {
+			return;
+		}
+		final VirtualThreadExecutor executor = new VirtualThreadExecutor(1, "VirtualThreadTest");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(executor.startTask(new ThreadPool.Task(){
+			public void run() throws Throwable {
+				started.countDown();
+				gate.await(5, TimeUnit.SECONDS);
+			}
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(1, executor.getNumThreads());
+		final ThreadPool.Task task = new ThreadPool.Task(){
+			public void run() throws Throwable {
+				done.countDown();
+			}
+		};
+		assertFalse(executor.startTask(task));
+		gate.countDown();
+		for (int i = 0;  i < 100  &&  executor.getNumThreads() > 0;  i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(executor.startTask(task));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertFalse(executor.startTask(task));
+	}
+
+	/** Tests, whether errors of a task are passed to the error handler,
+	 * and whether the web server installs a handler, which logs them.
+	 * @throws Exception The test failed.
+	 */
+	public void testErrorHandler() throws Exception {
+		if (!VirtualThreadExecutor.isAvailable()) {
+			return;
+		}
+		final VirtualThreadExecutor executor = new VirtualThreadExecutor(0, "VirtualThreadTest");
+		assertNull(executor.getErrorHandler());
+		webServer.setTaskExecutor(executor);
+		webServer.start();
+		assertNotNull(executor.getErrorHandler());
+		final RuntimeException error = new RuntimeException("Task failed");
+		assertTrue(executor.startTask(new ThreadPool.Task(){
+			public void run() throws Throwable {
+				throw error;
+			}
+		}));
+		for (int i = 0;  i < 100;  i++) {
+			synchronized (webServer.errors) {
+				if (!webServer.errors.isEmpty()) {
+					break;
+				}
+			}
+			Thread.sleep(10);
+		}
+		synchronized (webServer.errors) {
+			assertEquals(1, webServer.errors.size());
+			assertSame(error, webServer.errors.get(0));
+		}
+	}
+}
@@ -75,6 +75,8 @@ public abstract class XmlRpcTestCase extends TestCase {
                 // new LiteTransportProvider(mapping, false), Doesn't support HTTP/1.1
                 new SunHttpTransportProvider(pMapping, true),
                 new SunHttpTransportProvider(pMapping, false),
+                new NonBlockingWebServerProvider(pMapping, true),
+                new NonBlockingWebServerProvider(pMapping, false),
                 new ServletWebServerProvider(pMapping, true),
                 new ServletWebServerProvider(pMapping, false)
             };